@@ -0,0 +1,133 @@
+package com.tgt.core.aem.social.login.benchmarks;
+
+import org.openjdk.jmh.infra.BenchmarkParams;
+import org.openjdk.jmh.results.Result;
+import org.openjdk.jmh.results.RunResult;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+
+/**
+ * Compares benchmark results with a baseline stored as properties.
+ * <p>
+ * For each benchmark the baseline has its average time ({@code <benchmark>.time}, ns/op) and the bytes it
+ * allocates per operation ({@code <benchmark>.alloc}, from the GC profiler). Allocation is stable across machines,
+ * so it gets a tight tolerance, whereas time depends on the machine and gets a loose one. Tolerances can be changed
+ * with the {@code baseline.time.tolerance} and {@code baseline.alloc.tolerance} system properties.
+ */
+public final class BaselineComparison {
+
+    private static final String TIME = ".time";
+    private static final String ALLOC = ".alloc";
+    private static final String ALLOC_RATE_NORM = "gc.alloc.rate.norm";
+    //time and allocation both change with the JDK, the baseline is only comparable on the JDK it was recorded on
+    private static final String JAVA_VERSION = "java.specification.version";
+
+    //allocations smaller than this are within the noise of the GC profiler
+    private static final double ALLOC_SLACK_BYTES = 64;
+
+    private final Map<String, double[]> measurements = new TreeMap<>();
+
+    public BaselineComparison(Collection<RunResult> results) {
+        for (RunResult result : results) {
+            double alloc = Double.NaN;
+            for (Map.Entry<String, Result> secondary : result.getSecondaryResults().entrySet()) {
+                if (secondary.getKey().endsWith(ALLOC_RATE_NORM)) {
+                    alloc = secondary.getValue().getScore();
+                }
+            }
+            measurements.put(name(result.getParams()), new double[]{result.getPrimaryResult().getScore(), alloc});
+        }
+    }
+
+    /**
+     * @return name of the benchmark without its package, e.g. {@code ProfileParserBenchmark.allFields[payload=realistic]}
+     */
+    private static String name(BenchmarkParams params) {
+        String benchmark = params.getBenchmark();
+        String[] parts = benchmark.split("\\.");
+        StringBuilder name = new StringBuilder(parts[parts.length - 2]).append('.').append(parts[parts.length - 1]);
+        if (!params.getParamsKeys().isEmpty()) {
+            name.append('[');
+            for (String key : params.getParamsKeys()) {
+                name.append(key).append('=').append(params.getParam(key)).append(',');
+            }
+            name.setCharAt(name.length() - 1, ']');
+        }
+        return name.toString();
+    }
+
+    /**
+     * @param baselineFile baseline to compare with
+     * @return description of every regression, empty if there is none
+     * @throws IOException in case the baseline can't be read
+     */
+    public List<String> compareWith(File baselineFile) throws IOException {
+        Properties baseline = new Properties();
+        try (InputStream in = Files.newInputStream(baselineFile.toPath())) {
+            baseline.load(in);
+        }
+        String baselineJava = baseline.getProperty(JAVA_VERSION);
+        if (baselineJava != null && !baselineJava.equals(System.getProperty(JAVA_VERSION))) {
+            System.out.println("Baseline was recorded on Java " + baselineJava + ", these results come from Java "
+                    + System.getProperty(JAVA_VERSION) + " and regressions may be wrongly reported");
+        }
+        double timeTolerance = Double.parseDouble(System.getProperty("baseline.time.tolerance", "0.25"));
+        double allocTolerance = Double.parseDouble(System.getProperty("baseline.alloc.tolerance", "0.10"));
+
+        List<String> regressions = new ArrayList<>();
+        measurements.forEach((name, measurement) -> {
+            String baselineTime = baseline.getProperty(name + TIME);
+            String baselineAlloc = baseline.getProperty(name + ALLOC);
+            if (baselineTime == null) {
+                System.out.println(String.format(Locale.ROOT, "%-70s no baseline", name));
+                return;
+            }
+            double expectedTime = Double.parseDouble(baselineTime);
+            System.out.println(String.format(Locale.ROOT, "%-70s %12.1f ns/op (baseline %12.1f) %12.1f B/op (baseline %s)",
+                    name, measurement[0], expectedTime, measurement[1], baselineAlloc));
+            if (measurement[0] > expectedTime * (1 + timeTolerance)) {
+                regressions.add(String.format(Locale.ROOT, "%s takes %.1f ns/op, baseline is %.1f ns/op", name, measurement[0],
+                        expectedTime));
+            }
+            if (baselineAlloc != null && !Double.isNaN(measurement[1])) {
+                double expectedAlloc = Double.parseDouble(baselineAlloc);
+                if (measurement[1] > expectedAlloc * (1 + allocTolerance) + ALLOC_SLACK_BYTES) {
+                    regressions.add(String.format(Locale.ROOT, "%s allocates %.1f B/op, baseline is %.1f B/op", name,
+                            measurement[1], expectedAlloc));
+                }
+            }
+        });
+        return regressions;
+    }
+
+    /**
+     * @param baselineFile where the current results are written as the new baseline
+     * @throws IOException in case the baseline can't be written
+     */
+    public void writeBaseline(File baselineFile) throws IOException {
+        //written by hand rather than with Properties#store to keep the file sorted and its diff readable
+        List<String> lines = new ArrayList<>();
+        lines.add("# Benchmark baseline, regenerate with -Dbaseline.update=true on the Java version AEM runs on");
+        lines.add(JAVA_VERSION + '=' + System.getProperty(JAVA_VERSION));
+        measurements.forEach((name, measurement) -> {
+            String key = name.replace("=", "\\=");
+            lines.add(key + TIME + '=' + String.format(Locale.ROOT, "%.1f", measurement[0]));
+            if (!Double.isNaN(measurement[1])) {
+                lines.add(key + ALLOC + '=' + String.format(Locale.ROOT, "%.1f", measurement[1]));
+            }
+        });
+        Files.write(baselineFile.toPath(), lines, StandardCharsets.ISO_8859_1);
+    }
+
+}
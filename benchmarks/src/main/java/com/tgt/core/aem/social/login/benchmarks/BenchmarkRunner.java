@@ -0,0 +1,65 @@
+package com.tgt.core.aem.social.login.benchmarks;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.openjdk.jmh.runner.options.TimeValue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Runs the benchmarks with the GC profiler and compares the results with the committed baseline.
+ * <p>
+ * System properties:
+ * <ul>
+ * <li>{@code baseline.file} - baseline to compare with, {@code baseline.properties} by default</li>
+ * <li>{@code baseline.update} - {@code true} to write the results as the new baseline instead of comparing</li>
+ * <li>{@code result.file} - where the JMH JSON results are written</li>
+ * </ul>
+ * The first argument is the regular expression of the benchmarks to run. The process exits with status 1 in case
+ * any benchmark regressed.
+ */
+public final class BenchmarkRunner {
+
+    private BenchmarkRunner() {
+    }
+
+    public static void main(String[] args) throws RunnerException, IOException {
+        String include = args.length > 0 ? args[0] : "com.tgt.core.aem.social.login";
+        Options options = new OptionsBuilder()
+                .include(include)
+                .addProfiler(GCProfiler.class)
+                .forks(1)
+                .warmupIterations(3)
+                .warmupTime(TimeValue.seconds(2))
+                .measurementIterations(5)
+                .measurementTime(TimeValue.seconds(2))
+                .resultFormat(ResultFormatType.JSON)
+                .result(System.getProperty("result.file", "target/jmh-result.json"))
+                .build();
+        Collection<RunResult> results = new Runner(options).run();
+
+        File baselineFile = new File(System.getProperty("baseline.file", "baseline.properties"));
+        BaselineComparison comparison = new BaselineComparison(results);
+        if (Boolean.getBoolean("baseline.update")) {
+            comparison.writeBaseline(baselineFile);
+            System.out.println("Baseline written to " + baselineFile.getAbsolutePath());
+            return;
+        }
+        List<String> regressions = comparison.compareWith(baselineFile);
+        if (!regressions.isEmpty()) {
+            System.err.println("Benchmarks regressed compared to " + baselineFile.getAbsolutePath() + " :");
+            regressions.forEach(regression -> System.err.println("  " + regression));
+            System.exit(1);
+        }
+        System.out.println("No regression compared to " + baselineFile.getAbsolutePath());
+    }
+
+}
@@ -0,0 +1,41 @@
+package com.tgt.core.aem.social.login.benchmarks;
+
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Proxy;
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * Creates OSGi component property types outside of an OSGi container.
+ */
+public final class Configs {
+
+    private Configs() {
+    }
+
+    /**
+     * Create a config having the default value of every attribute.
+     *
+     * @param type      component property type
+     * @param overrides values by attribute method name, e.g. {@code oauth_provider_id}
+     * @param <A>       type of the config
+     * @return config
+     */
+    public static <A extends Annotation> A of(Class<A> type, Map<String, Object> overrides) {
+        return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type},
+                (proxy, method, args) -> {
+                    if ("annotationType".equals(method.getName())) {
+                        return type;
+                    }
+                    if (overrides.containsKey(method.getName())) {
+                        return overrides.get(method.getName());
+                    }
+                    return method.getDefaultValue();
+                }));
+    }
+
+    public static <A extends Annotation> A of(Class<A> type) {
+        return of(type, Collections.emptyMap());
+    }
+
+}
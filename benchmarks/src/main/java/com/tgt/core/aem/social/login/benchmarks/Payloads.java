@@ -0,0 +1,78 @@
+package com.tgt.core.aem.social.login.benchmarks;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Google responses used by the benchmarks.
+ */
+public final class Payloads {
+
+    private Payloads() {
+    }
+
+    /**
+     * Google's v1 user details response of a Workspace user.
+     */
+    public static final String USER_DETAILS = "{\n" +
+            "  \"id\": \"104537282939371833951\",\n" +
+            "  \"email\": \"jane.doe@thegreyteacher.com\",\n" +
+            "  \"verified_email\": true,\n" +
+            "  \"name\": \"Jane Doe\",\n" +
+            "  \"given_name\": \"Jane\",\n" +
+            "  \"family_name\": \"Doe\",\n" +
+            "  \"picture\": \"https://lh3.googleusercontent.com/a-/AOh14GhRk3XJ2fL0ZVkYw9t0cQm0mYk8Q7uXkL1mN2oP=s96-c\",\n" +
+            "  \"locale\": \"en\",\n" +
+            "  \"hd\": \"thegreyteacher.com\"\n" +
+            "}";
+
+    /**
+     * Google's token response having an ID token.
+     */
+    public static final String TOKEN_RESPONSE = "{\n" +
+            "  \"access_token\": \"ya29.a0AfH6SMBx3lK9aQ2vV7pZrT8sW4nY1cE6dF0gH5jK3lM9oP2qR7tU4vW8xY1zA3bC6dE9fG2hJ5kL8mN1oP4qR7s\",\n" +
+            "  \"expires_in\": 3599,\n" +
+            "  \"scope\": \"openid https://www.googleapis.com/auth/userinfo.email\",\n" +
+            "  \"token_type\": \"Bearer\",\n" +
+            "  \"id_token\": \"" + repeat("eyJhbGciOiJSUzI1NiIsImtpZCI6IjEifQ", 30) + "\"\n" +
+            "}";
+
+    /**
+     * User details response padded with fields and nested values which aren't mapped to any user property, roughly
+     * 64 KB.
+     */
+    public static final String OVERSIZED_USER_DETAILS = oversizedUserDetails();
+
+    public static byte[] bytes(String payload) {
+        return payload.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String oversizedUserDetails() {
+        StringBuilder json = new StringBuilder(USER_DETAILS.substring(0, USER_DETAILS.lastIndexOf('}')));
+        for (int i = 0; i < 400; i++) {
+            json.append(",\n  \"extra_").append(i).append("\": ");
+            switch (i % 4) {
+                case 0:
+                    json.append('"').append(repeat("value", 20)).append('"');
+                    break;
+                case 1:
+                    json.append(i * 31L);
+                    break;
+                case 2:
+                    json.append("{\"nested\": {\"flag\": false, \"items\": [1, 2, 3, \"four\"]}}");
+                    break;
+                default:
+                    json.append("[{\"type\": \"work\", \"value\": \"").append(repeat("x", 40)).append("\"}]");
+            }
+        }
+        return json.append("\n}").toString();
+    }
+
+    private static String repeat(String value, int times) {
+        StringBuilder repeated = new StringBuilder(value.length() * times);
+        for (int i = 0; i < times; i++) {
+            repeated.append(value);
+        }
+        return repeated.toString();
+    }
+
+}
@@ -0,0 +1,55 @@
+package com.tgt.core.aem.social.login.benchmarks;
+
+import com.tgt.core.aem.social.login.http.LocalResponses;
+import com.tgt.core.aem.social.login.utils.ProfileDataReader;
+import com.tgt.core.aem.social.login.utils.SocialLoginUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link SocialLoginUtils#parseProfileDataResponse(org.scribe.model.Response, ProfileDataReader)} with the fields
+ * mapped by the DefaultSyncHandler and with all the fields.
+ * <p>
+ * A response can only be read once, so every invocation also creates its in-memory response.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ProfileParserBenchmark {
+
+    private static final ProfileDataReader MAPPED_FIELDS = ProfileDataReader.forFields("id", "email",
+            "verified_email", "name", "given_name", "family_name", "picture");
+
+    @Param({"realistic", "oversized"})
+    public String payload;
+
+    private byte[] body;
+
+    @Setup
+    public void setUp() {
+        body = Payloads.bytes("oversized".equals(payload) ? Payloads.OVERSIZED_USER_DETAILS : Payloads.USER_DETAILS);
+    }
+
+    @Benchmark
+    public Map<String, String> mappedFields() throws IOException {
+        return SocialLoginUtils.parseProfileDataResponse(LocalResponses.json(HttpURLConnection.HTTP_OK, body),
+                MAPPED_FIELDS);
+    }
+
+    @Benchmark
+    public Map<String, String> allFields() throws IOException {
+        return SocialLoginUtils.parseProfileDataResponse(LocalResponses.json(HttpURLConnection.HTTP_OK, body));
+    }
+
+}
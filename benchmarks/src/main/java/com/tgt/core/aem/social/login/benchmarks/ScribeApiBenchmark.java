@@ -0,0 +1,59 @@
+package com.tgt.core.aem.social.login.benchmarks;
+
+import com.tgt.core.aem.social.login.scribe.GoogleScribeApi;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.scribe.extractors.AccessTokenExtractor;
+import org.scribe.model.OAuthConfig;
+import org.scribe.model.SignatureType;
+import org.scribe.model.Token;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link GoogleScribeApi#getAuthorizationUrl(OAuthConfig)} and access token extraction by the
+ * {@link org.scribe.extractors.JsonTokenExtractor} returned by {@link GoogleScribeApi#getAccessTokenExtractor()}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ScribeApiBenchmark {
+
+    private static final String CALLBACK = "https://www.thegreyteacher.com/callback/j_security_check";
+
+    private GoogleScribeApi api;
+    private OAuthConfig scopedConfig;
+    private OAuthConfig config;
+    private AccessTokenExtractor tokenExtractor;
+
+    @Setup
+    public void setUp() {
+        api = new GoogleScribeApi(null);
+        scopedConfig = new OAuthConfig("1234567890-abcdefghijklmnop.apps.googleusercontent.com", "secret", CALLBACK,
+                SignatureType.Header, "https://www.googleapis.com/auth/userinfo.email", null);
+        config = new OAuthConfig("1234567890-abcdefghijklmnop.apps.googleusercontent.com", "secret", CALLBACK,
+                SignatureType.Header, null, null);
+        tokenExtractor = api.getAccessTokenExtractor();
+    }
+
+    @Benchmark
+    public String scopedAuthorizationUrl() {
+        return api.getAuthorizationUrl(scopedConfig);
+    }
+
+    @Benchmark
+    public String authorizationUrl() {
+        return api.getAuthorizationUrl(config);
+    }
+
+    @Benchmark
+    public Token extractAccessToken() {
+        return tokenExtractor.extract(Payloads.TOKEN_RESPONSE);
+    }
+
+}
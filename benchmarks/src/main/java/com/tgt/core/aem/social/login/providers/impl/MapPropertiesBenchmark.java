@@ -0,0 +1,61 @@
+package com.tgt.core.aem.social.login.providers.impl;
+
+import com.tgt.core.aem.social.login.benchmarks.Configs;
+import com.tgt.core.aem.social.login.benchmarks.Payloads;
+import com.tgt.core.aem.social.login.constants.SocialLoginConstants;
+import com.tgt.core.aem.social.login.http.LocalResponses;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link GoogleProvider#mapProperties(String, String, Map, Map)} of the parsed user details with an existing map
+ * of growing size, as it happens for each extended details URL.
+ * <p>
+ * This benchmark lives in the provider's package to be able to activate it.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class MapPropertiesBenchmark {
+
+    @Param({"0", "10", "100"})
+    public int existingSize;
+
+    private GoogleProvider provider;
+    private Map<String, Object> existing;
+    private Map<String, String> newProperties;
+
+    @Setup
+    public void setUp() throws IOException {
+        provider = new GoogleProvider();
+        provider.activate(Configs.of(GoogleProvider.GoogleProviderConfig.class,
+                Collections.singletonMap("oauth_provider_id", "benchmark-google-provider")));
+
+        existing = new HashMap<>();
+        for (int i = 0; i < existingSize; i++) {
+            existing.put("existing_" + i, "value_" + i);
+        }
+        newProperties = provider.parseProfileDataResponse(
+                LocalResponses.json(HttpURLConnection.HTTP_OK, Payloads.bytes(Payloads.USER_DETAILS)));
+    }
+
+    @Benchmark
+    public Map<String, Object> mapProperties() {
+        return provider.mapProperties(SocialLoginConstants.GOOGLE_USER_DETAILS_URL, "client-id", existing,
+                newProperties);
+    }
+
+}
@@ -0,0 +1,29 @@
+package com.tgt.core.aem.social.login.avatars;
+
+import org.apache.jackrabbit.api.security.user.User;
+import org.osgi.annotation.versioning.ProviderType;
+
+/**
+ * Keeps a local copy of the profile pictures of the social login users, so that pages show them without calling the
+ * picture host of the provider.
+ * <p>
+ * It is called when a login creates a user or updates its profile. The picture is fetched in the background, a login
+ * never waits for it.
+ */
+@ProviderType
+public interface AvatarCache {
+
+    /**
+     * Cache which never fetches any picture, used when no avatar cache is available.
+     */
+    AvatarCache DISABLED = new DisabledAvatarCache();
+
+    /**
+     * Queue the fetch of the user's picture when its URL changed since it was last fetched, or when the local copy is
+     * due for revalidation. Failures are logged, they never fail the login.
+     *
+     * @param user user created or updated by a login, with its synced profile properties
+     */
+    void update(User user);
+
+}
@@ -0,0 +1,15 @@
+package com.tgt.core.aem.social.login.avatars;
+
+import org.apache.jackrabbit.api.security.user.User;
+
+/**
+ * {@link AvatarCache#DISABLED}
+ */
+final class DisabledAvatarCache implements AvatarCache {
+
+    @Override
+    public void update(User user) {
+        //disabled
+    }
+
+}
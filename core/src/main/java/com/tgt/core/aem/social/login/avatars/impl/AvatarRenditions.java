@@ -0,0 +1,130 @@
+package com.tgt.core.aem.social.login.avatars.impl;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+import javax.imageio.stream.MemoryCacheImageInputStream;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Square JPEG renditions of a profile picture.
+ * <p>
+ * The picture is cropped to its centered square, then scaled down by halves before the last step to the rendition
+ * size, which keeps the quality of a bilinear scaling without its cost on large pictures. A picture is never scaled
+ * up, a rendition larger than the picture has the size of the picture. The dimensions are checked before the pixels
+ * are decoded, and the images are read and written in memory rather than through ImageIO's temporary files.
+ */
+final class AvatarRenditions {
+
+    static final String MIME_TYPE = "image/jpeg";
+    static final String EXTENSION = ".jpg";
+
+    private static final float QUALITY = 0.85f;
+
+    private AvatarRenditions() {
+    }
+
+    /**
+     * @param picture      bytes of the picture, in any format ImageIO reads
+     * @param sizes        sizes in pixels of the renditions
+     * @param maxDimension max width and height in pixels of the picture
+     * @return JPEG bytes of the renditions, by size
+     * @throws IOException in case the picture can't be read or is larger than {@code maxDimension}
+     */
+    static Map<Integer, byte[]> render(byte[] picture, int[] sizes, int maxDimension) throws IOException {
+        BufferedImage square = crop(read(picture, maxDimension));
+        Map<Integer, byte[]> renditions = new LinkedHashMap<>();
+        for (int size : sizes) {
+            renditions.put(size, write(scale(square, Math.min(size, square.getWidth()))));
+        }
+        return renditions;
+    }
+
+    private static BufferedImage read(byte[] picture, int maxDimension) throws IOException {
+        try (ImageInputStream in = new MemoryCacheImageInputStream(new ByteArrayInputStream(picture))) {
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(in);
+            if (!readers.hasNext()) {
+                throw new IOException("Unsupported picture format");
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(in, true, true);
+                int width = reader.getWidth(0);
+                int height = reader.getHeight(0);
+                if (width > maxDimension || height > maxDimension) {
+                    throw new IOException("Picture of " + width + "x" + height + " pixels is too large");
+                }
+                return reader.read(0);
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    private static BufferedImage crop(BufferedImage image) {
+        int side = Math.min(image.getWidth(), image.getHeight());
+        return image.getSubimage((image.getWidth() - side) / 2, (image.getHeight() - side) / 2, side, side);
+    }
+
+    private static BufferedImage scale(BufferedImage square, int size) {
+        BufferedImage scaled = square;
+        int current = square.getWidth();
+        do {
+            current = current / 2 >= size ? current / 2 : size;
+            scaled = draw(scaled, current);
+        } while (current > size);
+        return scaled;
+    }
+
+    /**
+     * Draw on an opaque image with a white background, as JPEG has no transparency.
+     */
+    private static BufferedImage draw(BufferedImage image, int size) {
+        BufferedImage drawn = new BufferedImage(size, size, BufferedImage.TYPE_INT_RGB);
+        Graphics2D graphics = drawn.createGraphics();
+        try {
+            graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            graphics.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+            graphics.setColor(Color.WHITE);
+            graphics.fillRect(0, 0, size, size);
+            graphics.drawImage(image, 0, 0, size, size, null);
+        } finally {
+            graphics.dispose();
+        }
+        return drawn;
+    }
+
+    private static byte[] write(BufferedImage image) throws IOException {
+        Iterator<ImageWriter> writers = ImageIO.getImageWritersByMIMEType(MIME_TYPE);
+        if (!writers.hasNext()) {
+            throw new IOException("No JPEG writer available");
+        }
+        ImageWriter writer = writers.next();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ImageOutputStream out = new MemoryCacheImageOutputStream(bytes)) {
+            writer.setOutput(out);
+            ImageWriteParam param = writer.getDefaultWriteParam();
+            param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            param.setCompressionQuality(QUALITY);
+            writer.write(null, new IIOImage(image, null, null), param);
+        } finally {
+            writer.dispose();
+        }
+        return bytes.toByteArray();
+    }
+
+}
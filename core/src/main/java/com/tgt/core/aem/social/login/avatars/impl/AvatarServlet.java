@@ -0,0 +1,105 @@
+package com.tgt.core.aem.social.login.avatars.impl;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.jackrabbit.JcrConstants;
+import org.apache.jackrabbit.api.security.user.Authorizable;
+import org.apache.jackrabbit.api.security.user.UserManager;
+import org.apache.sling.api.SlingHttpServletRequest;
+import org.apache.sling.api.SlingHttpServletResponse;
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.api.resource.ValueMap;
+import org.apache.sling.api.servlets.SlingSafeMethodsServlet;
+import org.osgi.service.component.annotations.Component;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.jcr.RepositoryException;
+import javax.servlet.Servlet;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Calendar;
+import java.util.Objects;
+
+/**
+ * Serves the avatar of the current user from the renditions kept by the {@link RepositoryAvatarCache}, e.g.
+ * {@code /bin/tgt/avatar.64.jpg} for its 64 pixels rendition.
+ * <p>
+ * The URL is the same for all the users, so the pages showing an avatar don't differ from a user to another and stay
+ * cacheable. Since the response depends on the user behind the same URL, it's private and revalidated at each use:
+ * its {@code ETag} is made of the rendition of the user, so a browser used by another user since gets the other
+ * avatar, and is answered with a {@code 304} as long as the rendition of the same user didn't change. A user without
+ * a rendition of that size, or an anonymous request, gets a {@code 404}.
+ */
+@Component(service = Servlet.class,
+        property = {
+                "sling.servlet.paths=" + AvatarServlet.PATH,
+                "sling.servlet.methods=GET"
+        })
+public class AvatarServlet extends SlingSafeMethodsServlet {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(AvatarServlet.class);
+
+    static final String PATH = "/bin/tgt/avatar";
+
+    private static final String CACHE_CONTROL = "private, no-cache";
+
+    @Override
+    protected void doGet(SlingHttpServletRequest request, SlingHttpServletResponse response) throws IOException {
+        String size = request.getRequestPathInfo().getSelectorString();
+        Resource content = Objects.isNull(size) || !size.matches("\\d{1,4}") ? null
+                : findRendition(request.getResourceResolver(), size);
+        if (Objects.isNull(content)) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND);
+            return;
+        }
+        ValueMap properties = content.getValueMap();
+        Calendar lastModified = properties.get(JcrConstants.JCR_LASTMODIFIED, Calendar.class);
+        //the path of the rendition tells the users and the sizes apart
+        String etag = '"' + Integer.toHexString(content.getPath().hashCode()) + '-' + (Objects.isNull(lastModified)
+                ? "0" : Long.toHexString(lastModified.getTimeInMillis())) + '"';
+        response.setHeader("Cache-Control", CACHE_CONTROL);
+        response.setHeader("ETag", etag);
+        if (etag.equals(request.getHeader("If-None-Match"))) {
+            response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            return;
+        }
+        if (Objects.nonNull(lastModified)) {
+            response.setDateHeader("Last-Modified", lastModified.getTimeInMillis());
+        }
+        response.setContentType(properties.get(JcrConstants.JCR_MIMETYPE, AvatarRenditions.MIME_TYPE));
+        try (InputStream data = properties.get(JcrConstants.JCR_DATA, InputStream.class)) {
+            if (Objects.isNull(data)) {
+                response.sendError(HttpServletResponse.SC_NOT_FOUND);
+                return;
+            }
+            IOUtils.copy(data, response.getOutputStream());
+        }
+    }
+
+    /**
+     * @return {@code jcr:content} of the current user's rendition, null if there is none
+     */
+    private Resource findRendition(ResourceResolver resolver, String size) {
+        UserManager userManager = resolver.adaptTo(UserManager.class);
+        String userId = resolver.getUserID();
+        if (Objects.isNull(userManager) || Objects.isNull(userId)) {
+            return null;
+        }
+        try {
+            Authorizable user = userManager.getAuthorizable(userId);
+            if (Objects.isNull(user) || user.isGroup()) {
+                return null;
+            }
+            return resolver.getResource(user.getPath() + '/' + RepositoryAvatarCache.AVATAR_NODE + '/' + size
+                    + AvatarRenditions.EXTENSION + '/' + JcrConstants.JCR_CONTENT);
+        } catch (RepositoryException e) {
+            LOGGER.warn("Unable to find the avatar of {}", userId, e);
+            return null;
+        }
+    }
+
+}
@@ -0,0 +1,335 @@
+package com.tgt.core.aem.social.login.avatars.impl;
+
+import com.tgt.core.aem.social.login.avatars.AvatarCache;
+import com.tgt.core.aem.social.login.constants.SocialLoginConstants;
+import org.apache.commons.lang.StringUtils;
+import org.apache.jackrabbit.JcrConstants;
+import org.apache.jackrabbit.api.security.user.User;
+import org.apache.jackrabbit.commons.JcrUtils;
+import org.apache.sling.api.resource.LoginException;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.api.resource.ResourceResolverFactory;
+import org.apache.sling.commons.threads.ModifiableThreadPoolConfig;
+import org.apache.sling.commons.threads.ThreadPool;
+import org.apache.sling.commons.threads.ThreadPoolConfig;
+import org.apache.sling.commons.threads.ThreadPoolManager;
+import org.apache.sling.serviceusermapping.ServiceUserMapped;
+import org.osgi.service.component.annotations.Activate;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Deactivate;
+import org.osgi.service.component.annotations.Reference;
+import org.osgi.service.metatype.annotations.AttributeDefinition;
+import org.osgi.service.metatype.annotations.Designate;
+import org.osgi.service.metatype.annotations.ObjectClassDefinition;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.jcr.Node;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import javax.jcr.Value;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link AvatarCache} keeping square renditions of the users' pictures in the repository, next to the users.
+ * <p>
+ * A login only compares the picture URL of the user with the URL its renditions were made from, both read from the
+ * user it already holds. When the URL changed, or the renditions are due for revalidation, the user is queued for a
+ * bounded pool of workers, once even if it logs in again meanwhile; a login finding the queue full doesn't queue it,
+ * its next profile update will. A worker fetches the picture on a plain connection of its own, conditionally with
+ * the {@code ETag} and {@code Last-Modified} of the last fetch when the URL didn't change, and writes the renditions
+ * in the {@value #AVATAR_NODE} node of the user with a service session, which the {@link AvatarServlet} serves them
+ * from. An unchanged picture only updates the time it was checked.
+ * <p>
+ * Note - the renditions are updated along with the profile of the user, i.e. when a login creates it or changes its
+ * profile. Only the pictures of the allowed hosts are fetched, without following redirects. The pictures aren't
+ * fetched through the login's {@link com.tgt.core.aem.social.login.http.OAuthTransport}, whose circuit breakers,
+ * bulkhead and retries are meant for the provider's endpoints.
+ */
+@Component(service = AvatarCache.class)
+@Designate(ocd = RepositoryAvatarCache.RepositoryAvatarCacheConfig.class)
+public class RepositoryAvatarCache implements AvatarCache {
+
+    private final Logger LOGGER = LoggerFactory.getLogger(RepositoryAvatarCache.class);
+
+    private static final String SUBSERVICE = "avatars";
+    private static final Map<String, Object> AUTH_INFO =
+            Collections.singletonMap(ResourceResolverFactory.SUBSERVICE, SUBSERVICE);
+
+    /**
+     * Node of the user holding its renditions, named {@code <size>.jpg}.
+     */
+    static final String AVATAR_NODE = "avatar";
+    static final String SOURCE_URL = "sourceUrl";
+    static final String ETAG = "etag";
+    static final String LAST_MODIFIED = "lastModified";
+    static final String CHECKED = "checked";
+
+    @ObjectClassDefinition(name = "The Grey Teacher Avatar Cache")
+    public @interface RepositoryAvatarCacheConfig {
+
+        @AttributeDefinition(name = "Enabled",
+                description = "Keep renditions of the users' profile pictures in the repository")
+        boolean enabled() default false;
+
+        @AttributeDefinition(name = "Picture Property",
+                description = "Property of the user holding the URL of its picture, as set by the sync handler")
+        String picture_property() default SocialLoginConstants.PICTURE_PROPERTY_PATH;
+
+        @AttributeDefinition(name = "Allowed Hosts",
+                description = "Hosts the pictures are fetched from, a host also allows its subdomains")
+        String[] allowed_hosts() default {"googleusercontent.com"};
+
+        @AttributeDefinition(name = "Renditions", description = "Sizes in pixels of the square renditions")
+        int[] renditions() default {32, 64, 96};
+
+        @AttributeDefinition(name = "Revalidation Interval",
+                description = "Time in seconds after which the picture of an updated profile is checked again, " +
+                        "even if its URL didn't change")
+        long revalidate_seconds() default 604800;
+
+        @AttributeDefinition(name = "Max Picture Size",
+                description = "Max size in bytes of a picture, larger pictures are skipped")
+        int max_bytes() default 2097152;
+
+        @AttributeDefinition(name = "Max Picture Dimension",
+                description = "Max width and height in pixels of a picture, larger pictures are skipped")
+        int max_dimension() default 2048;
+
+        @AttributeDefinition(name = "Connect Timeout",
+                description = "Time in milliseconds to connect to the host of a picture")
+        int connect_timeout_ms() default 2000;
+
+        @AttributeDefinition(name = "Read Timeout",
+                description = "Time in milliseconds to wait for the data of a picture")
+        int read_timeout_ms() default 5000;
+
+        @AttributeDefinition(name = "Threads", description = "Number of pictures fetched at once")
+        int threads() default 2;
+
+        @AttributeDefinition(name = "Queue Size", description = "Max number of users waiting for their picture")
+        int queue_size() default 1000;
+
+    }
+
+    @Reference
+    private ResourceResolverFactory resourceResolverFactory;
+
+    @Reference
+    private ThreadPoolManager threadPoolManager;
+
+    //makes sure the service user mapping is there before any rendition is written
+    @Reference(target = "(" + ServiceUserMapped.SUBSERVICENAME + "=" + SUBSERVICE + ")")
+    private ServiceUserMapped serviceUserMapped;
+
+    private final Set<String> queued = ConcurrentHashMap.newKeySet();
+
+    private boolean enabled;
+    private String pictureProperty;
+    private String[] allowedHosts;
+    private int[] sizes;
+    private long revalidateMs;
+    private int maxBytes;
+    private int maxDimension;
+    private int connectTimeoutMs;
+    private int readTimeoutMs;
+    private ThreadPool threadPool;
+
+    @Activate
+    protected void activate(RepositoryAvatarCacheConfig config) {
+        enabled = config.enabled();
+        pictureProperty = config.picture_property();
+        allowedHosts = Arrays.stream(config.allowed_hosts()).filter(StringUtils::isNotBlank)
+                .map(host -> host.trim().toLowerCase(Locale.ROOT)).toArray(String[]::new);
+        sizes = Arrays.stream(config.renditions()).filter(size -> size > 0).distinct().toArray();
+        revalidateMs = TimeUnit.SECONDS.toMillis(Math.max(0, config.revalidate_seconds()));
+        maxBytes = Math.max(1, config.max_bytes());
+        maxDimension = Math.max(1, config.max_dimension());
+        connectTimeoutMs = Math.max(1, config.connect_timeout_ms());
+        readTimeoutMs = Math.max(1, config.read_timeout_ms());
+        int threads = Math.max(1, config.threads());
+        ModifiableThreadPoolConfig poolConfig = new ModifiableThreadPoolConfig();
+        poolConfig.setMinPoolSize(threads);
+        poolConfig.setMaxPoolSize(threads);
+        poolConfig.setQueueSize(Math.max(1, config.queue_size()));
+        //users beyond the pool and its queue are rejected, their picture is fetched at their next profile update
+        poolConfig.setBlockPolicy(ThreadPoolConfig.ThreadPoolPolicy.ABORT);
+        poolConfig.setShutdownGraceful(false);
+        poolConfig.setDaemon(true);
+        threadPool = threadPoolManager.create(poolConfig, "tgt-social-login-avatars");
+        LOGGER.info("Avatar cache enabled : {}, renditions {} of the pictures of {}", enabled,
+                Arrays.toString(sizes), Arrays.toString(allowedHosts));
+    }
+
+    @Deactivate
+    protected void deactivate() {
+        threadPoolManager.release(threadPool);
+    }
+
+    @Override
+    public void update(User user) {
+        if (!enabled || sizes.length == 0) {
+            return;
+        }
+        try {
+            String url = firstValue(user.getProperty(pictureProperty));
+            if (StringUtils.isBlank(url) || !isAllowed(url)) {
+                return;
+            }
+            if (url.equals(firstValue(user.getProperty(AVATAR_NODE + '/' + SOURCE_URL))) && !isDue(user)) {
+                return;
+            }
+            String path = user.getPath();
+            if (!queued.add(path)) {
+                return;
+            }
+            try {
+                threadPool.execute(() -> {
+                    try {
+                        fetch(path, url);
+                    } finally {
+                        queued.remove(path);
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                queued.remove(path);
+                LOGGER.debug("Avatar queue full, the picture of {} is fetched at its next profile update", path);
+            }
+        } catch (RepositoryException e) {
+            LOGGER.warn("Unable to read the picture of the user, it is fetched at its next profile update", e);
+        }
+    }
+
+    private boolean isDue(User user) throws RepositoryException {
+        Value[] checked = user.getProperty(AVATAR_NODE + '/' + CHECKED);
+        return Objects.isNull(checked) || checked.length == 0
+                || System.currentTimeMillis() - checked[0].getDate().getTimeInMillis() >= revalidateMs;
+    }
+
+    private boolean isAllowed(String url) {
+        try {
+            URI uri = new URI(url);
+            String host = uri.getHost();
+            if (Objects.isNull(host)
+                    || !("https".equalsIgnoreCase(uri.getScheme()) || "http".equalsIgnoreCase(uri.getScheme()))) {
+                return false;
+            }
+            host = host.toLowerCase(Locale.ROOT);
+            for (String allowedHost : allowedHosts) {
+                if (host.equals(allowedHost) || host.endsWith('.' + allowedHost)) {
+                    return true;
+                }
+            }
+        } catch (URISyntaxException e) {
+            LOGGER.debug("Invalid picture URL {}", url);
+        }
+        return false;
+    }
+
+    private void fetch(String userPath, String url) {
+        long start = System.nanoTime();
+        try (ResourceResolver resolver = resourceResolverFactory.getServiceResourceResolver(AUTH_INFO)) {
+            Session session = resolver.adaptTo(Session.class);
+            if (Objects.isNull(session) || !session.nodeExists(userPath)) {
+                LOGGER.debug("User {} was moved or removed before its picture got fetched", userPath);
+                return;
+            }
+            Node avatar = JcrUtils.getOrAddNode(session.getNode(userPath), AVATAR_NODE,
+                    JcrConstants.NT_UNSTRUCTURED);
+            HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+            connection.setInstanceFollowRedirects(false);
+            connection.setConnectTimeout(connectTimeoutMs);
+            connection.setReadTimeout(readTimeoutMs);
+            boolean sameUrl = url.equals(stringProperty(avatar, SOURCE_URL));
+            if (sameUrl) {
+                addHeader(connection, "If-None-Match", stringProperty(avatar, ETAG));
+                addHeader(connection, "If-Modified-Since", stringProperty(avatar, LAST_MODIFIED));
+            }
+            int code = connection.getResponseCode();
+            if (sameUrl && code == HttpURLConnection.HTTP_NOT_MODIFIED) {
+                LOGGER.debug("Picture of {} didn't change", userPath);
+            } else if (code >= 200 && code < 300) {
+                Map<Integer, byte[]> renditions = AvatarRenditions.render(read(connection), sizes, maxDimension);
+                Calendar now = Calendar.getInstance();
+                for (Map.Entry<Integer, byte[]> rendition : renditions.entrySet()) {
+                    writeRendition(avatar, rendition.getKey() + AvatarRenditions.EXTENSION, rendition.getValue(),
+                            now);
+                }
+                avatar.setProperty(SOURCE_URL, url);
+                //null removes the validators of the previous picture
+                avatar.setProperty(ETAG, connection.getHeaderField("ETag"));
+                avatar.setProperty(LAST_MODIFIED, connection.getHeaderField("Last-Modified"));
+                LOGGER.debug("Picture of {} cached in {} ms", userPath,
+                        TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+            } else {
+                connection.disconnect();
+                throw new IOException("Picture request failed with response code " + code);
+            }
+            avatar.setProperty(CHECKED, Calendar.getInstance());
+            session.save();
+        } catch (LoginException | RepositoryException | IOException | RuntimeException e) {
+            LOGGER.warn("Unable to cache the picture of {}, it is fetched at its next profile update : {}", userPath,
+                    e.toString());
+        }
+    }
+
+    private static void writeRendition(Node avatar, String name, byte[] bytes, Calendar lastModified)
+            throws RepositoryException {
+        Node file = JcrUtils.getOrAddNode(avatar, name, JcrConstants.NT_FILE);
+        Node content = JcrUtils.getOrAddNode(file, JcrConstants.JCR_CONTENT, JcrConstants.NT_RESOURCE);
+        content.setProperty(JcrConstants.JCR_DATA,
+                avatar.getSession().getValueFactory().createBinary(new ByteArrayInputStream(bytes)));
+        content.setProperty(JcrConstants.JCR_MIMETYPE, AvatarRenditions.MIME_TYPE);
+        content.setProperty(JcrConstants.JCR_LASTMODIFIED, lastModified);
+    }
+
+    private byte[] read(HttpURLConnection connection) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (InputStream in = connection.getInputStream()) {
+            if (Objects.isNull(in)) {
+                throw new IOException("Empty picture response");
+            }
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                if (bytes.size() + read > maxBytes) {
+                    throw new IOException("Picture larger than " + maxBytes + " bytes");
+                }
+                bytes.write(buffer, 0, read);
+            }
+        }
+        return bytes.toByteArray();
+    }
+
+    private static void addHeader(HttpURLConnection connection, String name, String value) {
+        if (StringUtils.isNotBlank(value)) {
+            connection.setRequestProperty(name, value);
+        }
+    }
+
+    private static String stringProperty(Node node, String name) throws RepositoryException {
+        return node.hasProperty(name) ? node.getProperty(name).getString() : null;
+    }
+
+    private static String firstValue(Value[] values) throws RepositoryException {
+        return Objects.isNull(values) || values.length == 0 ? null : values[0].getString();
+    }
+
+}
@@ -16,18 +16,37 @@ public final class SocialLoginConstants {
      */
     public static final String AUTHORIZATION_CODE = "authorization_code";
 
+    /**
+     * {@value org.apache.oltu.oauth2.common.OAuth#OAUTH_GRANT_TYPE} to get a new access token with a refresh token.
+     */
+    public static final String REFRESH_TOKEN = "refresh_token";
+
     ////////////////////   Google Social Login  /////////////////////////
 
+    /**
+     * Google URL of the authorization endpoint.
+     */
+    public static final String GOOGLE_AUTHORIZATION_ENDPOINT = "https://accounts.google.com/o/oauth2/auth";
+
+    /**
+     * Query of the URL to get authorization code when scope is not present.
+     */
+    public static final String AUTHORIZE_URL_QUERY = "?response_type=code&client_id=%s&redirect_uri=%s";
+
+    /**
+     * Query of the URL to get authorization code when scope is present.
+     */
+    public static final String SCOPED_AUTHORIZE_URL_QUERY = AUTHORIZE_URL_QUERY + "&scope=%s";
+
     /**
      * Google URL to get authorization code when scope is not present.
      */
-    public static final String GOOGLE_AUTHORIZE_URL =
-            "https://accounts.google.com/o/oauth2/auth?response_type=code&client_id=%s&redirect_uri=%s";
+    public static final String GOOGLE_AUTHORIZE_URL = GOOGLE_AUTHORIZATION_ENDPOINT + AUTHORIZE_URL_QUERY;
 
     /**
      * Google URL to get authorization code when scope is present.
      */
-    public static final String GOOGLE_SCOPED_AUTHORIZE_URL = GOOGLE_AUTHORIZE_URL + "&scope=%s";
+    public static final String GOOGLE_SCOPED_AUTHORIZE_URL = GOOGLE_AUTHORIZATION_ENDPOINT + SCOPED_AUTHORIZE_URL_QUERY;
 
     /**
      * Google URL to get the Access Token
@@ -39,6 +58,21 @@ public final class SocialLoginConstants {
      */
     public static final String GOOGLE_USER_DETAILS_URL = "https://www.googleapis.com/oauth2/v1/userinfo?alt=json";
 
+    /**
+     * Google URL of the JSON Web Key Set used to sign OpenID Connect ID tokens
+     */
+    public static final String GOOGLE_JWKS_URL = "https://www.googleapis.com/oauth2/v3/certs";
+
+    /**
+     * Issuer of the ID tokens signed by Google
+     */
+    public static final String GOOGLE_ISSUER = "https://accounts.google.com";
+
+    /**
+     * Issuer of the ID tokens signed by Google, Google may also issue tokens without the scheme.
+     */
+    public static final String GOOGLE_ISSUER_HOST = "accounts.google.com";
+
     /**
      * Google providers property which will be used to create user ID in AEM.
      * <p>
@@ -47,4 +81,43 @@ public final class SocialLoginConstants {
      */
     public static final String GOOGLE_PROVIDER_USER_ID_PROPERTY_NAME = "email";
 
+    /**
+     * Path of the user's property storing the access token of a client ID, relative to the user node and followed by
+     * the client ID.
+     */
+    public static final String ACCESS_TOKEN_PROPERTY_PATH_PREFIX = "oauth/oauthid-";
+
+    /**
+     * Query appended to the URL to get authorization code so that Google issues a refresh token along with the
+     * access token of the first consent of a user.
+     */
+    public static final String OFFLINE_ACCESS_QUERY = "&access_type=offline";
+
+    /**
+     * Property of the mapped user properties holding the encrypted refresh token issued at login.
+     */
+    public static final String REFRESH_TOKEN_PROPERTY = "refresh_token";
+
+    /**
+     * Property of the mapped user properties holding the expiry time of the access token issued at login.
+     */
+    public static final String ACCESS_TOKEN_EXPIRY_PROPERTY = "access_token_expiry";
+
+    /**
+     * Path of the user's property storing the encrypted refresh token, relative to the user node. It is synced from
+     * {@link #REFRESH_TOKEN_PROPERTY}.
+     */
+    public static final String REFRESH_TOKEN_PROPERTY_PATH = "google/refreshToken";
+
+    /**
+     * Path of the user's property storing the expiry time of its persisted access token, relative to the user node.
+     * It is synced from {@link #ACCESS_TOKEN_EXPIRY_PROPERTY} and indexed by {@code /oak:index/tgtTokenExpiry}.
+     */
+    public static final String ACCESS_TOKEN_EXPIRY_PROPERTY_PATH = "google/tokenExpiry";
+
+    /**
+     * Path of the user's property storing the URL of its profile picture, relative to the user node.
+     */
+    public static final String PICTURE_PROPERTY_PATH = "google/picture";
+
 }
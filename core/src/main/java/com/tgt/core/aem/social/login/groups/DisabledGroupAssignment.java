@@ -0,0 +1,15 @@
+package com.tgt.core.aem.social.login.groups;
+
+import org.apache.jackrabbit.api.security.user.User;
+
+/**
+ * {@link GroupAssignment#DISABLED}
+ */
+final class DisabledGroupAssignment implements GroupAssignment {
+
+    @Override
+    public void assign(User user) {
+        //disabled
+    }
+
+}
@@ -0,0 +1,28 @@
+package com.tgt.core.aem.social.login.groups;
+
+import org.apache.jackrabbit.api.security.user.User;
+import org.osgi.annotation.versioning.ProviderType;
+
+/**
+ * Assigns the social login users to groups depending on their synced profile, e.g. the domain of their email.
+ * <p>
+ * It is called when a login creates a user or updates its profile. Only the groups it manages are changed, the
+ * other memberships of the user (e.g. {@code user.autoMembership} of the sync handler) are left as they are.
+ */
+@ProviderType
+public interface GroupAssignment {
+
+    /**
+     * Assignment which never changes any membership, used when no assignment service is available.
+     */
+    GroupAssignment DISABLED = new DisabledGroupAssignment();
+
+    /**
+     * Add the user to the groups its profile matches and remove it from the managed groups it doesn't match any
+     * longer. Failures are logged, they never fail the login.
+     *
+     * @param user user created or updated by a login, with its synced profile properties
+     */
+    void assign(User user);
+
+}
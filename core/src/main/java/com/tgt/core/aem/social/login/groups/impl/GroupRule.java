@@ -0,0 +1,68 @@
+package com.tgt.core.aem.social.login.groups.impl;
+
+import org.apache.commons.lang.StringUtils;
+
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * Rule adding the users whose profile property matches a regular expression to a group.
+ * <p>
+ * A rule is configured as {@code <group ID>=<user property>:<regex>}, e.g. {@code staff=google/email:.*@example\.com}
+ * or {@code verified-users=google/verified_email:true}. The property is a path relative to the user node, as
+ * written by the sync handler, and the regular expression must match its whole value.
+ */
+final class GroupRule {
+
+    private final String groupId;
+    private final String property;
+    private final Pattern pattern;
+
+    private GroupRule(String groupId, String property, Pattern pattern) {
+        this.groupId = groupId;
+        this.property = property;
+        this.pattern = pattern;
+    }
+
+    /**
+     * @param rule rule as configured
+     * @return compiled rule
+     * @throws IllegalArgumentException in case the rule isn't in the expected format
+     */
+    static GroupRule parse(String rule) {
+        int equals = rule.indexOf('=');
+        int colon = equals < 0 ? -1 : rule.indexOf(':', equals);
+        if (colon < 0 || StringUtils.isBlank(rule.substring(0, equals))
+                || StringUtils.isBlank(rule.substring(equals + 1, colon))) {
+            throw new IllegalArgumentException("Group rule must be <group ID>=<user property>:<regex> : " + rule);
+        }
+        try {
+            return new GroupRule(rule.substring(0, equals).trim(), rule.substring(equals + 1, colon).trim(),
+                    Pattern.compile(rule.substring(colon + 1)));
+        } catch (PatternSyntaxException e) {
+            throw new IllegalArgumentException("Invalid regular expression in group rule " + rule, e);
+        }
+    }
+
+    /**
+     * @param value value of the property
+     * @return whether the value matches this rule
+     */
+    boolean matches(String value) {
+        return pattern.matcher(value).matches();
+    }
+
+    String getGroupId() {
+        return groupId;
+    }
+
+    String getProperty() {
+        return property;
+    }
+
+    @Override
+    public String toString() {
+        return groupId + '=' + property + ':' + pattern.pattern();
+    }
+
+}
@@ -0,0 +1,213 @@
+package com.tgt.core.aem.social.login.groups.impl;
+
+import com.tgt.core.aem.social.login.groups.GroupAssignment;
+import org.apache.commons.lang.StringUtils;
+import org.apache.jackrabbit.api.security.user.Authorizable;
+import org.apache.jackrabbit.api.security.user.Group;
+import org.apache.jackrabbit.api.security.user.User;
+import org.apache.jackrabbit.api.security.user.UserManager;
+import org.apache.sling.api.resource.LoginException;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.api.resource.ResourceResolverFactory;
+import org.apache.sling.serviceusermapping.ServiceUserMapped;
+import org.osgi.service.component.annotations.Activate;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Reference;
+import org.osgi.service.metatype.annotations.AttributeDefinition;
+import org.osgi.service.metatype.annotations.Designate;
+import org.osgi.service.metatype.annotations.ObjectClassDefinition;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import javax.jcr.Value;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * {@link GroupAssignment} driven by {@link GroupRule}s matching the synced profile properties of the users.
+ * <p>
+ * Rules are compiled once when the component gets activated. A login only reads the properties used by the rules
+ * and compares the matched groups with those the user was last assigned to, so repeat logins of a user whose
+ * matched groups didn't change don't read the memberships nor write anything. Otherwise only the difference between
+ * the matched groups and the managed groups the user is a member of is applied, in a single save of a service
+ * session. The paths of the groups are cached, so a group is looked up by its ID only once.
+ * <p>
+ * Note - the last assigned groups are kept in memory, a managed membership changed by hand is only corrected once the
+ * user is evicted from the memory, or after a restart or a change of the rules.
+ */
+@Component(service = GroupAssignment.class)
+@Designate(ocd = RuleBasedGroupAssignment.RuleBasedGroupAssignmentConfig.class)
+public class RuleBasedGroupAssignment implements GroupAssignment {
+
+    private final Logger LOGGER = LoggerFactory.getLogger(RuleBasedGroupAssignment.class);
+
+    private static final String SUBSERVICE = "group-assignment";
+    private static final Map<String, Object> AUTH_INFO =
+            Collections.singletonMap(ResourceResolverFactory.SUBSERVICE, SUBSERVICE);
+
+    @ObjectClassDefinition(name = "The Grey Teacher Group Assignment")
+    public @interface RuleBasedGroupAssignmentConfig {
+
+        @AttributeDefinition(name = "Rules",
+                description = "Groups the users are added to when one of their profile properties matches, as " +
+                        "<group ID>=<user property>:<regex>, e.g. staff=google/email:.*@example\\.com. The users " +
+                        "are removed from these groups once they don't match any of their rules.")
+        String[] rules() default {};
+
+        @AttributeDefinition(name = "Assigned Users Cache Size",
+                description = "Number of users whose last assigned groups are kept in memory")
+        int cache_size() default 10000;
+
+    }
+
+    @Reference
+    private ResourceResolverFactory resourceResolverFactory;
+
+    //makes sure the service user mapping is there before any group is assigned
+    @Reference(target = "(" + ServiceUserMapped.SUBSERVICENAME + "=" + SUBSERVICE + ")")
+    private ServiceUserMapped serviceUserMapped;
+
+    private Map<String, List<GroupRule>> rulesByProperty;
+    private Set<String> managedGroups;
+    private Map<String, String> assignedGroups;
+    private final Map<String, String> groupPaths = new ConcurrentHashMap<>();
+
+    @Activate
+    protected void activate(RuleBasedGroupAssignmentConfig config) {
+        Map<String, List<GroupRule>> rules = new LinkedHashMap<>();
+        Set<String> groups = new HashSet<>();
+        for (String rule : config.rules()) {
+            if (StringUtils.isNotBlank(rule)) {
+                GroupRule groupRule = GroupRule.parse(rule);
+                rules.computeIfAbsent(groupRule.getProperty(), property -> new ArrayList<>()).add(groupRule);
+                groups.add(groupRule.getGroupId());
+            }
+        }
+        rulesByProperty = rules;
+        managedGroups = groups;
+        int cacheSize = Math.max(1, config.cache_size());
+        assignedGroups = Collections.synchronizedMap(new LinkedHashMap<String, String>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+                return size() > cacheSize;
+            }
+        });
+        LOGGER.info("Group rules : {}", rules.values());
+    }
+
+    @Override
+    public void assign(User user) {
+        if (rulesByProperty.isEmpty()) {
+            return;
+        }
+        try {
+            String userId = user.getID();
+            SortedSet<String> matched = matchedGroups(user);
+            String assigned = String.join(",", matched);
+            if (assigned.equals(assignedGroups.get(userId))) {
+                return;
+            }
+            Set<String> current = managedMemberships(user);
+            List<String> added = new ArrayList<>();
+            List<String> removed = new ArrayList<>();
+            matched.stream().filter(group -> !current.contains(group)).forEach(added::add);
+            current.stream().filter(group -> !matched.contains(group)).forEach(removed::add);
+            boolean applied = (added.isEmpty() && removed.isEmpty()) || applyMemberships(userId, added, removed);
+            //a missing group or a membership which couldn't be changed is tried again at the next login
+            if (applied) {
+                assignedGroups.put(userId, assigned);
+            }
+        } catch (RepositoryException | LoginException e) {
+            LOGGER.warn("Unable to assign the groups of the user, they will be assigned at its next login", e);
+        }
+    }
+
+    private SortedSet<String> matchedGroups(User user) throws RepositoryException {
+        SortedSet<String> matched = new TreeSet<>();
+        for (Map.Entry<String, List<GroupRule>> property : rulesByProperty.entrySet()) {
+            Value[] values = user.getProperty(property.getKey());
+            if (Objects.isNull(values)) {
+                continue;
+            }
+            for (Value value : values) {
+                String string = value.getString();
+                for (GroupRule rule : property.getValue()) {
+                    if (rule.matches(string)) {
+                        matched.add(rule.getGroupId());
+                    }
+                }
+            }
+        }
+        return matched;
+    }
+
+    private Set<String> managedMemberships(User user) throws RepositoryException {
+        Set<String> memberships = new HashSet<>();
+        for (Iterator<Group> groups = user.declaredMemberOf(); groups.hasNext(); ) {
+            String groupId = groups.next().getID();
+            if (managedGroups.contains(groupId)) {
+                memberships.add(groupId);
+            }
+        }
+        return memberships;
+    }
+
+    /**
+     * @return false if some group doesn't exist or some membership couldn't be changed
+     */
+    private boolean applyMemberships(String userId, List<String> added, List<String> removed)
+            throws LoginException, RepositoryException {
+        boolean applied = true;
+        try (ResourceResolver resolver = resourceResolverFactory.getServiceResourceResolver(AUTH_INFO)) {
+            UserManager userManager = resolver.adaptTo(UserManager.class);
+            for (String groupId : added) {
+                Group group = getGroup(userManager, groupId);
+                if (Objects.isNull(group)) {
+                    applied = false;
+                } else if (!group.addMembers(userId).isEmpty()) {
+                    LOGGER.warn("User {} couldn't be added to group {}", userId, groupId);
+                    applied = false;
+                }
+            }
+            for (String groupId : removed) {
+                Group group = getGroup(userManager, groupId);
+                if (Objects.nonNull(group) && !group.removeMembers(userId).isEmpty()) {
+                    LOGGER.warn("User {} couldn't be removed from group {}", userId, groupId);
+                    applied = false;
+                }
+            }
+            resolver.adaptTo(Session.class).save();
+            LOGGER.debug("User {} added to {} and removed from {}", userId, added, removed);
+        }
+        return applied;
+    }
+
+    private Group getGroup(UserManager userManager, String groupId) throws RepositoryException {
+        String path = groupPaths.get(groupId);
+        Authorizable group = Objects.isNull(path) ? null : userManager.getAuthorizableByPath(path);
+        if (Objects.isNull(group)) {
+            //not cached yet, or moved since
+            group = userManager.getAuthorizable(groupId);
+        }
+        if (Objects.isNull(group) || !group.isGroup()) {
+            groupPaths.remove(groupId);
+            LOGGER.warn("Group {} of the group rules doesn't exist", groupId);
+            return null;
+        }
+        groupPaths.put(groupId, group.getPath());
+        return (Group) group;
+    }
+
+}
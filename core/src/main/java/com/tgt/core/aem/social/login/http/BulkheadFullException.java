@@ -0,0 +1,18 @@
+package com.tgt.core.aem.social.login.http;
+
+/**
+ * Thrown instead of sending a request to the social provider when too many requests are already in flight and the
+ * request couldn't wait for one of them to complete.
+ * <p>
+ * AEM's OAuth authentication handler fails the login as if the provider couldn't be reached, without holding the
+ * request thread.
+ */
+public class BulkheadFullException extends ProviderCallException {
+
+    private static final long serialVersionUID = 1L;
+
+    public BulkheadFullException(String message) {
+        super(ProviderFailure.BULKHEAD_FULL, message);
+    }
+
+}
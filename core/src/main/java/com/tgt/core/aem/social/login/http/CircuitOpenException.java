@@ -0,0 +1,15 @@
+package com.tgt.core.aem.social.login.http;
+
+/**
+ * Thrown instead of sending a request to an endpoint of the social provider which failed too often recently, so that
+ * the login fails right away instead of waiting for the provider to fail again.
+ */
+public class CircuitOpenException extends ProviderCallException {
+
+    private static final long serialVersionUID = 1L;
+
+    public CircuitOpenException(String message) {
+        super(ProviderFailure.CIRCUIT_OPEN, message);
+    }
+
+}
@@ -0,0 +1,125 @@
+package com.tgt.core.aem.social.login.http;
+
+import org.scribe.exceptions.OAuthException;
+import org.scribe.model.Response;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Constructor;
+import java.net.HttpURLConnection;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Factory for Scribe {@link Response}s whose body is already available in memory.
+ * <p>
+ * AEM's OAuth authentication handler always reads the user details through {@link org.scribe.model.Request#send()},
+ * so a request which can answer without going over the network (e.g. from a verified ID token) still has to return
+ * a Scribe {@link Response}. Scribe only creates them from an {@link HttpURLConnection} using a package private
+ * constructor, hence this factory hands that constructor an in-memory connection.
+ */
+public final class LocalResponses {
+
+    private LocalResponses() {
+    }
+
+    private static final String LOCAL_URL = "http://localhost/";
+
+    private static final Constructor<Response> RESPONSE_CONSTRUCTOR = responseConstructor();
+
+    private static Constructor<Response> responseConstructor() {
+        try {
+            Constructor<Response> constructor = Response.class.getDeclaredConstructor(HttpURLConnection.class);
+            constructor.setAccessible(true);
+            return constructor;
+        } catch (NoSuchMethodException | SecurityException e) {
+            throw new IllegalStateException("Scribe Response can't be created from an HttpURLConnection", e);
+        }
+    }
+
+    /**
+     * Create a JSON {@link Response}.
+     *
+     * @param code HTTP status code of the response
+     * @param body JSON body, encoded in UTF-8
+     * @return {@link Response}
+     */
+    public static Response json(int code, byte[] body) {
+        try {
+            return RESPONSE_CONSTRUCTOR.newInstance(new InMemoryConnection(code, body));
+        } catch (ReflectiveOperationException | IOException e) {
+            throw new OAuthException("Unable to create local response", e);
+        }
+    }
+
+    /**
+     * {@link HttpURLConnection} which is already connected and only serves the given body.
+     */
+    private static final class InMemoryConnection extends HttpURLConnection {
+
+        private static final Map<String, List<String>> HEADERS =
+                Collections.singletonMap("Content-Type", Collections.singletonList("application/json; charset=UTF-8"));
+
+        private final byte[] body;
+
+        private InMemoryConnection(int code, byte[] body) throws MalformedURLException {
+            super(new URL(LOCAL_URL));
+            this.responseCode = code;
+            this.responseMessage = "";
+            this.body = body;
+            this.connected = true;
+        }
+
+        @Override
+        public void connect() {
+            //nothing to connect to
+        }
+
+        @Override
+        public void disconnect() {
+            //nothing to disconnect from
+        }
+
+        @Override
+        public boolean usingProxy() {
+            return false;
+        }
+
+        @Override
+        public int getResponseCode() {
+            return responseCode;
+        }
+
+        @Override
+        public String getResponseMessage() {
+            return responseMessage;
+        }
+
+        @Override
+        public Map<String, List<String>> getHeaderFields() {
+            return HEADERS;
+        }
+
+        @Override
+        public String getHeaderField(String name) {
+            List<String> values = HEADERS.get(name);
+            return values == null ? null : values.get(0);
+        }
+
+        @Override
+        public InputStream getInputStream() {
+            return new ByteArrayInputStream(body);
+        }
+
+        @Override
+        public InputStream getErrorStream() {
+            return new ByteArrayInputStream(body);
+        }
+
+    }
+
+}
@@ -0,0 +1,38 @@
+package com.tgt.core.aem.social.login.http;
+
+import org.osgi.annotation.versioning.ConsumerType;
+import org.scribe.model.OAuthRequest;
+import org.scribe.model.Verb;
+
+/**
+ * Transport used for all the outbound calls made to a social provider during login, i.e. the access token exchange
+ * and the user details requests.
+ * <p>
+ * The requests created by a transport are sent using {@link OAuthRequest#send()}, either by us or by AEM's OAuth
+ * authentication handler, so an implementation controls how the request goes over the wire by returning its own
+ * {@link OAuthRequest} type.
+ */
+@ConsumerType
+public interface OAuthTransport {
+
+    /**
+     * Create a request which will be sent through this transport.
+     *
+     * @param verb HTTP method
+     * @param url  URL of the social provider endpoint
+     * @return {@link OAuthRequest}
+     */
+    OAuthRequest createRequest(Verb verb, String url);
+
+    /**
+     * Whether requests to an endpoint are currently sent, e.g. to not start a login which would fail at this
+     * endpoint anyway.
+     *
+     * @param url URL of the social provider endpoint
+     * @return false if requests to this endpoint currently fail right away
+     */
+    default boolean isAvailable(String url) {
+        return true;
+    }
+
+}
@@ -0,0 +1,49 @@
+package com.tgt.core.aem.social.login.http;
+
+import com.adobe.granite.jmx.annotation.Description;
+
+import javax.management.openmbean.TabularData;
+
+/**
+ * State of the bulkhead, circuit breakers and retries of the requests sent to the social provider.
+ */
+@Description("Requests sent to the social provider")
+public interface OutboundRequestsMBean {
+
+    @Description("Current limit of concurrent requests, lowered when the provider's latency rises")
+    int getLimit();
+
+    @Description("Configured maximum of concurrent requests")
+    int getMaxConcurrent();
+
+    @Description("Requests currently sent to the provider")
+    int getInFlight();
+
+    @Description("Requests currently waiting for a free slot")
+    int getQueued();
+
+    @Description("Requests rejected because the queue was full")
+    long getRejectedQueueFull();
+
+    @Description("Requests rejected because they waited too long for a free slot")
+    long getRejectedTimeout();
+
+    @Description("Long term average latency of the provider in milliseconds, the reference of the adaptive limit")
+    double getBaselineLatencyMs();
+
+    @Description("Recent average latency of the provider in milliseconds")
+    double getRecentLatencyMs();
+
+    @Description("Circuit breaker of each endpoint of the provider")
+    TabularData getCircuits();
+
+    @Description("Requests sent again after a transient failure")
+    long getRetries();
+
+    @Description("Retries not sent because the retry budget was exhausted")
+    long getRetriesDenied();
+
+    @Description("Close all the circuits")
+    void resetCircuits();
+
+}
@@ -0,0 +1,106 @@
+package com.tgt.core.aem.social.login.http;
+
+import com.tgt.core.aem.social.login.utils.ProfileDataReader;
+import org.scribe.exceptions.OAuthException;
+import org.scribe.model.Response;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Classified failure of a call to the social provider.
+ * <p>
+ * It is an {@link OAuthException} so that AEM's OAuth authentication handler fails the login as it does for any
+ * other error of the provider.
+ */
+public class ProviderCallException extends OAuthException {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final String ERROR = "error";
+    private static final String ERROR_DESCRIPTION = "error_description";
+    private static final ProfileDataReader ERROR_READER = ProfileDataReader.forFields(ERROR, ERROR_DESCRIPTION);
+
+    private final ProviderFailure failure;
+    private final int status;
+    private final String error;
+
+    /**
+     * @param failure classification of the failure
+     * @param message description of the failure
+     */
+    public ProviderCallException(ProviderFailure failure, String message) {
+        this(failure, 0, null, message);
+    }
+
+    /**
+     * @param failure classification of the failure
+     * @param status  HTTP status of the response, 0 if none was received
+     * @param error   OAuth {@code error} code of the response body, null if there is none
+     * @param message description of the failure
+     */
+    public ProviderCallException(ProviderFailure failure, int status, String error, String message) {
+        super(message);
+        this.failure = failure;
+        this.status = status;
+        this.error = error;
+    }
+
+    /**
+     * Classify a failed response from its status and the OAuth {@code error} of its body, e.g.
+     * {@code {"error": "invalid_grant", "error_description": "Bad Request"}}.
+     *
+     * @param endpoint name of the endpoint for the message, e.g. {@code token endpoint}
+     * @param response response whose status isn't successful, its body is consumed
+     * @return exception describing the failure
+     */
+    public static ProviderCallException fromResponse(String endpoint, Response response) {
+        int status = response.getCode();
+        Map<String, String> body = readError(response);
+        String error = body.get(ERROR);
+        ProviderFailure failure = ProviderFailure.ofStatus(status, error);
+        StringBuilder message = new StringBuilder("Google ").append(endpoint).append(" answered ").append(status);
+        if (Objects.nonNull(error)) {
+            message.append(' ').append(error);
+            if (Objects.nonNull(body.get(ERROR_DESCRIPTION))) {
+                message.append(" : ").append(body.get(ERROR_DESCRIPTION));
+            }
+        }
+        return new ProviderCallException(Objects.nonNull(failure) ? failure : ProviderFailure.INVALID_RESPONSE,
+                status, error, message.toString());
+    }
+
+    private static Map<String, String> readError(Response response) {
+        try (InputStream body = response.getStream()) {
+            return Objects.isNull(body) ? Collections.emptyMap() : ERROR_READER.read(body);
+        } catch (IOException | RuntimeException e) {
+            //not a JSON body, e.g. an HTML error page of a proxy
+            return Collections.emptyMap();
+        }
+    }
+
+    /**
+     * @return classification of the failure
+     */
+    public ProviderFailure getFailure() {
+        return failure;
+    }
+
+    /**
+     * @return HTTP status of the response, 0 if none was received
+     */
+    public int getStatus() {
+        return status;
+    }
+
+    /**
+     * @return OAuth {@code error} code of the response body, null if there is none
+     */
+    public String getError() {
+        return error;
+    }
+
+}
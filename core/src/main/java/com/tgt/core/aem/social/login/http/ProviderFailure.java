@@ -0,0 +1,112 @@
+package com.tgt.core.aem.social.login.http;
+
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.util.Objects;
+
+/**
+ * Classification of a failed call to the social provider.
+ */
+public enum ProviderFailure {
+
+    /**
+     * HTTP 429, the provider asks to slow down.
+     */
+    RATE_LIMITED(true),
+
+    /**
+     * The authorization code or refresh token is invalid, expired or was already used.
+     */
+    INVALID_GRANT(false),
+
+    /**
+     * Any other HTTP 4xx, the request itself is wrong.
+     */
+    CLIENT_ERROR(false),
+
+    /**
+     * HTTP 5xx.
+     */
+    SERVER_ERROR(true),
+
+    /**
+     * The connection or the response timed out.
+     */
+    TIMEOUT(true),
+
+    /**
+     * The provider couldn't be reached.
+     */
+    CONNECTION(true),
+
+    /**
+     * The call wasn't sent because the circuit breaker of the endpoint is open.
+     */
+    CIRCUIT_OPEN(false),
+
+    /**
+     * The call wasn't sent because too many calls were already in flight.
+     */
+    BULKHEAD_FULL(false),
+
+    /**
+     * The response can't be understood.
+     */
+    INVALID_RESPONSE(false);
+
+    private static final String INVALID_GRANT_ERROR = "invalid_grant";
+
+    private final boolean transientFailure;
+
+    ProviderFailure(boolean transientFailure) {
+        this.transientFailure = transientFailure;
+    }
+
+    /**
+     * @return whether the same call may succeed if sent again a bit later
+     */
+    public boolean isTransient() {
+        return transientFailure;
+    }
+
+    /**
+     * @param status HTTP status of the response
+     * @param error  OAuth {@code error} code of the response body, null if there is none
+     * @return failure of the response, null if the status isn't a failure
+     */
+    public static ProviderFailure ofStatus(int status, String error) {
+        if (status == 429) {
+            return RATE_LIMITED;
+        }
+        if (status >= 500) {
+            return SERVER_ERROR;
+        }
+        if (status >= 400) {
+            return INVALID_GRANT_ERROR.equals(error) ? INVALID_GRANT : CLIENT_ERROR;
+        }
+        return null;
+    }
+
+    /**
+     * @param failure exception thrown while calling the provider
+     * @return failure of the exception or of its first classified cause, {@link #INVALID_RESPONSE} if none
+     */
+    public static ProviderFailure of(Throwable failure) {
+        for (Throwable cause = failure; Objects.nonNull(cause); cause = cause.getCause()) {
+            if (cause instanceof ProviderCallException) {
+                return ((ProviderCallException) cause).getFailure();
+            }
+            if (cause instanceof SocketTimeoutException) {
+                return TIMEOUT;
+            }
+            if (cause instanceof IOException) {
+                return CONNECTION;
+            }
+            if (cause.getCause() == cause) {
+                break;
+            }
+        }
+        return INVALID_RESPONSE;
+    }
+
+}
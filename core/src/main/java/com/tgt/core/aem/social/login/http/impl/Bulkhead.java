@@ -0,0 +1,183 @@
+package com.tgt.core.aem.social.login.http.impl;
+
+import com.tgt.core.aem.social.login.http.BulkheadFullException;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Bounds the requests in flight to the social provider, so that a slow provider can't park all the request threads
+ * of the instance.
+ * <p>
+ * A request beyond the limit waits in a bounded queue for at most the max wait time, it is rejected right away if the
+ * queue is full. When adaptive, the limit moves between the min and the max concurrency following the gradient of
+ * the provider's latency: it shrinks while the recent latency is above the tolerated multiple of the long term
+ * latency, and grows back by the square root of the limit per request while the latency is normal.
+ */
+final class Bulkhead {
+
+    //weights of a new latency sample in the recent and long term averages
+    private static final double RECENT_WEIGHT = 0.1;
+    private static final double BASELINE_WEIGHT = 0.002;
+    //weight of the new limit, to not overreact to a single slow request
+    private static final double LIMIT_SMOOTHING = 0.2;
+    private static final double MIN_GRADIENT = 0.5;
+
+    private final BulkheadSettings settings;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition slotReleased = lock.newCondition();
+    private final LongAdder rejectedQueueFull = new LongAdder();
+    private final LongAdder rejectedTimeout = new LongAdder();
+
+    //guarded by lock
+    private double limit;
+    private int inFlight;
+    private int queued;
+    private double recentLatencyNanos;
+    private double baselineLatencyNanos;
+
+    Bulkhead(BulkheadSettings settings) {
+        this.settings = settings;
+        this.limit = settings.getMaxConcurrent();
+    }
+
+    /**
+     * Take a slot, waiting for one if none is free.
+     *
+     * @throws BulkheadFullException in case the queue is full or no slot got free in time
+     */
+    void acquire() {
+        lock.lock();
+        try {
+            if (inFlight < (int) limit) {
+                inFlight++;
+                return;
+            }
+            if (queued >= settings.getMaxQueued()) {
+                rejectedQueueFull.increment();
+                throw new BulkheadFullException("Too many requests to the social provider, " + inFlight
+                        + " in flight and " + queued + " queued");
+            }
+            long remainingNanos = TimeUnit.MILLISECONDS.toNanos(settings.getMaxWaitMs());
+            queued++;
+            try {
+                while (inFlight >= (int) limit) {
+                    if (remainingNanos <= 0) {
+                        rejectedTimeout.increment();
+                        throw new BulkheadFullException("No request slot to the social provider got free within "
+                                + settings.getMaxWaitMs() + " ms");
+                    }
+                    remainingNanos = slotReleased.awaitNanos(remainingNanos);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new BulkheadFullException("Interrupted while waiting for a request slot to the social provider");
+            } finally {
+                queued--;
+            }
+            inFlight++;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Give back a slot.
+     *
+     * @param latencyNanos time the request took, failed requests included since timeouts are the slowest requests
+     */
+    void release(long latencyNanos) {
+        lock.lock();
+        try {
+            inFlight--;
+            if (settings.isAdaptive()) {
+                adapt(latencyNanos);
+            }
+            if (inFlight < (int) limit) {
+                slotReleased.signalAll();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void adapt(long latencyNanos) {
+        if (baselineLatencyNanos == 0) {
+            baselineLatencyNanos = latencyNanos;
+            recentLatencyNanos = latencyNanos;
+            return;
+        }
+        recentLatencyNanos += (latencyNanos - recentLatencyNanos) * RECENT_WEIGHT;
+        baselineLatencyNanos += (latencyNanos - baselineLatencyNanos) * BASELINE_WEIGHT;
+        //a lasting slowdown becomes the new normal instead of keeping the limit at its minimum forever
+        if (baselineLatencyNanos * 2 < recentLatencyNanos) {
+            baselineLatencyNanos *= 1 + BASELINE_WEIGHT * 10;
+        }
+
+        double gradient = Math.max(MIN_GRADIENT, Math.min(1,
+                settings.getLatencyTolerance() * baselineLatencyNanos / recentLatencyNanos));
+        double newLimit = limit * gradient + (gradient == 1 ? Math.sqrt(limit) : 0);
+        limit = Math.max(settings.getMinConcurrent(), Math.min(settings.getMaxConcurrent(),
+                limit * (1 - LIMIT_SMOOTHING) + newLimit * LIMIT_SMOOTHING));
+    }
+
+    BulkheadSettings getSettings() {
+        return settings;
+    }
+
+    int getLimit() {
+        lock.lock();
+        try {
+            return (int) limit;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    int getInFlight() {
+        lock.lock();
+        try {
+            return inFlight;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    int getQueued() {
+        lock.lock();
+        try {
+            return queued;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    long getRejectedQueueFull() {
+        return rejectedQueueFull.sum();
+    }
+
+    long getRejectedTimeout() {
+        return rejectedTimeout.sum();
+    }
+
+    double getBaselineLatencyNanos() {
+        lock.lock();
+        try {
+            return baselineLatencyNanos;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    double getRecentLatencyNanos() {
+        lock.lock();
+        try {
+            return recentLatencyNanos;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+}
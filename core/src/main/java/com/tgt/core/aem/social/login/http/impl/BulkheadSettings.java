@@ -0,0 +1,61 @@
+package com.tgt.core.aem.social.login.http.impl;
+
+/**
+ * Immutable settings of the {@link Bulkhead} of {@link KeepAliveOAuthTransport}.
+ */
+final class BulkheadSettings {
+
+    private static final int DEFAULT_MAX_CONCURRENT = 50;
+    private static final int DEFAULT_MIN_CONCURRENT = 5;
+    private static final double DEFAULT_LATENCY_TOLERANCE = 2;
+
+    private final int maxConcurrent;
+    private final int minConcurrent;
+    private final int maxQueued;
+    private final int maxWaitMs;
+    private final boolean adaptive;
+    private final double latencyTolerance;
+
+    BulkheadSettings(int maxConcurrent, int minConcurrent, int maxQueued, int maxWaitMs, boolean adaptive,
+                     double latencyTolerance) {
+        this.maxConcurrent = maxConcurrent > 0 ? maxConcurrent : DEFAULT_MAX_CONCURRENT;
+        this.minConcurrent = Math.min(minConcurrent > 0 ? minConcurrent : DEFAULT_MIN_CONCURRENT,
+                this.maxConcurrent);
+        this.maxQueued = Math.max(0, maxQueued);
+        this.maxWaitMs = Math.max(0, maxWaitMs);
+        this.adaptive = adaptive;
+        //below 1 the limit would shrink even when the latency is normal
+        this.latencyTolerance = latencyTolerance >= 1 ? latencyTolerance : DEFAULT_LATENCY_TOLERANCE;
+    }
+
+    int getMaxConcurrent() {
+        return maxConcurrent;
+    }
+
+    int getMinConcurrent() {
+        return minConcurrent;
+    }
+
+    int getMaxQueued() {
+        return maxQueued;
+    }
+
+    int getMaxWaitMs() {
+        return maxWaitMs;
+    }
+
+    boolean isAdaptive() {
+        return adaptive;
+    }
+
+    double getLatencyTolerance() {
+        return latencyTolerance;
+    }
+
+    @Override
+    public String toString() {
+        return "maxConcurrent=" + maxConcurrent + ", minConcurrent=" + minConcurrent + ", maxQueued=" + maxQueued
+                + ", maxWait=" + maxWaitMs + "ms, adaptive=" + adaptive + ", latencyTolerance=" + latencyTolerance;
+    }
+
+}
@@ -0,0 +1,203 @@
+package com.tgt.core.aem.social.login.http.impl;
+
+import com.tgt.core.aem.social.login.http.CircuitOpenException;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Circuit breaker of an endpoint of the social provider.
+ * <p>
+ * While closed, the outcomes of the last calls are kept in a sliding window and the circuit opens once the share of
+ * failed calls reaches the threshold. While open, calls fail right away with a {@link CircuitOpenException}. After
+ * the open time a single trial call is let through: the circuit closes if it succeeds and opens again if it fails.
+ * <p>
+ * Only the failures of the endpoint count, i.e. 5xx, 429, timeouts and connection errors. Client errors like an
+ * invalid authorization code mean the endpoint works.
+ */
+final class CircuitBreaker {
+
+    enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    private final String endpoint;
+    private final CircuitBreakerSettings settings;
+    private final long openNanos;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final LongAdder rejected = new LongAdder();
+
+    //guarded by lock
+    private final boolean[] failedCalls;
+    private int calls;
+    private int failures;
+    private int next;
+    private State state = State.CLOSED;
+    private long openedAt;
+    private boolean trialInFlight;
+
+    CircuitBreaker(String endpoint, CircuitBreakerSettings settings) {
+        this.endpoint = endpoint;
+        this.settings = settings;
+        this.openNanos = TimeUnit.MILLISECONDS.toNanos(settings.getOpenMs());
+        this.failedCalls = new boolean[settings.getWindowSize()];
+    }
+
+    /**
+     * Let a call through, to be followed by one of {@link #onSuccess()}, {@link #onFailure()} or
+     * {@link #onNotSent()}.
+     *
+     * @throws CircuitOpenException in case the circuit is open
+     */
+    void acquire() {
+        lock.lock();
+        try {
+            if (state == State.OPEN) {
+                if (System.nanoTime() - openedAt < openNanos) {
+                    reject();
+                }
+                state = State.HALF_OPEN;
+                trialInFlight = false;
+            }
+            if (state == State.HALF_OPEN) {
+                if (trialInFlight) {
+                    reject();
+                }
+                trialInFlight = true;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void reject() {
+        rejected.increment();
+        throw new CircuitOpenException("Circuit of " + endpoint + " is open after too many failures");
+    }
+
+    /**
+     * @return false if a call would fail right away
+     */
+    boolean isCallPermitted() {
+        lock.lock();
+        try {
+            return state == State.CLOSED || (state == State.OPEN && System.nanoTime() - openedAt >= openNanos)
+                    || (state == State.HALF_OPEN && !trialInFlight);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    void onSuccess() {
+        lock.lock();
+        try {
+            if (state == State.HALF_OPEN) {
+                close();
+            } else if (state == State.CLOSED) {
+                record(false);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    void onFailure() {
+        lock.lock();
+        try {
+            if (state == State.HALF_OPEN) {
+                open();
+            } else if (state == State.CLOSED) {
+                record(true);
+                if (calls >= settings.getMinimumCalls()
+                        && failures * 100 >= settings.getFailureRatePercent() * calls) {
+                    open();
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * The call wasn't sent after all, e.g. rejected by the bulkhead.
+     */
+    void onNotSent() {
+        lock.lock();
+        try {
+            if (state == State.HALF_OPEN) {
+                trialInFlight = false;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    void reset() {
+        lock.lock();
+        try {
+            close();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void record(boolean failed) {
+        if (calls == failedCalls.length) {
+            if (failedCalls[next]) {
+                failures--;
+            }
+        } else {
+            calls++;
+        }
+        failedCalls[next] = failed;
+        if (failed) {
+            failures++;
+        }
+        next = (next + 1) % failedCalls.length;
+    }
+
+    private void open() {
+        state = State.OPEN;
+        openedAt = System.nanoTime();
+        trialInFlight = false;
+    }
+
+    private void close() {
+        state = State.CLOSED;
+        calls = 0;
+        failures = 0;
+        next = 0;
+        trialInFlight = false;
+    }
+
+    String getEndpoint() {
+        return endpoint;
+    }
+
+    State getState() {
+        lock.lock();
+        try {
+            return state;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return share of failed calls in the sliding window, from 0 to 100
+     */
+    double getFailureRatePercent() {
+        lock.lock();
+        try {
+            return calls == 0 ? 0 : failures * 100.0 / calls;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    long getRejected() {
+        return rejected.sum();
+    }
+
+}
@@ -0,0 +1,53 @@
+package com.tgt.core.aem.social.login.http.impl;
+
+/**
+ * Immutable settings of the {@link CircuitBreaker}s of {@link KeepAliveOAuthTransport}.
+ */
+final class CircuitBreakerSettings {
+
+    private static final int DEFAULT_FAILURE_RATE = 50;
+    private static final int DEFAULT_WINDOW_SIZE = 20;
+    private static final int DEFAULT_OPEN_MS = 10000;
+
+    private final boolean enabled;
+    private final int failureRatePercent;
+    private final int windowSize;
+    private final int minimumCalls;
+    private final int openMs;
+
+    CircuitBreakerSettings(boolean enabled, int failureRatePercent, int windowSize, int minimumCalls, int openMs) {
+        this.enabled = enabled;
+        this.failureRatePercent = failureRatePercent > 0 && failureRatePercent <= 100 ? failureRatePercent
+                : DEFAULT_FAILURE_RATE;
+        this.windowSize = windowSize > 0 ? windowSize : DEFAULT_WINDOW_SIZE;
+        this.minimumCalls = Math.max(1, Math.min(minimumCalls, this.windowSize));
+        this.openMs = openMs > 0 ? openMs : DEFAULT_OPEN_MS;
+    }
+
+    boolean isEnabled() {
+        return enabled;
+    }
+
+    int getFailureRatePercent() {
+        return failureRatePercent;
+    }
+
+    int getWindowSize() {
+        return windowSize;
+    }
+
+    int getMinimumCalls() {
+        return minimumCalls;
+    }
+
+    int getOpenMs() {
+        return openMs;
+    }
+
+    @Override
+    public String toString() {
+        return "enabled=" + enabled + ", failureRate=" + failureRatePercent + "%, window=" + windowSize
+                + ", minimumCalls=" + minimumCalls + ", open=" + openMs + "ms";
+    }
+
+}
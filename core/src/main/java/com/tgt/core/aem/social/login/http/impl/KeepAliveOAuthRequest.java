@@ -0,0 +1,216 @@
+package com.tgt.core.aem.social.login.http.impl;
+
+import com.tgt.core.aem.social.login.http.ProviderCallException;
+import com.tgt.core.aem.social.login.http.ProviderFailure;
+import com.tgt.core.aem.social.login.metrics.LoginMetrics;
+import com.tgt.core.aem.social.login.metrics.LoginPhase;
+import org.scribe.exceptions.OAuthConnectionException;
+import org.scribe.model.OAuthRequest;
+import org.scribe.model.Request;
+import org.scribe.model.RequestTuner;
+import org.scribe.model.Response;
+import org.scribe.model.Verb;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link OAuthRequest} created by {@link KeepAliveOAuthTransport}.
+ * <p>
+ * The request is sent only if the circuit breaker of its endpoint is closed and once it got a slot of the
+ * transport's {@link Bulkhead}, the slot is given back as soon as the response headers are received.
+ * <p>
+ * GET requests failing transiently (5xx, 429, timeout or connection error) are sent again after a jittered backoff,
+ * as long as the retry budget and the retry deadline allow it. Other requests, e.g. the access token exchange
+ * whose authorization code can only be used once, are never retried. A failed response which isn't retried is
+ * returned as is, classifying it is up to the caller.
+ * <p>
+ * The request opens its connection itself, since Scribe sets the JVM-wide {@code http.keepAlive} system property
+ * each time it opens one. Its connection is then a regular keep-alive connection of the JVM, which goes back to
+ * the JVM's pool of idle connections once the response body is read fully (e.g.
+ * {@link org.scribe.model.Response#getBody()}) or its stream closed.
+ */
+class KeepAliveOAuthRequest extends OAuthRequest {
+
+    private static final Method SET_CONNECTION = setConnectionMethod();
+
+    private final OutboundPolicies policies;
+    private final LoginMetrics loginMetrics;
+
+    KeepAliveOAuthRequest(Verb verb, String url, OutboundPolicies policies, LoginMetrics loginMetrics) {
+        this(verb, url, policies, policies.getTimeouts(), loginMetrics);
+    }
+
+    private KeepAliveOAuthRequest(Verb verb, String url, OutboundPolicies policies, RequestTimeouts timeouts,
+                                  LoginMetrics loginMetrics) {
+        super(verb, url);
+        this.policies = policies;
+        this.loginMetrics = loginMetrics;
+        if (Objects.isNull(SET_CONNECTION)) {
+            //Scribe opens the connection, it should at least not turn keep-alive off for the whole JVM
+            setConnectionKeepAlive(true);
+        }
+        setConnectTimeout(timeouts.getConnectTimeoutMs(), TimeUnit.MILLISECONDS);
+        setReadTimeout(timeouts.getReadTimeoutMs(), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @return Scribe's method setting the connection of a request, null if this version of Scribe doesn't have it
+     */
+    private static Method setConnectionMethod() {
+        try {
+            Method method = Request.class.getDeclaredMethod("setConnection", HttpURLConnection.class);
+            method.setAccessible(true);
+            return method;
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            LoggerFactory.getLogger(KeepAliveOAuthRequest.class)
+                    .warn("Scribe opens the connections of the requests to the social provider : {}", e.toString());
+            return null;
+        }
+    }
+
+    /**
+     * {@link #send()} delegates to this method.
+     */
+    @Override
+    public Response send(RequestTuner tuner) {
+        CircuitBreaker circuit = policies.circuitFor(getUrl());
+        RetryPolicy retryPolicy = policies.getRetryPolicy();
+        int maxRetries = getVerb() == Verb.GET ? retryPolicy.getMaxRetries() : 0;
+        long deadline = System.nanoTime()
+                + TimeUnit.MILLISECONDS.toNanos(policies.getTimeouts().getRetryDeadlineMs());
+        retryPolicy.onRequest();
+
+        KeepAliveOAuthRequest attempt = this;
+        for (int retry = 1; ; retry++) {
+            Response response = null;
+            RuntimeException exception = null;
+            ProviderFailure failure;
+            if (Objects.nonNull(circuit)) {
+                circuit.acquire();
+            }
+            try {
+                response = attempt.sendOnce(tuner);
+                failure = ProviderFailure.ofStatus(response.getCode(), null);
+            } catch (RuntimeException e) {
+                exception = e;
+                failure = ProviderFailure.of(e);
+            }
+            if (Objects.nonNull(circuit)) {
+                if (failure == ProviderFailure.BULKHEAD_FULL) {
+                    circuit.onNotSent();
+                } else if (Objects.nonNull(failure) && failure.isTransient()) {
+                    circuit.onFailure();
+                } else {
+                    circuit.onSuccess();
+                }
+            }
+
+            if (Objects.isNull(failure) || !failure.isTransient() || retry > maxRetries
+                    || !waitBeforeRetry(retryPolicy, retry, deadline)) {
+                if (Objects.nonNull(exception)) {
+                    throw exception;
+                }
+                return response;
+            }
+            discard(response);
+            attempt = copy(policies.getTimeouts().within(
+                    TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime())));
+        }
+    }
+
+    /**
+     * @return false if the request must not be retried
+     */
+    private static boolean waitBeforeRetry(RetryPolicy retryPolicy, int retry, long deadline) {
+        long backoff = retryPolicy.backoffNanos(retry);
+        //a retry starting after the deadline would only hold the request thread longer
+        if (System.nanoTime() + backoff - deadline >= 0 || !retryPolicy.tryRetry()) {
+            return false;
+        }
+        try {
+            TimeUnit.NANOSECONDS.sleep(backoff);
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    private Response sendOnce(RequestTuner tuner) {
+        long waitStart = loginMetrics.start();
+        Bulkhead bulkhead = policies.getBulkhead();
+        try {
+            bulkhead.acquire();
+        } catch (ProviderCallException e) {
+            loginMetrics.recordFailure(LoginPhase.OUTBOUND_QUEUE_WAIT, e);
+            throw e;
+        } finally {
+            loginMetrics.record(LoginPhase.OUTBOUND_QUEUE_WAIT, waitStart);
+        }
+        long start = System.nanoTime();
+        try {
+            openConnection();
+            return super.send(tuner);
+        } finally {
+            bulkhead.release(System.nanoTime() - start);
+        }
+    }
+
+    private void openConnection() {
+        if (Objects.isNull(SET_CONNECTION)) {
+            return;
+        }
+        try {
+            HttpURLConnection connection = (HttpURLConnection) new URL(getCompleteUrl()).openConnection();
+            SET_CONNECTION.invoke(this, connection);
+        } catch (IOException e) {
+            throw new OAuthConnectionException(e);
+        } catch (IllegalAccessException | InvocationTargetException e) {
+            throw new IllegalStateException("Unable to set the connection of the request", e);
+        }
+    }
+
+    /**
+     * A Scribe request keeps its connection once sent, so a retry is sent by a copy of the request.
+     *
+     * @param timeouts timeouts of the retry
+     */
+    private KeepAliveOAuthRequest copy(RequestTimeouts timeouts) {
+        //the complete URL has the query string parameters already
+        KeepAliveOAuthRequest copy = new KeepAliveOAuthRequest(getVerb(), getCompleteUrl(), policies, timeouts,
+                loginMetrics);
+        for (Map.Entry<String, String> header : getHeaders().entrySet()) {
+            copy.addHeader(header.getKey(), header.getValue());
+        }
+        return copy;
+    }
+
+    /**
+     * Read the rest of a failed response so that its connection goes back to the keep-alive pool.
+     */
+    private static void discard(Response response) {
+        if (Objects.isNull(response)) {
+            return;
+        }
+        try (InputStream stream = response.getStream()) {
+            if (Objects.nonNull(stream)) {
+                byte[] buffer = new byte[1024];
+                while (stream.read(buffer) != -1) {
+                    //discarded
+                }
+            }
+        } catch (IOException e) {
+            //the connection is simply not reused
+        }
+    }
+
+}
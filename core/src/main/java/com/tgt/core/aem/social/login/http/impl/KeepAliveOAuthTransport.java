@@ -0,0 +1,251 @@
+package com.tgt.core.aem.social.login.http.impl;
+
+import com.adobe.granite.jmx.annotation.AnnotatedStandardMBean;
+import com.tgt.core.aem.social.login.http.OAuthTransport;
+import com.tgt.core.aem.social.login.http.OutboundRequestsMBean;
+import com.tgt.core.aem.social.login.metrics.LoginMetrics;
+import org.osgi.service.component.annotations.Activate;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Modified;
+import org.osgi.service.component.annotations.Reference;
+import org.osgi.service.metatype.annotations.AttributeDefinition;
+import org.osgi.service.metatype.annotations.Designate;
+import org.osgi.service.metatype.annotations.ObjectClassDefinition;
+import org.scribe.model.OAuthRequest;
+import org.scribe.model.Verb;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.DynamicMBean;
+import javax.management.NotCompliantMBeanException;
+import javax.management.openmbean.CompositeDataSupport;
+import javax.management.openmbean.CompositeType;
+import javax.management.openmbean.OpenDataException;
+import javax.management.openmbean.OpenType;
+import javax.management.openmbean.SimpleType;
+import javax.management.openmbean.TabularData;
+import javax.management.openmbean.TabularDataSupport;
+import javax.management.openmbean.TabularType;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Default {@link OAuthTransport} which keeps the connections to the social provider alive between logins.
+ * <p>
+ * Scribe sets the JVM-wide {@code http.keepAlive} system property each time it opens a connection, to false unless
+ * asked otherwise, so whichever request first opens a connection in the JVM may turn keep-alive off for every
+ * connection of the instance. Requests created by this transport open their connection themselves and leave the
+ * property alone: their connections are kept alive and pooled per host by the JVM ({@code http.maxConnections} idle
+ * connections per host, 5 by default), so the next login reuses them instead of doing a new TLS handshake. They
+ * also get explicit connect and read timeouts, and are only retried within a retry deadline.
+ * <p>
+ * The number of requests in flight is bounded by a {@link Bulkhead}, so that a slow provider fails the logins fast
+ * instead of parking every request thread of the instance. Each endpoint of the provider has a {@link CircuitBreaker}
+ * failing the requests right away while the endpoint keeps failing, and idempotent requests are retried within a
+ * budget (see {@link RetryPolicy}). Their state is exposed as an MBean.
+ */
+@Component(service = {OAuthTransport.class, DynamicMBean.class},
+        property = "jmx.objectname=com.tgt.core.aem.social.login:type=OutboundRequests")
+@Designate(ocd = KeepAliveOAuthTransport.KeepAliveOAuthTransportConfig.class)
+public class KeepAliveOAuthTransport extends AnnotatedStandardMBean implements OAuthTransport,
+        OutboundRequestsMBean {
+
+    private final Logger LOGGER = LoggerFactory.getLogger(KeepAliveOAuthTransport.class);
+
+    @ObjectClassDefinition(name = "The Grey Teacher OAuth Keep-Alive Transport")
+    public @interface KeepAliveOAuthTransportConfig {
+
+        @AttributeDefinition(name = "Connect Timeout", description = "Connect timeout in milliseconds")
+        int connect_timeout_ms() default 2000;
+
+        @AttributeDefinition(name = "Read Timeout", description = "Socket read timeout in milliseconds")
+        int read_timeout_ms() default 5000;
+
+        @AttributeDefinition(name = "Retry Deadline",
+                description = "Time in milliseconds from the first attempt of a request after which it isn't " +
+                        "retried, the connect and read timeouts of a retry are shortened to the time left")
+        int retry_deadline_ms() default 7000;
+
+        @AttributeDefinition(name = "Max Concurrent Requests",
+                description = "Maximum number of requests in flight to the social provider")
+        int bulkhead_max_concurrent() default 50;
+
+        @AttributeDefinition(name = "Min Concurrent Requests",
+                description = "Lowest limit of requests in flight the adaptive limit can shrink to")
+        int bulkhead_min_concurrent() default 5;
+
+        @AttributeDefinition(name = "Max Queued Requests",
+                description = "Maximum number of requests waiting for a free slot, the next ones fail right away. " +
+                        "0 fails every request beyond the limit.")
+        int bulkhead_max_queued() default 20;
+
+        @AttributeDefinition(name = "Max Queue Wait",
+                description = "Time in milliseconds a request may wait for a free slot before failing")
+        int bulkhead_max_wait_ms() default 500;
+
+        @AttributeDefinition(name = "Adaptive Limit",
+                description = "Lower the limit of requests in flight when the social provider's latency rises")
+        boolean bulkhead_adaptive() default true;
+
+        @AttributeDefinition(name = "Latency Tolerance",
+                description = "How many times its usual latency the social provider may take before the adaptive " +
+                        "limit shrinks")
+        double bulkhead_latency_tolerance() default 2;
+
+        @AttributeDefinition(name = "Circuit Breakers",
+                description = "Fail the requests to an endpoint right away while it keeps failing")
+        boolean circuit_enabled() default true;
+
+        @AttributeDefinition(name = "Circuit Failure Rate",
+                description = "Percentage of failed requests among the last requests to an endpoint which opens " +
+                        "its circuit. 5xx, 429, timeouts and connection errors are failures.")
+        int circuit_failure_rate() default 50;
+
+        @AttributeDefinition(name = "Circuit Window Size",
+                description = "Number of last requests to an endpoint the failure rate is computed on")
+        int circuit_window_size() default 20;
+
+        @AttributeDefinition(name = "Circuit Minimum Requests",
+                description = "Number of requests to an endpoint before its circuit can open")
+        int circuit_minimum_calls() default 10;
+
+        @AttributeDefinition(name = "Circuit Open Time",
+                description = "Time in milliseconds an open circuit fails the requests before letting a trial " +
+                        "request through")
+        int circuit_open_ms() default 10000;
+
+        @AttributeDefinition(name = "Max Retries",
+                description = "Maximum number of retries of a GET request failing transiently, 0 disables retries")
+        int retry_max_retries() default 2;
+
+        @AttributeDefinition(name = "Retry Backoff",
+                description = "Maximum random wait in milliseconds before the first retry, doubled at each retry")
+        int retry_backoff_ms() default 100;
+
+        @AttributeDefinition(name = "Retry Max Backoff",
+                description = "Maximum random wait in milliseconds before any retry")
+        int retry_max_backoff_ms() default 1000;
+
+        @AttributeDefinition(name = "Retry Budget",
+                description = "Retries allowed per 100 requests, so that an incident of the provider doesn't " +
+                        "multiply the requests")
+        int retry_budget_percent() default 10;
+
+    }
+
+    private static final String[] CIRCUIT_ITEMS = {"endpoint", "state", "failureRatePercent", "rejected"};
+
+    //target of this reference can be changed using "loginMetrics.target" property of this transport's config
+    @Reference
+    private LoginMetrics loginMetrics = LoginMetrics.DISABLED;
+
+    private volatile OutboundPolicies policies = new OutboundPolicies(RequestTimeouts.DEFAULT,
+            new Bulkhead(new BulkheadSettings(0, 0, 0, 0, false, 0)),
+            new CircuitBreakerSettings(true, 0, 0, 0, 0), new RetryPolicy(2, 100, 1000, 10));
+
+    public KeepAliveOAuthTransport() throws NotCompliantMBeanException {
+        super(OutboundRequestsMBean.class);
+    }
+
+    @Activate
+    @Modified
+    protected void activate(KeepAliveOAuthTransportConfig config) {
+        //requests in flight keep using the previous policies
+        policies = new OutboundPolicies(
+                new RequestTimeouts(config.connect_timeout_ms(), config.read_timeout_ms(),
+                        config.retry_deadline_ms()),
+                new Bulkhead(new BulkheadSettings(config.bulkhead_max_concurrent(),
+                        config.bulkhead_min_concurrent(), config.bulkhead_max_queued(),
+                        config.bulkhead_max_wait_ms(), config.bulkhead_adaptive(),
+                        config.bulkhead_latency_tolerance())),
+                new CircuitBreakerSettings(config.circuit_enabled(), config.circuit_failure_rate(),
+                        config.circuit_window_size(), config.circuit_minimum_calls(), config.circuit_open_ms()),
+                new RetryPolicy(config.retry_max_retries(), config.retry_backoff_ms(),
+                        config.retry_max_backoff_ms(), config.retry_budget_percent()));
+        LOGGER.info("OAuth transport {}", policies);
+    }
+
+    @Override
+    public OAuthRequest createRequest(Verb verb, String url) {
+        return new KeepAliveOAuthRequest(verb, url, policies, loginMetrics);
+    }
+
+    @Override
+    public boolean isAvailable(String url) {
+        CircuitBreaker circuit = policies.circuitFor(url);
+        return circuit == null || circuit.isCallPermitted();
+    }
+
+    @Override
+    public int getLimit() {
+        return policies.getBulkhead().getLimit();
+    }
+
+    @Override
+    public int getMaxConcurrent() {
+        return policies.getBulkhead().getSettings().getMaxConcurrent();
+    }
+
+    @Override
+    public int getInFlight() {
+        return policies.getBulkhead().getInFlight();
+    }
+
+    @Override
+    public int getQueued() {
+        return policies.getBulkhead().getQueued();
+    }
+
+    @Override
+    public long getRejectedQueueFull() {
+        return policies.getBulkhead().getRejectedQueueFull();
+    }
+
+    @Override
+    public long getRejectedTimeout() {
+        return policies.getBulkhead().getRejectedTimeout();
+    }
+
+    @Override
+    public double getBaselineLatencyMs() {
+        return policies.getBulkhead().getBaselineLatencyNanos() / TimeUnit.MILLISECONDS.toNanos(1);
+    }
+
+    @Override
+    public double getRecentLatencyMs() {
+        return policies.getBulkhead().getRecentLatencyNanos() / TimeUnit.MILLISECONDS.toNanos(1);
+    }
+
+    @Override
+    public TabularData getCircuits() {
+        try {
+            CompositeType rowType = new CompositeType("circuit", "Circuit breaker of an endpoint", CIRCUIT_ITEMS,
+                    new String[]{"Endpoint", "State", "Failure rate of the last requests", "Rejected requests"},
+                    new OpenType<?>[]{SimpleType.STRING, SimpleType.STRING, SimpleType.DOUBLE, SimpleType.LONG});
+            TabularDataSupport table = new TabularDataSupport(new TabularType("circuits",
+                    "Circuit breakers of the endpoints", rowType, new String[]{"endpoint"}));
+            for (CircuitBreaker circuit : policies.getCircuits()) {
+                table.put(new CompositeDataSupport(rowType, CIRCUIT_ITEMS, new Object[]{circuit.getEndpoint(),
+                        circuit.getState().name(), circuit.getFailureRatePercent(), circuit.getRejected()}));
+            }
+            return table;
+        } catch (OpenDataException e) {
+            throw new IllegalStateException("Unable to create the circuits table", e);
+        }
+    }
+
+    @Override
+    public long getRetries() {
+        return policies.getRetryPolicy().getRetries();
+    }
+
+    @Override
+    public long getRetriesDenied() {
+        return policies.getRetryPolicy().getDenied();
+    }
+
+    @Override
+    public void resetCircuits() {
+        policies.getCircuits().forEach(CircuitBreaker::reset);
+    }
+
+}
@@ -0,0 +1,69 @@
+package com.tgt.core.aem.social.login.http.impl;
+
+import java.util.Collection;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Timeouts, bulkhead, circuit breakers and retries applied to the requests of {@link KeepAliveOAuthTransport}, as
+ * configured at a time. A new instance replaces the previous one when the transport's configuration changes.
+ */
+final class OutboundPolicies {
+
+    private final RequestTimeouts timeouts;
+    private final Bulkhead bulkhead;
+    private final CircuitBreakerSettings circuitSettings;
+    private final RetryPolicy retryPolicy;
+    private final ConcurrentMap<String, CircuitBreaker> circuits = new ConcurrentHashMap<>();
+
+    OutboundPolicies(RequestTimeouts timeouts, Bulkhead bulkhead, CircuitBreakerSettings circuitSettings,
+                     RetryPolicy retryPolicy) {
+        this.timeouts = timeouts;
+        this.bulkhead = bulkhead;
+        this.circuitSettings = circuitSettings;
+        this.retryPolicy = retryPolicy;
+    }
+
+    RequestTimeouts getTimeouts() {
+        return timeouts;
+    }
+
+    Bulkhead getBulkhead() {
+        return bulkhead;
+    }
+
+    RetryPolicy getRetryPolicy() {
+        return retryPolicy;
+    }
+
+    /**
+     * @param url URL of the request, with or without query
+     * @return circuit breaker of the endpoint, null if circuit breakers are disabled
+     */
+    CircuitBreaker circuitFor(String url) {
+        if (!circuitSettings.isEnabled()) {
+            return null;
+        }
+        String endpoint = endpointOf(url);
+        CircuitBreaker circuit = circuits.get(endpoint);
+        return Objects.nonNull(circuit) ? circuit
+                : circuits.computeIfAbsent(endpoint, key -> new CircuitBreaker(key, circuitSettings));
+    }
+
+    Collection<CircuitBreaker> getCircuits() {
+        return circuits.values();
+    }
+
+    private static String endpointOf(String url) {
+        int query = url.indexOf('?');
+        return query < 0 ? url : url.substring(0, query);
+    }
+
+    @Override
+    public String toString() {
+        return "timeouts : " + timeouts + ", bulkhead : " + bulkhead.getSettings() + ", circuit breakers : "
+                + circuitSettings + ", retries : " + retryPolicy;
+    }
+
+}
@@ -0,0 +1,61 @@
+package com.tgt.core.aem.social.login.http.impl;
+
+/**
+ * Immutable timeouts applied to every request sent by {@link KeepAliveOAuthTransport}.
+ * <p>
+ * The retry deadline is counted from the first attempt of a request: no retry starts after it and the connect and
+ * read timeouts of a retry are shortened to the time left. It doesn't bound the time the caller takes to read the
+ * response body.
+ */
+final class RequestTimeouts {
+
+    private static final int DEFAULT_CONNECT_TIMEOUT_MS = 2000;
+    private static final int DEFAULT_READ_TIMEOUT_MS = 5000;
+    private static final int DEFAULT_RETRY_DEADLINE_MS = 7000;
+
+    static final RequestTimeouts DEFAULT = new RequestTimeouts(DEFAULT_CONNECT_TIMEOUT_MS, DEFAULT_READ_TIMEOUT_MS,
+            DEFAULT_RETRY_DEADLINE_MS);
+
+    private final int connectTimeoutMs;
+    private final int readTimeoutMs;
+    private final int retryDeadlineMs;
+
+    RequestTimeouts(int connectTimeoutMs, int readTimeoutMs, int retryDeadlineMs) {
+        this.connectTimeoutMs = positive(connectTimeoutMs, DEFAULT_CONNECT_TIMEOUT_MS);
+        this.readTimeoutMs = positive(readTimeoutMs, DEFAULT_READ_TIMEOUT_MS);
+        this.retryDeadlineMs = positive(retryDeadlineMs, DEFAULT_RETRY_DEADLINE_MS);
+    }
+
+    private static int positive(int value, int fallback) {
+        return value > 0 ? value : fallback;
+    }
+
+    int getConnectTimeoutMs() {
+        return connectTimeoutMs;
+    }
+
+    int getReadTimeoutMs() {
+        return readTimeoutMs;
+    }
+
+    int getRetryDeadlineMs() {
+        return retryDeadlineMs;
+    }
+
+    /**
+     * @param remainingMs time left before the retry deadline, at least 1 millisecond
+     * @return timeouts of a retry, shortened to the time left
+     */
+    RequestTimeouts within(long remainingMs) {
+        int remaining = (int) Math.max(1, Math.min(Integer.MAX_VALUE, remainingMs));
+        return new RequestTimeouts(Math.min(connectTimeoutMs, remaining), Math.min(readTimeoutMs, remaining),
+                retryDeadlineMs);
+    }
+
+    @Override
+    public String toString() {
+        return "connect=" + connectTimeoutMs + "ms, read=" + readTimeoutMs + "ms, retryDeadline=" + retryDeadlineMs
+                + "ms";
+    }
+
+}
@@ -0,0 +1,101 @@
+package com.tgt.core.aem.social.login.http.impl;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Retries of the idempotent requests of {@link KeepAliveOAuthTransport} which failed transiently.
+ * <p>
+ * A retry waits for a random backoff between 0 and an exponentially growing cap (full jitter), so that the retries
+ * of many logins don't hit the provider at the same time. Retries are also limited by a budget which every request
+ * adds a fraction of a retry to, so that during an incident of the provider only a small share of the requests is
+ * retried instead of every request being sent several times.
+ */
+final class RetryPolicy {
+
+    //budget is counted in hundredths of a retry
+    private static final int RETRY_COST = 100;
+
+    private final int maxRetries;
+    private final long backoffNanos;
+    private final long maxBackoffNanos;
+    private final int depositPerRequest;
+    private final int maxBudget;
+    private final AtomicInteger budget;
+    private final LongAdder retries = new LongAdder();
+    private final LongAdder denied = new LongAdder();
+
+    /**
+     * @param maxRetries    max retries of a request
+     * @param backoffMs     backoff cap of the first retry
+     * @param maxBackoffMs  backoff cap of any retry
+     * @param budgetPercent retries allowed per 100 requests
+     */
+    RetryPolicy(int maxRetries, int backoffMs, int maxBackoffMs, int budgetPercent) {
+        this.maxRetries = Math.max(0, maxRetries);
+        this.backoffNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1, backoffMs));
+        this.maxBackoffNanos = Math.max(this.backoffNanos, TimeUnit.MILLISECONDS.toNanos(maxBackoffMs));
+        this.depositPerRequest = Math.max(0, Math.min(100, budgetPercent));
+        //lets a burst of retries through after a quiet period
+        this.maxBudget = 10 * RETRY_COST;
+        this.budget = new AtomicInteger(maxBudget);
+    }
+
+    int getMaxRetries() {
+        return maxRetries;
+    }
+
+    /**
+     * Add the share of a retry earned by a new request to the budget.
+     */
+    void onRequest() {
+        if (depositPerRequest > 0) {
+            budget.getAndUpdate(current -> Math.min(maxBudget, current + depositPerRequest));
+        }
+    }
+
+    /**
+     * Take a retry from the budget.
+     *
+     * @return false if the budget is exhausted
+     */
+    boolean tryRetry() {
+        int current;
+        do {
+            current = budget.get();
+            if (current < RETRY_COST) {
+                denied.increment();
+                return false;
+            }
+        } while (!budget.compareAndSet(current, current - RETRY_COST));
+        retries.increment();
+        return true;
+    }
+
+    /**
+     * @param retry number of the retry, starting from 1
+     * @return time to wait before the retry
+     */
+    long backoffNanos(int retry) {
+        long cap = retry >= 31 ? maxBackoffNanos : Math.min(maxBackoffNanos, backoffNanos << (retry - 1));
+        return ThreadLocalRandom.current().nextLong(cap + 1);
+    }
+
+    long getRetries() {
+        return retries.sum();
+    }
+
+    long getDenied() {
+        return denied.sum();
+    }
+
+    @Override
+    public String toString() {
+        return "maxRetries=" + maxRetries + ", backoff=" + TimeUnit.NANOSECONDS.toMillis(backoffNanos)
+                + "ms, maxBackoff=" + TimeUnit.NANOSECONDS.toMillis(maxBackoffNanos) + "ms, budget="
+                + depositPerRequest + "%";
+    }
+
+}
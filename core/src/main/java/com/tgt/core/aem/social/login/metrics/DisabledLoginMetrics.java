@@ -0,0 +1,73 @@
+package com.tgt.core.aem.social.login.metrics;
+
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * {@link LoginMetrics#DISABLED}
+ */
+final class DisabledLoginMetrics implements LoginMetrics {
+
+    private static final PhaseStatistics EMPTY = new PhaseStatistics(0, 0, 0, 0, 0, 0);
+
+    @Override
+    public boolean isEnabled() {
+        return false;
+    }
+
+    @Override
+    public long beginLogin() {
+        return 0;
+    }
+
+    @Override
+    public long currentLogin() {
+        return 0;
+    }
+
+    @Override
+    public void joinLogin(long login) {
+        //disabled
+    }
+
+    @Override
+    public long start() {
+        return 0;
+    }
+
+    @Override
+    public void record(LoginPhase phase, long start) {
+        //disabled
+    }
+
+    @Override
+    public void recordStatus(LoginPhase phase, int status) {
+        //disabled
+    }
+
+    @Override
+    public void recordPayload(LoginPhase phase, long bytes) {
+        //disabled
+    }
+
+    @Override
+    public void recordFailure(LoginPhase phase, Throwable failure) {
+        //disabled
+    }
+
+    @Override
+    public PhaseStatistics getStatistics(LoginPhase phase) {
+        return EMPTY;
+    }
+
+    @Override
+    public Map<String, Long> getStatusCounts() {
+        return Collections.emptyMap();
+    }
+
+    @Override
+    public Map<String, Long> getFailureCounts() {
+        return Collections.emptyMap();
+    }
+
+}
@@ -0,0 +1,113 @@
+package com.tgt.core.aem.social.login.metrics;
+
+import org.osgi.annotation.versioning.ProviderType;
+
+import java.util.Map;
+
+/**
+ * Latency histograms and counters of each {@link LoginPhase}, and a trace of the latest logins.
+ * <p>
+ * A phase is measured as follows, recording nothing and costing only a volatile read when metrics are disabled:
+ * <pre>
+ * long start = loginMetrics.start();
+ * try {
+ *     ...
+ * } catch (IOException e) {
+ *     loginMetrics.recordFailure(LoginPhase.PROFILE_PARSE, e);
+ *     throw e;
+ * } finally {
+ *     loginMetrics.record(LoginPhase.PROFILE_PARSE, start);
+ * }
+ * </pre>
+ * The trace keeps the phases recorded by a thread under the login it began last, see {@link #beginLogin()}.
+ */
+@ProviderType
+public interface LoginMetrics {
+
+    /**
+     * Metrics which never record anything, used when no metrics service is available.
+     */
+    LoginMetrics DISABLED = new DisabledLoginMetrics();
+
+    /**
+     * @return whether metrics or the login trace are recorded
+     */
+    boolean isEnabled();
+
+    /**
+     * Begin the trace of a new login on the current thread, the phases recorded by the thread until it begins
+     * another login belong to this one.
+     *
+     * @return ID of the login, 0 when the trace is disabled
+     */
+    long beginLogin();
+
+    /**
+     * @return ID of the login of the current thread, to {@link #joinLogin(long)} from another thread
+     */
+    long currentLogin();
+
+    /**
+     * Record the phases of the current thread under a login begun by another thread, e.g. by a pooled thread
+     * sending a request for that login.
+     *
+     * @param login value returned by {@link #currentLogin()} on the thread of the login
+     */
+    void joinLogin(long login);
+
+    /**
+     * Start to measure a phase.
+     *
+     * @return start time to pass to {@link #record(LoginPhase, long)}, 0 when nothing is recorded
+     */
+    long start();
+
+    /**
+     * Record the latency of a phase.
+     *
+     * @param phase phase which ended
+     * @param start value returned by {@link #start()} when the phase started
+     */
+    void record(LoginPhase phase, long start);
+
+    /**
+     * Count the HTTP status of the response received during a phase.
+     *
+     * @param phase  phase which sent the request
+     * @param status HTTP status code
+     */
+    void recordStatus(LoginPhase phase, int status);
+
+    /**
+     * Trace the size of the response body received during a phase.
+     *
+     * @param phase phase which received the response
+     * @param bytes size of the body
+     */
+    void recordPayload(LoginPhase phase, long bytes);
+
+    /**
+     * Count a failure of a phase by its cause.
+     *
+     * @param phase   phase which failed
+     * @param failure failure, counted by the type of its root cause, e.g. {@code SocketTimeoutException}
+     */
+    void recordFailure(LoginPhase phase, Throwable failure);
+
+    /**
+     * @param phase phase of the login
+     * @return latency statistics of the phase since the last reset
+     */
+    PhaseStatistics getStatistics(LoginPhase phase);
+
+    /**
+     * @return count of each HTTP status by {@code <phase> <status>}, e.g. {@code TOKEN_EXCHANGE 200}
+     */
+    Map<String, Long> getStatusCounts();
+
+    /**
+     * @return count of each failure by {@code <phase> <cause>}, e.g. {@code USER_DETAILS_FETCH SocketTimeoutException}
+     */
+    Map<String, Long> getFailureCounts();
+
+}
@@ -0,0 +1,32 @@
+package com.tgt.core.aem.social.login.metrics;
+
+import com.adobe.granite.jmx.annotation.Description;
+
+import javax.management.openmbean.TabularData;
+
+/**
+ * JMX view of {@link LoginMetrics}.
+ */
+@Description("Social login latency and counters by login phase, and trace of the latest logins")
+public interface LoginMetricsMBean {
+
+    @Description("Whether metrics or the login trace are recorded")
+    boolean isEnabled();
+
+    @Description("Count and latency in milliseconds of each login phase")
+    TabularData getPhases();
+
+    @Description("Count of each HTTP status received by login phase")
+    TabularData getStatuses();
+
+    @Description("Count of each failure cause by login phase")
+    TabularData getFailures();
+
+    @Description("Reset all the histograms and counters")
+    void resetStatistics();
+
+    @Description("Latest events of the login trace, oldest first: durations, HTTP statuses, payload sizes and failure "
+            + "causes of each login phase, by login ID")
+    TabularData dumpLoginTrace();
+
+}
@@ -0,0 +1,65 @@
+package com.tgt.core.aem.social.login.metrics;
+
+/**
+ * Phases of a social login measured by {@link LoginMetrics}.
+ */
+public enum LoginPhase {
+
+    /**
+     * Build of the URL the user is redirected to for authorization
+     */
+    AUTHORIZATION_URL,
+
+    /**
+     * Wait for a free slot of the bulkhead before sending a request to the provider, rejections are counted as
+     * failures of this phase
+     */
+    OUTBOUND_QUEUE_WAIT,
+
+    /**
+     * Exchange of the authorization code for an access token, including the parsing of the token response
+     */
+    TOKEN_EXCHANGE,
+
+    /**
+     * Request of the user details, until the response headers are received
+     */
+    USER_DETAILS_FETCH,
+
+    /**
+     * Request of the extended user details from one source, sent concurrently with the other sources. Sources
+     * skipped because they didn't answer in time are counted as failures of this phase
+     */
+    EXTENDED_DETAILS_FETCH,
+
+    /**
+     * Read and parse of the user details response body
+     */
+    PROFILE_PARSE,
+
+    /**
+     * Mapping of the parsed user details to user properties
+     */
+    PROPERTY_MAPPING,
+
+    /**
+     * Provider callback after a user is created
+     */
+    USER_CREATE,
+
+    /**
+     * Provider callback after a user is updated
+     */
+    USER_UPDATE,
+
+    /**
+     * Warm-up of the provider in the background after its activation, recorded once per activation
+     */
+    WARM_UP,
+
+    /**
+     * Refresh of a persisted access token with its refresh token, in the background
+     */
+    TOKEN_REFRESH
+
+}
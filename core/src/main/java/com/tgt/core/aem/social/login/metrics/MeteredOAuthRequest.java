@@ -0,0 +1,89 @@
+package com.tgt.core.aem.social.login.metrics;
+
+import org.apache.commons.lang.math.NumberUtils;
+import org.scribe.model.OAuthRequest;
+import org.scribe.model.Response;
+
+import java.util.Map;
+
+/**
+ * {@link OAuthRequest} which records the latency, the HTTP status, the declared body size and the failures of
+ * another request in {@link LoginMetrics}.
+ * <p>
+ * It is meant for the requests sent by AEM's OAuth authentication handler: the parameters and headers added by
+ * the handler (e.g. the access token) are passed to the request being measured, which is sent by {@link #send()}.
+ */
+public class MeteredOAuthRequest extends OAuthRequest {
+
+    private final OAuthRequest request;
+    private final LoginMetrics loginMetrics;
+    private final LoginPhase phase;
+
+    /**
+     * @param request      request to send
+     * @param loginMetrics {@link LoginMetrics} to record into
+     * @param phase        phase the request belongs to
+     */
+    public MeteredOAuthRequest(OAuthRequest request, LoginMetrics loginMetrics, LoginPhase phase) {
+        super(request.getVerb(), request.getUrl());
+        this.request = request;
+        this.loginMetrics = loginMetrics;
+        this.phase = phase;
+    }
+
+    @Override
+    public void addQuerystringParameter(String key, String value) {
+        super.addQuerystringParameter(key, value);
+        request.addQuerystringParameter(key, value);
+    }
+
+    @Override
+    public void addHeader(String key, String value) {
+        super.addHeader(key, value);
+        request.addHeader(key, value);
+    }
+
+    @Override
+    public void addBodyParameter(String key, String value) {
+        super.addBodyParameter(key, value);
+        request.addBodyParameter(key, value);
+    }
+
+    @Override
+    public void addOAuthParameter(String key, String value) {
+        super.addOAuthParameter(key, value);
+        request.addOAuthParameter(key, value);
+    }
+
+    @Override
+    public Response send() {
+        long start = loginMetrics.start();
+        try {
+            Response response = request.send();
+            loginMetrics.recordStatus(phase, response.getCode());
+            long length = contentLength(response);
+            if (length >= 0) {
+                loginMetrics.recordPayload(phase, length);
+            }
+            return response;
+        } catch (RuntimeException e) {
+            loginMetrics.recordFailure(phase, e);
+            throw e;
+        } finally {
+            loginMetrics.record(phase, start);
+        }
+    }
+
+    /**
+     * @return {@code Content-Length} of the response, -1 if it isn't known, e.g. for a chunked body
+     */
+    private static long contentLength(Response response) {
+        for (Map.Entry<String, String> header : response.getHeaders().entrySet()) {
+            if ("Content-Length".equalsIgnoreCase(header.getKey())) {
+                return NumberUtils.toLong(header.getValue(), -1);
+            }
+        }
+        return -1;
+    }
+
+}
@@ -0,0 +1,58 @@
+package com.tgt.core.aem.social.login.metrics;
+
+import java.util.Locale;
+
+/**
+ * Latency statistics of a {@link LoginPhase}, in milliseconds.
+ * <p>
+ * Percentiles come from a histogram and are accurate to 1/8th of their value.
+ */
+public final class PhaseStatistics {
+
+    private final long count;
+    private final double meanMs;
+    private final double p50Ms;
+    private final double p99Ms;
+    private final double p999Ms;
+    private final double maxMs;
+
+    public PhaseStatistics(long count, double meanMs, double p50Ms, double p99Ms, double p999Ms, double maxMs) {
+        this.count = count;
+        this.meanMs = meanMs;
+        this.p50Ms = p50Ms;
+        this.p99Ms = p99Ms;
+        this.p999Ms = p999Ms;
+        this.maxMs = maxMs;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public double getMeanMs() {
+        return meanMs;
+    }
+
+    public double getP50Ms() {
+        return p50Ms;
+    }
+
+    public double getP99Ms() {
+        return p99Ms;
+    }
+
+    public double getP999Ms() {
+        return p999Ms;
+    }
+
+    public double getMaxMs() {
+        return maxMs;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.ROOT, "count=%d, mean=%.3fms, p50=%.3fms, p99=%.3fms, p999=%.3fms, max=%.3fms",
+                count, meanMs, p50Ms, p99Ms, p999Ms, maxMs);
+    }
+
+}
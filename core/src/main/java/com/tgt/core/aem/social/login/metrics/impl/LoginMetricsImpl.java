@@ -0,0 +1,308 @@
+package com.tgt.core.aem.social.login.metrics.impl;
+
+import com.adobe.granite.jmx.annotation.AnnotatedStandardMBean;
+import com.tgt.core.aem.social.login.metrics.LoginMetrics;
+import com.tgt.core.aem.social.login.metrics.LoginMetricsMBean;
+import com.tgt.core.aem.social.login.metrics.LoginPhase;
+import com.tgt.core.aem.social.login.metrics.PhaseStatistics;
+import org.osgi.service.component.annotations.Activate;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Modified;
+import org.osgi.service.metatype.annotations.AttributeDefinition;
+import org.osgi.service.metatype.annotations.Designate;
+import org.osgi.service.metatype.annotations.ObjectClassDefinition;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.DynamicMBean;
+import javax.management.NotCompliantMBeanException;
+import javax.management.openmbean.CompositeDataSupport;
+import javax.management.openmbean.CompositeType;
+import javax.management.openmbean.OpenDataException;
+import javax.management.openmbean.OpenType;
+import javax.management.openmbean.SimpleType;
+import javax.management.openmbean.TabularData;
+import javax.management.openmbean.TabularDataSupport;
+import javax.management.openmbean.TabularType;
+import java.time.Instant;
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * {@link LoginMetrics} kept in memory and exposed as an MBean.
+ * <p>
+ * The login trace is recorded whether metrics are enabled or not, in a {@link LoginTrace} of a fixed size, so that
+ * the latest logins can be diagnosed without running the bundle at DEBUG level.
+ */
+@Component(service = {LoginMetrics.class, DynamicMBean.class},
+        property = "jmx.objectname=com.tgt.core.aem.social.login:type=LoginMetrics")
+@Designate(ocd = LoginMetricsImpl.LoginMetricsConfig.class)
+public class LoginMetricsImpl extends AnnotatedStandardMBean implements LoginMetrics, LoginMetricsMBean {
+
+    private final Logger LOGGER = LoggerFactory.getLogger(LoginMetricsImpl.class);
+
+    @ObjectClassDefinition(name = "The Grey Teacher Login Metrics")
+    public @interface LoginMetricsConfig {
+
+        @AttributeDefinition(name = "Enabled", description = "Record the latency and counters of each login phase")
+        boolean enabled() default true;
+
+        @AttributeDefinition(name = "Trace Enabled",
+                description = "Keep the latest events of each login: durations, HTTP statuses, payload sizes and "
+                        + "failure causes, without any user data")
+        boolean trace_enabled() default true;
+
+        @AttributeDefinition(name = "Trace Size", description = "Count of events kept by the login trace")
+        int trace_size() default 8192;
+
+    }
+
+    private static final String[] PHASE_ITEMS = {"phase", "count", "meanMs", "p50Ms", "p99Ms", "p999Ms", "maxMs"};
+    private static final String[] COUNT_ITEMS = {"phase", "value", "count"};
+    private static final String[] TRACE_ITEMS = {"sequence", "login", "time", "phase", "event", "value"};
+
+    private final Map<LoginPhase, LatencyHistogram> histograms = new EnumMap<>(LoginPhase.class);
+    private final ConcurrentMap<String, LongAdder> statusCounts = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, LongAdder> failureCounts = new ConcurrentHashMap<>();
+
+    private final AtomicLong logins = new AtomicLong();
+    private final ThreadLocal<long[]> currentLogin = ThreadLocal.withInitial(() -> new long[1]);
+
+    private volatile boolean enabled = true;
+    private volatile LoginTrace trace;
+
+    public LoginMetricsImpl() throws NotCompliantMBeanException {
+        super(LoginMetricsMBean.class);
+        for (LoginPhase phase : LoginPhase.values()) {
+            histograms.put(phase, new LatencyHistogram());
+        }
+    }
+
+    @Activate
+    @Modified
+    protected void activate(LoginMetricsConfig config) {
+        enabled = config.enabled();
+        LoginTrace current = trace;
+        if (!config.trace_enabled()) {
+            trace = null;
+        } else if (current == null || current.getSize() != LoginTrace.capacity(config.trace_size())) {
+            trace = new LoginTrace(config.trace_size());
+        }
+        LOGGER.info("Login metrics enabled : {}, login trace enabled : {}", enabled, config.trace_enabled());
+    }
+
+    @Override
+    public boolean isEnabled() {
+        return enabled || trace != null;
+    }
+
+    @Override
+    public long beginLogin() {
+        if (trace == null) {
+            return 0;
+        }
+        long login = logins.incrementAndGet();
+        currentLogin.get()[0] = login;
+        return login;
+    }
+
+    @Override
+    public long currentLogin() {
+        return currentLogin.get()[0];
+    }
+
+    @Override
+    public void joinLogin(long login) {
+        currentLogin.get()[0] = login;
+    }
+
+    @Override
+    public long start() {
+        return isEnabled() ? System.nanoTime() : 0;
+    }
+
+    @Override
+    public void record(LoginPhase phase, long start) {
+        if (start == 0) {
+            return;
+        }
+        long nanos = System.nanoTime() - start;
+        if (enabled) {
+            histograms.get(phase).record(nanos);
+        }
+        LoginTrace current = trace;
+        if (current != null) {
+            current.record(currentLogin(), phase, LoginTrace.Kind.DURATION, nanos);
+        }
+    }
+
+    @Override
+    public void recordStatus(LoginPhase phase, int status) {
+        if (enabled) {
+            increment(statusCounts, phase.name() + ' ' + status);
+        }
+        LoginTrace current = trace;
+        if (current != null) {
+            current.record(currentLogin(), phase, LoginTrace.Kind.STATUS, status);
+        }
+    }
+
+    @Override
+    public void recordPayload(LoginPhase phase, long bytes) {
+        LoginTrace current = trace;
+        if (current != null) {
+            current.record(currentLogin(), phase, LoginTrace.Kind.PAYLOAD, bytes);
+        }
+    }
+
+    @Override
+    public void recordFailure(LoginPhase phase, Throwable failure) {
+        LoginTrace current = trace;
+        if (!enabled && current == null) {
+            return;
+        }
+        Throwable cause = failure;
+        while (cause.getCause() != null && cause.getCause() != cause) {
+            cause = cause.getCause();
+        }
+        if (enabled) {
+            increment(failureCounts, phase.name() + ' ' + cause.getClass().getSimpleName());
+        }
+        if (current != null) {
+            current.recordFailure(currentLogin(), phase, cause.getClass());
+        }
+    }
+
+    private static void increment(ConcurrentMap<String, LongAdder> counts, String key) {
+        LongAdder count = counts.get(key);
+        if (count == null) {
+            count = counts.computeIfAbsent(key, newKey -> new LongAdder());
+        }
+        count.increment();
+    }
+
+    @Override
+    public PhaseStatistics getStatistics(LoginPhase phase) {
+        return histograms.get(phase).getStatistics();
+    }
+
+    @Override
+    public Map<String, Long> getStatusCounts() {
+        return sums(statusCounts);
+    }
+
+    @Override
+    public Map<String, Long> getFailureCounts() {
+        return sums(failureCounts);
+    }
+
+    private static Map<String, Long> sums(Map<String, LongAdder> counts) {
+        Map<String, Long> sums = new TreeMap<>();
+        counts.forEach((key, count) -> sums.put(key, count.sum()));
+        return sums;
+    }
+
+    @Override
+    public TabularData getPhases() {
+        try {
+            CompositeType rowType = new CompositeType("phase", "Latency of a login phase", PHASE_ITEMS,
+                    PHASE_ITEMS, new OpenType<?>[]{SimpleType.STRING, SimpleType.LONG, SimpleType.DOUBLE,
+                    SimpleType.DOUBLE, SimpleType.DOUBLE, SimpleType.DOUBLE, SimpleType.DOUBLE});
+            TabularDataSupport table = new TabularDataSupport(
+                    new TabularType("phases", "Latency of the login phases", rowType, new String[]{"phase"}));
+            for (LoginPhase phase : LoginPhase.values()) {
+                PhaseStatistics statistics = getStatistics(phase);
+                table.put(new CompositeDataSupport(rowType, PHASE_ITEMS, new Object[]{phase.name(),
+                        statistics.getCount(), statistics.getMeanMs(), statistics.getP50Ms(), statistics.getP99Ms(),
+                        statistics.getP999Ms(), statistics.getMaxMs()}));
+            }
+            return table;
+        } catch (OpenDataException e) {
+            throw new IllegalStateException("Unable to create the login phases table", e);
+        }
+    }
+
+    @Override
+    public TabularData getStatuses() {
+        return countsTable("statuses", "HTTP status", statusCounts);
+    }
+
+    @Override
+    public TabularData getFailures() {
+        return countsTable("failures", "Failure cause", failureCounts);
+    }
+
+    private static TabularData countsTable(String name, String valueDescription, Map<String, LongAdder> counts) {
+        try {
+            CompositeType rowType = new CompositeType(name, valueDescription + " count by login phase", COUNT_ITEMS,
+                    new String[]{"Login phase", valueDescription, "Count"},
+                    new OpenType<?>[]{SimpleType.STRING, SimpleType.STRING, SimpleType.LONG});
+            TabularDataSupport table = new TabularDataSupport(new TabularType(name,
+                    valueDescription + " counts", rowType, new String[]{"phase", "value"}));
+            sums(counts).forEach((key, count) -> {
+                int separator = key.indexOf(' ');
+                try {
+                    table.put(new CompositeDataSupport(rowType, COUNT_ITEMS,
+                            new Object[]{key.substring(0, separator), key.substring(separator + 1), count}));
+                } catch (OpenDataException e) {
+                    throw new IllegalStateException("Unable to create the " + name + " table", e);
+                }
+            });
+            return table;
+        } catch (OpenDataException e) {
+            throw new IllegalStateException("Unable to create the " + name + " table", e);
+        }
+    }
+
+    @Override
+    public void resetStatistics() {
+        histograms.values().forEach(LatencyHistogram::reset);
+        statusCounts.clear();
+        failureCounts.clear();
+    }
+
+    @Override
+    public TabularData dumpLoginTrace() {
+        try {
+            CompositeType rowType = new CompositeType("event", "Event of a login phase", TRACE_ITEMS,
+                    new String[]{"Sequence", "Login ID", "Time", "Login phase", "Event", "Value"},
+                    new OpenType<?>[]{SimpleType.LONG, SimpleType.LONG, SimpleType.STRING, SimpleType.STRING,
+                            SimpleType.STRING, SimpleType.STRING});
+            TabularDataSupport table = new TabularDataSupport(
+                    new TabularType("trace", "Latest login events", rowType, new String[]{"sequence"}));
+            LoginTrace current = trace;
+            if (current == null) {
+                return table;
+            }
+            for (LoginTrace.Event event : current.read()) {
+                table.put(new CompositeDataSupport(rowType, TRACE_ITEMS, new Object[]{event.sequence, event.login,
+                        Instant.ofEpochMilli(event.time).toString(), event.phase.name(),
+                        event.kind.name().toLowerCase(Locale.ROOT), traceValue(current, event)}));
+            }
+            return table;
+        } catch (OpenDataException e) {
+            throw new IllegalStateException("Unable to create the login trace table", e);
+        }
+    }
+
+    private static String traceValue(LoginTrace trace, LoginTrace.Event event) {
+        switch (event.kind) {
+            case DURATION:
+                return String.format(Locale.ROOT, "%.3f ms", event.value / (double) TimeUnit.MILLISECONDS.toNanos(1));
+            case PAYLOAD:
+                return event.value + " bytes";
+            case FAILURE:
+                return trace.getCauseName(event.value);
+            default:
+                return String.valueOf(event.value);
+        }
+    }
+
+}
@@ -0,0 +1,164 @@
+package com.tgt.core.aem.social.login.metrics.impl;
+
+import com.tgt.core.aem.social.login.metrics.LoginPhase;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Lock-free ring of the latest login events, kept in a fixed array allocated once.
+ * <p>
+ * An event is the login it belongs to, its time, its phase and one number: a duration, an HTTP status, a payload
+ * size or the index of a failure cause. Failure causes are kept by the type of their root cause, interned in a
+ * table of {@value #MAX_CAUSES} types, so recording formats no string and keeps nothing a user sent or received.
+ * <p>
+ * A writer takes the next sequence, marks its slot as being written, writes the event and publishes the sequence
+ * in the slot. A reader keeps an event only if the slot has the same published sequence before and after it read
+ * the event, the events overwritten meanwhile are skipped.
+ */
+final class LoginTrace {
+
+    enum Kind {
+        DURATION, STATUS, PAYLOAD, FAILURE
+    }
+
+    private static final int MAX_SIZE = 1 << 20;
+    private static final int MAX_CAUSES = 256;
+    private static final int OTHER_CAUSE = 0;
+
+    private static final int FIELDS = 5;
+    private static final int SEQUENCE = 0;
+    private static final int LOGIN = 1;
+    private static final int TIME = 2;
+    private static final int EVENT = 3;
+    private static final int VALUE = 4;
+
+    private static final long WRITING = -1;
+    private static final long EMPTY = -2;
+
+    private static final LoginPhase[] PHASES = LoginPhase.values();
+    private static final Kind[] KINDS = Kind.values();
+
+    private final int mask;
+    private final AtomicLongArray slots;
+    private final AtomicLong cursor = new AtomicLong();
+    private final ConcurrentMap<Class<?>, Integer> causeIndexes = new ConcurrentHashMap<>();
+    private final AtomicReferenceArray<String> causeNames = new AtomicReferenceArray<>(MAX_CAUSES);
+    private final AtomicInteger causeCount = new AtomicInteger(OTHER_CAUSE + 1);
+
+    /**
+     * @param size count of events kept, rounded up to a power of two
+     */
+    LoginTrace(int size) {
+        int capacity = capacity(size);
+        mask = capacity - 1;
+        slots = new AtomicLongArray(capacity * FIELDS);
+        for (int slot = 0; slot < capacity; slot++) {
+            slots.set(slot * FIELDS + SEQUENCE, EMPTY);
+        }
+        causeNames.set(OTHER_CAUSE, "Other");
+    }
+
+    /**
+     * @return count of events kept for a configured size, a power of two between 2 and {@value #MAX_SIZE}
+     */
+    static int capacity(int size) {
+        return Integer.highestOneBit(Math.max(2, Math.min(size, MAX_SIZE)) * 2 - 1);
+    }
+
+    int getSize() {
+        return mask + 1;
+    }
+
+    void record(long login, LoginPhase phase, Kind kind, long value) {
+        long sequence = cursor.getAndIncrement();
+        int offset = (int) (sequence & mask) * FIELDS;
+        slots.set(offset + SEQUENCE, WRITING);
+        slots.lazySet(offset + LOGIN, login);
+        slots.lazySet(offset + TIME, System.currentTimeMillis());
+        slots.lazySet(offset + EVENT, (long) phase.ordinal() << 8 | kind.ordinal());
+        slots.lazySet(offset + VALUE, value);
+        slots.lazySet(offset + SEQUENCE, sequence);
+    }
+
+    void recordFailure(long login, LoginPhase phase, Class<?> cause) {
+        record(login, phase, Kind.FAILURE, causeIndex(cause));
+    }
+
+    /**
+     * @return index of the cause in the table, {@value #OTHER_CAUSE} once the table is full
+     */
+    private int causeIndex(Class<?> cause) {
+        Integer index = causeIndexes.get(cause);
+        if (index != null) {
+            return index;
+        }
+        return causeIndexes.computeIfAbsent(cause, type -> {
+            int next = causeCount.getAndIncrement();
+            if (next >= MAX_CAUSES) {
+                return OTHER_CAUSE;
+            }
+            causeNames.set(next, type.getSimpleName());
+            return next;
+        });
+    }
+
+    /**
+     * @return events still in the ring, oldest first
+     */
+    List<Event> read() {
+        long end = cursor.get();
+        long first = Math.max(0, end - getSize());
+        List<Event> events = new ArrayList<>((int) (end - first));
+        for (long sequence = first; sequence < end; sequence++) {
+            int offset = (int) (sequence & mask) * FIELDS;
+            if (slots.get(offset + SEQUENCE) != sequence) {
+                continue;
+            }
+            long login = slots.get(offset + LOGIN);
+            long time = slots.get(offset + TIME);
+            long event = slots.get(offset + EVENT);
+            long value = slots.get(offset + VALUE);
+            if (slots.get(offset + SEQUENCE) == sequence) {
+                events.add(new Event(sequence, login, time, PHASES[(int) (event >>> 8)],
+                        KINDS[(int) (event & 0xff)], value));
+            }
+        }
+        return events;
+    }
+
+    String getCauseName(long index) {
+        String name = index >= 0 && index < MAX_CAUSES ? causeNames.get((int) index) : null;
+        return name == null ? causeNames.get(OTHER_CAUSE) : name;
+    }
+
+    /**
+     * Event read from the ring.
+     */
+    static final class Event {
+
+        final long sequence;
+        final long login;
+        final long time;
+        final LoginPhase phase;
+        final Kind kind;
+        final long value;
+
+        private Event(long sequence, long login, long time, LoginPhase phase, Kind kind, long value) {
+            this.sequence = sequence;
+            this.login = login;
+            this.time = time;
+            this.phase = phase;
+            this.kind = kind;
+            this.value = value;
+        }
+
+    }
+
+}
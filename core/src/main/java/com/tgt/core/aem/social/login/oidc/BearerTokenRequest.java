@@ -0,0 +1,54 @@
+package com.tgt.core.aem.social.login.oidc;
+
+import com.tgt.core.aem.social.login.http.OAuthTransport;
+import org.scribe.model.OAuthConstants;
+import org.scribe.model.OAuthRequest;
+import org.scribe.model.Response;
+import org.scribe.model.Verb;
+
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * User details request sending the access token in the {@code Authorization} header, as OpenID Connect providers
+ * expect at their userinfo endpoint.
+ * <p>
+ * AEM signs the user details request with the access token as the {@code access_token} query parameter, which
+ * only some providers accept. The request is sent through the {@link OAuthTransport}.
+ */
+public class BearerTokenRequest extends OAuthRequest {
+
+    private static final String AUTHORIZATION = "Authorization";
+    private static final String BEARER = "Bearer ";
+
+    private final OAuthTransport transport;
+
+    private String accessToken;
+
+    public BearerTokenRequest(String url, OAuthTransport transport) {
+        super(Verb.GET, url);
+        this.transport = transport;
+    }
+
+    @Override
+    public void addQuerystringParameter(String key, String value) {
+        if (OAuthConstants.ACCESS_TOKEN.equals(key)) {
+            accessToken = value;
+        } else {
+            super.addQuerystringParameter(key, value);
+        }
+    }
+
+    @Override
+    public Response send() {
+        OAuthRequest request = transport.createRequest(getVerb(), getCompleteUrl());
+        for (Map.Entry<String, String> header : getHeaders().entrySet()) {
+            request.addHeader(header.getKey(), header.getValue());
+        }
+        if (Objects.nonNull(accessToken)) {
+            request.addHeader(AUTHORIZATION, BEARER + accessToken);
+        }
+        return request.send();
+    }
+
+}
@@ -0,0 +1,18 @@
+package com.tgt.core.aem.social.login.oidc;
+
+/**
+ * Thrown when an OpenID Connect ID token can't be trusted.
+ */
+public class IdTokenException extends Exception {
+
+    private static final long serialVersionUID = 1L;
+
+    public IdTokenException(String message) {
+        super(message);
+    }
+
+    public IdTokenException(String message, Throwable cause) {
+        super(message, cause);
+    }
+
+}
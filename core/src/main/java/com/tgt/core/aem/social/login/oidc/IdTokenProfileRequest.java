@@ -0,0 +1,54 @@
+package com.tgt.core.aem.social.login.oidc;
+
+import com.tgt.core.aem.social.login.http.LocalResponses;
+import com.tgt.core.aem.social.login.http.OAuthTransport;
+import org.scribe.model.OAuthConstants;
+import org.scribe.model.OAuthRequest;
+import org.scribe.model.Response;
+import org.scribe.model.Verb;
+
+import java.net.HttpURLConnection;
+import java.util.Objects;
+
+/**
+ * User details request which is answered from the verified ID token of the same login.
+ * <p>
+ * AEM signs the user details request with the access token before sending it, the access token is used to find the
+ * profile kept by {@link IdTokenProfiles}. If there is none (e.g. the ID token couldn't be verified) the request is
+ * sent to the provider as usual through the {@link OAuthTransport}.
+ */
+public class IdTokenProfileRequest extends OAuthRequest {
+
+    private final OAuthTransport transport;
+    private final IdTokenProfiles profiles;
+
+    private String accessToken;
+
+    public IdTokenProfileRequest(String url, OAuthTransport transport, IdTokenProfiles profiles) {
+        super(Verb.GET, url);
+        this.transport = transport;
+        this.profiles = profiles;
+    }
+
+    @Override
+    public void addQuerystringParameter(String key, String value) {
+        super.addQuerystringParameter(key, value);
+        if (OAuthConstants.ACCESS_TOKEN.equals(key)) {
+            accessToken = value;
+        }
+    }
+
+    @Override
+    public Response send() {
+        byte[] userDetails = profiles.take(accessToken);
+        if (Objects.nonNull(userDetails)) {
+            return LocalResponses.json(HttpURLConnection.HTTP_OK, userDetails);
+        }
+        OAuthRequest request = transport.createRequest(getVerb(), getUrl());
+        if (Objects.nonNull(accessToken)) {
+            request.addQuerystringParameter(OAuthConstants.ACCESS_TOKEN, accessToken);
+        }
+        return request.send();
+    }
+
+}
@@ -0,0 +1,123 @@
+package com.tgt.core.aem.social.login.oidc;
+
+import com.google.gson.stream.JsonWriter;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Hands the profile claims of a verified ID token from the access token exchange over to the user details request
+ * of the same login.
+ * <p>
+ * Profiles are keyed by the access token returned along with the ID token, they are removed as soon as they are
+ * taken and expire after {@link #TTL_NANOS} in case the login never asks for them. The store is bounded, expired
+ * profiles are purged once it is full and new profiles are dropped until there is room again, in which case the
+ * user details are simply fetched from the provider.
+ */
+public final class IdTokenProfiles {
+
+    private static final long TTL_NANOS = TimeUnit.MINUTES.toNanos(2);
+
+    /**
+     * ID token claims which are named differently in Google's v1 user details response.
+     */
+    private static final Map<String, String> USER_DETAILS_NAMES = new HashMap<>();
+
+    static {
+        USER_DETAILS_NAMES.put("sub", "id");
+        USER_DETAILS_NAMES.put("email_verified", "verified_email");
+    }
+
+    private final int maxSize;
+    private final Map<String, Profile> profiles = new ConcurrentHashMap<>();
+
+    /**
+     * @param maxSize max number of profiles waiting to be taken
+     */
+    public IdTokenProfiles(int maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Keep the claims for the user details request of this login.
+     *
+     * @param accessToken access token issued along with the ID token
+     * @param claims      verified ID token claims
+     */
+    public void put(String accessToken, Map<String, Object> claims) {
+        if (profiles.size() >= maxSize) {
+            purgeExpired();
+            if (profiles.size() >= maxSize) {
+                return;
+            }
+        }
+        profiles.put(accessToken, new Profile(toUserDetailsJson(claims), System.nanoTime() + TTL_NANOS));
+    }
+
+    /**
+     * Take the profile kept for this access token.
+     *
+     * @param accessToken access token used to sign the user details request
+     * @return user details JSON built from the ID token claims, null if there is none
+     */
+    public byte[] take(String accessToken) {
+        Profile profile = Objects.isNull(accessToken) ? null : profiles.remove(accessToken);
+        return Objects.isNull(profile) || profile.isExpired(System.nanoTime()) ? null : profile.userDetails;
+    }
+
+    private void purgeExpired() {
+        long now = System.nanoTime();
+        profiles.values().removeIf(profile -> profile.isExpired(now));
+    }
+
+    /**
+     * Build a JSON in the same shape as Google's v1 user details response so that it goes through the same parsing
+     * and mapping as a user details response.
+     */
+    private static byte[] toUserDetailsJson(Map<String, Object> claims) {
+        ByteArrayOutputStream json = new ByteArrayOutputStream(512);
+        try (JsonWriter writer = new JsonWriter(new OutputStreamWriter(json, StandardCharsets.UTF_8))) {
+            writer.beginObject();
+            for (Map.Entry<String, Object> claim : claims.entrySet()) {
+                writer.name(USER_DETAILS_NAMES.getOrDefault(claim.getKey(), claim.getKey()));
+                Object value = claim.getValue();
+                if (value instanceof Boolean) {
+                    writer.value((Boolean) value);
+                } else if (value instanceof Number) {
+                    writer.value((Number) value);
+                } else {
+                    writer.value(String.valueOf(value));
+                }
+            }
+            writer.endObject();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return json.toByteArray();
+    }
+
+    private static final class Profile {
+
+        private final byte[] userDetails;
+        private final long expiresAtNanos;
+
+        private Profile(byte[] userDetails, long expiresAtNanos) {
+            this.userDetails = userDetails;
+            this.expiresAtNanos = expiresAtNanos;
+        }
+
+        private boolean isExpired(long now) {
+            return now - expiresAtNanos > 0;
+        }
+
+    }
+
+}
@@ -0,0 +1,149 @@
+package com.tgt.core.aem.social.login.oidc;
+
+import com.tgt.core.aem.social.login.utils.ProfileDataReader;
+import org.apache.commons.lang.StringUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.PublicKey;
+import java.security.Signature;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Verifies OpenID Connect ID tokens signed with {@code RS256} locally, without calling the provider.
+ * <p>
+ * A token is trusted only when its signature matches one of the provider's published keys, it was issued by one of
+ * the expected issuers, its audience is our client id and it isn't expired. The audience is either our client id or an
+ * array of up to {@value #MAX_AUDIENCES} audiences containing it, in which case the token must also be authorized
+ * for our client by its {@code azp} claim.
+ */
+public final class IdTokenVerifier {
+
+    private static final String RS256 = "RS256";
+    private static final long CLOCK_SKEW_SECONDS = TimeUnit.MINUTES.toSeconds(1);
+    private static final String AUDIENCE = "aud";
+    private static final String AUDIENCE_ELEMENT = AUDIENCE + '.';
+    private static final int MAX_AUDIENCES = 8;
+
+    private static final ProfileDataReader HEADER_READER = ProfileDataReader.forFields("alg", "kid");
+    //every top level claim, along with the elements of the audience when it's an array
+    private static final ProfileDataReader CLAIMS_READER = ProfileDataReader.forAllFieldsAnd(
+            IntStream.range(0, MAX_AUDIENCES).mapToObj(index -> AUDIENCE_ELEMENT + index)
+                    .collect(Collectors.toList()));
+
+    private final JwksKeyCache keys;
+    private final Set<String> issuers;
+
+    /**
+     * @param keys    provider's signing keys
+     * @param issuers accepted values of the {@code iss} claim
+     */
+    public IdTokenVerifier(JwksKeyCache keys, Set<String> issuers) {
+        this.keys = keys;
+        this.issuers = issuers;
+    }
+
+    /**
+     * Verify the token and return its claims.
+     *
+     * @param idToken  compact serialized JWT
+     * @param clientId OAuth client id which must be the audience of the token
+     * @return claims of the token, with their JSON types preserved. The audience is kept only when it's a string.
+     * @throws IdTokenException in case the token can't be trusted
+     */
+    public Map<String, Object> verify(String idToken, String clientId) throws IdTokenException {
+        if (StringUtils.isBlank(idToken)) {
+            throw new IdTokenException("ID token is missing");
+        }
+        String[] parts = idToken.split("\\.");
+        if (parts.length != 3) {
+            throw new IdTokenException("ID token is not a signed JWT");
+        }
+        try {
+            Map<String, Object> header = decode(parts[0], HEADER_READER);
+            if (!RS256.equals(header.get("alg"))) {
+                throw new IdTokenException("Unsupported ID token algorithm " + header.get("alg"));
+            }
+            verifySignature(parts, (String) header.get("kid"));
+            Map<String, Object> claims = decode(parts[1], CLAIMS_READER);
+            verifyClaims(claims, clientId);
+            return withoutAudienceElements(claims);
+        } catch (IOException | IllegalArgumentException | GeneralSecurityException e) {
+            throw new IdTokenException("Unable to verify ID token", e);
+        }
+    }
+
+    private void verifySignature(String[] parts, String keyId) throws IdTokenException, GeneralSecurityException {
+        PublicKey key = StringUtils.isBlank(keyId) ? null : keys.getKey(keyId);
+        if (Objects.isNull(key)) {
+            throw new IdTokenException("No signing key found for key id " + keyId);
+        }
+        Signature signature = Signature.getInstance("SHA256withRSA");
+        signature.initVerify(key);
+        signature.update((parts[0] + '.' + parts[1]).getBytes(StandardCharsets.US_ASCII));
+        if (!signature.verify(Base64.getUrlDecoder().decode(parts[2]))) {
+            throw new IdTokenException("ID token signature doesn't match");
+        }
+    }
+
+    private void verifyClaims(Map<String, Object> claims, String clientId) throws IdTokenException {
+        if (!issuers.contains(claims.get("iss"))) {
+            throw new IdTokenException("Unexpected ID token issuer " + claims.get("iss"));
+        }
+        List<String> audiences = getAudiences(claims);
+        if (StringUtils.isBlank(clientId) || !audiences.contains(clientId)) {
+            throw new IdTokenException("ID token wasn't issued for this client");
+        }
+        if (audiences.size() > 1 && !clientId.equals(claims.get("azp"))) {
+            throw new IdTokenException("ID token wasn't authorized for this client");
+        }
+        Object expiry = claims.get("exp");
+        long nowSeconds = TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis());
+        if (!(expiry instanceof Long) || (Long) expiry + CLOCK_SKEW_SECONDS < nowSeconds) {
+            throw new IdTokenException("ID token is expired");
+        }
+    }
+
+    /**
+     * @return the audience when it's a string, else the strings of the audience array
+     */
+    private static List<String> getAudiences(Map<String, Object> claims) {
+        List<String> audiences = new ArrayList<>(1);
+        Object audience = claims.get(AUDIENCE);
+        if (audience instanceof String) {
+            audiences.add((String) audience);
+        }
+        for (int index = 0; index < MAX_AUDIENCES; index++) {
+            Object element = claims.get(AUDIENCE_ELEMENT + index);
+            if (element instanceof String) {
+                audiences.add((String) element);
+            }
+        }
+        return audiences;
+    }
+
+    private static Map<String, Object> withoutAudienceElements(Map<String, Object> claims) {
+        if (claims.keySet().stream().noneMatch(name -> name.startsWith(AUDIENCE_ELEMENT))) {
+            return claims;
+        }
+        Map<String, Object> topLevelClaims = new LinkedHashMap<>(claims);
+        topLevelClaims.keySet().removeIf(name -> name.startsWith(AUDIENCE_ELEMENT));
+        return topLevelClaims;
+    }
+
+    private static Map<String, Object> decode(String part, ProfileDataReader reader) throws IOException {
+        return reader.read(new ByteArrayInputStream(Base64.getUrlDecoder().decode(part))).getTypedValues();
+    }
+
+}
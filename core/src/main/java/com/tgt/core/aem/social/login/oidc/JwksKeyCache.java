@@ -0,0 +1,266 @@
+package com.tgt.core.aem.social.login.oidc;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.tgt.core.aem.social.login.http.OAuthTransport;
+import org.apache.commons.lang.StringUtils;
+import org.apache.sling.commons.scheduler.ScheduleOptions;
+import org.apache.sling.commons.scheduler.Scheduler;
+import org.scribe.model.Response;
+import org.scribe.model.Verb;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
+import java.security.PublicKey;
+import java.security.spec.InvalidKeySpecException;
+import java.security.spec.RSAPublicKeySpec;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * In-memory cache of the RSA signing keys published by an OpenID Connect provider as a JSON Web Key Set.
+ * <p>
+ * Keys are fetched in the background as soon as the cache is started and refreshed before the
+ * {@code Cache-Control max-age} of the key set expires, so verifying an ID token never waits for the key set in the
+ * common case. A key id which isn't known yet (i.e. the provider rotated its keys) triggers a synchronous refresh,
+ * at most once per {@link #MIN_REFRESH_INTERVAL_MS}, and a verification arriving during the first fetch waits for it.
+ * The refreshes are one-shot jobs of the Sling {@link Scheduler}, each one scheduling the next.
+ */
+public final class JwksKeyCache implements Closeable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(JwksKeyCache.class);
+
+    private static final Pattern MAX_AGE = Pattern.compile("max-age=(\\d+)");
+
+    static final long MIN_REFRESH_INTERVAL_MS = TimeUnit.MINUTES.toMillis(1);
+    private static final long DEFAULT_REFRESH_MS = TimeUnit.HOURS.toMillis(1);
+    private static final long RETRY_REFRESH_MS = TimeUnit.SECONDS.toMillis(30);
+
+    //a cache replacing another one for the same URL must not share the name of its job
+    private static final AtomicLong JOB_IDS = new AtomicLong();
+
+    private final OAuthTransport transport;
+    private final String jwksUrl;
+    private final Scheduler scheduler;
+    private final String jobName;
+
+    private volatile Map<String, PublicKey> keys = Collections.emptyMap();
+    private volatile long lastRefreshMs;
+    private volatile boolean closed;
+
+    /**
+     * @param transport {@link OAuthTransport} used to fetch the key set
+     * @param jwksUrl   URL of the JSON Web Key Set
+     * @param scheduler {@link Scheduler} running the background refreshes
+     */
+    public JwksKeyCache(OAuthTransport transport, String jwksUrl, Scheduler scheduler) {
+        this.transport = transport;
+        this.jwksUrl = jwksUrl;
+        this.scheduler = scheduler;
+        this.jobName = "tgt-social-login-jwks-refresher-" + JOB_IDS.incrementAndGet();
+    }
+
+    /**
+     * Fetch the keys in the background, this never blocks the caller.
+     */
+    public void start() {
+        scheduleRefresh(scheduler.NOW());
+    }
+
+    /**
+     * Get a signing key by its id.
+     *
+     * @param keyId {@code kid} header of the token
+     * @return the key or null if the provider hasn't published any key with this id
+     */
+    public PublicKey getKey(String keyId) {
+        PublicKey key = keys.get(keyId);
+        //without any key yet, wait for the first fetch which may be in progress
+        if (Objects.isNull(key) && (keys.isEmpty()
+                || System.currentTimeMillis() - lastRefreshMs > MIN_REFRESH_INTERVAL_MS)) {
+            synchronized (this) {
+                key = keys.get(keyId);
+                if (Objects.isNull(key) && System.currentTimeMillis() - lastRefreshMs > MIN_REFRESH_INTERVAL_MS) {
+                    refreshQuietly();
+                    key = keys.get(keyId);
+                }
+            }
+        }
+        return key;
+    }
+
+    /**
+     * @return number of keys currently cached
+     */
+    public int size() {
+        return keys.size();
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        scheduler.unschedule(jobName);
+    }
+
+    private void scheduleRefresh(ScheduleOptions options) {
+        if (!closed && !scheduler.schedule((Runnable) this::scheduledRefresh,
+                options.name(jobName).canRunConcurrently(false))) {
+            LOGGER.error("Unable to schedule the refresh of the signing keys from {}", jwksUrl);
+        }
+    }
+
+    private void scheduledRefresh() {
+        long nextRefreshMs = refreshQuietly();
+        scheduleRefresh(scheduler.AT(new Date(System.currentTimeMillis() + nextRefreshMs)));
+    }
+
+    /**
+     * @return delay in milliseconds before the keys should be refreshed again
+     */
+    private synchronized long refreshQuietly() {
+        lastRefreshMs = System.currentTimeMillis();
+        try {
+            return refresh();
+        } catch (IOException | GeneralSecurityException | RuntimeException e) {
+            LOGGER.error("Unable to fetch signing keys from {}", jwksUrl, e);
+            return RETRY_REFRESH_MS;
+        }
+    }
+
+    private long refresh() throws IOException, GeneralSecurityException {
+        Response response = transport.createRequest(Verb.GET, jwksUrl).send();
+        if (!response.isSuccessful()) {
+            response.getBody();
+            throw new IOException("Signing keys request failed with response code " + response.getCode());
+        }
+        Map<String, PublicKey> fetchedKeys = parseKeys(response.getStream());
+        if (fetchedKeys.isEmpty()) {
+            throw new IOException("No RSA signing key found in " + jwksUrl);
+        }
+        keys = Collections.unmodifiableMap(fetchedKeys);
+        long maxAgeMs = maxAgeMs(response);
+        LOGGER.debug("Fetched {} signing keys from {}, next refresh in {} ms", fetchedKeys.size(), jwksUrl,
+                maxAgeMs);
+        return maxAgeMs;
+    }
+
+    /**
+     * Refresh when 80% of the max-age has elapsed so that the keys are never served stale.
+     */
+    private static long maxAgeMs(Response response) {
+        for (Map.Entry<String, String> header : response.getHeaders().entrySet()) {
+            if ("Cache-Control".equalsIgnoreCase(header.getKey()) && Objects.nonNull(header.getValue())) {
+                Matcher matcher = MAX_AGE.matcher(header.getValue());
+                if (matcher.find()) {
+                    long maxAgeMs = TimeUnit.SECONDS.toMillis(Long.parseLong(matcher.group(1))) * 8 / 10;
+                    return Math.max(MIN_REFRESH_INTERVAL_MS, maxAgeMs);
+                }
+            }
+        }
+        return DEFAULT_REFRESH_MS;
+    }
+
+    static Map<String, PublicKey> parseKeys(InputStream stream) throws IOException, GeneralSecurityException {
+        Map<String, PublicKey> parsedKeys = new HashMap<>();
+        KeyFactory keyFactory = KeyFactory.getInstance("RSA");
+        try (JsonReader reader = new JsonReader(new InputStreamReader(stream, StandardCharsets.UTF_8))) {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                if (!"keys".equals(reader.nextName())) {
+                    reader.skipValue();
+                    continue;
+                }
+                reader.beginArray();
+                while (reader.hasNext()) {
+                    Map<String, String> jwk = readKey(reader);
+                    PublicKey key = isRsaSigningKey(jwk) ? toPublicKey(jwk, keyFactory) : null;
+                    if (Objects.nonNull(key)) {
+                        parsedKeys.put(jwk.get("kid"), key);
+                    }
+                }
+                reader.endArray();
+            }
+            reader.endObject();
+        } catch (IllegalStateException | NumberFormatException invalidJson) {
+            throw new IOException("Invalid JSON Web Key Set", invalidJson);
+        }
+        return parsedKeys;
+    }
+
+    /**
+     * @return true for the RSA keys with an id which may sign RS256 tokens
+     */
+    private static boolean isRsaSigningKey(Map<String, String> jwk) {
+        String use = jwk.get("use");
+        String alg = jwk.get("alg");
+        return "RSA".equals(jwk.get("kty")) && StringUtils.isNotBlank(jwk.get("kid"))
+                && (Objects.isNull(use) || "sig".equals(use)) && (Objects.isNull(alg) || "RS256".equals(alg));
+    }
+
+    /**
+     * @return public key of the JWK, null if its modulus or exponent is missing or isn't base64url encoded
+     */
+    private static PublicKey toPublicKey(Map<String, String> jwk, KeyFactory keyFactory) {
+        BigInteger modulus = decodeUnsigned(jwk.get("n"));
+        BigInteger exponent = decodeUnsigned(jwk.get("e"));
+        if (Objects.isNull(modulus) || Objects.isNull(exponent)) {
+            LOGGER.warn("Signing key {} has no valid modulus or exponent, it is ignored", jwk.get("kid"));
+            return null;
+        }
+        try {
+            return keyFactory.generatePublic(new RSAPublicKeySpec(modulus, exponent));
+        } catch (InvalidKeySpecException e) {
+            LOGGER.warn("Signing key {} is ignored : {}", jwk.get("kid"), e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * @return value of a base64url encoded unsigned integer, null if it's blank, not base64url or zero
+     */
+    private static BigInteger decodeUnsigned(String value) {
+        if (StringUtils.isBlank(value)) {
+            return null;
+        }
+        byte[] bytes;
+        try {
+            bytes = Base64.getUrlDecoder().decode(value);
+        } catch (IllegalArgumentException notBase64Url) {
+            return null;
+        }
+        BigInteger integer = new BigInteger(1, bytes);
+        return integer.signum() > 0 ? integer : null;
+    }
+
+    private static Map<String, String> readKey(JsonReader reader) throws IOException {
+        Map<String, String> jwk = new HashMap<>();
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (reader.peek() == JsonToken.STRING) {
+                jwk.put(name, reader.nextString());
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return jwk;
+    }
+
+}
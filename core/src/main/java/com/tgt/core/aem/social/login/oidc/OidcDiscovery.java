@@ -0,0 +1,212 @@
+package com.tgt.core.aem.social.login.oidc;
+
+import com.tgt.core.aem.social.login.http.OAuthTransport;
+import com.tgt.core.aem.social.login.utils.ProfileDataReader;
+import org.apache.commons.lang.StringUtils;
+import org.apache.sling.commons.scheduler.ScheduleOptions;
+import org.apache.sling.commons.scheduler.Scheduler;
+import org.scribe.model.Response;
+import org.scribe.model.Verb;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Date;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * In-memory cache of the discovery document ({@code .well-known/openid-configuration}) of an OpenID Connect
+ * provider.
+ * <p>
+ * The document is fetched in the background as soon as the cache is started and refreshed before its
+ * {@code Cache-Control max-age} expires, or after the configured time to live when the provider doesn't send any,
+ * so logins never wait for it in the common case. Only a login arriving before the first fetch succeeded fetches it
+ * synchronously, at most once per {@link #RETRY_REFRESH_MS}. A failed refresh keeps the last known endpoints, and a
+ * refresh which doesn't change them keeps the same {@link OidcMetadata} instance. The refreshes are one-shot jobs of
+ * the Sling {@link Scheduler}, each one scheduling the next.
+ */
+public final class OidcDiscovery implements Closeable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(OidcDiscovery.class);
+
+    /**
+     * Path of the discovery document, relative to the issuer.
+     */
+    public static final String WELL_KNOWN_PATH = "/.well-known/openid-configuration";
+
+    private static final Pattern MAX_AGE = Pattern.compile("max-age=(\\d+)");
+
+    private static final long MIN_REFRESH_INTERVAL_MS = TimeUnit.MINUTES.toMillis(1);
+    static final long RETRY_REFRESH_MS = TimeUnit.SECONDS.toMillis(30);
+
+    private static final String ISSUER = "issuer";
+    private static final String AUTHORIZATION_ENDPOINT = "authorization_endpoint";
+    private static final String TOKEN_ENDPOINT = "token_endpoint";
+    private static final String USERINFO_ENDPOINT = "userinfo_endpoint";
+    private static final String JWKS_URI = "jwks_uri";
+    private static final ProfileDataReader READER = ProfileDataReader.forFields(ISSUER, AUTHORIZATION_ENDPOINT,
+            TOKEN_ENDPOINT, USERINFO_ENDPOINT, JWKS_URI);
+
+    //a provider activated again for the same issuer must not share the name of its job
+    private static final AtomicLong JOB_IDS = new AtomicLong();
+
+    private final OAuthTransport transport;
+    private final String issuer;
+    private final String discoveryUrl;
+    private final long ttlMs;
+    private final Scheduler scheduler;
+    private final String jobName;
+
+    private volatile OidcMetadata metadata;
+    private volatile long nextRefreshMs;
+    private volatile boolean closed;
+
+    /**
+     * @param transport    {@link OAuthTransport} used to fetch the document
+     * @param issuer       issuer of the provider, the document must be published for it
+     * @param discoveryUrl URL of the document, blank for the issuer followed by {@value #WELL_KNOWN_PATH}
+     * @param ttlMs        time in milliseconds the document is kept when the provider doesn't send any max-age
+     * @param scheduler    {@link Scheduler} running the background refreshes
+     */
+    public OidcDiscovery(OAuthTransport transport, String issuer, String discoveryUrl, long ttlMs,
+                         Scheduler scheduler) {
+        this.transport = transport;
+        this.issuer = StringUtils.removeEnd(issuer, "/");
+        this.discoveryUrl = StringUtils.isBlank(discoveryUrl) ? this.issuer + WELL_KNOWN_PATH : discoveryUrl;
+        this.ttlMs = Math.max(MIN_REFRESH_INTERVAL_MS, ttlMs);
+        this.scheduler = scheduler;
+        this.jobName = "tgt-social-login-oidc-discovery-" + JOB_IDS.incrementAndGet();
+    }
+
+    /**
+     * Fetch the document in the background, this never blocks the caller.
+     */
+    public void start() {
+        scheduleRefresh(scheduler.NOW());
+    }
+
+    /**
+     * @return current endpoints of the provider
+     * @throws IOException in case the document was never fetched and can't be fetched now
+     */
+    public OidcMetadata get() throws IOException {
+        OidcMetadata current = metadata;
+        if (Objects.isNull(current)) {
+            synchronized (this) {
+                current = metadata;
+                if (Objects.isNull(current) && System.currentTimeMillis() >= nextRefreshMs) {
+                    refreshQuietly();
+                    current = metadata;
+                }
+            }
+        }
+        if (Objects.isNull(current)) {
+            throw new IOException("Discovery document of " + issuer + " isn't available yet");
+        }
+        return current;
+    }
+
+    /**
+     * @return URL of the discovery document
+     */
+    public String getDiscoveryUrl() {
+        return discoveryUrl;
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        scheduler.unschedule(jobName);
+    }
+
+    private void scheduleRefresh(ScheduleOptions options) {
+        if (!closed && !scheduler.schedule((Runnable) this::scheduledRefresh,
+                options.name(jobName).canRunConcurrently(false))) {
+            LOGGER.error("Unable to schedule the refresh of the discovery document {}", discoveryUrl);
+        }
+    }
+
+    private void scheduledRefresh() {
+        long delayMs = refreshIfDue();
+        scheduleRefresh(scheduler.AT(new Date(System.currentTimeMillis() + delayMs)));
+    }
+
+    /**
+     * A login may have fetched the document in the meantime, it's then not fetched again before it's due.
+     *
+     * @return delay in milliseconds before the document should be refreshed again
+     */
+    private synchronized long refreshIfDue() {
+        long delayMs = nextRefreshMs - System.currentTimeMillis();
+        return delayMs > 0 ? delayMs : refreshQuietly();
+    }
+
+    /**
+     * @return delay in milliseconds before the document should be refreshed again
+     */
+    private synchronized long refreshQuietly() {
+        long delayMs;
+        try {
+            delayMs = refresh();
+        } catch (IOException | RuntimeException e) {
+            LOGGER.error("Unable to fetch the discovery document {}", discoveryUrl, e);
+            delayMs = RETRY_REFRESH_MS;
+        }
+        nextRefreshMs = System.currentTimeMillis() + delayMs;
+        return delayMs;
+    }
+
+    private long refresh() throws IOException {
+        Response response = transport.createRequest(Verb.GET, discoveryUrl).send();
+        if (!response.isSuccessful()) {
+            response.getBody();
+            throw new IOException("Discovery document request failed with response code " + response.getCode());
+        }
+        Map<String, String> document;
+        try {
+            document = READER.read(response.getStream());
+        } catch (IllegalStateException | NumberFormatException e) {
+            throw new IOException("Invalid discovery document", e);
+        }
+        //an issuer must publish its own document, the ID tokens of another issuer would be accepted otherwise
+        if (!issuer.equals(StringUtils.removeEnd(document.get(ISSUER), "/"))) {
+            throw new IOException("Discovery document is published for issuer " + document.get(ISSUER));
+        }
+        if (StringUtils.isBlank(document.get(AUTHORIZATION_ENDPOINT))
+                || StringUtils.isBlank(document.get(TOKEN_ENDPOINT))) {
+            throw new IOException("Discovery document has no authorization or token endpoint");
+        }
+        OidcMetadata fetched = new OidcMetadata(document.get(ISSUER), document.get(AUTHORIZATION_ENDPOINT),
+                document.get(TOKEN_ENDPOINT), document.get(USERINFO_ENDPOINT), document.get(JWKS_URI));
+        if (!fetched.equals(metadata)) {
+            LOGGER.info("Endpoints of {} : {}", issuer, fetched);
+            metadata = fetched;
+        }
+        long maxAgeMs = maxAgeMs(response);
+        LOGGER.debug("Fetched the discovery document {}, next refresh in {} ms", discoveryUrl, maxAgeMs);
+        return maxAgeMs;
+    }
+
+    /**
+     * Refresh when 80% of the max-age has elapsed so that the endpoints are never served stale.
+     */
+    private long maxAgeMs(Response response) {
+        for (Map.Entry<String, String> header : response.getHeaders().entrySet()) {
+            if ("Cache-Control".equalsIgnoreCase(header.getKey()) && Objects.nonNull(header.getValue())) {
+                Matcher matcher = MAX_AGE.matcher(header.getValue());
+                if (matcher.find()) {
+                    long maxAgeMs = TimeUnit.SECONDS.toMillis(Long.parseLong(matcher.group(1))) * 8 / 10;
+                    return Math.max(MIN_REFRESH_INTERVAL_MS, maxAgeMs);
+                }
+            }
+        }
+        return ttlMs;
+    }
+
+}
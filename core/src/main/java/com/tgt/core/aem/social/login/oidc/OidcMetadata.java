@@ -0,0 +1,79 @@
+package com.tgt.core.aem.social.login.oidc;
+
+import java.util.Objects;
+
+/**
+ * Endpoints of an OpenID Connect provider, as published in its discovery document.
+ */
+public final class OidcMetadata {
+
+    private final String issuer;
+    private final String authorizationEndpoint;
+    private final String tokenEndpoint;
+    private final String userInfoEndpoint;
+    private final String jwksUri;
+
+    /**
+     * @param issuer                {@code issuer}, the {@code iss} claim of the provider's ID tokens
+     * @param authorizationEndpoint {@code authorization_endpoint}
+     * @param tokenEndpoint         {@code token_endpoint}
+     * @param userInfoEndpoint      {@code userinfo_endpoint}
+     * @param jwksUri               {@code jwks_uri}
+     */
+    public OidcMetadata(String issuer, String authorizationEndpoint, String tokenEndpoint, String userInfoEndpoint,
+                        String jwksUri) {
+        this.issuer = issuer;
+        this.authorizationEndpoint = authorizationEndpoint;
+        this.tokenEndpoint = tokenEndpoint;
+        this.userInfoEndpoint = userInfoEndpoint;
+        this.jwksUri = jwksUri;
+    }
+
+    public String getIssuer() {
+        return issuer;
+    }
+
+    public String getAuthorizationEndpoint() {
+        return authorizationEndpoint;
+    }
+
+    public String getTokenEndpoint() {
+        return tokenEndpoint;
+    }
+
+    public String getUserInfoEndpoint() {
+        return userInfoEndpoint;
+    }
+
+    public String getJwksUri() {
+        return jwksUri;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof OidcMetadata)) {
+            return false;
+        }
+        OidcMetadata that = (OidcMetadata) o;
+        return Objects.equals(issuer, that.issuer)
+                && Objects.equals(authorizationEndpoint, that.authorizationEndpoint)
+                && Objects.equals(tokenEndpoint, that.tokenEndpoint)
+                && Objects.equals(userInfoEndpoint, that.userInfoEndpoint)
+                && Objects.equals(jwksUri, that.jwksUri);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(issuer, authorizationEndpoint, tokenEndpoint, userInfoEndpoint, jwksUri);
+    }
+
+    @Override
+    public String toString() {
+        return "issuer=" + issuer + ", authorization=" + authorizationEndpoint + ", token=" + tokenEndpoint
+                + ", userInfo=" + userInfoEndpoint + ", jwks=" + jwksUri;
+    }
+
+}
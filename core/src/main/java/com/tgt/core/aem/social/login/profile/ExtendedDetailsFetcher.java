@@ -0,0 +1,274 @@
+package com.tgt.core.aem.social.login.profile;
+
+import com.tgt.core.aem.social.login.http.LocalResponses;
+import com.tgt.core.aem.social.login.http.OAuthTransport;
+import com.tgt.core.aem.social.login.http.ProviderCallException;
+import com.tgt.core.aem.social.login.http.ProviderFailure;
+import com.tgt.core.aem.social.login.metrics.LoginMetrics;
+import com.tgt.core.aem.social.login.metrics.LoginPhase;
+import com.tgt.core.aem.social.login.metrics.MeteredOAuthRequest;
+import org.apache.commons.io.IOUtils;
+import org.apache.sling.commons.threads.ModifiableThreadPoolConfig;
+import org.apache.sling.commons.threads.ThreadPool;
+import org.apache.sling.commons.threads.ThreadPoolConfig;
+import org.apache.sling.commons.threads.ThreadPoolManager;
+import org.scribe.exceptions.OAuthException;
+import org.scribe.model.OAuthConstants;
+import org.scribe.model.OAuthRequest;
+import org.scribe.model.Response;
+import org.scribe.model.Verb;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.stream.Collectors;
+
+/**
+ * Fetches the extended user details of a login from all its {@link ExtendedDetailsSource}s concurrently.
+ * <p>
+ * AEM's OAuth authentication handler sends the extended details requests one after another. The first one sent for
+ * an access token starts the requests of all the sources of its scope at once on a bounded Sling thread pool, so a
+ * login waits for the slowest source instead of the sum of them. All the requests of a login share one deadline: a
+ * source which didn't answer by then is skipped if optional, or fails the login if required. The same goes for a
+ * source which failed.
+ * <p>
+ * Pending fetches are keyed by the access token and removed once all their sources are taken, or purged once they
+ * are expired in case the login never asks for them. Responses are read fully by the pool, so a skipped source never
+ * holds a connection.
+ */
+public final class ExtendedDetailsFetcher implements Closeable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ExtendedDetailsFetcher.class);
+
+    private static final byte[] NO_DETAILS = "{}".getBytes(StandardCharsets.UTF_8);
+    private static final long TTL_NANOS = TimeUnit.MINUTES.toNanos(2);
+
+    private final OAuthTransport transport;
+    private final List<ExtendedDetailsSource> sources;
+    private final long deadlineNanos;
+    private final int maxPending;
+    private final LoginMetrics loginMetrics;
+    private final ThreadPoolManager threadPoolManager;
+    private final ThreadPool threadPool;
+    private final Map<String, List<ExtendedDetailsSource>> sourcesByScope = new ConcurrentHashMap<>();
+    private final Map<String, Fetch> fetches = new ConcurrentHashMap<>();
+
+    /**
+     * @param transport         {@link OAuthTransport} the requests are sent with
+     * @param sources           configured sources
+     * @param threads           max number of requests sent at once by all the logins
+     * @param deadlineMs        time in milliseconds all the sources of a login have to answer
+     * @param maxPending        max number of logins whose extended details are being fetched
+     * @param loginMetrics      {@link LoginMetrics} recording the requests and the skipped sources
+     * @param threadPoolManager {@link ThreadPoolManager} creating the pool the requests are sent by
+     */
+    public ExtendedDetailsFetcher(OAuthTransport transport, List<ExtendedDetailsSource> sources, int threads,
+                                  long deadlineMs, int maxPending, LoginMetrics loginMetrics,
+                                  ThreadPoolManager threadPoolManager) {
+        this.transport = transport;
+        this.sources = sources;
+        this.deadlineNanos = TimeUnit.MILLISECONDS.toNanos(deadlineMs);
+        this.maxPending = maxPending;
+        this.loginMetrics = loginMetrics;
+        this.threadPoolManager = threadPoolManager;
+        ModifiableThreadPoolConfig poolConfig = new ModifiableThreadPoolConfig();
+        poolConfig.setMinPoolSize(threads);
+        poolConfig.setMaxPoolSize(threads);
+        poolConfig.setQueueSize(threads * 4);
+        //requests beyond the pool and its queue are rejected, the source is then handled as failed
+        poolConfig.setBlockPolicy(ThreadPoolConfig.ThreadPoolPolicy.ABORT);
+        poolConfig.setShutdownGraceful(false);
+        poolConfig.setDaemon(true);
+        this.threadPool = threadPoolManager.create(poolConfig, "tgt-social-login-extended-details");
+    }
+
+    /**
+     * @param requestedScopes scopes requested by the login
+     * @return URLs of the sources whose scope is requested
+     */
+    public String[] getUrls(String requestedScopes) {
+        return sourcesOf(requestedScopes).stream().map(ExtendedDetailsSource::getUrl).toArray(String[]::new);
+    }
+
+    /**
+     * @param url URL of the request
+     * @return source fetched from this URL, null if there is none
+     */
+    public ExtendedDetailsSource getSource(String url) {
+        return sources.stream().filter(source -> source.getUrl().equals(url)).findFirst().orElse(null);
+    }
+
+    private List<ExtendedDetailsSource> sourcesOf(String requestedScopes) {
+        return sourcesByScope.computeIfAbsent(Objects.toString(requestedScopes, ""), scopes -> Collections
+                .unmodifiableList(sources.stream().filter(source -> source.isGranted(scopes))
+                        .collect(Collectors.toList())));
+    }
+
+    /**
+     * Get the response of a source for a login, starting the requests of all the sources of its scope if they
+     * aren't started yet.
+     *
+     * @param source      source to get
+     * @param accessToken access token of the login
+     * @return response of the source, an empty JSON object if an optional source failed or didn't answer in time
+     * @throws OAuthException in case a required source failed or didn't answer in time, a
+     *                        {@link ProviderCallException} if the failure is classified
+     */
+    public Response fetch(ExtendedDetailsSource source, String accessToken) {
+        if (Objects.isNull(accessToken)) {
+            return skip(source, new OAuthException("Extended details request isn't signed with an access token"));
+        }
+        Fetch fetch = fetches.get(accessToken);
+        if (Objects.isNull(fetch)) {
+            if (fetches.size() >= maxPending) {
+                purgeExpired();
+            }
+            //when full, only this source is fetched, still within the deadline
+            fetch = fetches.size() >= maxPending ? new Fetch(Collections.singletonList(source), accessToken)
+                    : fetches.computeIfAbsent(accessToken, token -> new Fetch(groupOf(source), token));
+        }
+        Future<Response> future = fetch.take(source);
+        if (fetch.isDone()) {
+            fetches.remove(accessToken, fetch);
+        }
+        if (Objects.isNull(future)) {
+            //source of another scope, or taken twice
+            fetch = new Fetch(Collections.singletonList(source), accessToken);
+            future = fetch.take(source);
+        }
+        return await(source, future, fetch.deadline);
+    }
+
+    /**
+     * @return sources of the first requested scopes which include this source
+     */
+    private List<ExtendedDetailsSource> groupOf(ExtendedDetailsSource source) {
+        return sourcesByScope.values().stream().filter(group -> group.contains(source)).findFirst()
+                .orElse(Collections.singletonList(source));
+    }
+
+    private Response await(ExtendedDetailsSource source, Future<Response> future, long deadline) {
+        Exception failure;
+        try {
+            Response response = future.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+            if (response.isSuccessful()) {
+                return response;
+            }
+            failure = ProviderCallException.fromResponse("extended details URL", response);
+        } catch (TimeoutException e) {
+            future.cancel(true);
+            failure = new ProviderCallException(ProviderFailure.TIMEOUT,
+                    "Extended details from " + source.getUrl() + " not received in time");
+            loginMetrics.recordFailure(LoginPhase.EXTENDED_DETAILS_FETCH, failure);
+        } catch (ExecutionException e) {
+            //already recorded by the request
+            failure = e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            future.cancel(true);
+            throw new OAuthException("Interrupted while fetching the extended details", e);
+        }
+        return skip(source, failure);
+    }
+
+    /**
+     * @return an empty JSON object for an optional source
+     * @throws OAuthException the failure of a required source
+     */
+    private static Response skip(ExtendedDetailsSource source, Exception failure) {
+        if (source.isRequired()) {
+            throw failure instanceof OAuthException ? (OAuthException) failure
+                    : new OAuthException("Unable to fetch the extended details from " + source.getUrl(), failure);
+        }
+        LOGGER.warn("Skipped the extended details from {} : {}", source.getUrl(), failure.toString());
+        return LocalResponses.json(HttpURLConnection.HTTP_OK, NO_DETAILS);
+    }
+
+    private Response send(ExtendedDetailsSource source, String accessToken) throws IOException {
+        OAuthRequest request = transport.createRequest(Verb.GET, source.getUrl());
+        if (loginMetrics.isEnabled()) {
+            request = new MeteredOAuthRequest(request, loginMetrics, LoginPhase.EXTENDED_DETAILS_FETCH);
+        }
+        request.addQuerystringParameter(OAuthConstants.ACCESS_TOKEN, accessToken);
+        Response response = request.send();
+        try (InputStream body = response.getStream()) {
+            return LocalResponses.json(response.getCode(),
+                    Objects.isNull(body) ? new byte[0] : IOUtils.toByteArray(body));
+        }
+    }
+
+    private void purgeExpired() {
+        long now = System.nanoTime();
+        fetches.values().removeIf(fetch -> now - fetch.expiresAt > 0);
+    }
+
+    /**
+     * Cancel the pending fetches and release the pool.
+     */
+    @Override
+    public void close() {
+        threadPoolManager.release(threadPool);
+        fetches.clear();
+    }
+
+    /**
+     * Requests of all the sources of a login, started at once.
+     */
+    private final class Fetch {
+
+        private final long deadline;
+        private final long expiresAt;
+        private final Map<ExtendedDetailsSource, Future<Response>> pending = new ConcurrentHashMap<>();
+
+        private Fetch(List<ExtendedDetailsSource> group, String accessToken) {
+            deadline = System.nanoTime() + deadlineNanos;
+            expiresAt = deadline + TTL_NANOS;
+            long login = loginMetrics.currentLogin();
+            for (ExtendedDetailsSource source : group) {
+                pending.put(source, submit(source, accessToken, login));
+            }
+        }
+
+        private Future<Response> submit(ExtendedDetailsSource source, String accessToken, long login) {
+            try {
+                return threadPool.submit(() -> {
+                    //traced under the login which started the fetch
+                    loginMetrics.joinLogin(login);
+                    return send(source, accessToken);
+                });
+            } catch (RejectedExecutionException e) {
+                ProviderCallException full = new ProviderCallException(ProviderFailure.BULKHEAD_FULL,
+                        "Too many extended details requests in flight");
+                loginMetrics.recordFailure(LoginPhase.EXTENDED_DETAILS_FETCH, full);
+                CompletableFuture<Response> rejected = new CompletableFuture<>();
+                rejected.completeExceptionally(full);
+                return rejected;
+            }
+        }
+
+        private Future<Response> take(ExtendedDetailsSource source) {
+            return pending.remove(source);
+        }
+
+        private boolean isDone() {
+            return pending.isEmpty();
+        }
+
+    }
+
+}
@@ -0,0 +1,40 @@
+package com.tgt.core.aem.social.login.profile;
+
+import org.scribe.model.OAuthConstants;
+import org.scribe.model.OAuthRequest;
+import org.scribe.model.Response;
+import org.scribe.model.Verb;
+
+/**
+ * Extended user details request answered by the {@link ExtendedDetailsFetcher}, which fetches all the extended
+ * details of the login concurrently.
+ * <p>
+ * AEM signs the request with the access token before sending it, the access token identifies the login.
+ */
+public class ExtendedDetailsRequest extends OAuthRequest {
+
+    private final ExtendedDetailsSource source;
+    private final ExtendedDetailsFetcher fetcher;
+
+    private String accessToken;
+
+    public ExtendedDetailsRequest(ExtendedDetailsSource source, ExtendedDetailsFetcher fetcher) {
+        super(Verb.GET, source.getUrl());
+        this.source = source;
+        this.fetcher = fetcher;
+    }
+
+    @Override
+    public void addQuerystringParameter(String key, String value) {
+        super.addQuerystringParameter(key, value);
+        if (OAuthConstants.ACCESS_TOKEN.equals(key)) {
+            accessToken = value;
+        }
+    }
+
+    @Override
+    public Response send() {
+        return fetcher.fetch(source, accessToken);
+    }
+
+}
@@ -0,0 +1,71 @@
+package com.tgt.core.aem.social.login.profile;
+
+import org.apache.commons.lang.StringUtils;
+
+import java.util.Arrays;
+
+/**
+ * URL the extended user details are fetched from, along with the scope it requires.
+ * <p>
+ * A source is configured as {@code <scope>|<url>}, or {@code <scope>|<url>|required} when the login must fail if
+ * the source can't be fetched, e.g.
+ * {@code https://www.googleapis.com/auth/user.organization.read|https://people.googleapis.com/v1/people/me?personFields=organizations}.
+ * Optional sources which fail or time out are skipped.
+ */
+public final class ExtendedDetailsSource {
+
+    private static final String SEPARATOR = "|";
+    private static final String REQUIRED = "required";
+
+    private final String scope;
+    private final String url;
+    private final boolean required;
+
+    public ExtendedDetailsSource(String scope, String url, boolean required) {
+        this.scope = scope;
+        this.url = url;
+        this.required = required;
+    }
+
+    /**
+     * @param source source as configured, {@code <scope>|<url>[|required]}
+     * @return {@link ExtendedDetailsSource}
+     * @throws IllegalArgumentException in case the source isn't in the expected format
+     */
+    public static ExtendedDetailsSource parse(String source) {
+        String[] parts = StringUtils.splitPreserveAllTokens(source, SEPARATOR);
+        if (parts.length < 2 || parts.length > 3 || StringUtils.isBlank(parts[0]) || StringUtils.isBlank(parts[1])
+                || (parts.length == 3 && !REQUIRED.equals(parts[2].trim()))) {
+            throw new IllegalArgumentException("Extended details source must be <scope>|<url>[|required] : "
+                    + source);
+        }
+        return new ExtendedDetailsSource(parts[0].trim(), parts[1].trim(), parts.length == 3);
+    }
+
+    /**
+     * @param requestedScopes scopes requested by the login, separated by spaces or commas
+     * @return whether the scope of this source is among them
+     */
+    public boolean isGranted(String requestedScopes) {
+        return StringUtils.isNotBlank(requestedScopes)
+                && Arrays.asList(StringUtils.split(requestedScopes, " ,")).contains(scope);
+    }
+
+    public String getScope() {
+        return scope;
+    }
+
+    public String getUrl() {
+        return url;
+    }
+
+    public boolean isRequired() {
+        return required;
+    }
+
+    @Override
+    public String toString() {
+        return scope + SEPARATOR + url + (required ? SEPARATOR + REQUIRED : "");
+    }
+
+}
@@ -0,0 +1,454 @@
+package com.tgt.core.aem.social.login.providers.impl;
+
+import com.adobe.granite.auth.oauth.Provider;
+import com.adobe.granite.auth.oauth.ProviderType;
+import com.tgt.core.aem.social.login.avatars.AvatarCache;
+import com.tgt.core.aem.social.login.constants.SocialLoginConstants;
+import com.tgt.core.aem.social.login.groups.GroupAssignment;
+import com.tgt.core.aem.social.login.http.OAuthTransport;
+import com.tgt.core.aem.social.login.http.ProviderCallException;
+import com.tgt.core.aem.social.login.metrics.LoginMetrics;
+import com.tgt.core.aem.social.login.metrics.LoginPhase;
+import com.tgt.core.aem.social.login.metrics.MeteredOAuthRequest;
+import com.tgt.core.aem.social.login.scribe.OidcScribeApi;
+import com.tgt.core.aem.social.login.tokens.AccessTokenCache;
+import com.tgt.core.aem.social.login.tokens.AccessTokenStore;
+import com.tgt.core.aem.social.login.tokens.impl.LoginAccessTokens;
+import com.tgt.core.aem.social.login.users.UserFolderLayout;
+import com.tgt.core.aem.social.login.utils.ProfileProperties;
+import com.tgt.core.aem.social.login.utils.PropertyMappingPlan;
+import com.tgt.core.aem.social.login.utils.SocialLoginUtils;
+import org.apache.jackrabbit.api.security.user.User;
+import org.apache.sling.api.SlingHttpServletRequest;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.commons.scheduler.Scheduler;
+import org.osgi.service.component.annotations.Reference;
+import org.scribe.model.OAuthRequest;
+import org.scribe.model.Response;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.jcr.RepositoryException;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * OAuth2 / OpenID Connect {@link Provider} using the authorization code flow, e.g. the {@link GoogleProvider} or any
+ * {@link OidcProvider}, which only differ by their endpoints and the requests sent for the user details.
+ * <p>
+ * The profile fields are kept and mapped by the configured {@link PropertyMappingPlan}. At each login the cached
+ * access tokens of the user are dropped and the access token issued to the login is kept in the
+ * {@link AccessTokenStore}, and the created or updated users get their groups assigned and their picture cached.
+ * <p>
+ * The references of this class are inherited by the components extending it, which requires
+ * {@code -dsannotations-options: inherit} in the bnd instructions.
+ */
+public abstract class AbstractOidcProvider implements Provider {
+
+    private final Logger LOGGER = LoggerFactory.getLogger(AbstractOidcProvider.class);
+
+    //target of this reference can be changed using "transport.target" property of this provider's config
+    @Reference
+    protected OAuthTransport transport;
+
+    @Reference
+    protected LoginMetrics loginMetrics = LoginMetrics.DISABLED;
+
+    @Reference
+    protected AccessTokenCache accessTokenCache = AccessTokenCache.DISABLED;
+
+    //target of this reference can be changed using "accessTokenStore.target" property of this provider's config
+    @Reference(target = "(" + AccessTokenStore.STORE_TYPE + "=" + AccessTokenStore.REPOSITORY + ")")
+    private AccessTokenStore accessTokenStore;
+
+    @Reference
+    private UserFolderLayout userFolderLayout;
+
+    @Reference
+    private GroupAssignment groupAssignment = GroupAssignment.DISABLED;
+
+    @Reference
+    private AvatarCache avatarCache = AvatarCache.DISABLED;
+
+    @Reference
+    protected Scheduler scheduler;
+
+    private String providerId;
+    private String userIdProperty;
+    private PropertyMappingPlan propertyMappingPlan;
+
+    /**
+     * Configure the settings shared by all the providers, called first at activation.
+     *
+     * @param providerId      ID of the provider in the OAuth configuration
+     * @param userIdProperty  profile field the AEM user ID is made of
+     * @param profileFields   fields kept from the user details, null or empty to keep all the top level fields
+     * @param propertyMapping fields handed to the sync handler under another name, see {@link PropertyMappingPlan}
+     */
+    protected void configure(String providerId, String userIdProperty, String[] profileFields,
+                             String[] propertyMapping) {
+        this.providerId = providerId;
+        this.userIdProperty = userIdProperty;
+        propertyMappingPlan = PropertyMappingPlan.compile(
+                Objects.isNull(profileFields) ? Collections.emptyList() : Arrays.asList(profileFields),
+                Objects.isNull(propertyMapping) ? Collections.emptyList() : Arrays.asList(propertyMapping),
+                userIdProperty);
+        LOGGER.info("Property mapping plan of {} : {}", providerId, propertyMappingPlan);
+    }
+
+    /**
+     * @return {@link PropertyMappingPlan} of the configured profile fields
+     */
+    protected PropertyMappingPlan getPropertyMappingPlan() {
+        return propertyMappingPlan;
+    }
+
+    /**
+     * @return {@link OidcScribeApi.Settings} shared by all the providers, to be completed with the provider's own
+     */
+    protected OidcScribeApi.Settings scribeSettings() {
+        return new OidcScribeApi.Settings(transport).loginMetrics(loginMetrics).accessTokenCache(accessTokenCache);
+    }
+
+    /**
+     * @param request user details request
+     * @return the request, measured by {@link LoginMetrics} when they are enabled
+     */
+    protected OAuthRequest metered(OAuthRequest request) {
+        return loginMetrics.isEnabled()
+                ? new MeteredOAuthRequest(request, loginMetrics, LoginPhase.USER_DETAILS_FETCH) : request;
+    }
+
+    /**
+     * Hook called at each login which was issued an access token, once it's kept in the {@link AccessTokenStore}.
+     *
+     * @param issued access token issued to the login
+     * @param props  profile properties handed to the sync handler, which can be added to
+     */
+    protected void onAccessTokenIssued(LoginAccessTokens.IssuedToken issued, Map<String, Object> props) {
+        //nothing more to hand to the sync handler by default
+    }
+
+    /**
+     * @return OAuth type
+     * @see ProviderType
+     */
+    @Override
+    public ProviderType getType() {
+        return ProviderType.OAUTH2;
+    }
+
+    /**
+     * Unique ID for this provider.
+     * <p>
+     * This will be configured in ProviderConfig to map this provider to that particular config.
+     *
+     * @return ID of this provider
+     */
+    @Override
+    public String getId() {
+        return providerId;
+    }
+
+    /**
+     * Readable name for this Provider
+     *
+     * @return name of this Provider
+     */
+    @Override
+    public String getName() {
+        return getClass().getSimpleName();
+    }
+
+    /**
+     * Parse the OAuth Response for protected profile data during profile import.
+     * <p>
+     * Only the configured profile fields are kept and their JSON types are preserved so that
+     * {@link #mapProperties(String, String, Map, Map)} can map them as typed values.
+     *
+     * @param response profile response from social provider
+     * @return Map of profile properties
+     * @throws IOException in case the provider answered with an error, classified by a {@link ProviderCallException}
+     *                     cause, or in case there is any error in parsing JSON response
+     */
+    @Override
+    public Map<String, String> parseProfileDataResponse(Response response) throws IOException {
+        long start = loginMetrics.start();
+        try {
+            if (!response.isSuccessful()) {
+                ProviderCallException failure = ProviderCallException.fromResponse("user details URL", response);
+                throw new IOException(failure.getMessage(), failure);
+            }
+            return SocialLoginUtils.parseProfileDataResponse(response, propertyMappingPlan.getReader());
+        } catch (IOException e) {
+            loginMetrics.recordFailure(LoginPhase.PROFILE_PARSE, e);
+            throw e;
+        } finally {
+            loginMetrics.record(LoginPhase.PROFILE_PARSE, start);
+        }
+    }
+
+    /**
+     * Key name from provider response which will be used to find the user Id of the AEM user.
+     * <p>
+     * Note: This property must be present in the social provider OAuth response, actually in the map
+     * returned by {@link this#parseProfileDataResponse(Response)}.
+     *
+     * @return configured profile field the AEM user ID is made of
+     */
+    @Override
+    public String getUserIdProperty() {
+        return userIdProperty;
+    }
+
+    /**
+     * Map the provider's user properties name to CQ user properties. This method will at least be
+     * called to map properties fetched from {@link #getDetailsURL()}. If {@link
+     * #getExtendedDetailsURLs(String)} is not null, this method will be called for the map of
+     * properties fetched from each url.
+     * <p>
+     * Note - This map will be provided to sync handler to save properties in AEM.
+     * Sync handler has the mapping of these keys with AEM user.
+     *
+     * @param srcUrl        URL from which user details had been fetched. Internally this will be one
+     *                      of the details/extendedDetails URL configured in this provider.
+     * @param clientId      in use to retrieve this set of properties
+     * @param existing      CQ properties that have been mapped already
+     * @param newProperties new properties that need to be mapped
+     * @return the result of mapping the new properties, and combining with the existing
+     */
+    @Override
+    public Map<String, Object> mapProperties(String srcUrl, String clientId,
+                                             Map<String, Object> existing, Map<String, String> newProperties) {
+        long start = loginMetrics.start();
+        //keep the JSON types (e.g. boolean verified_email) when properties were parsed by this provider
+        Map<String, ?> properties = newProperties instanceof ProfileProperties
+                ? ((ProfileProperties) newProperties).getTypedValues() : newProperties;
+
+        //the map returned for the user details is filled in place with the extended details
+        Map<String, Object> mapped = propertyMappingPlan.map(existing, properties);
+
+        loginMetrics.record(LoginPhase.PROPERTY_MAPPING, start);
+        return mapped;
+    }
+
+    /**
+     * Map the provider's user id to CRX user id. In our case we will use it as it is.
+     * <p>
+     * This is called at each login, before the new access token of the user is stored, so the cached access tokens
+     * of the user are dropped here, {@link #onUserUpdate(User)} isn't called when the profile didn't change. The access
+     * token issued to this login is kept in the {@link AccessTokenStore} here too, the repository store leaves it to
+     * AEM.
+     * <p>
+     * Note - we can't authenticate a single account against different providers.
+     *
+     * @param userId provider's userId
+     * @param props  map of all provider's properties for this userId. This map was generated from
+     *               social provider's OAuth response using {@link this#mapProperties(String, String,
+     *               Map, Map)}.
+     * @return AEM user id
+     */
+    @Override
+    public String mapUserId(String userId, Map<String, Object> props) {
+        accessTokenCache.invalidate(userId);
+        LoginAccessTokens.IssuedToken issued = LoginAccessTokens.take();
+        if (Objects.nonNull(issued)) {
+            accessTokenStore.store(userId, issued.getClientId(), issued.getAccessToken(),
+                    issued.getExpiresInSeconds());
+            onAccessTokenIssued(issued, props);
+        }
+        return userId;
+    }
+
+    /**
+     * Return the property path where the access token will be stored (if ProviderConfig has access
+     * token storage enabled)
+     * <p>
+     * Note - {@link com.adobe.granite.auth.oauth.AccessTokenProvider#getAccessToken(ResourceResolver, String, Map)}
+     * uses {code oauth/oauthid-<strong>clientId</strong>} by default, so it is recommended to store the property at
+     * this path.
+     *
+     * @param clientId in use
+     * @return the property path where access token may be stored for a user.
+     */
+    @Override
+    public String getAccessTokenPropertyPath(String clientId) {
+        String accessTokenPath = SocialLoginConstants.ACCESS_TOKEN_PROPERTY_PATH_PREFIX + clientId;
+        LOGGER.debug("Access token path: {}", accessTokenPath);
+        return accessTokenPath;
+    }
+
+    /**
+     * Return the property path where the oauth user id will be stored
+     *
+     * @param clientId in use
+     * @return the property path where OAuth User ID will be stored.
+     */
+    @Override
+    public String getOAuthIdPropertyPath(String clientId) {
+        String oAuthIdPath = new StringBuilder("oauth/id-").append(clientId).toString();
+        LOGGER.debug("OAuth ID path: {}", oAuthIdPath);
+        return oAuthIdPath;
+    }
+
+    /**
+     * Called after a user is created by Granite.
+     * <p>
+     * The user is added to the groups its profile matches, see {@link GroupAssignment}, and its picture is queued
+     * for the {@link AvatarCache}.
+     *
+     * @param user {@link User}
+     */
+    @Override
+    public void onUserCreate(User user) {
+        long start = loginMetrics.start();
+        invalidateAccessTokens(user);
+        groupAssignment.assign(user);
+        avatarCache.update(user);
+        loginMetrics.record(LoginPhase.USER_CREATE, start);
+    }
+
+    /**
+     * Called after a user is updated (i.e. profile data is mapped and applied to user that already
+     * exists);
+     * <p>
+     * The groups of the user are assigned again from its updated profile, see {@link GroupAssignment}, and its
+     * picture is queued for the {@link AvatarCache} if it changed.
+     *
+     * @param user {@link User}
+     */
+    @Override
+    public void onUserUpdate(User user) {
+        long start = loginMetrics.start();
+        invalidateAccessTokens(user);
+        groupAssignment.assign(user);
+        avatarCache.update(user);
+        loginMetrics.record(LoginPhase.USER_UPDATE, start);
+    }
+
+    private void invalidateAccessTokens(User user) {
+        try {
+            accessTokenCache.invalidate(user.getID());
+        } catch (RepositoryException e) {
+            LOGGER.warn("Unable to get the ID of the user, its cached access tokens are kept", e);
+        }
+    }
+
+    /**
+     * OAuth provider's user extended details URLs, depending on the specific scope
+     *
+     * @param scope scopes requested by the login
+     * @return no extended details URL by default, all the user details come from {@link #getDetailsURL()}
+     */
+    @Override
+    public String[] getExtendedDetailsURLs(String scope) {
+        return new String[0];
+    }
+
+    /**
+     * OAuth provider's user extended details URLs, depending on the specific scope and previously
+     * fetched data (e.g. {@link #getDetailsURL()}, {@link #getExtendedDetailsURLs(String)}).
+     *
+     * @param scope  allows to specify a list of property names for each scope
+     * @param userId the userId
+     * @param props  contains the data previously fetched.
+     * @return the list of urls to fetch extended data from, see {@link #getExtendedDetailsURLs(String)}
+     */
+    @Override
+    public String[] getExtendedDetailsURLs(String scope, String userId, Map<String, Object> props) {
+        return getExtendedDetailsURLs(scope);
+    }
+
+    /**
+     * Return the node path where the user should be created.
+     * <p>
+     * Note: This method is used when AEM creates the sync handler configuration automatically.
+     * In our case we will provide the sync handler config manually. But as this method could be called by AEM
+     * so we will provide a path where the user should be created.
+     * <p>
+     * The folder is given by the configured {@link UserFolderLayout}, hashed buckets by default so that no folder
+     * grows to tens of thousands of users.
+     *
+     * @param userId   current user Id, in the beginning it could be null
+     * @param clientId in use when creating this user
+     * @param props    map of all provider's properties for this user
+     * @return relative path to store this user within /home/users
+     */
+    @Override
+    public String getUserFolderPath(String userId, String clientId, Map<String, Object> props) {
+        return userFolderLayout.getFolderPath(userId);
+    }
+
+    /**
+     * Use the request to get the User who has (or will have) oauth profile data attached
+     * <p>
+     * Note: This method is unused and never been called by AEM OAuth authentication handler.
+     *
+     * @param request {@link SlingHttpServletRequest}
+     * @return the User or null, if no User is associated with the request
+     */
+    @Override
+    public User getCurrentUser(SlingHttpServletRequest request) {
+        LOGGER.warn("getCurrentUser -> this method wasn't expected to be called");
+        return null;
+    }
+
+    /**
+     * OAuth provider validate token URL
+     * <p>
+     * Note: This method is unused.
+     *
+     * @param clientId in use
+     * @param token    {@link String}
+     * @return url or null if validate token is not supported
+     */
+    @Override
+    public String getValidateTokenUrl(String clientId, String token) {
+        return null;
+    }
+
+    /**
+     * Check the validity of a token
+     * <p>
+     * Note: This method is unused.
+     *
+     * @param responseBody {@link String}
+     * @param clientId     in use
+     * @return true if the response body contains the validity of the token, the token has been issued
+     * for the provided clientId and the token type matches with the one provided
+     */
+    @Override
+    public boolean isValidToken(String responseBody, String clientId, String tokenType) {
+        return false;
+    }
+
+    /**
+     * Parse the response body and return the userId contained in the response
+     * <p>
+     * Note: This method is unused.
+     *
+     * @param responseBody {@link String}
+     * @return the userId contained in the response or null if is not contained
+     */
+    @Override
+    public String getUserIdFromValidateTokenResponseBody(String responseBody) {
+        return null;
+    }
+
+    /**
+     * Parse the response body and return the error description contained in the response
+     * <p>
+     * Note: This method is unused.
+     *
+     * @param responseBody {@link String}
+     * @return the error description contained in the response or null if is not contained
+     */
+    @Override
+    public String getErrorDescriptionFromValidateTokenResponseBody(String responseBody) {
+        return null;
+    }
+
+}
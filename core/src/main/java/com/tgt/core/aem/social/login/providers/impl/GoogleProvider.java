@@ -1,38 +1,55 @@
 package com.tgt.core.aem.social.login.providers.impl;
 
 import com.adobe.granite.auth.oauth.Provider;
-import com.adobe.granite.auth.oauth.ProviderType;
+import com.adobe.granite.crypto.CryptoException;
+import com.adobe.granite.crypto.CryptoSupport;
 import com.tgt.core.aem.social.login.constants.SocialLoginConstants;
+import com.tgt.core.aem.social.login.http.OAuthTransport;
+import com.tgt.core.aem.social.login.metrics.LoginMetrics;
+import com.tgt.core.aem.social.login.oidc.IdTokenProfileRequest;
+import com.tgt.core.aem.social.login.oidc.IdTokenProfiles;
+import com.tgt.core.aem.social.login.oidc.IdTokenVerifier;
+import com.tgt.core.aem.social.login.oidc.JwksKeyCache;
+import com.tgt.core.aem.social.login.profile.ExtendedDetailsFetcher;
+import com.tgt.core.aem.social.login.profile.ExtendedDetailsRequest;
+import com.tgt.core.aem.social.login.profile.ExtendedDetailsSource;
+import com.tgt.core.aem.social.login.scribe.GoogleEndpoints;
 import com.tgt.core.aem.social.login.scribe.GoogleScribeApi;
-import com.tgt.core.aem.social.login.utils.SocialLoginUtils;
+import com.tgt.core.aem.social.login.scribe.OidcScribeApi;
+import com.tgt.core.aem.social.login.tokens.AccessTokenStore;
+import com.tgt.core.aem.social.login.tokens.impl.LoginAccessTokens;
 import org.apache.commons.lang.StringUtils;
-import org.apache.jackrabbit.api.security.user.User;
-import org.apache.sling.api.SlingHttpServletRequest;
-import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.commons.threads.ThreadPoolManager;
 import org.osgi.service.component.annotations.Activate;
 import org.osgi.service.component.annotations.Component;
 import org.osgi.service.component.annotations.ConfigurationPolicy;
+import org.osgi.service.component.annotations.Deactivate;
+import org.osgi.service.component.annotations.Reference;
 import org.osgi.service.metatype.annotations.AttributeDefinition;
 import org.osgi.service.metatype.annotations.Designate;
 import org.osgi.service.metatype.annotations.ObjectClassDefinition;
 import org.scribe.builder.api.Api;
 import org.scribe.model.OAuthRequest;
-import org.scribe.model.Response;
 import org.scribe.model.Verb;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.IOException;
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 
 /**
- * Google OAuth2 {@link Provider}.
+ * Google OAuth2 {@link Provider}, whose endpoints are configured rather than discovered, see
+ * {@link AbstractOidcProvider}. The user details can be completed with extended details sources and Google can be
+ * asked for refresh tokens.
  */
 @Component(service = Provider.class, immediate = true, configurationPolicy = ConfigurationPolicy.REQUIRE)
 @Designate(ocd = GoogleProvider.GoogleProviderConfig.class)
-public class GoogleProvider implements Provider {
+public class GoogleProvider extends AbstractOidcProvider {
 
     private final Logger LOGGER = LoggerFactory.getLogger(GoogleProvider.class);
 
@@ -43,24 +60,169 @@ public class GoogleProvider implements Provider {
         @AttributeDefinition(name = "OAuth Provider ID", description = "Google Provider")
         String oauth_provider_id();
 
+        //keep it in sync with the source properties of user.propertyMapping in the sync handler config
+        @AttributeDefinition(name = "Profile Fields",
+                description = "Fields kept from Google's user details and extended details responses, all the " +
+                        "other fields are skipped. Nested fields are kept as their dotted path, e.g. " +
+                        "names.0.givenName. Leave it empty to keep all the top level fields.")
+        String[] oauth_profile_fields() default {"id", "email", "verified_email", "name", "given_name",
+                "family_name", "picture", "hd"};
+
+        @AttributeDefinition(name = "Property Mapping",
+                description = "Fields handed to the sync handler under another name, as <property>=<field>, " +
+                        "optionally transformed with <property>=<field>|<transform> where the transform is " +
+                        "lowercase, domain (of an email) or string. The other profile fields keep their name.")
+        String[] oauth_property_mapping() default {};
+
+        @AttributeDefinition(name = "User Details From ID Token",
+                description = "Verify the ID token returned along with the access token and read the user details " +
+                        "from its claims instead of calling Google's user details URL. Requires the openid scope, " +
+                        "plus email and profile scopes for the email and name claims.")
+        boolean oauth_idtoken_profile() default false;
+
+        @AttributeDefinition(name = "Authorization Endpoint",
+                description = "Google URL to get the authorization code, without any query")
+        String google_authorization_endpoint() default SocialLoginConstants.GOOGLE_AUTHORIZATION_ENDPOINT;
+
+        @AttributeDefinition(name = "Access Token Endpoint", description = "Google URL to get the access token")
+        String google_access_token_endpoint() default SocialLoginConstants.GOOGLE_ACCESS_TOKEN_ENDPOINT;
+
+        @AttributeDefinition(name = "User Details URL", description = "Google URL to fetch user details")
+        String google_user_details_url() default SocialLoginConstants.GOOGLE_USER_DETAILS_URL;
+
+        @AttributeDefinition(name = "Signing Keys URL",
+                description = "Google URL of the keys used to sign ID tokens, used only when user details are read " +
+                        "from the ID token")
+        String google_jwks_url() default SocialLoginConstants.GOOGLE_JWKS_URL;
+
+        @AttributeDefinition(name = "Unavailable Redirect",
+                description = "Page users are sent to instead of Google when logins would fail because Google's " +
+                        "token endpoint keeps failing. Leave it empty to send them to Google anyway.")
+        String google_unavailable_redirect() default "";
+
+        @AttributeDefinition(name = "Code Exchange Memo",
+                description = "Time in milliseconds the access token of an exchanged authorization code is given to " +
+                        "the duplicate callbacks with the same code (double click, replayed callback) instead of " +
+                        "exchanging the code again. 0 only shares the exchanges in flight.")
+        long google_code_exchange_memo_ms() default 10000;
+
+        @AttributeDefinition(name = "Extended Details Sources",
+                description = "URLs the extended user details are fetched from, as <scope>|<url>, fetched only if " +
+                        "the scope is requested. Add |required to fail the login when the source fails, the " +
+                        "other sources are skipped when they fail or don't answer in time.")
+        String[] google_extended_details_sources() default {};
+
+        @AttributeDefinition(name = "Extended Details Deadline",
+                description = "Time in milliseconds all the extended details sources of a login have to answer, " +
+                        "they are fetched concurrently")
+        int google_extended_details_deadline_ms() default 3000;
+
+        @AttributeDefinition(name = "Extended Details Threads",
+                description = "Maximum number of extended details requests sent at once by all the logins")
+        int google_extended_details_threads() default 20;
+
+        @AttributeDefinition(name = "Warm-up",
+                description = "Resolve and connect to Google's endpoints and load the parsing code in the " +
+                        "background once the provider is activated, so the first logins don't pay for it")
+        boolean google_warmup() default false;
+
+        @AttributeDefinition(name = "Offline Access",
+                description = "Ask Google for a refresh token at the first consent of a user. The refresh token, " +
+                        "encrypted, and the expiry of the access token are handed to the sync handler as " +
+                        "refresh_token and access_token_expiry, so that the Token Refresher can refresh the " +
+                        "persisted access token before it expires.")
+        boolean google_offline_access() default false;
+
+        @AttributeDefinition(name = "Access Token Store",
+                description = "Store the access tokens are kept in, (store.type=repository) when AEM persists them " +
+                        "with oauth.access.token.persist, (store.type=memory) or (store.type=cookie) to keep them " +
+                        "out of the repository along with oauth.access.token.persist set to false. The Access Token " +
+                        "Cache must use the same store.")
+        String accessTokenStore_target() default "(" + AccessTokenStore.STORE_TYPE + "=" + AccessTokenStore.REPOSITORY
+                + ")";
+
     }
 
+    private static final int MAX_PENDING_ID_TOKEN_PROFILES = 10000;
+    private static final int MAX_PENDING_EXTENDED_DETAILS = 10000;
+
+    @Reference
+    private CryptoSupport cryptoSupport;
+
+    @Reference
+    private ThreadPoolManager threadPoolManager;
+
     private Api googleScribeApiOAuth2;
-    private String googleProviderId;
+    private GoogleEndpoints endpoints;
+    private JwksKeyCache jwksKeyCache;
+    private IdTokenProfiles idTokenProfiles;
+    private ExtendedDetailsFetcher extendedDetailsFetcher;
+    private ProviderWarmUp warmUp;
+    private boolean offlineAccess;
 
     @Activate
     protected void activate(GoogleProviderConfig googleProviderConfig) {
-        googleScribeApiOAuth2 = new GoogleScribeApi();
-        googleProviderId = googleProviderConfig.oauth_provider_id();
+        configure(googleProviderConfig.oauth_provider_id(), SocialLoginConstants.GOOGLE_PROVIDER_USER_ID_PROPERTY_NAME,
+                googleProviderConfig.oauth_profile_fields(), googleProviderConfig.oauth_property_mapping());
+        endpoints = new GoogleEndpoints(googleProviderConfig.google_authorization_endpoint(),
+                googleProviderConfig.google_access_token_endpoint(), googleProviderConfig.google_user_details_url(),
+                googleProviderConfig.google_jwks_url());
+        LOGGER.debug("Google endpoints : {}", endpoints);
+        offlineAccess = googleProviderConfig.google_offline_access();
+        OidcScribeApi.Settings settings = scribeSettings()
+                .unavailableRedirect(googleProviderConfig.google_unavailable_redirect())
+                .codeExchangeMemoMs(googleProviderConfig.google_code_exchange_memo_ms())
+                .authorizeUrlSuffix(offlineAccess ? SocialLoginConstants.OFFLINE_ACCESS_QUERY : "");
+        if (googleProviderConfig.oauth_idtoken_profile()) {
+            jwksKeyCache = new JwksKeyCache(transport, endpoints.getJwksUrl(), scheduler);
+            jwksKeyCache.start();
+            idTokenProfiles = new IdTokenProfiles(MAX_PENDING_ID_TOKEN_PROFILES);
+            settings.idTokens(new IdTokenVerifier(jwksKeyCache, new HashSet<>(
+                    Arrays.asList(SocialLoginConstants.GOOGLE_ISSUER, SocialLoginConstants.GOOGLE_ISSUER_HOST))),
+                    idTokenProfiles);
+        }
+        googleScribeApiOAuth2 = new GoogleScribeApi(endpoints, settings);
+        List<ExtendedDetailsSource> extendedDetailsSources = new ArrayList<>();
+        for (String source : googleProviderConfig.google_extended_details_sources()) {
+            if (StringUtils.isNotBlank(source)) {
+                extendedDetailsSources.add(ExtendedDetailsSource.parse(source));
+            }
+        }
+        if (!extendedDetailsSources.isEmpty()) {
+            LOGGER.info("Extended details sources : {}", extendedDetailsSources);
+            extendedDetailsFetcher = new ExtendedDetailsFetcher(transport, extendedDetailsSources,
+                    Math.max(1, googleProviderConfig.google_extended_details_threads()),
+                    googleProviderConfig.google_extended_details_deadline_ms(), MAX_PENDING_EXTENDED_DETAILS,
+                    loginMetrics, threadPoolManager);
+        }
+        if (googleProviderConfig.google_warmup()) {
+            //the signing keys are already being fetched by their cache
+            List<String> warmUpUrls = new ArrayList<>();
+            warmUpUrls.add(endpoints.getAccessTokenEndpoint());
+            if (Objects.isNull(idTokenProfiles)) {
+                warmUpUrls.add(endpoints.getUserDetailsUrl());
+            }
+            extendedDetailsSources.forEach(source -> warmUpUrls.add(source.getUrl()));
+            warmUp = new ProviderWarmUp(transport, warmUpUrls, getPropertyMappingPlan(), loginMetrics, scheduler);
+            warmUp.start();
+        }
     }
 
-    /**
-     * @return OAuth type
-     * @see ProviderType
-     */
-    @Override
-    public ProviderType getType() {
-        return ProviderType.OAUTH2;
+    @Deactivate
+    protected void deactivate() {
+        if (Objects.nonNull(warmUp)) {
+            warmUp.close();
+            warmUp = null;
+        }
+        if (Objects.nonNull(jwksKeyCache)) {
+            jwksKeyCache.close();
+            jwksKeyCache = null;
+        }
+        idTokenProfiles = null;
+        if (Objects.nonNull(extendedDetailsFetcher)) {
+            extendedDetailsFetcher.close();
+            extendedDetailsFetcher = null;
+        }
     }
 
     /**
@@ -76,37 +238,20 @@ public class GoogleProvider implements Provider {
     /**
      * OAuth provider's user details URL
      *
-     * @return {@value SocialLoginConstants#GOOGLE_USER_DETAILS_URL}
+     * @return configured user details URL, {@value SocialLoginConstants#GOOGLE_USER_DETAILS_URL} by default
      */
     @Override
     public String getDetailsURL() {
-        return SocialLoginConstants.GOOGLE_USER_DETAILS_URL;
-    }
-
-    /**
-     * Unique ID for this provider.
-     * <p>
-     * This will be configured in ProviderConfig to map this provider to that particular config.
-     *
-     * @return ID of this provider
-     */
-    @Override
-    public String getId() {
-        return googleProviderId;
-    }
-
-    /**
-     * Readable name for this Provider
-     *
-     * @return name of this Provider
-     */
-    @Override
-    public String getName() {
-        return getClass().getSimpleName();
+        return endpoints.getUserDetailsUrl();
     }
 
     /**
      * Create an OAuthRequest to request protected data from the OAuth provider system.
+     * <p>
+     * The request is created by the {@link OAuthTransport} so that it is sent on a pooled keep-alive connection.
+     * When user details are read from the ID token, the user details request is answered from the verified ID
+     * token claims instead. Either way the request is measured by {@link LoginMetrics}. Extended details requests
+     * are answered by the {@link ExtendedDetailsFetcher}, which fetches all the sources of the login concurrently.
      *
      * @param url URL from which user details will be fetched. Internally this will be one of the
      *            details/extendedDetails URL configured in this provider.
@@ -114,257 +259,53 @@ public class GoogleProvider implements Provider {
      */
     @Override
     public OAuthRequest getProtectedDataRequest(String url) {
-        return new OAuthRequest(Verb.GET, url);
-    }
-
-    /**
-     * Parse the OAuth Response for protected profile data during profile import
-     *
-     * @param response profile response from social provider
-     * @return Map of profile properties
-     * @throws IOException in case there is any error in parsing JSON response
-     */
-    @Override
-    public Map<String, String> parseProfileDataResponse(Response response) throws IOException {
-        return SocialLoginUtils.parseProfileDataResponse(response);
-    }
-
-    /**
-     * Key name from provider response which will be used to find the user Id of the AEM user.
-     * <p>
-     * Note: This property must be present in the social provider OAuth response, actually in the map
-     * returned by {@link this#parseProfileDataResponse(Response)}.
-     *
-     * @return {@value SocialLoginConstants#GOOGLE_PROVIDER_USER_ID_PROPERTY_NAME}
-     */
-    @Override
-    public String getUserIdProperty() {
-        return SocialLoginConstants.GOOGLE_PROVIDER_USER_ID_PROPERTY_NAME;
+        ExtendedDetailsSource extendedDetailsSource = Objects.isNull(extendedDetailsFetcher) ? null
+                : extendedDetailsFetcher.getSource(url);
+        if (Objects.nonNull(extendedDetailsSource)) {
+            //each source is measured by the fetcher
+            return new ExtendedDetailsRequest(extendedDetailsSource, extendedDetailsFetcher);
+        }
+        if (Objects.nonNull(idTokenProfiles) && getDetailsURL().equals(url)) {
+            return metered(new IdTokenProfileRequest(url, transport, idTokenProfiles));
+        }
+        return metered(transport.createRequest(Verb.GET, url));
     }
 
-
     /**
-     * Map the provider's user properties name to CQ user properties. This method will at least be
-     * called to map properties fetched from {@link #getDetailsURL()}. If {@link
-     * #getExtendedDetailsURLs(String)} is not null, this method will be called for the map of
-     * properties fetched from each url.
-     * <p>
-     * Note - This map will be provided to sync handler to save properties in AEM.
-     * Sync handler has the mapping of these keys with AEM user.
-     *
-     * @param srcUrl        URL from which user details had been fetched. Internally this will be one
-     *                      of the details/extendedDetails URL configured in this provider.
-     * @param clientId      in use to retrieve this set of properties
-     * @param existing      CQ properties that have been mapped already
-     * @param newProperties new properties that need to be mapped
-     * @return the result of mapping the new properties, and combining with the existing
+     * With offline access, hand the refresh token and the expiry of the access token to the sync handler, see
+     * {@link com.tgt.core.aem.social.login.tokens.impl.ScheduledTokenRefresher}. Google only issues a refresh token
+     * at the first consent of a user, the expiry is handed at each login.
      */
     @Override
-    public Map<String, Object> mapProperties(String srcUrl, String clientId,
-                                             Map<String, Object> existing, Map<String, String> newProperties) {
-        LOGGER.debug(
-                "mapProperties -> properties fetched from {} with clientId {}, existing properties : {}, new properties : {}",
-                srcUrl, clientId, existing, newProperties);
-
-        Map<String, Object> mapped = new HashMap<>(existing);
-
-        //we will add all the non null properties and use the properties name as it is
-        newProperties.forEach((propName, propValue) -> {
-            if (Objects.nonNull(propValue)) {
-                mapped.put(propName, propValue);
+    protected void onAccessTokenIssued(LoginAccessTokens.IssuedToken issued, Map<String, Object> props) {
+        if (!offlineAccess) {
+            return;
+        }
+        if (issued.getExpiresInSeconds() > 0) {
+            Calendar expiry = Calendar.getInstance();
+            expiry.add(Calendar.SECOND, (int) issued.getExpiresInSeconds());
+            props.put(SocialLoginConstants.ACCESS_TOKEN_EXPIRY_PROPERTY, expiry);
+        }
+        if (Objects.nonNull(issued.getRefreshToken())) {
+            try {
+                props.put(SocialLoginConstants.REFRESH_TOKEN_PROPERTY,
+                        cryptoSupport.protect(issued.getRefreshToken()));
+            } catch (CryptoException e) {
+                LOGGER.warn("Refresh token not kept, it can't be encrypted : {}", e.getMessage());
             }
-        });
-
-        LOGGER.debug("mapProperties -> final properties map : {}", mapped);
-
-        return mapped;
-    }
-
-    /**
-     * Map the provider's user id to CRX user id. In our case we will use the email as it is.
-     * <p>
-     * Note - we can't authenticate a single account against different providers.
-     *
-     * @param userId provider's userId, in our case this will be user's email
-     * @param props  map of all provider's properties for this userId. This map was generated from
-     *               social provider's OAuth response using {@link this#mapProperties(String, String,
-     *               Map, Map)}.
-     * @return AEM user id
-     */
-    @Override
-    public String mapUserId(String userId, Map<String, Object> props) {
-        LOGGER.debug("user id: {}, properties: {}", userId, props);
-        return userId;
-    }
-
-    /**
-     * Return the property path where the access token will be stored (if ProviderConfig has access
-     * token storage enabled)
-     * <p>
-     * Note - {@link com.adobe.granite.auth.oauth.AccessTokenProvider#getAccessToken(ResourceResolver, String, Map)}
-     * uses {code oauth/oauthid-<strong>clientId</strong>} by default, so it is recommended to store the property at
-     * this path.
-     *
-     * @param clientId in use
-     * @return the property path where access token may be stored for a user.
-     */
-    @Override
-    public String getAccessTokenPropertyPath(String clientId) {
-        String accessTokenPath = new StringBuilder("oauth/oauthid-").append(clientId).toString();
-        LOGGER.debug("Access token path: {}", accessTokenPath);
-        return accessTokenPath;
-    }
-
-    /**
-     * Return the property path where the oauth user id will be stored
-     *
-     * @param clientId in use
-     * @return the property path where OAuth User ID will be stored.
-     */
-    @Override
-    public String getOAuthIdPropertyPath(String clientId) {
-        String oAuthIdPath = new StringBuilder("oauth/id-").append(clientId).toString();
-        LOGGER.debug("OAuth ID path: {}", oAuthIdPath);
-        return oAuthIdPath;
-    }
-
-    /**
-     * Called after a user is created by Granite.
-     * <p>
-     * This method can be used to do any processing after the user has been created successfully like adding it to a
-     * group on the basis of some conditions as per business requirements or mapping the user properties to a different
-     * path.
-     *
-     * @param user {@link User}
-     */
-    @Override
-    public void onUserCreate(User user) {
-        //add user to a group or map properties.
-    }
-
-    /**
-     * Called after a user is updated (i.e. profile data is mapped and applied to user that already
-     * exists);
-     *
-     * @param user {@link User}
-     */
-    @Override
-    public void onUserUpdate(User user) {
-        //anything which has to be updated after user profile gets updated
-    }
-
-    /**
-     * OAuth provider's user extended details URLs, depending on the specific scope
-     *
-     * @return empty String-array. (this can be used to fetch additional details from the Social provider)
-     */
-    @Override
-    public String[] getExtendedDetailsURLs(String s) {
-        return new String[0];
-    }
-
-    /**
-     * OAuth provider's user extended details URLs, depending on the specific scope and previously
-     * fetched data (e.g. {@link #getDetailsURL()}, {@link #getExtendedDetailsURLs(String)}).
-     *
-     * @param scope  allows to specify a list of property names for each scope
-     * @param userId the userId
-     * @param props  contains the data previously fetched.
-     * @return the list of urls to fetch extended data from (this can be used to fetch additional details from the Social provider)
-     */
-    @Override
-    public String[] getExtendedDetailsURLs(String scope, String userId, Map<String, Object> props) {
-        return new String[0];
-    }
-
-    /**
-     * Return the node path where the user should be created.
-     * <p>
-     * Note: This method is used when AEM creates the sync handler configuration automatically.
-     * In our case we will provide the DefaultSyncHandler config manually. But as this method could be called by AEM
-     * so we will provide a path where the user should be created.
-     *
-     * @param userId   current user Id, in the beginning it could be null
-     * @param clientId in use when creating this user
-     * @param props    map of all provider's properties for this user
-     * @return relative path to store this user within /home/users
-     */
-    @Override
-    public String getUserFolderPath(String userId, String clientId, Map<String, Object> props) {
-        String userFolderPath = SocialLoginConstants.THE_GREY_TEACHER;
-        if (StringUtils.isNotBlank(userId)) {
-            userFolderPath += userId.charAt(0);
         }
-        return userFolderPath;
-    }
-
-    /**
-     * Use the request to get the User who has (or will have) oauth profile data attached
-     * <p>
-     * Note: This method is unused and never been called by AEM OAuth authentication handler.
-     *
-     * @param request {@link SlingHttpServletRequest}
-     * @return the User or null, if no User is associated with the request
-     */
-    @Override
-    public User getCurrentUser(SlingHttpServletRequest request) {
-        LOGGER.warn("getCurrentUser -> this method wasn't expected to be called");
-        return null;
-    }
-
-    /**
-     * OAuth provider validate token URL
-     * <p>
-     * Note: This method is unused.
-     *
-     * @param clientId in use
-     * @param token    {@link String}
-     * @return url or null if validate token is not supported
-     */
-    @Override
-    public String getValidateTokenUrl(String clientId, String token) {
-        return null;
     }
 
     /**
-     * Check the validity of a token
-     * <p>
-     * Note: This method is unused.
-     *
-     * @param responseBody {@link String}
-     * @param clientId     in use
-     * @return true if the response body contains the validity of the token, the token has been issued
-     * for the provided clientId and the token type matches with the one provided
-     */
-    @Override
-    public boolean isValidToken(String responseBody, String clientId, String tokenType) {
-        return false;
-    }
-
-    /**
-     * Parse the response body and return the userId contained in the response
-     * <p>
-     * Note: This method is unused.
-     *
-     * @param responseBody {@link String}
-     * @return the userId contained in the response or null if is not contained
-     */
-    @Override
-    public String getUserIdFromValidateTokenResponseBody(String responseBody) {
-        return null;
-    }
-
-    /**
-     * Parse the response body and return the error description contained in the response
-     * <p>
-     * Note: This method is unused.
+     * OAuth provider's user extended details URLs, depending on the specific scope
      *
-     * @param responseBody {@link String}
-     * @return the error description contained in the response or null if is not contained
+     * @param scope scopes requested by the login
+     * @return URLs of the configured extended details sources whose scope is requested, they are fetched
+     * concurrently when the first of them is requested
      */
     @Override
-    public String getErrorDescriptionFromValidateTokenResponseBody(String responseBody) {
-        return null;
+    public String[] getExtendedDetailsURLs(String scope) {
+        return Objects.isNull(extendedDetailsFetcher) ? new String[0] : extendedDetailsFetcher.getUrls(scope);
     }
 
 }
@@ -0,0 +1,229 @@
+package com.tgt.core.aem.social.login.providers.impl;
+
+import com.adobe.granite.auth.oauth.Provider;
+import com.tgt.core.aem.social.login.metrics.LoginMetrics;
+import com.tgt.core.aem.social.login.oidc.BearerTokenRequest;
+import com.tgt.core.aem.social.login.oidc.IdTokenProfileRequest;
+import com.tgt.core.aem.social.login.oidc.IdTokenProfiles;
+import com.tgt.core.aem.social.login.oidc.IdTokenVerifier;
+import com.tgt.core.aem.social.login.oidc.JwksKeyCache;
+import com.tgt.core.aem.social.login.oidc.OidcDiscovery;
+import com.tgt.core.aem.social.login.oidc.OidcMetadata;
+import com.tgt.core.aem.social.login.scribe.OidcScribeApi;
+import com.tgt.core.aem.social.login.tokens.AccessTokenStore;
+import org.osgi.service.component.annotations.Activate;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.ConfigurationPolicy;
+import org.osgi.service.component.annotations.Deactivate;
+import org.osgi.service.metatype.annotations.AttributeDefinition;
+import org.osgi.service.metatype.annotations.Designate;
+import org.osgi.service.metatype.annotations.ObjectClassDefinition;
+import org.scribe.builder.api.Api;
+import org.scribe.model.OAuthRequest;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * OpenID Connect {@link Provider}, e.g. Microsoft, Okta or any other provider publishing a discovery document, one
+ * per factory configuration.
+ * <p>
+ * The endpoints are read from the discovery document of the configured issuer, kept by an {@link OidcDiscovery}
+ * which fetches it in the background at activation and refreshes it before it expires, so logins never fetch it.
+ * The {@link OidcScribeApi} of the provider is built once for the current endpoints, with its authorization URLs
+ * built once per OAuth configuration, and only built again when a refresh of the document changes them. The code
+ * exchange, the ID tokens, the access token stores and the group assignment are those of every
+ * {@link AbstractOidcProvider}.
+ */
+@Component(service = Provider.class, immediate = true, configurationPolicy = ConfigurationPolicy.REQUIRE)
+@Designate(ocd = OidcProvider.OidcProviderConfig.class, factory = true)
+public class OidcProvider extends AbstractOidcProvider {
+
+    @ObjectClassDefinition(name = "The Grey Teacher OpenID Connect Provider",
+            description = "OpenID Connect provider whose endpoints are read from its discovery document")
+    public @interface OidcProviderConfig {
+
+        //this property name must be "oauth.provider.id" and all providers must have a unique ID
+        @AttributeDefinition(name = "OAuth Provider ID", description = "ID of the provider in the OAuth configuration")
+        String oauth_provider_id();
+
+        @AttributeDefinition(name = "Issuer",
+                description = "Issuer of the provider, e.g. https://login.microsoftonline.com/<tenant>/v2.0 or " +
+                        "https://<domain>.okta.com. The discovery document must be published for this issuer.")
+        String oidc_issuer();
+
+        @AttributeDefinition(name = "Discovery URL",
+                description = "URL of the discovery document, leave it empty for the issuer followed by " +
+                        OidcDiscovery.WELL_KNOWN_PATH)
+        String oidc_discovery_url() default "";
+
+        @AttributeDefinition(name = "Discovery Time To Live",
+                description = "Time in seconds the discovery document is kept before it is fetched again, when " +
+                        "the provider doesn't send any Cache-Control max-age")
+        long oidc_discovery_ttl_seconds() default 86400;
+
+        @AttributeDefinition(name = "User ID Property",
+                description = "Profile field the AEM user ID is made of, e.g. email or preferred_username")
+        String oauth_userid_property() default "email";
+
+        //keep it in sync with the source properties of user.propertyMapping in the sync handler config
+        @AttributeDefinition(name = "Profile Fields",
+                description = "Fields kept from the userinfo response or the ID token claims, all the other " +
+                        "fields are skipped. Leave it empty to keep all the top level fields.")
+        String[] oauth_profile_fields() default {"sub", "email", "email_verified", "name", "given_name",
+                "family_name", "picture"};
+
+        @AttributeDefinition(name = "Property Mapping",
+                description = "Fields handed to the sync handler under another name, as <property>=<field>, " +
+                        "optionally transformed with <property>=<field>|<transform> where the transform is " +
+                        "lowercase, domain (of an email) or string. The other profile fields keep their name.")
+        String[] oauth_property_mapping() default {};
+
+        @AttributeDefinition(name = "User Details From ID Token",
+                description = "Verify the ID token returned along with the access token and read the user details " +
+                        "from its claims instead of calling the userinfo endpoint")
+        boolean oauth_idtoken_profile() default true;
+
+        @AttributeDefinition(name = "Unavailable Redirect",
+                description = "Page users are sent to instead of the provider when logins would fail because its " +
+                        "token endpoint keeps failing. Leave it empty to send them to the provider anyway.")
+        String oidc_unavailable_redirect() default "";
+
+        @AttributeDefinition(name = "Code Exchange Memo",
+                description = "Time in milliseconds the access token of an exchanged authorization code is given to " +
+                        "the duplicate callbacks with the same code instead of exchanging the code again. 0 only " +
+                        "shares the exchanges in flight.")
+        long oidc_code_exchange_memo_ms() default 10000;
+
+        @AttributeDefinition(name = "Access Token Store",
+                description = "Store the access tokens are kept in, see the Google provider")
+        String accessTokenStore_target() default "(" + AccessTokenStore.STORE_TYPE + "=" + AccessTokenStore.REPOSITORY
+                + ")";
+
+    }
+
+    private static final int MAX_PENDING_ID_TOKEN_PROFILES = 10000;
+
+    private boolean idTokenProfile;
+    private String unavailableRedirect;
+    private long codeExchangeMemoMs;
+    private OidcDiscovery discovery;
+    private IdTokenProfiles idTokenProfiles;
+    private volatile DiscoveredApi discoveredApi;
+
+    @Activate
+    protected void activate(OidcProviderConfig config) {
+        configure(config.oauth_provider_id(), config.oauth_userid_property(), config.oauth_profile_fields(),
+                config.oauth_property_mapping());
+        idTokenProfile = config.oauth_idtoken_profile();
+        unavailableRedirect = config.oidc_unavailable_redirect();
+        codeExchangeMemoMs = config.oidc_code_exchange_memo_ms();
+        if (idTokenProfile) {
+            idTokenProfiles = new IdTokenProfiles(MAX_PENDING_ID_TOKEN_PROFILES);
+        }
+        discovery = new OidcDiscovery(transport, config.oidc_issuer(), config.oidc_discovery_url(),
+                TimeUnit.SECONDS.toMillis(config.oidc_discovery_ttl_seconds()), scheduler);
+        discovery.start();
+    }
+
+    @Deactivate
+    protected void deactivate() {
+        discovery.close();
+        DiscoveredApi current = discoveredApi;
+        if (Objects.nonNull(current) && Objects.nonNull(current.jwksKeyCache)) {
+            current.jwksKeyCache.close();
+        }
+        discoveredApi = null;
+        idTokenProfiles = null;
+    }
+
+    /**
+     * @return the {@link DiscoveredApi} of the current endpoints, built again only when they changed
+     * @throws IllegalStateException in case the discovery document of the provider isn't available
+     */
+    private DiscoveredApi getDiscoveredApi() {
+        OidcMetadata metadata;
+        try {
+            metadata = discovery.get();
+        } catch (IOException e) {
+            throw new IllegalStateException("Provider " + getId() + " is unavailable : " + e.getMessage(), e);
+        }
+        DiscoveredApi current = discoveredApi;
+        if (Objects.nonNull(current) && current.metadata == metadata) {
+            return current;
+        }
+        synchronized (this) {
+            current = discoveredApi;
+            if (Objects.isNull(current) || current.metadata != metadata) {
+                DiscoveredApi previous = current;
+                current = new DiscoveredApi(metadata);
+                discoveredApi = current;
+                if (Objects.nonNull(previous) && Objects.nonNull(previous.jwksKeyCache)) {
+                    previous.jwksKeyCache.close();
+                }
+            }
+            return current;
+        }
+    }
+
+    /**
+     * @return {@link OidcScribeApi} of the current endpoints of the provider
+     */
+    @Override
+    public Api getApi() {
+        return getDiscoveredApi().api;
+    }
+
+    /**
+     * @return userinfo endpoint of the provider
+     */
+    @Override
+    public String getDetailsURL() {
+        return getDiscoveredApi().metadata.getUserInfoEndpoint();
+    }
+
+    /**
+     * Create the user details request, answered from the verified ID token claims when user details are read from
+     * the ID token, otherwise sent with the access token as a bearer token. Either way the request is measured by
+     * {@link LoginMetrics}.
+     *
+     * @param url userinfo endpoint of the provider
+     * @return {@link OAuthRequest}
+     */
+    @Override
+    public OAuthRequest getProtectedDataRequest(String url) {
+        return metered(Objects.nonNull(idTokenProfiles)
+                ? new IdTokenProfileRequest(url, transport, idTokenProfiles)
+                : new BearerTokenRequest(url, transport));
+    }
+
+    /**
+     * Scribe API built for the endpoints of a discovery document, along with the signing keys of its ID tokens.
+     */
+    private final class DiscoveredApi {
+
+        private final OidcMetadata metadata;
+        private final JwksKeyCache jwksKeyCache;
+        private final OidcScribeApi api;
+
+        private DiscoveredApi(OidcMetadata metadata) {
+            this.metadata = metadata;
+            OidcScribeApi.Settings settings = scribeSettings()
+                    .unavailableRedirect(unavailableRedirect)
+                    .codeExchangeMemoMs(codeExchangeMemoMs);
+            if (idTokenProfile) {
+                jwksKeyCache = new JwksKeyCache(transport, metadata.getJwksUri(), scheduler);
+                jwksKeyCache.start();
+                settings.idTokens(new IdTokenVerifier(jwksKeyCache, Collections.singleton(metadata.getIssuer())),
+                        idTokenProfiles);
+            } else {
+                jwksKeyCache = null;
+            }
+            api = new OidcScribeApi(metadata.getAuthorizationEndpoint(), metadata.getTokenEndpoint(), settings);
+        }
+
+    }
+
+}
@@ -0,0 +1,165 @@
+package com.tgt.core.aem.social.login.providers.impl;
+
+import com.tgt.core.aem.social.login.http.OAuthTransport;
+import com.tgt.core.aem.social.login.metrics.LoginMetrics;
+import com.tgt.core.aem.social.login.metrics.LoginPhase;
+import com.tgt.core.aem.social.login.utils.PropertyMappingPlan;
+import org.apache.sling.commons.scheduler.Scheduler;
+import org.scribe.extractors.JsonTokenExtractor;
+import org.scribe.model.Response;
+import org.scribe.model.Verb;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Warm-up of a provider run in the background by the Sling {@link Scheduler} once it is activated, so the first
+ * logins after a deployment or a restart don't pay for it.
+ * <p>
+ * The hosts of the endpoints called by the logins are resolved, then a request without any credential is sent to
+ * each endpoint through the transport so that a TLS connection to each host is waiting in the keep-alive pool. Google
+ * answers these requests with an error, which is expected. Finally the parsing and mapping of a token response and of
+ * a profile are run once on sample data to load and compile their code paths. The duration of the warm-up is
+ * recorded as {@link LoginPhase#WARM_UP}. A failing step is logged and skipped, the warm-up never fails the
+ * activation.
+ */
+final class ProviderWarmUp implements Closeable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ProviderWarmUp.class);
+
+    private static final byte[] SAMPLE_PROFILE = ("{\"id\":\"0\",\"email\":\"warm-up@example.com\","
+            + "\"verified_email\":true,\"name\":\"Warm Up\",\"given_name\":\"Warm\",\"family_name\":\"Up\","
+            + "\"picture\":\"https://example.com/warm-up.jpg\",\"locale\":\"en\",\"hd\":\"example.com\","
+            + "\"names\":[{\"givenName\":\"Warm\",\"familyName\":\"Up\"}]}").getBytes(StandardCharsets.UTF_8);
+    private static final String SAMPLE_TOKEN_RESPONSE = "{\"access_token\":\"warm-up\",\"expires_in\":3599,"
+            + "\"scope\":\"openid email profile\",\"token_type\":\"Bearer\"}";
+
+    //a warm-up of a provider activated again must not share the name of the job of the previous one
+    private static final AtomicLong JOB_IDS = new AtomicLong();
+
+    private final OAuthTransport transport;
+    private final List<String> urls;
+    private final PropertyMappingPlan propertyMappingPlan;
+    private final LoginMetrics loginMetrics;
+    private final Scheduler scheduler;
+    private final String jobName;
+
+    private volatile boolean closed;
+
+    /**
+     * @param transport           {@link OAuthTransport} the logins send their requests with
+     * @param urls                URLs of the endpoints called by the logins
+     * @param propertyMappingPlan {@link PropertyMappingPlan} of the provider
+     * @param loginMetrics        {@link LoginMetrics} recording the duration of the warm-up
+     * @param scheduler           {@link Scheduler} running the warm-up
+     */
+    ProviderWarmUp(OAuthTransport transport, List<String> urls, PropertyMappingPlan propertyMappingPlan,
+                   LoginMetrics loginMetrics, Scheduler scheduler) {
+        this.transport = transport;
+        this.urls = urls;
+        this.propertyMappingPlan = propertyMappingPlan;
+        this.loginMetrics = loginMetrics;
+        this.scheduler = scheduler;
+        this.jobName = "tgt-social-login-warm-up-" + JOB_IDS.incrementAndGet();
+    }
+
+    /**
+     * Run the warm-up in the background, this never blocks the caller.
+     */
+    void start() {
+        if (!scheduler.schedule((Runnable) this::warmUp, scheduler.NOW().name(jobName).canRunConcurrently(false))) {
+            LOGGER.warn("Unable to schedule the warm-up, the first logins will pay for it");
+        }
+    }
+
+    private void warmUp() {
+        if (closed) {
+            return;
+        }
+        long start = loginMetrics.start();
+        long startNanos = System.nanoTime();
+        Set<String> hosts = new LinkedHashSet<>();
+        for (String url : urls) {
+            String host = URI.create(url).getHost();
+            if (Objects.nonNull(host) && hosts.add(host)) {
+                resolve(host);
+            }
+        }
+        int connected = 0;
+        for (String url : urls) {
+            if (closed) {
+                return;
+            }
+            connected += connect(url) ? 1 : 0;
+        }
+        prime();
+        loginMetrics.record(LoginPhase.WARM_UP, start);
+        LOGGER.info("Warm-up done in {} ms, {} hosts resolved, {} of {} endpoints connected",
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos), hosts.size(), connected, urls.size());
+    }
+
+    private static void resolve(String host) {
+        try {
+            InetAddress.getAllByName(host);
+        } catch (IOException e) {
+            LOGGER.warn("Warm-up unable to resolve {} : {}", host, e.toString());
+        }
+    }
+
+    /**
+     * @return whether the endpoint answered, whatever its answer
+     */
+    private boolean connect(String url) {
+        try {
+            Response response = transport.createRequest(Verb.GET, url).send();
+            //read fully so that the connection goes back to the keep-alive pool
+            try (InputStream body = response.getStream()) {
+                if (Objects.nonNull(body)) {
+                    byte[] buffer = new byte[1024];
+                    while (body.read(buffer) != -1) {
+                        //discarded
+                    }
+                }
+            }
+            LOGGER.debug("Warm-up connected to {}, answered {}", url, response.getCode());
+            return true;
+        } catch (IOException | RuntimeException e) {
+            LOGGER.warn("Warm-up unable to connect to {} : {}", url, e.toString());
+            return false;
+        }
+    }
+
+    private void prime() {
+        try {
+            new JsonTokenExtractor().extract(SAMPLE_TOKEN_RESPONSE);
+            propertyMappingPlan.map(Collections.emptyMap(), propertyMappingPlan.getReader()
+                    .read(new ByteArrayInputStream(SAMPLE_PROFILE)).getTypedValues());
+        } catch (IOException | RuntimeException e) {
+            LOGGER.warn("Warm-up unable to prime the profile parsing : {}", e.toString());
+        }
+    }
+
+    /**
+     * Stop the warm-up if it hasn't started yet or at its next endpoint if it is running.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        scheduler.unschedule(jobName);
+    }
+
+}
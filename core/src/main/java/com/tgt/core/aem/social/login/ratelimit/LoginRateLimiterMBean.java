@@ -0,0 +1,38 @@
+package com.tgt.core.aem.social.login.ratelimit;
+
+import com.adobe.granite.jmx.annotation.Description;
+
+/**
+ * State of the rate limiter of the social login entry point and callback.
+ */
+@Description("Social login rate limiter")
+public interface LoginRateLimiterMBean {
+
+    @Description("Whether logins are rate limited")
+    boolean isEnabled();
+
+    @Description("Login requests let through")
+    long getAllowed();
+
+    @Description("Login requests rejected because their client IP sent too many")
+    long getRejectedClient();
+
+    @Description("Login requests rejected because their OAuth configuration received too many")
+    long getRejectedConfig();
+
+    @Description("Client IPs and OAuth configurations currently tracked")
+    int getTrackedKeys();
+
+    @Description("Maximum number of client IPs tracked")
+    int getMaxKeys();
+
+    @Description("Tracked client IPs dropped to stay within the maximum, least recently used first")
+    long getEvictions();
+
+    @Description("Forget all the tracked client IPs and OAuth configurations")
+    void clear();
+
+    @Description("Reset all the counters")
+    void resetStatistics();
+
+}
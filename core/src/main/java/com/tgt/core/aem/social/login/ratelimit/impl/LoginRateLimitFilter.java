@@ -0,0 +1,266 @@
+package com.tgt.core.aem.social.login.ratelimit.impl;
+
+import com.adobe.granite.jmx.annotation.AnnotatedStandardMBean;
+import com.tgt.core.aem.social.login.ratelimit.LoginRateLimiterMBean;
+import org.apache.commons.lang.StringUtils;
+import org.osgi.service.component.annotations.Activate;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Modified;
+import org.osgi.service.metatype.annotations.AttributeDefinition;
+import org.osgi.service.metatype.annotations.Designate;
+import org.osgi.service.metatype.annotations.ObjectClassDefinition;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.DynamicMBean;
+import javax.management.NotCompliantMBeanException;
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Rate limits the requests starting a social login ({@code /j_security_check?configid=<config>}) and the OAuth
+ * callbacks ({@code j_security_check?code=...}), per client IP and per OAuth configuration.
+ * <p>
+ * The filter is registered on the HTTP whiteboard, ahead of the Sling authentication, so a rejected request is
+ * answered with a {@code 429} before AEM's OAuth authentication handler builds an authorization URL or calls Google.
+ * Only the query string is looked at, the body of the form logins is never read. Each client IP has its own
+ * {@link TokenBuckets token bucket}, and so has each OAuth configuration (or callback path) for all the clients
+ * together, to cap the calls to Google of a distributed attack.
+ */
+@Component(service = {Filter.class, DynamicMBean.class},
+        property = {
+                "osgi.http.whiteboard.filter.regex=.*/j_security_check",
+                "osgi.http.whiteboard.context.select=(osgi.http.whiteboard.context.name=*)",
+                "jmx.objectname=com.tgt.core.aem.social.login:type=LoginRateLimiter"
+        })
+@Designate(ocd = LoginRateLimitFilter.LoginRateLimitFilterConfig.class)
+public class LoginRateLimitFilter extends AnnotatedStandardMBean implements Filter, LoginRateLimiterMBean {
+
+    private final Logger LOGGER = LoggerFactory.getLogger(LoginRateLimitFilter.class);
+
+    @ObjectClassDefinition(name = "The Grey Teacher Login Rate Limiter")
+    public @interface LoginRateLimitFilterConfig {
+
+        @AttributeDefinition(name = "Enabled", description = "Rate limit the social logins and their callbacks")
+        boolean enabled() default true;
+
+        @AttributeDefinition(name = "Client Rate",
+                description = "Login requests per minute a client IP can send, once its burst is used")
+        int client_per_minute() default 30;
+
+        @AttributeDefinition(name = "Client Burst", description = "Login requests a client IP can send at once")
+        int client_burst() default 10;
+
+        @AttributeDefinition(name = "Configuration Rate",
+                description = "Login requests per second an OAuth configuration accepts from all the clients, " +
+                        "once its burst is used")
+        int config_per_second() default 50;
+
+        @AttributeDefinition(name = "Configuration Burst",
+                description = "Login requests an OAuth configuration accepts at once from all the clients")
+        int config_burst() default 200;
+
+        @AttributeDefinition(name = "Max Clients", description = "Maximum number of client IPs tracked")
+        int max_clients() default 100000;
+
+        @AttributeDefinition(name = "Client IP Header",
+                description = "Header the CDN or the dispatcher appends the client IP to, e.g. X-Forwarded-For. " +
+                        "Its addresses are read from the right, the left-most ones can be forged by the clients. " +
+                        "Leave it empty to use the remote address.")
+        String client_ip_header() default "";
+
+        @AttributeDefinition(name = "Trusted Proxies",
+                description = "Number of trusted proxies appending an address to the client IP header, the " +
+                        "client IP is the address this many from the right, e.g. 1 for the right-most one")
+        int client_ip_trusted_proxies() default 1;
+
+    }
+
+    private static final String CONFIG_ID = "configid=";
+    private static final String CODE = "code=";
+    private static final int STRIPES = 64;
+    private static final int MAX_CONFIGS = 64;
+
+    private final LongAdder allowed = new LongAdder();
+    private final LongAdder rejectedClient = new LongAdder();
+    private final LongAdder rejectedConfig = new LongAdder();
+
+    private volatile Limits limits;
+
+    public LoginRateLimitFilter() throws NotCompliantMBeanException {
+        super(LoginRateLimiterMBean.class);
+    }
+
+    @Activate
+    @Modified
+    protected void activate(LoginRateLimitFilterConfig config) {
+        limits = new Limits(config);
+        LOGGER.info("Login rate limits enabled : {}, {} per minute per client IP, {} per second per configuration",
+                config.enabled(), config.client_per_minute(), config.config_per_second());
+    }
+
+    @Override
+    public void init(FilterConfig filterConfig) {
+        //nothing to initialize
+    }
+
+    @Override
+    public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain)
+            throws IOException, ServletException {
+        Limits current = limits;
+        if (current.enabled && request instanceof HttpServletRequest && response instanceof HttpServletResponse) {
+            HttpServletRequest httpRequest = (HttpServletRequest) request;
+            String config = configOf(httpRequest);
+            if (Objects.nonNull(config)) {
+                long now = System.nanoTime();
+                long wait = current.clients.tryAcquire(current.clientIp(httpRequest), now);
+                if (wait > 0) {
+                    rejectedClient.increment();
+                    reject((HttpServletResponse) response, wait);
+                    return;
+                }
+                wait = current.configs.tryAcquire(config, now);
+                if (wait > 0) {
+                    rejectedConfig.increment();
+                    reject((HttpServletResponse) response, wait);
+                    return;
+                }
+                allowed.increment();
+            }
+        }
+        chain.doFilter(request, response);
+    }
+
+    /**
+     * @return the OAuth configuration of a login or the path of a callback, null if it isn't a social login request
+     */
+    private static String configOf(HttpServletRequest request) {
+        String query = request.getQueryString();
+        if (Objects.isNull(query)) {
+            return null;
+        }
+        int configId = parameterStart(query, CONFIG_ID);
+        if (configId >= 0) {
+            int end = query.indexOf('&', configId);
+            return query.substring(configId, end < 0 ? query.length() : end);
+        }
+        return parameterStart(query, CODE) >= 0 ? request.getRequestURI() : null;
+    }
+
+    /**
+     * @return index of the value of the parameter, -1 if it isn't in the query
+     */
+    private static int parameterStart(String query, String parameter) {
+        int index = query.startsWith(parameter) ? 0 : query.indexOf('&' + parameter);
+        return index < 0 ? -1 : index + (index == 0 ? 0 : 1) + parameter.length();
+    }
+
+    private static void reject(HttpServletResponse response, long waitNanos) throws IOException {
+        response.setHeader("Retry-After", String.valueOf(Math.max(1, TimeUnit.NANOSECONDS.toSeconds(waitNanos))));
+        response.sendError(429);
+    }
+
+    @Override
+    public void destroy() {
+        //nothing to release
+    }
+
+    @Override
+    public boolean isEnabled() {
+        return limits.enabled;
+    }
+
+    @Override
+    public long getAllowed() {
+        return allowed.sum();
+    }
+
+    @Override
+    public long getRejectedClient() {
+        return rejectedClient.sum();
+    }
+
+    @Override
+    public long getRejectedConfig() {
+        return rejectedConfig.sum();
+    }
+
+    @Override
+    public int getTrackedKeys() {
+        Limits current = limits;
+        return current.clients.size() + current.configs.size();
+    }
+
+    @Override
+    public int getMaxKeys() {
+        return limits.clients.getMaxKeys();
+    }
+
+    @Override
+    public long getEvictions() {
+        return limits.clients.getEvictions();
+    }
+
+    @Override
+    public void clear() {
+        Limits current = limits;
+        current.clients.clear();
+        current.configs.clear();
+    }
+
+    @Override
+    public void resetStatistics() {
+        allowed.reset();
+        rejectedClient.reset();
+        rejectedConfig.reset();
+        limits.clients.resetStatistics();
+    }
+
+    /**
+     * Buckets of a configuration, replaced as a whole when the configuration changes.
+     */
+    private static final class Limits {
+
+        private final boolean enabled;
+        private final String clientIpHeader;
+        private final int trustedProxies;
+        private final TokenBuckets clients;
+        private final TokenBuckets configs;
+
+        private Limits(LoginRateLimitFilterConfig config) {
+            this.enabled = config.enabled();
+            this.clientIpHeader = StringUtils.trimToNull(config.client_ip_header());
+            this.trustedProxies = Math.max(1, config.client_ip_trusted_proxies());
+            this.clients = new TokenBuckets(TimeUnit.MINUTES.toNanos(1) / Math.max(1, config.client_per_minute()),
+                    config.client_burst(), Math.max(1, config.max_clients()), STRIPES);
+            this.configs = new TokenBuckets(TimeUnit.SECONDS.toNanos(1) / Math.max(1, config.config_per_second()),
+                    config.config_burst(), MAX_CONFIGS, 1);
+        }
+
+        /**
+         * @return address appended to the client IP header by the farthest trusted proxy, the left-most one if
+         * there are fewer, or the remote address without the header
+         */
+        private String clientIp(HttpServletRequest request) {
+            String header = Objects.isNull(clientIpHeader) ? null : request.getHeader(clientIpHeader);
+            String[] addresses = StringUtils.split(header, ',');
+            if (Objects.isNull(addresses) || addresses.length == 0) {
+                return request.getRemoteAddr();
+            }
+            String address = addresses[Math.max(0, addresses.length - trustedProxies)].trim();
+            return address.isEmpty() ? request.getRemoteAddr() : address;
+        }
+
+    }
+
+}
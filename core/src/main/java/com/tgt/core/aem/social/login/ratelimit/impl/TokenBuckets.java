@@ -0,0 +1,138 @@
+package com.tgt.core.aem.social.login.ratelimit.impl;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded set of token buckets keyed by client, split into stripes.
+ * <p>
+ * A bucket is a single {@link AtomicLong}, the time at which it would be full again, and is taken from with a
+ * compare-and-set (the generic cell rate algorithm form of a token bucket) so a request never locks anything once its
+ * bucket exists. Each stripe holds its share of the max number of keys: when a new key doesn't fit, the buckets which
+ * are full again are dropped since forgetting them doesn't change anything, and if none is, the least recently used
+ * bucket is.
+ */
+final class TokenBuckets {
+
+    private final long intervalNanos;
+    private final long capacityNanos;
+    private final Stripe[] stripes;
+    private final int maxKeys;
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * @param intervalNanos time in nanoseconds to get one token back
+     * @param burst         number of tokens of a full bucket
+     * @param maxKeys       max number of buckets
+     * @param stripeCount   number of stripes, capped by the max number of buckets
+     */
+    TokenBuckets(long intervalNanos, int burst, int maxKeys, int stripeCount) {
+        this.intervalNanos = Math.max(1, intervalNanos);
+        this.capacityNanos = this.intervalNanos * Math.max(1, burst);
+        int count = Math.max(1, Math.min(stripeCount, maxKeys));
+        int stripeSize = Math.max(1, maxKeys / count);
+        this.stripes = new Stripe[count];
+        for (int i = 0; i < count; i++) {
+            stripes[i] = new Stripe(stripeSize);
+        }
+        this.maxKeys = stripeSize * count;
+    }
+
+    /**
+     * Take a token from the bucket of a key.
+     *
+     * @param key      client's key
+     * @param nowNanos current {@link System#nanoTime()}
+     * @return 0 if a token was taken, else the time in nanoseconds until the bucket has a token again
+     */
+    long tryAcquire(String key, long nowNanos) {
+        Stripe stripe = stripeOf(key);
+        AtomicLong bucket = stripe.buckets.get(key);
+        if (Objects.isNull(bucket)) {
+            if (stripe.buckets.size() >= stripe.maxSize) {
+                evict(stripe, nowNanos);
+            }
+            bucket = stripe.buckets.computeIfAbsent(key, k -> new AtomicLong(nowNanos));
+        }
+        while (true) {
+            long fullAt = bucket.get();
+            long next = (fullAt - nowNanos > 0 ? fullAt : nowNanos) + intervalNanos;
+            long excess = next - nowNanos - capacityNanos;
+            if (excess > 0) {
+                return excess;
+            }
+            if (bucket.compareAndSet(fullAt, next)) {
+                return 0;
+            }
+        }
+    }
+
+    private void evict(Stripe stripe, long nowNanos) {
+        Map.Entry<String, AtomicLong> leastRecentlyUsed = null;
+        int evicted = 0;
+        for (Iterator<Map.Entry<String, AtomicLong>> buckets = stripe.buckets.entrySet().iterator();
+             buckets.hasNext(); ) {
+            Map.Entry<String, AtomicLong> bucket = buckets.next();
+            long fullAt = bucket.getValue().get();
+            if (nowNanos - fullAt >= 0) {
+                buckets.remove();
+                evicted++;
+            } else if (Objects.isNull(leastRecentlyUsed) || fullAt - leastRecentlyUsed.getValue().get() < 0) {
+                //the bucket taken from the longest ago is the one full the soonest
+                leastRecentlyUsed = bucket;
+            }
+        }
+        if (evicted == 0 && Objects.nonNull(leastRecentlyUsed)
+                && stripe.buckets.remove(leastRecentlyUsed.getKey(), leastRecentlyUsed.getValue())) {
+            evicted++;
+        }
+        evictions.add(evicted);
+    }
+
+    void clear() {
+        for (Stripe stripe : stripes) {
+            stripe.buckets.clear();
+        }
+    }
+
+    int size() {
+        int size = 0;
+        for (Stripe stripe : stripes) {
+            size += stripe.buckets.size();
+        }
+        return size;
+    }
+
+    int getMaxKeys() {
+        return maxKeys;
+    }
+
+    long getEvictions() {
+        return evictions.sum();
+    }
+
+    void resetStatistics() {
+        evictions.reset();
+    }
+
+    private Stripe stripeOf(String key) {
+        int hash = key.hashCode();
+        return stripes[Math.floorMod(hash ^ (hash >>> 16), stripes.length)];
+    }
+
+    private static final class Stripe {
+
+        private final int maxSize;
+        private final Map<String, AtomicLong> buckets = new ConcurrentHashMap<>();
+
+        private Stripe(int maxSize) {
+            this.maxSize = maxSize;
+        }
+
+    }
+
+}
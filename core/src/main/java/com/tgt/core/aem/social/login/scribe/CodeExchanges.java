@@ -0,0 +1,113 @@
+package com.tgt.core.aem.social.login.scribe;
+
+import com.tgt.core.aem.social.login.tokens.impl.LoginAccessTokens;
+
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Node-local single flight of the authorization code exchanges.
+ * <p>
+ * A callback sent twice (double click, browser or load balancer retry) exchanges the same authorization code twice,
+ * Google rejects the second exchange with {@code invalid_grant} once both paid a full round trip. Here the
+ * duplicates of an exchange in flight wait for it and share its access token, or its failure. A completed exchange
+ * is remembered for a short time, so an immediate retry of the callback gets the same access token too. Failed
+ * exchanges aren't remembered, a retry after a transient failure exchanges the code again.
+ * <p>
+ * The store is bounded: expired exchanges are purged once it is full, and the exchanges completing while it is
+ * still full aren't remembered.
+ */
+final class CodeExchanges {
+
+    private final long memoNanos;
+    private final int maxSize;
+    private final Map<String, Exchange> exchanges = new ConcurrentHashMap<>();
+
+    /**
+     * @param memoMs  time in milliseconds a completed exchange is remembered, 0 to only share exchanges in flight
+     * @param maxSize max number of exchanges in flight or remembered
+     */
+    CodeExchanges(long memoMs, int maxSize) {
+        this.memoNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, memoMs));
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Exchange an authorization code, unless the same code is already being or was just exchanged.
+     *
+     * @param key      identifies the code, e.g. the client ID and the code
+     * @param exchange sends the exchange to the provider
+     * @return access token of the exchange
+     * @throws RuntimeException failure of the exchange, shared by all its duplicates
+     */
+    LoginAccessTokens.IssuedToken exchange(String key, Supplier<LoginAccessTokens.IssuedToken> exchange) {
+        Exchange own = new Exchange();
+        Exchange current;
+        while (Objects.nonNull(current = exchanges.putIfAbsent(key, own))) {
+            if (!current.isExpired(System.nanoTime())) {
+                return current.await();
+            }
+            exchanges.remove(key, current);
+        }
+        if (exchanges.size() > maxSize) {
+            purgeExpired();
+        }
+        try {
+            LoginAccessTokens.IssuedToken token = exchange.get();
+            own.complete(token, System.nanoTime() + memoNanos);
+            if (memoNanos == 0 || exchanges.size() > maxSize) {
+                exchanges.remove(key, own);
+            }
+            return token;
+        } catch (RuntimeException | Error e) {
+            //waiters must never be left waiting for an exchange which won't complete
+            exchanges.remove(key, own);
+            own.fail(e);
+            throw e;
+        }
+    }
+
+    private void purgeExpired() {
+        long now = System.nanoTime();
+        exchanges.values().removeIf(exchange -> exchange.isExpired(now));
+    }
+
+    private static final class Exchange {
+
+        private final CompletableFuture<LoginAccessTokens.IssuedToken> result = new CompletableFuture<>();
+        //0 while in flight
+        private volatile long expiresAtNanos;
+
+        private void complete(LoginAccessTokens.IssuedToken token, long expiresAt) {
+            expiresAtNanos = expiresAt;
+            result.complete(token);
+        }
+
+        private void fail(Throwable failure) {
+            result.completeExceptionally(failure);
+        }
+
+        private boolean isExpired(long now) {
+            long expiresAt = expiresAtNanos;
+            return expiresAt != 0 && now - expiresAt > 0;
+        }
+
+        private LoginAccessTokens.IssuedToken await() {
+            try {
+                return result.join();
+            } catch (CompletionException e) {
+                if (e.getCause() instanceof Error) {
+                    throw (Error) e.getCause();
+                }
+                throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : e;
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,65 @@
+package com.tgt.core.aem.social.login.scribe;
+
+import com.tgt.core.aem.social.login.constants.SocialLoginConstants;
+import org.apache.commons.lang.StringUtils;
+
+/**
+ * URLs of the Google endpoints used during login.
+ * <p>
+ * They default to Google's public endpoints and can be pointed somewhere else through the provider's config, e.g.
+ * to a stand-in server for load tests.
+ */
+public final class GoogleEndpoints {
+
+    /**
+     * Google's public endpoints
+     */
+    public static final GoogleEndpoints DEFAULT = new GoogleEndpoints(null, null, null, null);
+
+    private final String authorizationEndpoint;
+    private final String accessTokenEndpoint;
+    private final String userDetailsUrl;
+    private final String jwksUrl;
+
+    /**
+     * Blank URLs fall back to Google's public endpoints.
+     *
+     * @param authorizationEndpoint URL to get the authorization code, without any query
+     * @param accessTokenEndpoint   URL to exchange the authorization code for an access token
+     * @param userDetailsUrl        URL to fetch user details
+     * @param jwksUrl               URL of the keys used to sign ID tokens
+     */
+    public GoogleEndpoints(String authorizationEndpoint, String accessTokenEndpoint, String userDetailsUrl,
+                           String jwksUrl) {
+        this.authorizationEndpoint = StringUtils.defaultIfBlank(authorizationEndpoint,
+                SocialLoginConstants.GOOGLE_AUTHORIZATION_ENDPOINT);
+        this.accessTokenEndpoint = StringUtils.defaultIfBlank(accessTokenEndpoint,
+                SocialLoginConstants.GOOGLE_ACCESS_TOKEN_ENDPOINT);
+        this.userDetailsUrl = StringUtils.defaultIfBlank(userDetailsUrl,
+                SocialLoginConstants.GOOGLE_USER_DETAILS_URL);
+        this.jwksUrl = StringUtils.defaultIfBlank(jwksUrl, SocialLoginConstants.GOOGLE_JWKS_URL);
+    }
+
+    public String getAuthorizationEndpoint() {
+        return authorizationEndpoint;
+    }
+
+    public String getAccessTokenEndpoint() {
+        return accessTokenEndpoint;
+    }
+
+    public String getUserDetailsUrl() {
+        return userDetailsUrl;
+    }
+
+    public String getJwksUrl() {
+        return jwksUrl;
+    }
+
+    @Override
+    public String toString() {
+        return "authorization=" + authorizationEndpoint + ", token=" + accessTokenEndpoint + ", userDetails="
+                + userDetailsUrl + ", jwks=" + jwksUrl;
+    }
+
+}
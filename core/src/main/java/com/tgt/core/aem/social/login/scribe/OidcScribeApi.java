@@ -0,0 +1,288 @@
+package com.tgt.core.aem.social.login.scribe;
+
+import com.tgt.core.aem.social.login.constants.SocialLoginConstants;
+import com.tgt.core.aem.social.login.http.OAuthTransport;
+import com.tgt.core.aem.social.login.metrics.LoginMetrics;
+import com.tgt.core.aem.social.login.metrics.LoginPhase;
+import com.tgt.core.aem.social.login.oidc.IdTokenProfiles;
+import com.tgt.core.aem.social.login.oidc.IdTokenVerifier;
+import com.tgt.core.aem.social.login.tokens.AccessTokenCache;
+import org.apache.commons.lang.StringUtils;
+import org.scribe.builder.api.DefaultApi20;
+import org.scribe.extractors.AccessTokenExtractor;
+import org.scribe.extractors.JsonTokenExtractor;
+import org.scribe.model.OAuthConfig;
+import org.scribe.model.Verb;
+import org.scribe.oauth.OAuthService;
+import org.scribe.utils.OAuthEncoder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Scribe {@link org.scribe.builder.api.Api} for an OAuth2 / OpenID Connect provider using the authorization code
+ * flow, e.g. Google, Microsoft or Okta.
+ * <p>
+ * The authorization URL of an OAuth configuration never changes, so it is built once per client ID, callback and
+ * scope and then handed out as is. The code exchange and the refresh of the access tokens are sent by the
+ * {@link OidcScribeService}.
+ * <p>
+ * Note - AEM uses very old version of {@code Scribe} API which doesn't have any support for OAuth2 providers like
+ * Google. We can't upgrade it to latest version as well because the new Scribe library has a different group ID and
+ * artifact ID which has completely different package structure. AEM internal OAuth flow is fully dependent on the
+ * Scribe APIs so we have to create/update the social login details as per the new APIs provided by the social provider.
+ */
+public class OidcScribeApi extends DefaultApi20 {
+
+    private final Logger LOGGER = LoggerFactory.getLogger(OidcScribeApi.class);
+
+    private static final int MAX_CODE_EXCHANGES = 10000;
+    //OAuth configurations of the provider, each with a few callbacks at most
+    private static final int MAX_AUTHORIZATION_URLS = 64;
+
+    private final String authorizationEndpoint;
+    private final String accessTokenEndpoint;
+    private final String authorizeUrl;
+    private final String scopedAuthorizeUrl;
+    private final OAuthTransport transport;
+    private final IdTokenVerifier idTokenVerifier;
+    private final IdTokenProfiles idTokenProfiles;
+    private final LoginMetrics loginMetrics;
+    private final AccessTokenCache accessTokenCache;
+    private final String unavailableRedirect;
+    private final CodeExchanges codeExchanges;
+    private final String authorizeUrlSuffix;
+    private final Map<String, String> authorizationUrls = new ConcurrentHashMap<>();
+
+    /**
+     * @param authorizationEndpoint URL to get the authorization code, without any query
+     * @param accessTokenEndpoint   URL to exchange the authorization code for an access token
+     * @param settings              {@link Settings} of the logins through this API
+     */
+    public OidcScribeApi(String authorizationEndpoint, String accessTokenEndpoint, Settings settings) {
+        this.authorizationEndpoint = authorizationEndpoint;
+        this.accessTokenEndpoint = accessTokenEndpoint;
+        this.authorizeUrl = authorizationEndpoint + SocialLoginConstants.AUTHORIZE_URL_QUERY;
+        this.scopedAuthorizeUrl = authorizationEndpoint + SocialLoginConstants.SCOPED_AUTHORIZE_URL_QUERY;
+        this.transport = settings.transport;
+        this.idTokenVerifier = settings.idTokenVerifier;
+        this.idTokenProfiles = settings.idTokenProfiles;
+        this.loginMetrics = settings.loginMetrics;
+        this.accessTokenCache = settings.accessTokenCache;
+        this.unavailableRedirect = StringUtils.trimToNull(settings.unavailableRedirect);
+        this.codeExchanges = new CodeExchanges(settings.codeExchangeMemoMs, MAX_CODE_EXCHANGES);
+        this.authorizeUrlSuffix = StringUtils.defaultString(settings.authorizeUrlSuffix);
+    }
+
+    /**
+     * This method will be called to generate the full URL to get the Authorization Code.
+     * <p>
+     * While the circuit of the provider's token endpoint is open the login would fail at the token exchange anyway,
+     * so users are sent to the unavailable redirect, if any, instead of the provider.
+     *
+     * @param oAuthConfig {@link OAuthConfig}
+     * @return final URL to get the Authorization code
+     */
+    @Override
+    public String getAuthorizationUrl(OAuthConfig oAuthConfig) {
+        loginMetrics.beginLogin();
+        long start = loginMetrics.start();
+        String authorizationUrl;
+        if (Objects.nonNull(unavailableRedirect) && !transport.isAvailable(accessTokenEndpoint)) {
+            LOGGER.warn("Token endpoint {} is unavailable, redirecting to {}", accessTokenEndpoint,
+                    unavailableRedirect);
+            authorizationUrl = unavailableRedirect;
+        } else {
+            String key = oAuthConfig.getApiKey() + ' ' + oAuthConfig.getCallback()
+                    + (oAuthConfig.hasScope() ? ' ' + oAuthConfig.getScope() : "");
+            authorizationUrl = authorizationUrls.get(key);
+            if (Objects.isNull(authorizationUrl)) {
+                authorizationUrl = buildAuthorizationUrl(oAuthConfig);
+                if (authorizationUrls.size() < MAX_AUTHORIZATION_URLS) {
+                    authorizationUrls.put(key, authorizationUrl);
+                }
+            }
+        }
+        loginMetrics.record(LoginPhase.AUTHORIZATION_URL, start);
+        LOGGER.debug("OAuth 2 URL to get the authentication code: {}", authorizationUrl);
+        return authorizationUrl;
+    }
+
+    private String buildAuthorizationUrl(OAuthConfig oAuthConfig) {
+        if (oAuthConfig.hasScope()) {
+            //please note that AEM use "," internally to join multiple scopes while google expects multiple scopes
+            // to be space separated. In our case we will use the single scope i.e user.email, so, in case you want to
+            // use multiple scopes then format the oAuthConfig.getScope() value accordingly before passing it to Google.
+            return String.format(scopedAuthorizeUrl, oAuthConfig.getApiKey(),
+                    OAuthEncoder.encode(oAuthConfig.getCallback()),
+                    OAuthEncoder.encode(oAuthConfig.getScope())) + authorizeUrlSuffix;
+        }
+        return String.format(authorizeUrl, oAuthConfig.getApiKey(),
+                OAuthEncoder.encode(oAuthConfig.getCallback())) + authorizeUrlSuffix;
+    }
+
+    /**
+     * @return URL to get an Access Token using Authorization code
+     */
+    @Override
+    public String getAccessTokenEndpoint() {
+        return accessTokenEndpoint;
+    }
+
+    /**
+     * @return request method type to get the code. Need to override this because the providers use POST and
+     * default is GET.
+     */
+    @Override
+    public Verb getAccessTokenVerb() {
+        return Verb.POST;
+    }
+
+    /**
+     * @return URL to get the authorization code, without any query
+     */
+    public String getAuthorizationEndpoint() {
+        return authorizationEndpoint;
+    }
+
+    /**
+     * @return {@link OAuthTransport} used to send the requests to the provider
+     */
+    public OAuthTransport getTransport() {
+        return transport;
+    }
+
+    /**
+     * @return verifier of ID tokens, null in case user details aren't read from ID tokens
+     */
+    public IdTokenVerifier getIdTokenVerifier() {
+        return idTokenVerifier;
+    }
+
+    /**
+     * @return store of verified ID token claims, null in case user details aren't read from ID tokens
+     */
+    public IdTokenProfiles getIdTokenProfiles() {
+        return idTokenProfiles;
+    }
+
+    /**
+     * @return {@link LoginMetrics} recording the login phases
+     */
+    public LoginMetrics getLoginMetrics() {
+        return loginMetrics;
+    }
+
+    /**
+     * @return {@link AccessTokenCache} of the access tokens persisted on the users
+     */
+    public AccessTokenCache getAccessTokenCache() {
+        return accessTokenCache;
+    }
+
+    /**
+     * @return exchanges of the authorization codes shared by the duplicate callbacks
+     */
+    CodeExchanges getCodeExchanges() {
+        return codeExchanges;
+    }
+
+    @Override
+    public OAuthService createService(OAuthConfig config) {
+        return new OidcScribeService(this, config);
+    }
+
+    /**
+     * @return {@link AccessTokenExtractor} to be used to parse access token from the provider's response.
+     */
+    @Override
+    public AccessTokenExtractor getAccessTokenExtractor() {
+        return new JsonTokenExtractor();
+    }
+
+    /**
+     * Settings of the logins through an {@link OidcScribeApi}, the same for any endpoints of the provider. Only the
+     * {@link OAuthTransport} is required, ID tokens are ignored and nothing is measured or cached by default.
+     */
+    public static final class Settings {
+
+        private final OAuthTransport transport;
+        private IdTokenVerifier idTokenVerifier;
+        private IdTokenProfiles idTokenProfiles;
+        private LoginMetrics loginMetrics = LoginMetrics.DISABLED;
+        private AccessTokenCache accessTokenCache = AccessTokenCache.DISABLED;
+        private String unavailableRedirect;
+        private long codeExchangeMemoMs;
+        private String authorizeUrlSuffix;
+
+        /**
+         * @param transport {@link OAuthTransport} used to send the access token requests
+         */
+        public Settings(OAuthTransport transport) {
+            this.transport = transport;
+        }
+
+        /**
+         * @param verifier verifier of the ID token returned along with the access token
+         * @param profiles store where the verified ID token claims are kept for the user details request
+         * @return these settings
+         */
+        public Settings idTokens(IdTokenVerifier verifier, IdTokenProfiles profiles) {
+            this.idTokenVerifier = verifier;
+            this.idTokenProfiles = profiles;
+            return this;
+        }
+
+        /**
+         * @param metrics {@link LoginMetrics} recording the authorization URL build and the token exchange
+         * @return these settings
+         */
+        public Settings loginMetrics(LoginMetrics metrics) {
+            this.loginMetrics = metrics;
+            return this;
+        }
+
+        /**
+         * @param cache {@link AccessTokenCache} told about the lifetime of the issued access tokens
+         * @return these settings
+         */
+        public Settings accessTokenCache(AccessTokenCache cache) {
+            this.accessTokenCache = cache;
+            return this;
+        }
+
+        /**
+         * @param redirect URL users are sent to instead of the provider while its token endpoint is unavailable,
+         *                 blank to send them to the provider anyway
+         * @return these settings
+         */
+        public Settings unavailableRedirect(String redirect) {
+            this.unavailableRedirect = redirect;
+            return this;
+        }
+
+        /**
+         * @param memoMs time in milliseconds the access token of an exchanged authorization code is handed to the
+         *               duplicate callbacks with the same code, 0 to share only exchanges in flight
+         * @return these settings
+         */
+        public Settings codeExchangeMemoMs(long memoMs) {
+            this.codeExchangeMemoMs = memoMs;
+            return this;
+        }
+
+        /**
+         * @param suffix query appended to the authorization URL, e.g. provider specific parameters
+         * @return these settings
+         */
+        public Settings authorizeUrlSuffix(String suffix) {
+            this.authorizeUrlSuffix = suffix;
+            return this;
+        }
+
+    }
+
+}
@@ -0,0 +1,184 @@
+package com.tgt.core.aem.social.login.scribe;
+
+import com.tgt.core.aem.social.login.constants.SocialLoginConstants;
+import com.tgt.core.aem.social.login.http.ProviderCallException;
+import com.tgt.core.aem.social.login.metrics.LoginMetrics;
+import com.tgt.core.aem.social.login.metrics.LoginPhase;
+import com.tgt.core.aem.social.login.oidc.IdTokenException;
+import com.tgt.core.aem.social.login.tokens.impl.LoginAccessTokens;
+import com.tgt.core.aem.social.login.utils.ProfileDataReader;
+import org.apache.commons.lang.math.NumberUtils;
+import org.apache.oltu.oauth2.common.OAuth;
+import org.scribe.model.*;
+import org.scribe.oauth.OAuth20ServiceImpl;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * {@link org.scribe.oauth.OAuthService} for an OAuth2 / OpenID Connect provider, see {@link OidcScribeApi}.
+ * <p>
+ * Note - We have to override {@link org.scribe.oauth.OAuthService#getAccessToken(Token, Verifier)} because the
+ * params used by default OAuth2 Scribe service are different from what the OAuth2 APIs of Google and the other
+ * OpenID Connect providers expect.
+ */
+public class OidcScribeService extends OAuth20ServiceImpl {
+
+    private final Logger LOGGER = LoggerFactory.getLogger(OidcScribeService.class);
+
+    private static final String ID_TOKEN = "id_token";
+    private static final String EXPIRES_IN = "expires_in";
+    private static final ProfileDataReader TOKEN_RESPONSE_READER = ProfileDataReader.forFields(ID_TOKEN, EXPIRES_IN,
+            SocialLoginConstants.REFRESH_TOKEN);
+
+    private final OidcScribeApi api;
+    private final OAuthConfig config;
+
+    public OidcScribeService(OidcScribeApi api, OAuthConfig config) {
+        super(api, config);
+        this.api = api;
+        this.config = config;
+    }
+
+    /**
+     * Method to be used by AEM's OAuth Authentication Handler to get the access token using the authorization code.
+     * <p>
+     * The request is never retried since an authorization code can only be used once. A duplicate callback with the
+     * same code, while the code is exchanged or right after, gets the access token of that exchange instead of an
+     * {@code invalid_grant} from the provider (see {@link CodeExchanges}). The token is recorded for the login of the
+     * current thread, so that the provider can keep it in its
+     * {@link com.tgt.core.aem.social.login.tokens.AccessTokenStore}.
+     *
+     * @param requestToken {@link Token}
+     * @param verifier     {@link Verifier}
+     * @return {@link Token}
+     * @throws ProviderCallException in case the provider answers with an error, classified by its status and OAuth
+     *                               error
+     */
+    public Token getAccessToken(Token requestToken, Verifier verifier) {
+        this.api.getLoginMetrics().beginLogin();
+        String key = this.config.getApiKey() + ' ' + this.config.getCallback() + ' ' + verifier.getValue();
+        LoginAccessTokens.IssuedToken issued = this.api.getCodeExchanges().exchange(key, () -> exchangeCode(verifier));
+        LoginAccessTokens.issued(issued);
+        return issued.getToken();
+    }
+
+    /**
+     * @return the access token with the lifetime and refresh token of its response, which is parsed only once here
+     */
+    private LoginAccessTokens.IssuedToken exchangeCode(Verifier verifier) {
+        OAuthRequest request = this.api.getTransport().createRequest(this.api.getAccessTokenVerb(),
+                this.api.getAccessTokenEndpoint());
+        request.addQuerystringParameter(OAuth.OAUTH_CLIENT_ID, this.config.getApiKey());
+        request.addQuerystringParameter(OAuth.OAUTH_CLIENT_SECRET, this.config.getApiSecret());
+        request.addQuerystringParameter(OAuth.OAUTH_CODE, verifier.getValue());
+        request.addQuerystringParameter(OAuth.OAUTH_REDIRECT_URI, this.config.getCallback());
+        request.addQuerystringParameter(OAuth.OAUTH_GRANT_TYPE, SocialLoginConstants.AUTHORIZATION_CODE);
+
+        LoginMetrics loginMetrics = this.api.getLoginMetrics();
+        long start = loginMetrics.start();
+        Token accessToken;
+        try {
+            Response response = request.send();
+            loginMetrics.recordStatus(LoginPhase.TOKEN_EXCHANGE, response.getCode());
+            LOGGER.debug("Response code is {} for request : {}", response.getCode(), request.getUrl());
+            //an error body isn't a token, the extractor would only say it has no access_token
+            if (!response.isSuccessful()) {
+                throw ProviderCallException.fromResponse("token endpoint", response);
+            }
+            String body = response.getBody();
+            loginMetrics.recordPayload(LoginPhase.TOKEN_EXCHANGE, body.length());
+            accessToken = this.api.getAccessTokenExtractor().extract(body);
+        } catch (RuntimeException e) {
+            loginMetrics.recordFailure(LoginPhase.TOKEN_EXCHANGE, e);
+            throw e;
+        } finally {
+            loginMetrics.record(LoginPhase.TOKEN_EXCHANGE, start);
+        }
+        Map<String, String> tokenResponse = readTokenResponse(accessToken);
+        long expiresInSeconds = NumberUtils.toLong(tokenResponse.get(EXPIRES_IN));
+        this.api.getAccessTokenCache().tokenIssued(accessToken.getToken(), expiresInSeconds);
+        if (Objects.nonNull(this.api.getIdTokenVerifier())) {
+            keepIdTokenProfile(accessToken, tokenResponse.get(ID_TOKEN));
+        }
+        return new LoginAccessTokens.IssuedToken(this.config.getApiKey(), accessToken, expiresInSeconds,
+                tokenResponse.get(SocialLoginConstants.REFRESH_TOKEN));
+    }
+
+    /**
+     * Get a new access token with the refresh token of a user, outside of any login.
+     * <p>
+     * The request goes through the same transport as the code exchanges and is recorded as
+     * {@link LoginPhase#TOKEN_REFRESH}. The raw response of the returned token has its {@code expires_in}, and a new
+     * {@code refresh_token} in case the provider rotated it.
+     *
+     * @param refreshToken refresh token issued to the user
+     * @return {@link Token}
+     * @throws ProviderCallException in case the provider answers with an error, e.g. {@code invalid_grant} once the
+     *                               user revoked the access
+     */
+    public Token refreshAccessToken(String refreshToken) {
+        OAuthRequest request = this.api.getTransport().createRequest(this.api.getAccessTokenVerb(),
+                this.api.getAccessTokenEndpoint());
+        request.addQuerystringParameter(OAuth.OAUTH_CLIENT_ID, this.config.getApiKey());
+        request.addQuerystringParameter(OAuth.OAUTH_CLIENT_SECRET, this.config.getApiSecret());
+        request.addQuerystringParameter(OAuth.OAUTH_REFRESH_TOKEN, refreshToken);
+        request.addQuerystringParameter(OAuth.OAUTH_GRANT_TYPE, SocialLoginConstants.REFRESH_TOKEN);
+
+        LoginMetrics loginMetrics = this.api.getLoginMetrics();
+        long start = loginMetrics.start();
+        try {
+            Response response = request.send();
+            loginMetrics.recordStatus(LoginPhase.TOKEN_REFRESH, response.getCode());
+            if (!response.isSuccessful()) {
+                throw ProviderCallException.fromResponse("token endpoint", response);
+            }
+            return this.api.getAccessTokenExtractor().extract(response.getBody());
+        } catch (RuntimeException e) {
+            loginMetrics.recordFailure(LoginPhase.TOKEN_REFRESH, e);
+            throw e;
+        } finally {
+            loginMetrics.record(LoginPhase.TOKEN_REFRESH, start);
+        }
+    }
+
+    /**
+     * @param accessToken {@link Token} having the raw token response
+     * @return ID token, lifetime of the access token and refresh token, empty in case the raw response can't be
+     * parsed
+     */
+    private Map<String, String> readTokenResponse(Token accessToken) {
+        try {
+            return TOKEN_RESPONSE_READER.read(new ByteArrayInputStream(
+                    accessToken.getRawResponse().getBytes(StandardCharsets.UTF_8)));
+        } catch (IOException e) {
+            LOGGER.warn("Unable to parse the access token response : {}", e.getMessage());
+            return Collections.emptyMap();
+        }
+    }
+
+    /**
+     * Verify the ID token returned along with the access token and keep its claims, so that the user details
+     * request of this login doesn't have to call the provider. In case the ID token can't be verified the user details
+     * will be fetched from the provider.
+     *
+     * @param accessToken {@link Token} returned along with the ID token
+     * @param idToken     ID token of the token response
+     */
+    private void keepIdTokenProfile(Token accessToken, String idToken) {
+        try {
+            Map<String, Object> claims = this.api.getIdTokenVerifier().verify(idToken, this.config.getApiKey());
+            this.api.getIdTokenProfiles().put(accessToken.getToken(), claims);
+        } catch (IdTokenException e) {
+            LOGGER.warn("ID token can't be used, user details will be fetched from the provider : {}",
+                    e.getMessage());
+        }
+    }
+
+}
@@ -0,0 +1,52 @@
+package com.tgt.core.aem.social.login.sync;
+
+import com.adobe.granite.jmx.annotation.Description;
+
+/**
+ * Counts how many profile syncs of social login users were written to the repository and how many were skipped
+ * because the profile didn't change, and how the profiles written behind their login are queued and saved.
+ */
+@Description("Social login profile sync statistics")
+public interface ProfileSyncStatsMBean {
+
+    @Description("Users created with their profile")
+    long getCreatedUsers();
+
+    @Description("Profile syncs written to the repository because the profile changed")
+    long getUpdatedProfiles();
+
+    @Description("Profile syncs skipped because the profile didn't change")
+    long getSkippedProfiles();
+
+    @Description("Share of the profile syncs of existing users which were skipped, from 0 to 1")
+    double getSkippedRatio();
+
+    @Description("Changed profiles queued to be written behind their login")
+    long getQueuedProfiles();
+
+    @Description("Changed profiles which replaced a profile of the same user still queued")
+    long getCoalescedProfiles();
+
+    @Description("Changed profiles written by their login because the write-behind queue was full")
+    long getQueueFullFallbacks();
+
+    @Description("Profiles waiting in the write-behind queue")
+    long getQueueDepth();
+
+    @Description("Batches of queued profiles saved")
+    long getCommittedBatches();
+
+    @Description("Batches of queued profiles which failed to be saved at once, their profiles are then saved one by " +
+            "one and those failing again are written at the next login")
+    long getFailedBatches();
+
+    @Description("Mean time in milliseconds to write and save a batch of queued profiles")
+    double getMeanCommitMillis();
+
+    @Description("Max time in milliseconds to write and save a batch of queued profiles")
+    double getMaxCommitMillis();
+
+    @Description("Reset all the counters")
+    void resetStatistics();
+
+}
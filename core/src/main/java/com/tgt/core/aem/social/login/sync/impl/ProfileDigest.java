@@ -0,0 +1,94 @@
+package com.tgt.core.aem.social.login.sync.impl;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * SHA-256 digest of the properties of an external user, of the mapping of these properties to the local user and of
+ * the membership settings the sync applies to the local user.
+ * <p>
+ * The mapping and the membership settings are part of the digest so that a change of the sync handler's property
+ * mapping or e.g. of its auto membership is applied at the next login even if the profile didn't change.
+ * <p>
+ * Properties are sorted by name and each value is hashed along with its type, so that the digest doesn't depend on
+ * the order of the properties and e.g. the boolean {@code true} and the string {@code "true"} are different.
+ */
+final class ProfileDigest {
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private ProfileDigest() {
+    }
+
+    /**
+     * @param properties      properties of the external user
+     * @param excluded        names of the properties which are not part of the profile, e.g. the access token
+     * @param propertyMapping external property names by local property path
+     * @param membership      membership settings, e.g. {@code auto=<group>} for each auto membership group
+     * @return hex digest
+     */
+    static String of(Map<String, ?> properties, Set<String> excluded, Map<String, String> propertyMapping,
+                     Collection<String> membership) {
+        MessageDigest digest = sha256();
+        for (Map.Entry<String, String> mapping : new TreeMap<>(propertyMapping).entrySet()) {
+            update(digest, mapping.getKey());
+            update(digest, mapping.getValue());
+        }
+        for (String setting : new TreeSet<>(membership)) {
+            update(digest, setting);
+        }
+        //separates the settings from the properties
+        digest.update((byte) 1);
+        for (Map.Entry<String, ?> property : new TreeMap<>(properties).entrySet()) {
+            if (excluded.contains(property.getKey()) || property.getValue() == null) {
+                continue;
+            }
+            update(digest, property.getKey());
+            update(digest, property.getValue().getClass().getName());
+            update(digest, toString(property.getValue()));
+        }
+        return hex(digest.digest());
+    }
+
+    private static String toString(Object value) {
+        if (value instanceof Collection) {
+            return Arrays.deepToString(((Collection<?>) value).toArray());
+        }
+        if (value instanceof Object[]) {
+            return Arrays.deepToString((Object[]) value);
+        }
+        return String.valueOf(value);
+    }
+
+    private static void update(MessageDigest digest, String value) {
+        digest.update(value.getBytes(StandardCharsets.UTF_8));
+        //separator which can't be part of a value, so that "ab"+"c" and "a"+"bc" differ
+        digest.update((byte) 0);
+    }
+
+    private static String hex(byte[] bytes) {
+        char[] chars = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            chars[i * 2] = HEX[(bytes[i] >> 4) & 0xF];
+            chars[i * 2 + 1] = HEX[bytes[i] & 0xF];
+        }
+        return new String(chars);
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            //every Java platform must support SHA-256
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+}
@@ -0,0 +1,185 @@
+package com.tgt.core.aem.social.login.sync.impl;
+
+import org.apache.jackrabbit.api.security.user.User;
+import org.apache.jackrabbit.api.security.user.UserManager;
+import org.apache.jackrabbit.oak.spi.security.authentication.external.ExternalIdentityProvider;
+import org.apache.jackrabbit.oak.spi.security.authentication.external.ExternalUser;
+import org.apache.jackrabbit.oak.spi.security.authentication.external.SyncResult;
+import org.apache.jackrabbit.oak.spi.security.authentication.external.basic.DefaultSyncConfig;
+import org.apache.jackrabbit.oak.spi.security.authentication.external.basic.DefaultSyncContext;
+import org.apache.jackrabbit.oak.spi.security.authentication.external.basic.DefaultSyncResultImpl;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.jcr.RepositoryException;
+import javax.jcr.Value;
+import javax.jcr.ValueFactory;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * {@link DefaultSyncContext} which doesn't write the profile of an existing user when it didn't change.
+ * <p>
+ * The digest of the profile is stored on the user along with the synced properties. At the next sync of the user,
+ * if the digest of the external user's profile is the same as the stored one the profile isn't written - neither
+ * its properties nor {@code rep:lastSynced} - and the sync result is {@link SyncResult.Status#NOP}, hence the OAuth
+ * authentication handler doesn't call {@link com.adobe.granite.auth.oauth.Provider#onUserUpdate} either.
+ * <p>
+ * The membership settings of the sync config, e.g. its auto membership, are part of the digest too, so that a change
+ * of these settings is applied to the users at their next login.
+ * <p>
+ * As {@code rep:lastSynced} isn't updated, each login of such a user after the expiration time reads the user to
+ * compare the digests, which is much cheaper than writing it.
+ * <p>
+ * The excluded properties aren't part of the profile but must not go stale, e.g. the access token AEM persists on
+ * the user or the refresh token issued at the first consent. When the digest matches, the mapped excluded properties
+ * whose value changed are still written, and only them. An excluded property missing from the external user keeps
+ * its stored value.
+ * <p>
+ * With a {@link ProfileWriteBehindQueue}, a changed profile of an existing user is queued instead of written and the
+ * sync result is {@link SyncResult.Status#NOP} too, the queue writes it later. Its changed excluded properties are
+ * still written by the login, so that its tokens aren't lost if the instance stops before the queue writes them. New
+ * users are always written by the login, and so is a changed profile the queue doesn't accept.
+ * <p>
+ * The created users and the updated profiles are counted when the context is closed, which the external login
+ * module does once it committed the sync. A context whose changes couldn't be saved is dropped without closing it,
+ * so that the users synced again by another context aren't counted twice.
+ */
+class ProfileDigestSyncContext extends DefaultSyncContext {
+
+    private final Logger LOGGER = LoggerFactory.getLogger(ProfileDigestSyncContext.class);
+
+    private final String digestProperty;
+    private final Set<String> excludedProperties;
+    private final ProfileSyncStats stats;
+    private final ProfileWriteBehindQueue writeBehindQueue;
+    private final List<String> membership;
+
+    private String createdUserId;
+    private int createdUsers;
+    private int updatedProfiles;
+
+    ProfileDigestSyncContext(DefaultSyncConfig config, ExternalIdentityProvider idp, UserManager userManager,
+                             ValueFactory valueFactory, String digestProperty, Set<String> excludedProperties,
+                             ProfileSyncStats stats, ProfileWriteBehindQueue writeBehindQueue) {
+        super(config, idp, userManager, valueFactory);
+        this.digestProperty = digestProperty;
+        this.excludedProperties = excludedProperties;
+        this.stats = stats;
+        this.writeBehindQueue = writeBehindQueue;
+        this.membership = getMembership(config.user());
+    }
+
+    @Override
+    protected User createUser(ExternalUser externalUser) throws RepositoryException {
+        User user = super.createUser(externalUser);
+        createdUserId = user.getID();
+        return user;
+    }
+
+    @Override
+    protected DefaultSyncResultImpl syncUser(ExternalUser external, User user) throws RepositoryException {
+        String digest = ProfileDigest.of(external.getProperties(), excludedProperties,
+                config.user().getPropertyMapping(), membership);
+        String storedDigest = getStoredDigest(user);
+        if (!forceUserSync && digest.equals(storedDigest) && isSameIDP(user)) {
+            stats.profileSkipped();
+            int written = syncExcludedProperties(external, user);
+            LOGGER.debug("Profile of {} didn't change, skipping its sync, {} excluded properties written",
+                    user.getID(), written);
+            return new DefaultSyncResultImpl(createSyncedIdentity(user), SyncResult.Status.NOP);
+        }
+        if (!forceUserSync && writeBehindQueue != null && !user.getID().equals(createdUserId) && isSameIDP(user)) {
+            //the tokens of this login can't wait for the queue, e.g. a refresh token is only issued at the consent
+            int written = syncExcludedProperties(external, user);
+            if (writeBehindQueue.offer(user.getID(), idp, external)) {
+                LOGGER.debug("Profile of {} changed, queued its sync, {} excluded properties written", user.getID(),
+                        written);
+                return new DefaultSyncResultImpl(createSyncedIdentity(user), SyncResult.Status.NOP);
+            }
+        }
+
+        DefaultSyncResultImpl result = super.syncUser(external, user);
+        if (result.getStatus() == SyncResult.Status.UPDATE) {
+            user.setProperty(digestProperty, valueFactory.createValue(digest));
+            if (user.getID().equals(createdUserId)) {
+                createdUsers++;
+            } else {
+                updatedProfiles++;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Count the users created and the profiles updated by this context, its changes being saved.
+     */
+    @Override
+    public void close() {
+        stats.usersCreated(createdUsers);
+        stats.profilesUpdated(updatedProfiles);
+        createdUsers = 0;
+        updatedProfiles = 0;
+        super.close();
+    }
+
+    /**
+     * @return membership settings applied by the sync of a user, which a NOP sync skips
+     */
+    private static List<String> getMembership(DefaultSyncConfig.User userConfig) {
+        List<String> membership = new ArrayList<>();
+        membership.add("nesting=" + userConfig.getMembershipNestingDepth());
+        membership.add("expiration=" + userConfig.getMembershipExpirationTime());
+        membership.add("dynamic=" + userConfig.getDynamicMembership());
+        for (String group : userConfig.getAutoMembership()) {
+            membership.add("auto=" + group);
+        }
+        return membership;
+    }
+
+    /**
+     * @return number of mapped excluded properties written because their value changed
+     */
+    private int syncExcludedProperties(ExternalUser external, User user) throws RepositoryException {
+        int written = 0;
+        for (Map.Entry<String, String> mapping : config.user().getPropertyMapping().entrySet()) {
+            Object value = excludedProperties.contains(mapping.getValue())
+                    ? external.getProperties().get(mapping.getValue()) : null;
+            if (value == null) {
+                continue;
+            }
+            Value[] values = value instanceof Collection ? createValues((Collection<?>) value)
+                    : new Value[]{createValue(value)};
+            if (values != null && !isStored(user.getProperty(mapping.getKey()), values)) {
+                if (value instanceof Collection) {
+                    user.setProperty(mapping.getKey(), values);
+                } else {
+                    user.setProperty(mapping.getKey(), values[0]);
+                }
+                written++;
+            }
+        }
+        return written;
+    }
+
+    private static boolean isStored(Value[] stored, Value[] values) throws RepositoryException {
+        if (stored == null || stored.length != values.length) {
+            return false;
+        }
+        for (int i = 0; i < values.length; i++) {
+            if (stored[i].getType() != values[i].getType() || !stored[i].getString().equals(values[i].getString())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private String getStoredDigest(User user) throws RepositoryException {
+        Value[] values = user.getProperty(digestProperty);
+        return values != null && values.length == 1 ? values[0].getString() : null;
+    }
+
+}
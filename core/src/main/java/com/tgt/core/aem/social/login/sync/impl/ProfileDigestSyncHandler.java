@@ -0,0 +1,301 @@
+package com.tgt.core.aem.social.login.sync.impl;
+
+import com.tgt.core.aem.social.login.avatars.AvatarCache;
+import com.tgt.core.aem.social.login.groups.GroupAssignment;
+import com.tgt.core.aem.social.login.tokens.AccessTokenCache;
+import org.apache.jackrabbit.api.security.user.Authorizable;
+import org.apache.jackrabbit.api.security.user.UserManager;
+import org.apache.jackrabbit.oak.spi.security.ConfigurationParameters;
+import org.apache.jackrabbit.oak.spi.security.authentication.external.ExternalIdentityProvider;
+import org.apache.jackrabbit.oak.spi.security.authentication.external.SyncContext;
+import org.apache.jackrabbit.oak.spi.security.authentication.external.SyncHandler;
+import org.apache.jackrabbit.oak.spi.security.authentication.external.SyncedIdentity;
+import org.apache.jackrabbit.oak.spi.security.authentication.external.basic.DefaultSyncConfig;
+import org.apache.jackrabbit.oak.spi.security.authentication.external.basic.DefaultSyncContext;
+import org.apache.sling.api.resource.ResourceResolverFactory;
+import org.apache.sling.commons.threads.ThreadPoolManager;
+import org.apache.sling.serviceusermapping.ServiceUserMapped;
+import org.osgi.service.component.annotations.Activate;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.ConfigurationPolicy;
+import org.osgi.service.component.annotations.Deactivate;
+import org.osgi.service.component.annotations.Reference;
+import org.osgi.service.metatype.annotations.AttributeDefinition;
+import org.osgi.service.metatype.annotations.Designate;
+import org.osgi.service.metatype.annotations.ObjectClassDefinition;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.jcr.RepositoryException;
+import javax.jcr.ValueFactory;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * {@link SyncHandler} which skips the repository writes of a login when the user's profile didn't change.
+ * <p>
+ * It is configured like Oak's DefaultSyncHandler and syncs users the same way, except that the profile of an
+ * existing user is written only when its digest changed (see {@link ProfileDigestSyncContext}). Skipped and written
+ * syncs are counted by {@link ProfileSyncStats}. Optionally, the changed profiles of existing users are written in
+ * the background by a {@link ProfileWriteBehindQueue}.
+ */
+@Component(service = SyncHandler.class, configurationPolicy = ConfigurationPolicy.REQUIRE)
+@Designate(ocd = ProfileDigestSyncHandler.ProfileDigestSyncHandlerConfig.class, factory = true)
+public class ProfileDigestSyncHandler implements SyncHandler {
+
+    private final Logger LOGGER = LoggerFactory.getLogger(ProfileDigestSyncHandler.class);
+
+    @ObjectClassDefinition(name = "The Grey Teacher Profile Digest Sync Handler",
+            description = "Oak's Default Sync Handler which doesn't write the profile of a user when it didn't change")
+    public @interface ProfileDigestSyncHandlerConfig {
+
+        //this is the name referred by the "sync.handlerName" of the External Login Module
+        @AttributeDefinition(name = "Sync Handler Name", description = "Name of this sync handler")
+        String handler_name();
+
+        @AttributeDefinition(name = "User Expiration Time",
+                description = "Duration until a synced user gets expired, e.g. 1h or 1d")
+        String user_expirationTime() default "1h";
+
+        @AttributeDefinition(name = "User Auto Membership",
+                description = "List of groups that a synced user is added to automatically")
+        String[] user_autoMembership() default {};
+
+        @AttributeDefinition(name = "User Property Mapping",
+                description = "List mapping definition of local properties from external ones, e.g. google/email=email")
+        String[] user_propertyMapping() default {};
+
+        @AttributeDefinition(name = "User Path Prefix",
+                description = "The path prefix used when creating new users")
+        String user_pathPrefix() default "";
+
+        @AttributeDefinition(name = "User Membership Expiration",
+                description = "Time after which membership expires, e.g. 1h or 1d")
+        String user_membershipExpTime() default "1h";
+
+        @AttributeDefinition(name = "User Membership Nesting Depth",
+                description = "Maximum depth of group nesting when membership relations are synced")
+        long user_membershipNestingDepth() default 0;
+
+        @AttributeDefinition(name = "User Dynamic Membership",
+                description = "Whether dynamic group membership is enabled")
+        boolean user_dynamicMembership() default false;
+
+        @AttributeDefinition(name = "Disable Missing Users",
+                description = "Disable users that no longer exist on the external provider instead of removing them")
+        boolean user_disableMissing() default false;
+
+        @AttributeDefinition(name = "Group Expiration Time",
+                description = "Duration until a synced group expires, e.g. 1h or 1d")
+        String group_expirationTime() default "1d";
+
+        @AttributeDefinition(name = "Group Path Prefix",
+                description = "The path prefix used when creating new groups")
+        String group_pathPrefix() default "";
+
+        @AttributeDefinition(name = "Group Auto Membership",
+                description = "List of groups that a synced group is added to automatically")
+        String[] group_autoMembership() default {};
+
+        @AttributeDefinition(name = "Group Property Mapping",
+                description = "List mapping definition of local properties from external ones")
+        String[] group_propertyMapping() default {};
+
+        @AttributeDefinition(name = "RFC7613 Username Normalization Profile",
+                description = "Enable the UsercaseMappedProfile defined in RFC7613 for username normalization")
+        boolean enableRFC7613UsercaseMappedProfile() default false;
+
+        @AttributeDefinition(name = "Profile Digest Property",
+                description = "Relative path of the user property where the digest of the synced profile is stored")
+        String profile_digest_property() default "google/digest";
+
+        //the access token changes at every login, including it would make every profile look changed
+        @AttributeDefinition(name = "Excluded Profile Properties",
+                description = "External properties which are not part of the profile digest, e.g. the tokens. A " +
+                        "change of these properties alone only writes these properties, not the whole profile.")
+        String[] profile_digest_excluded() default {"access_token"};
+
+        @AttributeDefinition(name = "Write-Behind",
+                description = "Authenticate a returning user whose profile changed right away and write its " +
+                        "profile in the background. New users are always written by their login.")
+        boolean profile_writebehind_enabled() default false;
+
+        @AttributeDefinition(name = "Write-Behind Capacity",
+                description = "Max number of users whose profile waits to be written. When it is reached, the " +
+                        "logins write the profiles themselves.")
+        int profile_writebehind_capacity() default 10000;
+
+        @AttributeDefinition(name = "Write-Behind Batch Size",
+                description = "Max number of profiles written in one save")
+        int profile_writebehind_batch_size() default 200;
+
+        @AttributeDefinition(name = "Write-Behind Delay",
+                description = "Time in milliseconds the profiles pile up before a batch is written, the updates " +
+                        "of the same user meanwhile are written once")
+        long profile_writebehind_delay_ms() default 200;
+
+    }
+
+    @Reference
+    private ProfileSyncStats stats;
+
+    @Reference
+    private ResourceResolverFactory resourceResolverFactory;
+
+    @Reference
+    private GroupAssignment groupAssignment;
+
+    @Reference
+    private ThreadPoolManager threadPoolManager;
+
+    @Reference
+    private AvatarCache avatarCache = AvatarCache.DISABLED;
+
+    @Reference
+    private AccessTokenCache accessTokenCache = AccessTokenCache.DISABLED;
+
+    //makes sure the service user mapping is there before any profile is written behind
+    @Reference(target = "(" + ServiceUserMapped.SUBSERVICENAME + "=" + ProfileWriteBehindQueue.SUBSERVICE + ")")
+    private ServiceUserMapped serviceUserMapped;
+
+    private DefaultSyncConfig config;
+    private String digestProperty;
+    private Set<String> excludedProperties;
+    private ProfileWriteBehindQueue writeBehindQueue;
+
+    @Activate
+    protected void activate(ProfileDigestSyncHandlerConfig syncHandlerConfig) {
+        config = new DefaultSyncConfig();
+        config.setName(syncHandlerConfig.handler_name());
+        config.user()
+                .setDisableMissing(syncHandlerConfig.user_disableMissing())
+                .setMembershipExpirationTime(milliseconds(syncHandlerConfig.user_membershipExpTime()))
+                .setMembershipNestingDepth(syncHandlerConfig.user_membershipNestingDepth())
+                .setDynamicMembership(syncHandlerConfig.user_dynamicMembership())
+                .setExpirationTime(milliseconds(syncHandlerConfig.user_expirationTime()))
+                .setApplyRFC7613UsernameCaseMapped(syncHandlerConfig.enableRFC7613UsercaseMappedProfile())
+                .setPathPrefix(syncHandlerConfig.user_pathPrefix())
+                .setAutoMembership(syncHandlerConfig.user_autoMembership())
+                .setPropertyMapping(propertyMapping(syncHandlerConfig.user_propertyMapping()));
+        config.group()
+                .setExpirationTime(milliseconds(syncHandlerConfig.group_expirationTime()))
+                .setApplyRFC7613UsernameCaseMapped(syncHandlerConfig.enableRFC7613UsercaseMappedProfile())
+                .setPathPrefix(syncHandlerConfig.group_pathPrefix())
+                .setAutoMembership(syncHandlerConfig.group_autoMembership())
+                .setPropertyMapping(propertyMapping(syncHandlerConfig.group_propertyMapping()));
+        digestProperty = syncHandlerConfig.profile_digest_property();
+        excludedProperties = Collections.unmodifiableSet(
+                new HashSet<>(Arrays.asList(syncHandlerConfig.profile_digest_excluded())));
+        LOGGER.debug("Sync handler {} stores the profile digest in {}, excluded properties : {}", config.getName(),
+                digestProperty, excludedProperties);
+        if (syncHandlerConfig.profile_writebehind_enabled()) {
+            writeBehindQueue = new ProfileWriteBehindQueue(this, resourceResolverFactory, groupAssignment, avatarCache,
+                    accessTokenCache, stats, Math.max(1, syncHandlerConfig.profile_writebehind_capacity()),
+                    Math.max(1, syncHandlerConfig.profile_writebehind_batch_size()),
+                    Math.max(0, syncHandlerConfig.profile_writebehind_delay_ms()), threadPoolManager);
+            LOGGER.info("Sync handler {} writes the changed profiles behind, up to {} queued", config.getName(),
+                    syncHandlerConfig.profile_writebehind_capacity());
+        }
+    }
+
+    @Deactivate
+    protected void deactivate() {
+        if (writeBehindQueue != null) {
+            writeBehindQueue.close();
+            writeBehindQueue = null;
+        }
+    }
+
+    private static long milliseconds(String duration) {
+        return ConfigurationParameters.Milliseconds.of(duration, ConfigurationParameters.Milliseconds.NULL).value;
+    }
+
+    /**
+     * @param mappings definitions like {@code localPath=externalName}
+     * @return external property names by local property path
+     */
+    private static Map<String, String> propertyMapping(String[] mappings) {
+        Map<String, String> propertyMapping = new HashMap<>();
+        for (String mapping : mappings) {
+            int separator = mapping.indexOf('=');
+            if (separator > 0) {
+                propertyMapping.put(mapping.substring(0, separator).trim(), mapping.substring(separator + 1).trim());
+            }
+        }
+        return propertyMapping;
+    }
+
+    @Override
+    public String getName() {
+        return config.getName();
+    }
+
+    @Override
+    public SyncContext createContext(ExternalIdentityProvider idp, UserManager userManager,
+                                     ValueFactory valueFactory) {
+        return createContext(idp, userManager, valueFactory, writeBehindQueue);
+    }
+
+    /**
+     * @param writeBehindQueue {@link ProfileWriteBehindQueue} the changed profiles are queued to, null to write them
+     */
+    ProfileDigestSyncContext createContext(ExternalIdentityProvider idp, UserManager userManager,
+                                           ValueFactory valueFactory, ProfileWriteBehindQueue writeBehindQueue) {
+        return new ProfileDigestSyncContext(config, idp, userManager, valueFactory, digestProperty,
+                excludedProperties, stats, writeBehindQueue);
+    }
+
+    @Override
+    public SyncedIdentity findIdentity(UserManager userManager, String id) throws RepositoryException {
+        return DefaultSyncContext.createSyncedIdentity(userManager.getAuthorizable(id));
+    }
+
+    @Override
+    public boolean requiresSync(SyncedIdentity identity) {
+        if (identity.getExternalIdRef() == null || identity.lastSynced() < 0) {
+            return true;
+        }
+        long expirationTime = identity.isGroup() ? config.group().getExpirationTime()
+                : config.user().getExpirationTime();
+        return System.currentTimeMillis() - identity.lastSynced() > expirationTime;
+    }
+
+    @Override
+    public Iterator<SyncedIdentity> listIdentities(UserManager userManager) throws RepositoryException {
+        Iterator<Authorizable> authorizables = userManager.findAuthorizables(DefaultSyncContext.REP_EXTERNAL_ID,
+                null);
+        return new Iterator<SyncedIdentity>() {
+
+            private SyncedIdentity next;
+
+            @Override
+            public boolean hasNext() {
+                while (next == null && authorizables.hasNext()) {
+                    try {
+                        next = DefaultSyncContext.createSyncedIdentity(authorizables.next());
+                    } catch (RepositoryException e) {
+                        LOGGER.error("Error while listing synced identities", e);
+                    }
+                }
+                return next != null;
+            }
+
+            @Override
+            public SyncedIdentity next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                SyncedIdentity identity = next;
+                next = null;
+                return identity;
+            }
+        };
+    }
+
+}
@@ -0,0 +1,152 @@
+package com.tgt.core.aem.social.login.sync.impl;
+
+import com.adobe.granite.jmx.annotation.AnnotatedStandardMBean;
+import com.tgt.core.aem.social.login.sync.ProfileSyncStatsMBean;
+import org.osgi.service.component.annotations.Component;
+
+import javax.management.DynamicMBean;
+import javax.management.NotCompliantMBeanException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters of {@link ProfileDigestSyncHandler}, exposed as an MBean.
+ */
+@Component(service = {ProfileSyncStats.class, DynamicMBean.class},
+        property = "jmx.objectname=com.tgt.core.aem.social.login:type=ProfileSyncStats")
+public class ProfileSyncStats extends AnnotatedStandardMBean implements ProfileSyncStatsMBean {
+
+    private final LongAdder created = new LongAdder();
+    private final LongAdder updated = new LongAdder();
+    private final LongAdder skipped = new LongAdder();
+    private final LongAdder queued = new LongAdder();
+    private final LongAdder coalesced = new LongAdder();
+    private final LongAdder queueFull = new LongAdder();
+    private final LongAdder queueDepth = new LongAdder();
+    private final LongAdder batches = new LongAdder();
+    private final LongAdder failedBatches = new LongAdder();
+    private final LongAdder commitNanos = new LongAdder();
+    private final AtomicLong maxCommitNanos = new AtomicLong();
+
+    public ProfileSyncStats() throws NotCompliantMBeanException {
+        super(ProfileSyncStatsMBean.class);
+    }
+
+    void usersCreated(int count) {
+        created.add(count);
+    }
+
+    void profilesUpdated(int count) {
+        updated.add(count);
+    }
+
+    void profileSkipped() {
+        skipped.increment();
+    }
+
+    void profileQueued() {
+        queued.increment();
+        queueDepth.increment();
+    }
+
+    void profileCoalesced() {
+        coalesced.increment();
+    }
+
+    void profileQueueFull() {
+        queueFull.increment();
+    }
+
+    void profilesDequeued(int count) {
+        queueDepth.add(-count);
+    }
+
+    void batchCommitted(long nanos) {
+        batches.increment();
+        commitNanos.add(nanos);
+        maxCommitNanos.accumulateAndGet(nanos, Math::max);
+    }
+
+    void batchFailed() {
+        failedBatches.increment();
+    }
+
+    @Override
+    public long getCreatedUsers() {
+        return created.sum();
+    }
+
+    @Override
+    public long getUpdatedProfiles() {
+        return updated.sum();
+    }
+
+    @Override
+    public long getSkippedProfiles() {
+        return skipped.sum();
+    }
+
+    @Override
+    public double getSkippedRatio() {
+        long skippedProfiles = skipped.sum();
+        long syncedProfiles = skippedProfiles + updated.sum();
+        return syncedProfiles == 0 ? 0 : (double) skippedProfiles / syncedProfiles;
+    }
+
+    @Override
+    public long getQueuedProfiles() {
+        return queued.sum();
+    }
+
+    @Override
+    public long getCoalescedProfiles() {
+        return coalesced.sum();
+    }
+
+    @Override
+    public long getQueueFullFallbacks() {
+        return queueFull.sum();
+    }
+
+    @Override
+    public long getQueueDepth() {
+        return queueDepth.sum();
+    }
+
+    @Override
+    public long getCommittedBatches() {
+        return batches.sum();
+    }
+
+    @Override
+    public long getFailedBatches() {
+        return failedBatches.sum();
+    }
+
+    @Override
+    public double getMeanCommitMillis() {
+        long count = batches.sum();
+        return count == 0 ? 0 : commitNanos.sum() / 1e6 / count;
+    }
+
+    @Override
+    public double getMaxCommitMillis() {
+        return maxCommitNanos.get() / 1e6;
+    }
+
+    //the queue depth is a gauge, it is not reset
+    @Override
+    public void resetStatistics() {
+        created.reset();
+        updated.reset();
+        skipped.reset();
+        queued.reset();
+        coalesced.reset();
+        queueFull.reset();
+        batches.reset();
+        failedBatches.reset();
+        commitNanos.reset();
+        maxCommitNanos.set(0);
+    }
+
+}
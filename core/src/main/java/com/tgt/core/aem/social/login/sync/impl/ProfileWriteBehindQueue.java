@@ -0,0 +1,342 @@
+package com.tgt.core.aem.social.login.sync.impl;
+
+import com.tgt.core.aem.social.login.avatars.AvatarCache;
+import com.tgt.core.aem.social.login.groups.GroupAssignment;
+import com.tgt.core.aem.social.login.tokens.AccessTokenCache;
+import org.apache.jackrabbit.api.JackrabbitSession;
+import org.apache.jackrabbit.api.security.user.Authorizable;
+import org.apache.jackrabbit.api.security.user.User;
+import org.apache.jackrabbit.api.security.user.UserManager;
+import org.apache.jackrabbit.oak.spi.security.authentication.external.ExternalIdentityProvider;
+import org.apache.jackrabbit.oak.spi.security.authentication.external.ExternalUser;
+import org.apache.sling.api.resource.LoginException;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.api.resource.ResourceResolverFactory;
+import org.apache.sling.commons.threads.ModifiableThreadPoolConfig;
+import org.apache.sling.commons.threads.ThreadPool;
+import org.apache.sling.commons.threads.ThreadPoolConfig;
+import org.apache.sling.commons.threads.ThreadPoolManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Bounded write-behind queue of the profile updates of returning users, committed in the background.
+ * <p>
+ * A login whose profile changed queues the external user instead of writing it, and is authenticated right away.
+ * The queue holds one update per user: a newer login of a queued user replaces its update, so only its latest
+ * profile is written. A single worker, running on its own Sling thread pool, waits for the updates to pile up for a
+ * short delay, then writes a batch of them through one service session and saves it once, then drops the cached
+ * access tokens of the written users, assigns their groups and queues their pictures. When the save of a batch
+ * fails, e.g. on a conflict with a login or another instance writing one of its users, the batch is discarded and
+ * its updates are written and saved one user at a time, so a single conflicting user doesn't cost the others their
+ * update. When the queue is full a new user's update isn't accepted and the login writes it synchronously, as
+ * without the queue.
+ * <p>
+ * Note - a queued update is lost if the instance stops before it is written; the digest of the user isn't updated
+ * either, so the profile is written at the user's next login. The tokens of the login are written by the login
+ * itself, see {@link ProfileDigestSyncContext}.
+ */
+final class ProfileWriteBehindQueue implements Closeable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ProfileWriteBehindQueue.class);
+
+    static final String SUBSERVICE = "profile-sync";
+    private static final Map<String, Object> AUTH_INFO =
+            Collections.singletonMap(ResourceResolverFactory.SUBSERVICE, SUBSERVICE);
+    private static final long CLOSE_TIMEOUT_SECONDS = 10;
+
+    private final ProfileDigestSyncHandler handler;
+    private final ResourceResolverFactory resourceResolverFactory;
+    private final GroupAssignment groupAssignment;
+    private final AvatarCache avatarCache;
+    private final AccessTokenCache accessTokenCache;
+    private final ProfileSyncStats stats;
+    private final int capacity;
+    private final int batchSize;
+    private final long delayNanos;
+    private final ThreadPoolManager threadPoolManager;
+    private final ThreadPool threadPool;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Map<String, PendingProfile> pending = new LinkedHashMap<>();
+    private final Future<?> worker;
+    private boolean closed;
+
+    /**
+     * @param handler                 {@link ProfileDigestSyncHandler} creating the contexts the updates are written
+     *                                with
+     * @param resourceResolverFactory {@link ResourceResolverFactory} opening the service session
+     * @param groupAssignment         {@link GroupAssignment} of the written users
+     * @param avatarCache             {@link AvatarCache} of the written users
+     * @param accessTokenCache        {@link AccessTokenCache} of the written users
+     * @param stats                   {@link ProfileSyncStats} counting the queued and written updates
+     * @param capacity                max number of users with a queued update
+     * @param batchSize               max number of updates saved at once
+     * @param delayMillis             time in milliseconds the worker waits for updates to pile up before a batch
+     * @param threadPoolManager       {@link ThreadPoolManager} creating the pool of the worker
+     */
+    ProfileWriteBehindQueue(ProfileDigestSyncHandler handler, ResourceResolverFactory resourceResolverFactory,
+                            GroupAssignment groupAssignment, AvatarCache avatarCache,
+                            AccessTokenCache accessTokenCache, ProfileSyncStats stats, int capacity, int batchSize,
+                            long delayMillis, ThreadPoolManager threadPoolManager) {
+        this.handler = handler;
+        this.resourceResolverFactory = resourceResolverFactory;
+        this.groupAssignment = groupAssignment;
+        this.avatarCache = avatarCache;
+        this.accessTokenCache = accessTokenCache;
+        this.stats = stats;
+        this.capacity = capacity;
+        this.batchSize = batchSize;
+        this.delayNanos = TimeUnit.MILLISECONDS.toNanos(delayMillis);
+        ModifiableThreadPoolConfig poolConfig = new ModifiableThreadPoolConfig();
+        poolConfig.setMinPoolSize(1);
+        poolConfig.setMaxPoolSize(1);
+        poolConfig.setQueueSize(1);
+        poolConfig.setBlockPolicy(ThreadPoolConfig.ThreadPoolPolicy.ABORT);
+        //close() already waits for the queued updates
+        poolConfig.setShutdownGraceful(false);
+        poolConfig.setDaemon(true);
+        this.threadPoolManager = threadPoolManager;
+        this.threadPool = threadPoolManager.create(poolConfig, "tgt-social-login-profile-sync");
+        this.worker = threadPool.submit(this::work);
+    }
+
+    /**
+     * Queue the profile update of an existing user, replacing its update already queued if any.
+     *
+     * @param userId   ID of the local user
+     * @param idp      {@link ExternalIdentityProvider} of the external user
+     * @param external {@link ExternalUser} holding the profile of the login
+     * @return false if the queue is full or closed, the update must then be written by the caller
+     */
+    boolean offer(String userId, ExternalIdentityProvider idp, ExternalUser external) {
+        lock.lock();
+        try {
+            if (closed) {
+                return false;
+            }
+            PendingProfile previous = pending.remove(userId);
+            if (Objects.isNull(previous) && pending.size() >= capacity) {
+                stats.profileQueueFull();
+                return false;
+            }
+            //removed and put again so that the queue stays in the order of the latest updates
+            pending.put(userId, new PendingProfile(userId, idp, external));
+            if (Objects.isNull(previous)) {
+                stats.profileQueued();
+            } else {
+                stats.profileCoalesced();
+            }
+            notEmpty.signal();
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    int size() {
+        lock.lock();
+        try {
+            return pending.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void work() {
+        while (true) {
+            List<PendingProfile> batch;
+            try {
+                batch = nextBatch();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            if (batch.isEmpty()) {
+                return;
+            }
+            commit(batch);
+        }
+    }
+
+    /**
+     * @return next batch of updates, empty once the queue is closed and all its updates are taken
+     */
+    private List<PendingProfile> nextBatch() throws InterruptedException {
+        lock.lock();
+        try {
+            while (pending.isEmpty() && !closed) {
+                notEmpty.await();
+            }
+            //more logins of the same users get coalesced meanwhile
+            long wait = delayNanos;
+            while (!closed && wait > 0 && pending.size() < batchSize) {
+                wait = notEmpty.awaitNanos(wait);
+            }
+            List<PendingProfile> batch = new ArrayList<>(Math.min(batchSize, pending.size()));
+            for (Iterator<PendingProfile> profiles = pending.values().iterator();
+                 profiles.hasNext() && batch.size() < batchSize; ) {
+                batch.add(profiles.next());
+                profiles.remove();
+            }
+            stats.profilesDequeued(batch.size());
+            return batch;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void commit(List<PendingProfile> batch) {
+        long start = System.nanoTime();
+        try (ResourceResolver resolver = resourceResolverFactory.getServiceResourceResolver(AUTH_INFO)) {
+            Session session = resolver.adaptTo(Session.class);
+            if (!(session instanceof JackrabbitSession)) {
+                throw new RepositoryException("No Jackrabbit session for the service user");
+            }
+            UserManager userManager = ((JackrabbitSession) session).getUserManager();
+            List<User> written;
+            try {
+                written = save(batch, userManager, session);
+            } catch (RepositoryException e) {
+                stats.batchFailed();
+                LOGGER.info("Unable to save the profiles of {} users at once, saving them one by one : {}",
+                        batch.size(), e.toString());
+                session.refresh(false);
+                written = saveOneByOne(batch, userManager, session);
+            }
+            stats.batchCommitted(System.nanoTime() - start);
+            LOGGER.debug("Wrote the profiles of {} users in {} ms", written.size(),
+                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+            for (User user : written) {
+                accessTokenCache.invalidate(user.getID());
+                groupAssignment.assign(user);
+                avatarCache.update(user);
+            }
+        } catch (RepositoryException | LoginException | RuntimeException e) {
+            stats.batchFailed();
+            LOGGER.warn("Unable to write the profiles of {} users, they will be written at their next login",
+                    batch.size(), e);
+        }
+    }
+
+    /**
+     * Write the updates and save them at once.
+     *
+     * @return the written users
+     */
+    private List<User> save(List<PendingProfile> profiles, UserManager userManager, Session session)
+            throws RepositoryException {
+        List<User> written = new ArrayList<>(profiles.size());
+        List<ProfileDigestSyncContext> contexts = new ArrayList<>(profiles.size());
+        for (PendingProfile profile : profiles) {
+            ProfileDigestSyncContext context = handler.createContext(profile.idp, userManager,
+                    session.getValueFactory(), null);
+            User user = write(profile, userManager, context);
+            if (Objects.nonNull(user)) {
+                written.add(user);
+                contexts.add(context);
+            }
+        }
+        session.save();
+        //the updates are counted once saved, those of a failed batch are written again one by one
+        contexts.forEach(ProfileDigestSyncContext::close);
+        return written;
+    }
+
+    /**
+     * Write and save the updates one user at a time, an update which fails is discarded.
+     *
+     * @return the written users
+     */
+    private List<User> saveOneByOne(List<PendingProfile> profiles, UserManager userManager, Session session)
+            throws RepositoryException {
+        List<User> written = new ArrayList<>(profiles.size());
+        for (PendingProfile profile : profiles) {
+            try {
+                written.addAll(save(Collections.singletonList(profile), userManager, session));
+            } catch (RepositoryException e) {
+                session.refresh(false);
+                LOGGER.warn("Unable to write the profile of {}, it will be written at its next login",
+                        profile.userId, e);
+            }
+        }
+        return written;
+    }
+
+    /**
+     * @return the written user, null if it doesn't exist anymore
+     */
+    private static User write(PendingProfile profile, UserManager userManager, ProfileDigestSyncContext context)
+            throws RepositoryException {
+        Authorizable authorizable = userManager.getAuthorizable(profile.userId);
+        if (Objects.isNull(authorizable) || authorizable.isGroup()) {
+            LOGGER.debug("User {} was removed before its profile got written", profile.userId);
+            return null;
+        }
+        context.setForceUserSync(true);
+        context.syncUser(profile.external, (User) authorizable);
+        return (User) authorizable;
+    }
+
+    /**
+     * Stop accepting updates and wait for the worker to write those already queued.
+     */
+    @Override
+    public void close() {
+        lock.lock();
+        try {
+            closed = true;
+            notEmpty.signal();
+        } finally {
+            lock.unlock();
+        }
+        try {
+            worker.get(CLOSE_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException | TimeoutException e) {
+            LOGGER.debug("Worker of the profile updates not done : {}", e.toString());
+        }
+        if (!worker.isDone()) {
+            worker.cancel(true);
+            LOGGER.warn("Profile updates of {} users not written before the queue closed", size());
+        }
+        threadPoolManager.release(threadPool);
+    }
+
+    /**
+     * Latest profile update of a user.
+     */
+    private static final class PendingProfile {
+
+        private final String userId;
+        private final ExternalIdentityProvider idp;
+        private final ExternalUser external;
+
+        private PendingProfile(String userId, ExternalIdentityProvider idp, ExternalUser external) {
+            this.userId = userId;
+            this.idp = idp;
+            this.external = external;
+        }
+
+    }
+
+}
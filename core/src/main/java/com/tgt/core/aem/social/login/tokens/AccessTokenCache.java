@@ -0,0 +1,34 @@
+package com.tgt.core.aem.social.login.tokens;
+
+import org.osgi.annotation.versioning.ProviderType;
+
+/**
+ * In-memory cache of the access tokens persisted on the social login users.
+ * <p>
+ * The login flow tells the cache when a token is issued, so that cached tokens expire along with it, and when a
+ * user logs in or gets updated, so that the cached tokens of this user are read again from the repository.
+ */
+@ProviderType
+public interface AccessTokenCache {
+
+    /**
+     * Cache which never caches anything, used when no cache service is available.
+     */
+    AccessTokenCache DISABLED = new DisabledAccessTokenCache();
+
+    /**
+     * Record the lifetime of an access token issued by the social provider.
+     *
+     * @param accessToken      access token
+     * @param expiresInSeconds {@code expires_in} of the token response
+     */
+    void tokenIssued(String accessToken, long expiresInSeconds);
+
+    /**
+     * Drop the cached tokens of a user, of all the client IDs.
+     *
+     * @param userId AEM user ID
+     */
+    void invalidate(String userId);
+
+}
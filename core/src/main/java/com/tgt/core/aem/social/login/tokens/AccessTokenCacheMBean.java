@@ -0,0 +1,41 @@
+package com.tgt.core.aem.social.login.tokens;
+
+import com.adobe.granite.jmx.annotation.Description;
+
+/**
+ * State of the in-memory cache of the social login users' access tokens.
+ */
+@Description("Social login access token cache")
+public interface AccessTokenCacheMBean {
+
+    @Description("Tokens currently cached")
+    int getSize();
+
+    @Description("Maximum number of cached tokens")
+    int getMaxSize();
+
+    @Description("Tokens served from the cache")
+    long getHits();
+
+    @Description("Tokens read from the repository because they weren't cached")
+    long getMisses();
+
+    @Description("Cached tokens dropped because they expired")
+    long getExpired();
+
+    @Description("Cached tokens evicted to keep the cache within its maximum size")
+    long getEvictions();
+
+    @Description("Cached tokens dropped because their user logged in or got updated")
+    long getInvalidations();
+
+    @Description("Share of the tokens served from the cache, from 0 to 1")
+    double getHitRatio();
+
+    @Description("Drop all the cached tokens")
+    void clear();
+
+    @Description("Reset all the counters")
+    void resetStatistics();
+
+}
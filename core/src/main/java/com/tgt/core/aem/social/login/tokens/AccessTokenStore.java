@@ -0,0 +1,61 @@
+package com.tgt.core.aem.social.login.tokens;
+
+import org.apache.sling.api.resource.ResourceResolver;
+import org.osgi.annotation.versioning.ProviderType;
+
+import java.io.IOException;
+
+/**
+ * Where the access tokens of the social login users are kept once they logged in.
+ * <p>
+ * Each store is registered with a {@value #STORE_TYPE} property, the provider and the
+ * {@link com.adobe.granite.auth.oauth.AccessTokenProvider} select theirs with their {@code accessTokenStore.target}
+ * property, e.g. {@code (store.type=memory)}. The {@value #REPOSITORY} store reads the tokens AEM persists on the
+ * users when {@code oauth.access.token.persist} is true. The other stores keep the tokens themselves, so that
+ * {@code oauth.access.token.persist} can be false and a login doesn't write its token in the repository.
+ */
+@ProviderType
+public interface AccessTokenStore {
+
+    /**
+     * Service property naming the type of the store.
+     */
+    String STORE_TYPE = "store.type";
+
+    /**
+     * Tokens persisted by AEM under {@code oauth/oauthid-<clientId>} of the users.
+     */
+    String REPOSITORY = "repository";
+
+    /**
+     * Tokens kept in memory until they expire, on the instance the user logged in.
+     */
+    String MEMORY = "memory";
+
+    /**
+     * Tokens kept encrypted in a cookie of the user's browser.
+     */
+    String COOKIE = "cookie";
+
+    /**
+     * Keep the access token issued to a user at login.
+     *
+     * @param userId           AEM user ID
+     * @param clientId         client ID of the OAuth client the token was issued to
+     * @param accessToken      access token
+     * @param expiresInSeconds {@code expires_in} of the token response, 0 if unknown
+     */
+    void store(String userId, String clientId, String accessToken, long expiresInSeconds);
+
+    /**
+     * Get the access token of a user.
+     *
+     * @param resolver resource resolver of the caller, which must be allowed to read the user
+     * @param userId   AEM user ID
+     * @param clientId client ID of the OAuth client the token was issued to
+     * @return access token, null if the user has none or if it expired
+     * @throws IOException in case the token can't be read
+     */
+    String get(ResourceResolver resolver, String userId, String clientId) throws IOException;
+
+}
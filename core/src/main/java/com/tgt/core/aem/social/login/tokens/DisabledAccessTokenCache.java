@@ -0,0 +1,18 @@
+package com.tgt.core.aem.social.login.tokens;
+
+/**
+ * {@link AccessTokenCache#DISABLED}
+ */
+final class DisabledAccessTokenCache implements AccessTokenCache {
+
+    @Override
+    public void tokenIssued(String accessToken, long expiresInSeconds) {
+        //disabled
+    }
+
+    @Override
+    public void invalidate(String userId) {
+        //disabled
+    }
+
+}
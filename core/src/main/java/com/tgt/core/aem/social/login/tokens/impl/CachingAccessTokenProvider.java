@@ -0,0 +1,206 @@
+package com.tgt.core.aem.social.login.tokens.impl;
+
+import com.adobe.granite.auth.oauth.AccessTokenProvider;
+import com.adobe.granite.auth.oauth.AccessTokenProviderConstants;
+import com.adobe.granite.crypto.CryptoException;
+import com.adobe.granite.jmx.annotation.AnnotatedStandardMBean;
+import com.tgt.core.aem.social.login.tokens.AccessTokenCache;
+import com.tgt.core.aem.social.login.tokens.AccessTokenCacheMBean;
+import com.tgt.core.aem.social.login.tokens.AccessTokenStore;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.osgi.service.component.annotations.Activate;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Modified;
+import org.osgi.service.component.annotations.Reference;
+import org.osgi.service.metatype.annotations.AttributeDefinition;
+import org.osgi.service.metatype.annotations.Designate;
+import org.osgi.service.metatype.annotations.ObjectClassDefinition;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.DynamicMBean;
+import javax.management.NotCompliantMBeanException;
+import java.io.IOException;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link AccessTokenProvider} serving the access tokens persisted on the social login users from memory.
+ * <p>
+ * The token of a user is read from the {@link AccessTokenStore} of the providers with the given resource resolver,
+ * by default from {@code oauth/oauthid-<clientId>} (see
+ * {@link com.adobe.granite.auth.oauth.Provider#getAccessTokenPropertyPath(String)}), and cached until it expires, the
+ * client ID being passed as {@value AccessTokenProviderConstants#CLIENT_ID} parameter. Components calling Google on
+ * behalf of a user can reference this service with the target
+ * {@code (component.name=com.tgt.core.aem.social.login.tokens.impl.CachingAccessTokenProvider)}.
+ * <p>
+ * A token is cached until the {@code expires_in} of its token response, minus the expiry margin, and never longer
+ * than the max age since a token issued to another instance has no known expiry. The cached tokens of a user are
+ * dropped each time this user logs in or gets updated, so that the new token is read from the store.
+ */
+@Component(service = {AccessTokenProvider.class, AccessTokenCache.class, DynamicMBean.class},
+        property = "jmx.objectname=com.tgt.core.aem.social.login:type=AccessTokenCache")
+@Designate(ocd = CachingAccessTokenProvider.CachingAccessTokenProviderConfig.class)
+public class CachingAccessTokenProvider extends AnnotatedStandardMBean implements AccessTokenProvider,
+        AccessTokenCache, AccessTokenCacheMBean {
+
+    private final Logger LOGGER = LoggerFactory.getLogger(CachingAccessTokenProvider.class);
+
+    @ObjectClassDefinition(name = "The Grey Teacher Access Token Cache")
+    public @interface CachingAccessTokenProviderConfig {
+
+        @AttributeDefinition(name = "Max Size", description = "Maximum number of cached access tokens")
+        int cache_max_size() default 10000;
+
+        @AttributeDefinition(name = "Stripes",
+                description = "Number of independently locked parts of the cache, more stripes mean less contention")
+        int cache_stripes() default 16;
+
+        @AttributeDefinition(name = "Max Age",
+                description = "Time in seconds a token is cached at most, whatever its expiry")
+        int cache_max_age_seconds() default 300;
+
+        @AttributeDefinition(name = "Expiry Margin",
+                description = "Time in seconds before the expiry of a token at which it is no longer served from " +
+                        "the cache")
+        int cache_expiry_margin_seconds() default 60;
+
+        @AttributeDefinition(name = "Access Token Store",
+                description = "Store the tokens are read from, it must be the store of the providers")
+        String accessTokenStore_target() default "(" + AccessTokenStore.STORE_TYPE + "=" + AccessTokenStore.REPOSITORY
+                + ")";
+
+    }
+
+    private static final int MAX_ISSUED_TOKEN_EXPIRIES = 10000;
+
+    //target of this reference can be changed using "accessTokenStore.target" property of this component's config
+    @Reference(target = "(" + AccessTokenStore.STORE_TYPE + "=" + AccessTokenStore.REPOSITORY + ")")
+    private AccessTokenStore accessTokenStore;
+
+    private volatile StripedTokenCache cache = new StripedTokenCache(10000, 16);
+    private final IssuedTokenExpiries issuedTokenExpiries = new IssuedTokenExpiries(MAX_ISSUED_TOKEN_EXPIRIES);
+    private volatile long maxAgeNanos = TimeUnit.MINUTES.toNanos(5);
+    private volatile long expiryMarginNanos = TimeUnit.MINUTES.toNanos(1);
+
+    public CachingAccessTokenProvider() throws NotCompliantMBeanException {
+        super(AccessTokenCacheMBean.class);
+    }
+
+    @Activate
+    @Modified
+    protected void activate(CachingAccessTokenProviderConfig config) {
+        maxAgeNanos = TimeUnit.SECONDS.toNanos(Math.max(0, config.cache_max_age_seconds()));
+        expiryMarginNanos = TimeUnit.SECONDS.toNanos(Math.max(0, config.cache_expiry_margin_seconds()));
+        cache = new StripedTokenCache(Math.max(1, config.cache_max_size()), config.cache_stripes());
+        LOGGER.info("Access token cache of {} tokens in {} stripes, max age {}s", cache.getMaxSize(),
+                config.cache_stripes(), config.cache_max_age_seconds());
+    }
+
+    /**
+     * Get the access token of a user, from the cache or else from the {@link AccessTokenStore}.
+     *
+     * @param resolver resource resolver allowed to read the user's access token
+     * @param userId   AEM user ID
+     * @param params   {@value AccessTokenProviderConstants#CLIENT_ID} of the OAuth client the token was issued to
+     * @return access token, null if the user has none
+     * @throws IOException          in case the token can't be read from the store, or decrypted
+     * @throws NullPointerException in case the client ID is missing
+     */
+    @Override
+    public String getAccessToken(ResourceResolver resolver, String userId, Map<String, ?> params)
+            throws CryptoException, IOException {
+        Object clientId = Objects.requireNonNull(params.get(AccessTokenProviderConstants.CLIENT_ID),
+                "client_id parameter is required");
+        StripedTokenCache tokenCache = cache;
+        StripedTokenCache.Key key = new StripedTokenCache.Key(userId, clientId.toString(), resolver.getUserID());
+        String token = tokenCache.get(key, System.nanoTime());
+        if (Objects.nonNull(token)) {
+            return token;
+        }
+
+        long generation = tokenCache.getGeneration(userId);
+        token = accessTokenStore.get(resolver, userId, clientId.toString());
+        if (Objects.nonNull(token)) {
+            long now = System.nanoTime();
+            long expiresAt = now + maxAgeNanos;
+            Long issuedExpiry = issuedTokenExpiries.get(token);
+            if (Objects.nonNull(issuedExpiry) && issuedExpiry - expiryMarginNanos - expiresAt < 0) {
+                expiresAt = issuedExpiry - expiryMarginNanos;
+            }
+            if (expiresAt - now > 0) {
+                tokenCache.put(key, token, expiresAt, generation);
+            }
+        }
+        return token;
+    }
+
+    @Override
+    public void tokenIssued(String accessToken, long expiresInSeconds) {
+        if (Objects.nonNull(accessToken) && expiresInSeconds > 0) {
+            issuedTokenExpiries.put(accessToken, expiresInSeconds, System.nanoTime());
+        }
+    }
+
+    @Override
+    public void invalidate(String userId) {
+        if (Objects.nonNull(userId)) {
+            cache.invalidate(userId);
+        }
+    }
+
+    @Override
+    public int getSize() {
+        return cache.size();
+    }
+
+    @Override
+    public int getMaxSize() {
+        return cache.getMaxSize();
+    }
+
+    @Override
+    public long getHits() {
+        return cache.getHits();
+    }
+
+    @Override
+    public long getMisses() {
+        return cache.getMisses();
+    }
+
+    @Override
+    public long getExpired() {
+        return cache.getExpired();
+    }
+
+    @Override
+    public long getEvictions() {
+        return cache.getEvictions();
+    }
+
+    @Override
+    public long getInvalidations() {
+        return cache.getInvalidations();
+    }
+
+    @Override
+    public double getHitRatio() {
+        long hits = cache.getHits();
+        long lookups = hits + cache.getMisses();
+        return lookups == 0 ? 0 : (double) hits / lookups;
+    }
+
+    @Override
+    public void clear() {
+        cache.clear();
+        issuedTokenExpiries.clear();
+    }
+
+    @Override
+    public void resetStatistics() {
+        cache.resetStatistics();
+    }
+
+}
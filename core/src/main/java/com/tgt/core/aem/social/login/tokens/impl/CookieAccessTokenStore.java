@@ -0,0 +1,243 @@
+package com.tgt.core.aem.social.login.tokens.impl;
+
+import com.adobe.granite.crypto.CryptoException;
+import com.adobe.granite.crypto.CryptoSupport;
+import com.tgt.core.aem.social.login.tokens.AccessTokenStore;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.osgi.service.component.annotations.Activate;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.ConfigurationPolicy;
+import org.osgi.service.component.annotations.Modified;
+import org.osgi.service.component.annotations.Reference;
+import org.osgi.service.metatype.annotations.AttributeDefinition;
+import org.osgi.service.metatype.annotations.Designate;
+import org.osgi.service.metatype.annotations.ObjectClassDefinition;
+import org.osgi.service.metatype.annotations.Option;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.Cookie;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link AccessTokenStore} keeping the token of a user in a cookie of its browser, encrypted with {@link CryptoSupport}.
+ * <p>
+ * The cookie holds the expiry time, the user ID and the token, encrypted as a whole and encoded in URL-safe Base64
+ * without padding, there is one cookie per client ID. A token is only served while the user's browser sends the
+ * cookie, to a request for this user, and until the token expires. The cookies are {@code HttpOnly}, {@code Secure}
+ * unless configured otherwise, and {@code SameSite=Lax} by default so that they are sent back when Google redirects
+ * the browser to the OAuth callback.
+ * <p>
+ * The login and the requests reading the token are bound to the store by this same component registered as an HTTP
+ * whiteboard filter, ahead of the Sling authentication, since the OAuth authentication handler has no access to the
+ * response. The component requires a configuration, so the filter only sees the requests when the store is in use.
+ */
+@Component(service = {AccessTokenStore.class, Filter.class}, configurationPolicy = ConfigurationPolicy.REQUIRE,
+        property = {
+                AccessTokenStore.STORE_TYPE + "=" + AccessTokenStore.COOKIE,
+                "osgi.http.whiteboard.filter.regex=/.*",
+                "osgi.http.whiteboard.context.select=(osgi.http.whiteboard.context.name=*)"
+        })
+@Designate(ocd = CookieAccessTokenStore.CookieAccessTokenStoreConfig.class)
+public class CookieAccessTokenStore implements AccessTokenStore, Filter {
+
+    private final Logger LOGGER = LoggerFactory.getLogger(CookieAccessTokenStore.class);
+
+    @ObjectClassDefinition(name = "The Grey Teacher Cookie Access Token Store")
+    public @interface CookieAccessTokenStoreConfig {
+
+        @AttributeDefinition(name = "Cookie Name Prefix",
+                description = "Prefix of the cookie names, followed by a hash of the client ID")
+        String cookie_name_prefix() default "tgt-at-";
+
+        @AttributeDefinition(name = "Cookie Path", description = "Path of the cookies")
+        String cookie_path() default "/";
+
+        @AttributeDefinition(name = "Default Lifetime",
+                description = "Time in seconds a token is kept when its token response has no expires_in")
+        int cookie_default_lifetime_seconds() default 3600;
+
+        @AttributeDefinition(name = "Secure",
+                description = "Whether the cookies are only sent over HTTPS, only turn it off for an instance served "
+                        + "over plain HTTP")
+        boolean cookie_secure() default true;
+
+        @AttributeDefinition(name = "SameSite", description = "SameSite attribute of the cookies, None implies Secure",
+                options = {
+                        @Option(label = "Lax", value = SAME_SITE_LAX),
+                        @Option(label = "Strict", value = SAME_SITE_STRICT),
+                        @Option(label = "None", value = SAME_SITE_NONE)
+                })
+        String cookie_same_site() default SAME_SITE_LAX;
+
+    }
+
+    static final String SAME_SITE_LAX = "Lax";
+    static final String SAME_SITE_STRICT = "Strict";
+    static final String SAME_SITE_NONE = "None";
+
+    private static final char SEPARATOR = '\n';
+    private static final String SET_COOKIE = "Set-Cookie";
+
+    private final ThreadLocal<Exchange> exchange = new ThreadLocal<>();
+
+    @Reference
+    private CryptoSupport cryptoSupport;
+
+    private volatile String namePrefix = "tgt-at-";
+    private volatile String path = "/";
+    private volatile long defaultLifetimeSeconds = 3600;
+    private volatile boolean secure = true;
+    private volatile String sameSite = SAME_SITE_LAX;
+
+    @Activate
+    @Modified
+    protected void activate(CookieAccessTokenStoreConfig config) {
+        namePrefix = config.cookie_name_prefix();
+        path = config.cookie_path();
+        defaultLifetimeSeconds = Math.max(0, config.cookie_default_lifetime_seconds());
+        sameSite = SAME_SITE_LAX;
+        for (String value : new String[]{SAME_SITE_LAX, SAME_SITE_STRICT, SAME_SITE_NONE}) {
+            if (value.equalsIgnoreCase(config.cookie_same_site())) {
+                sameSite = value;
+            }
+        }
+        //browsers drop the cookies which are SameSite=None without being Secure
+        secure = config.cookie_secure() || SAME_SITE_NONE.equals(sameSite);
+        if (!secure) {
+            LOGGER.warn("Access token cookies aren't Secure, browsers send them over plain HTTP too");
+        }
+    }
+
+    @Override
+    public void init(FilterConfig filterConfig) {
+        //nothing to initialize
+    }
+
+    @Override
+    public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain)
+            throws IOException, ServletException {
+        if (!(request instanceof HttpServletRequest) || !(response instanceof HttpServletResponse)) {
+            chain.doFilter(request, response);
+            return;
+        }
+        Exchange previous = exchange.get();
+        exchange.set(new Exchange((HttpServletRequest) request, (HttpServletResponse) response));
+        try {
+            chain.doFilter(request, response);
+        } finally {
+            if (Objects.isNull(previous)) {
+                exchange.remove();
+            } else {
+                exchange.set(previous);
+            }
+        }
+    }
+
+    @Override
+    public void destroy() {
+        //nothing to release
+    }
+
+    @Override
+    public void store(String userId, String clientId, String accessToken, long expiresInSeconds) {
+        Exchange current = exchange.get();
+        if (Objects.isNull(current)) {
+            LOGGER.warn("Access token of client {} not stored, the login isn't bound to an HTTP response", clientId);
+            return;
+        }
+        long lifetime = expiresInSeconds > 0 ? expiresInSeconds : defaultLifetimeSeconds;
+        long expiresAt = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(lifetime);
+        byte[] plain = (userId + SEPARATOR + accessToken).getBytes(StandardCharsets.UTF_8);
+        try {
+            byte[] encrypted = cryptoSupport.encrypt(ByteBuffer.allocate(Long.BYTES + plain.length)
+                    .putLong(expiresAt).put(plain).array());
+            //the servlet API has no SameSite, the header is written as a whole
+            StringBuilder cookie = new StringBuilder(cookieName(clientId)).append('=')
+                    .append(Base64.getUrlEncoder().withoutPadding().encodeToString(encrypted))
+                    .append("; Path=").append(path)
+                    .append("; Max-Age=").append(Math.min(Integer.MAX_VALUE, lifetime))
+                    .append("; HttpOnly");
+            if (secure || current.request.isSecure()) {
+                cookie.append("; Secure");
+            }
+            cookie.append("; SameSite=").append(sameSite);
+            current.response.addHeader(SET_COOKIE, cookie.toString());
+        } catch (CryptoException e) {
+            LOGGER.warn("Access token of client {} not stored, it can't be encrypted : {}", clientId, e.getMessage());
+        }
+    }
+
+    /**
+     * @return token of the cookie sent with the current request, null if there is none, if it isn't the token of
+     * this user or if it expired
+     */
+    @Override
+    public String get(ResourceResolver resolver, String userId, String clientId) {
+        Exchange current = exchange.get();
+        Cookie[] cookies = Objects.isNull(current) ? null : current.request.getCookies();
+        if (Objects.isNull(cookies)) {
+            return null;
+        }
+        String name = cookieName(clientId);
+        for (Cookie cookie : cookies) {
+            if (name.equals(cookie.getName())) {
+                return readToken(cookie.getValue(), userId);
+            }
+        }
+        return null;
+    }
+
+    private String readToken(String value, String userId) {
+        try {
+            ByteBuffer decrypted = ByteBuffer.wrap(cryptoSupport.decrypt(Base64.getUrlDecoder().decode(value)));
+            long expiresAt = decrypted.getLong();
+            String plain = new String(decrypted.array(), decrypted.position(), decrypted.remaining(),
+                    StandardCharsets.UTF_8);
+            int separator = plain.indexOf(SEPARATOR);
+            if (expiresAt <= System.currentTimeMillis() || separator < 0
+                    || !userId.equals(plain.substring(0, separator))) {
+                return null;
+            }
+            return plain.substring(separator + 1);
+        } catch (CryptoException | IllegalArgumentException | BufferUnderflowException e) {
+            //e.g. encrypted with the key of another instance
+            LOGGER.debug("Access token cookie of user {} can't be read : {}", userId, e.getMessage());
+            return null;
+        }
+    }
+
+    private String cookieName(String clientId) {
+        return namePrefix + Integer.toHexString(clientId.hashCode());
+    }
+
+    /**
+     * Request and response being handled by the current thread.
+     */
+    private static final class Exchange {
+
+        private final HttpServletRequest request;
+        private final HttpServletResponse response;
+
+        private Exchange(HttpServletRequest request, HttpServletResponse response) {
+            this.request = request;
+            this.response = response;
+        }
+
+    }
+
+}
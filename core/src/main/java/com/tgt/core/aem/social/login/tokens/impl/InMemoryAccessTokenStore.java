@@ -0,0 +1,85 @@
+package com.tgt.core.aem.social.login.tokens.impl;
+
+import com.tgt.core.aem.social.login.tokens.AccessTokenStore;
+import org.apache.jackrabbit.api.security.user.UserManager;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.osgi.service.component.annotations.Activate;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Modified;
+import org.osgi.service.metatype.annotations.AttributeDefinition;
+import org.osgi.service.metatype.annotations.Designate;
+import org.osgi.service.metatype.annotations.ObjectClassDefinition;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.jcr.RepositoryException;
+import java.io.IOException;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link AccessTokenStore} keeping the tokens in memory until they expire, in a bounded {@link StripedTokenCache}
+ * evicting the least recently used tokens.
+ * <p>
+ * Tokens live only on the instance the user logged in and are lost on restart, the user then has no token until its
+ * next login. A token is only served to the resource resolvers allowed to read its user.
+ */
+@Component(service = AccessTokenStore.class,
+        property = AccessTokenStore.STORE_TYPE + "=" + AccessTokenStore.MEMORY)
+@Designate(ocd = InMemoryAccessTokenStore.InMemoryAccessTokenStoreConfig.class)
+public class InMemoryAccessTokenStore implements AccessTokenStore {
+
+    private final Logger LOGGER = LoggerFactory.getLogger(InMemoryAccessTokenStore.class);
+
+    @ObjectClassDefinition(name = "The Grey Teacher In-Memory Access Token Store")
+    public @interface InMemoryAccessTokenStoreConfig {
+
+        @AttributeDefinition(name = "Max Size", description = "Maximum number of access tokens kept in memory")
+        int store_max_size() default 10000;
+
+        @AttributeDefinition(name = "Default Lifetime",
+                description = "Time in seconds a token is kept when its token response has no expires_in")
+        int store_default_lifetime_seconds() default 3600;
+
+    }
+
+    private static final String OWNER = "";
+
+    private volatile StripedTokenCache tokens = new StripedTokenCache(10000, 16);
+    private volatile long defaultLifetimeNanos = TimeUnit.HOURS.toNanos(1);
+
+    @Activate
+    @Modified
+    protected void activate(InMemoryAccessTokenStoreConfig config) {
+        tokens = new StripedTokenCache(Math.max(1, config.store_max_size()), 16);
+        defaultLifetimeNanos = TimeUnit.SECONDS.toNanos(Math.max(0, config.store_default_lifetime_seconds()));
+        LOGGER.info("In-memory access token store of {} tokens", tokens.getMaxSize());
+    }
+
+    @Override
+    public void store(String userId, String clientId, String accessToken, long expiresInSeconds) {
+        StripedTokenCache store = tokens;
+        long lifetime = expiresInSeconds > 0 ? TimeUnit.SECONDS.toNanos(expiresInSeconds) : defaultLifetimeNanos;
+        store.put(new StripedTokenCache.Key(userId, clientId, OWNER), accessToken, System.nanoTime() + lifetime,
+                store.getGeneration(userId));
+    }
+
+    /**
+     * @throws IOException in case the user can't be read
+     */
+    @Override
+    public String get(ResourceResolver resolver, String userId, String clientId) throws IOException {
+        String token = tokens.get(new StripedTokenCache.Key(userId, clientId, OWNER), System.nanoTime());
+        return Objects.nonNull(token) && canRead(resolver, userId) ? token : null;
+    }
+
+    private static boolean canRead(ResourceResolver resolver, String userId) throws IOException {
+        try {
+            UserManager userManager = resolver.adaptTo(UserManager.class);
+            return Objects.nonNull(userManager) && Objects.nonNull(userManager.getAuthorizable(userId));
+        } catch (RepositoryException e) {
+            throw new IOException("Unable to read user " + userId, e);
+        }
+    }
+
+}
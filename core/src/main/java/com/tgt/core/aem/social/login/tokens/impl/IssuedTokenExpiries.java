@@ -0,0 +1,54 @@
+package com.tgt.core.aem.social.login.tokens.impl;
+
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Expiry time of the access tokens issued to this instance, keyed by the token.
+ * <p>
+ * The token stored on the user has no expiry time, so the expiry of a token is taken from the {@code expires_in} of
+ * the token response when it is issued and looked up when the token is loaded in the cache. The store is bounded,
+ * expired tokens are purged once it is full and new tokens are dropped until there is room again, in which case the
+ * token is cached for the max age only.
+ */
+final class IssuedTokenExpiries {
+
+    private final int maxSize;
+    private final Map<String, Long> expiries = new ConcurrentHashMap<>();
+
+    /**
+     * @param maxSize max number of tokens whose expiry is kept
+     */
+    IssuedTokenExpiries(int maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    void put(String accessToken, long expiresInSeconds, long nowNanos) {
+        if (expiries.size() >= maxSize) {
+            purgeExpired(nowNanos);
+            if (expiries.size() >= maxSize) {
+                return;
+            }
+        }
+        expiries.put(accessToken, nowNanos + TimeUnit.SECONDS.toNanos(expiresInSeconds));
+    }
+
+    /**
+     * @param accessToken access token
+     * @return {@link System#nanoTime()} at which the token expires, null if unknown
+     */
+    Long get(String accessToken) {
+        return Objects.isNull(accessToken) ? null : expiries.get(accessToken);
+    }
+
+    void clear() {
+        expiries.clear();
+    }
+
+    private void purgeExpired(long nowNanos) {
+        expiries.values().removeIf(expiresAt -> nowNanos - expiresAt >= 0);
+    }
+
+}
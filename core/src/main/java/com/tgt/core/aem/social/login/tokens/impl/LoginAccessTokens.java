@@ -0,0 +1,113 @@
+package com.tgt.core.aem.social.login.tokens.impl;
+
+import com.tgt.core.aem.social.login.utils.ProfileDataReader;
+import org.scribe.model.Token;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Access token issued to the login being handled by the current thread.
+ * <p>
+ * AEM's OAuth authentication handler exchanges the code and maps the user ID of a login on the same thread, but
+ * never hands the token to the provider along with the user. The token is recorded here when it is issued and taken
+ * when the user ID is mapped, to be kept by the {@link com.tgt.core.aem.social.login.tokens.AccessTokenStore}. A token
+ * recorded by a login which failed before its user ID was mapped is replaced by the next login of the thread.
+ */
+public final class LoginAccessTokens {
+
+    private static final String EXPIRES_IN = "expires_in";
+    private static final String REFRESH_TOKEN = "refresh_token";
+    private static final ProfileDataReader TOKEN_RESPONSE_READER =
+            ProfileDataReader.forFields(EXPIRES_IN, REFRESH_TOKEN);
+
+    private static final ThreadLocal<IssuedToken> ISSUED = new ThreadLocal<>();
+
+    private LoginAccessTokens() {
+    }
+
+    /**
+     * @param issued token issued to the login of the current thread
+     */
+    public static void issued(IssuedToken issued) {
+        ISSUED.set(issued);
+    }
+
+    /**
+     * @return token issued to the login of the current thread, null if there is none
+     */
+    public static IssuedToken take() {
+        IssuedToken issued = ISSUED.get();
+        ISSUED.remove();
+        return issued;
+    }
+
+    /**
+     * @param accessToken {@link Token} having the raw token response, e.g. of a refresh
+     * @return {@code expires_in} and {@code refresh_token} of the token response, empty if it can't be parsed
+     */
+    public static Map<String, String> readTokenResponse(Token accessToken) {
+        if (Objects.isNull(accessToken.getRawResponse())) {
+            return Collections.emptyMap();
+        }
+        try {
+            return TOKEN_RESPONSE_READER.read(new ByteArrayInputStream(
+                    accessToken.getRawResponse().getBytes(StandardCharsets.UTF_8)));
+        } catch (IOException e) {
+            return Collections.emptyMap();
+        }
+    }
+
+    public static final class IssuedToken {
+
+        private final String clientId;
+        private final Token token;
+        private final long expiresInSeconds;
+        private final String refreshToken;
+
+        /**
+         * @param clientId         client ID of the OAuth client the token was issued to
+         * @param token            {@link Token} having the raw token response
+         * @param expiresInSeconds {@code expires_in} of the token response, 0 if unknown
+         * @param refreshToken     {@code refresh_token} of the token response, null if there is none
+         */
+        public IssuedToken(String clientId, Token token, long expiresInSeconds, String refreshToken) {
+            this.clientId = clientId;
+            this.token = token;
+            this.expiresInSeconds = expiresInSeconds;
+            this.refreshToken = refreshToken;
+        }
+
+        public String getClientId() {
+            return clientId;
+        }
+
+        public Token getToken() {
+            return token;
+        }
+
+        public String getAccessToken() {
+            return token.getToken();
+        }
+
+        /**
+         * @return {@code expires_in} of the token response, 0 if unknown
+         */
+        public long getExpiresInSeconds() {
+            return expiresInSeconds;
+        }
+
+        /**
+         * @return {@code refresh_token} of the token response, null if Google didn't issue one
+         */
+        public String getRefreshToken() {
+            return refreshToken;
+        }
+
+    }
+
+}
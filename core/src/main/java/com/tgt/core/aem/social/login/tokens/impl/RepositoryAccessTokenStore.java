@@ -0,0 +1,66 @@
+package com.tgt.core.aem.social.login.tokens.impl;
+
+import com.adobe.granite.crypto.CryptoException;
+import com.adobe.granite.crypto.CryptoSupport;
+import com.tgt.core.aem.social.login.constants.SocialLoginConstants;
+import com.tgt.core.aem.social.login.tokens.AccessTokenStore;
+import org.apache.jackrabbit.api.security.user.Authorizable;
+import org.apache.jackrabbit.api.security.user.UserManager;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Reference;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.jcr.RepositoryException;
+import javax.jcr.Value;
+import java.io.IOException;
+import java.util.Objects;
+
+/**
+ * {@link AccessTokenStore} reading the tokens AEM persists under {@code oauth/oauthid-<clientId>} of the users
+ * (see {@link com.adobe.granite.auth.oauth.Provider#getAccessTokenPropertyPath(String)}) when
+ * {@code oauth.access.token.persist} is true. Tokens are only read with the resource resolver of the caller, so a
+ * token is served to the sessions allowed to read it.
+ */
+@Component(service = AccessTokenStore.class,
+        property = AccessTokenStore.STORE_TYPE + "=" + AccessTokenStore.REPOSITORY)
+public class RepositoryAccessTokenStore implements AccessTokenStore {
+
+    private final Logger LOGGER = LoggerFactory.getLogger(RepositoryAccessTokenStore.class);
+
+    @Reference
+    private CryptoSupport cryptoSupport;
+
+    /**
+     * Nothing to do, AEM persists the token itself.
+     */
+    @Override
+    public void store(String userId, String clientId, String accessToken, long expiresInSeconds) {
+        //persisted by AEM when oauth.access.token.persist is true
+    }
+
+    /**
+     * @throws IOException in case the user can't be read or the stored token can't be decrypted
+     */
+    @Override
+    public String get(ResourceResolver resolver, String userId, String clientId) throws IOException {
+        try {
+            UserManager userManager = resolver.adaptTo(UserManager.class);
+            Authorizable user = Objects.isNull(userManager) ? null : userManager.getAuthorizable(userId);
+            Value[] values = Objects.isNull(user) ? null
+                    : user.getProperty(SocialLoginConstants.ACCESS_TOKEN_PROPERTY_PATH_PREFIX + clientId);
+            if (Objects.isNull(values) || values.length == 0) {
+                LOGGER.debug("No access token of client {} for user {}", clientId, userId);
+                return null;
+            }
+            String token = values[0].getString();
+            return cryptoSupport.isProtected(token) ? cryptoSupport.unprotect(token) : token;
+        } catch (RepositoryException e) {
+            throw new IOException("Unable to read the access token of user " + userId, e);
+        } catch (CryptoException e) {
+            throw new IOException("Unable to decrypt the access token of user " + userId, e);
+        }
+    }
+
+}
@@ -0,0 +1,391 @@
+package com.tgt.core.aem.social.login.tokens.impl;
+
+import com.adobe.granite.auth.oauth.Provider;
+import com.adobe.granite.crypto.CryptoException;
+import com.adobe.granite.crypto.CryptoSupport;
+import com.tgt.core.aem.social.login.constants.SocialLoginConstants;
+import com.tgt.core.aem.social.login.http.ProviderCallException;
+import com.tgt.core.aem.social.login.http.ProviderFailure;
+import com.tgt.core.aem.social.login.scribe.OidcScribeApi;
+import com.tgt.core.aem.social.login.scribe.OidcScribeService;
+import com.tgt.core.aem.social.login.tokens.AccessTokenCache;
+import org.apache.commons.lang.math.NumberUtils;
+import org.apache.jackrabbit.api.JackrabbitSession;
+import org.apache.jackrabbit.api.security.user.Authorizable;
+import org.apache.jackrabbit.api.security.user.UserManager;
+import org.apache.jackrabbit.util.ISO8601;
+import org.apache.sling.api.resource.LoginException;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.api.resource.ResourceResolverFactory;
+import org.apache.sling.commons.threads.ModifiableThreadPoolConfig;
+import org.apache.sling.commons.threads.ThreadPool;
+import org.apache.sling.commons.threads.ThreadPoolConfig;
+import org.apache.sling.commons.threads.ThreadPoolManager;
+import org.apache.sling.serviceusermapping.ServiceUserMapped;
+import org.osgi.framework.InvalidSyntaxException;
+import org.osgi.service.cm.Configuration;
+import org.osgi.service.cm.ConfigurationAdmin;
+import org.osgi.service.component.annotations.Activate;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.ConfigurationPolicy;
+import org.osgi.service.component.annotations.Deactivate;
+import org.osgi.service.component.annotations.Reference;
+import org.osgi.service.metatype.annotations.AttributeDefinition;
+import org.osgi.service.metatype.annotations.Designate;
+import org.osgi.service.metatype.annotations.ObjectClassDefinition;
+import org.scribe.builder.api.Api;
+import org.scribe.model.OAuthConfig;
+import org.scribe.model.Token;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import javax.jcr.Value;
+import javax.jcr.ValueFactory;
+import javax.jcr.query.Query;
+import javax.jcr.query.QueryManager;
+import javax.jcr.query.RowIterator;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.Dictionary;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Scheduled job refreshing the access tokens AEM persists on the users before they expire, with the refresh tokens
+ * issued at login when the provider asks for offline access.
+ * <p>
+ * Each run finds the users whose token expires within the refresh window with a query on their
+ * {@value SocialLoginConstants#ACCESS_TOKEN_EXPIRY_PROPERTY_PATH}, served by the {@code /oak:index/tgtTokenExpiry}
+ * index, soonest expiry first. The tokens are refreshed in batches: the refresh requests of a batch are sent by a
+ * small Sling thread pool, paced by a rate limit so that Google's quota isn't hit in bursts, then the new tokens and
+ * expiries of the batch are written and saved at once through a service session. A refresh token revoked by its
+ * user ({@code invalid_grant}) is removed along with the expiry, so it isn't tried again; any other failure is tried
+ * again at the next run. The job runs on the leader instance only, and never twice at the same time.
+ * <p>
+ * The client ID and secret are read at each run from the Granite OAuth provider configuration of the logins, so the
+ * secret isn't copied into another configuration.
+ * <p>
+ * Note - the expiry is written by each login along with the token, including the logins whose profile didn't
+ * change, so the tokens of the users who keep logging in are seldom refreshed by the job.
+ */
+@Component(service = Runnable.class, configurationPolicy = ConfigurationPolicy.REQUIRE,
+        property = {
+                "scheduler.concurrent:Boolean=false",
+                "scheduler.runOn=LEADER"
+        })
+@Designate(ocd = ScheduledTokenRefresher.ScheduledTokenRefresherConfig.class)
+public class ScheduledTokenRefresher implements Runnable {
+
+    private final Logger LOGGER = LoggerFactory.getLogger(ScheduledTokenRefresher.class);
+
+    private static final String SUBSERVICE = "token-refresh";
+    private static final Map<String, Object> AUTH_INFO =
+            Collections.singletonMap(ResourceResolverFactory.SUBSERVICE, SUBSERVICE);
+    private static final String EXPIRES_IN = "expires_in";
+    private static final String OAUTH_PROVIDER_FACTORY_PID = "com.adobe.granite.auth.oauth.provider";
+    private static final String OAUTH_CONFIG_ID = "oauth.config.id";
+    private static final String OAUTH_CLIENT_ID = "oauth.client.id";
+    private static final String OAUTH_CLIENT_SECRET = "oauth.client.secret";
+
+    @ObjectClassDefinition(name = "The Grey Teacher Token Refresher",
+            description = "Refreshes the persisted access tokens of the social login users before they expire")
+    public @interface ScheduledTokenRefresherConfig {
+
+        @AttributeDefinition(name = "Schedule", description = "Cron expression of the runs")
+        String scheduler_expression() default "0 */5 * * * ?";
+
+        @AttributeDefinition(name = "Provider",
+                description = "Google provider whose token endpoint and transport are used, by its OAuth provider ID")
+        String provider_target() default "(oauth.provider.id=thegreyteacher-google-provider)";
+
+        @AttributeDefinition(name = "OAuth Configuration",
+                description = "oauth.config.id of the Granite OAuth provider configuration whose client ID and " +
+                        "secret are used")
+        String oauth_config_id() default "tgt-google";
+
+        //must be /home/users followed by user.pathPrefix of the sync handler config
+        @AttributeDefinition(name = "Users Path", description = "Folder of the social login users")
+        String users_path() default "/home/users/thegreyteacher";
+
+        @AttributeDefinition(name = "Refresh Window",
+                description = "Time in seconds before their expiry the tokens are refreshed, it must be longer " +
+                        "than the time between two runs")
+        int refresh_window_seconds() default 900;
+
+        @AttributeDefinition(name = "Max Tokens", description = "Maximum number of tokens refreshed by a run")
+        int max_tokens() default 2000;
+
+        @AttributeDefinition(name = "Batch Size", description = "Number of refreshed tokens saved at once")
+        int batch_size() default 50;
+
+        @AttributeDefinition(name = "Threads", description = "Number of refresh requests sent at once")
+        int threads() default 4;
+
+        @AttributeDefinition(name = "Rate", description = "Maximum number of refresh requests per second")
+        int refresh_per_second() default 10;
+
+    }
+
+    @Reference
+    private ResourceResolverFactory resourceResolverFactory;
+
+    @Reference
+    private CryptoSupport cryptoSupport;
+
+    @Reference
+    private ThreadPoolManager threadPoolManager;
+
+    @Reference
+    private ConfigurationAdmin configurationAdmin;
+
+    @Reference
+    private AccessTokenCache accessTokenCache = AccessTokenCache.DISABLED;
+
+    //target of this reference can be changed using "provider.target" property of this component's config
+    @Reference(target = "(oauth.provider.id=thegreyteacher-google-provider)")
+    private Provider provider;
+
+    //makes sure the service user mapping is there before any token is refreshed
+    @Reference(target = "(" + ServiceUserMapped.SUBSERVICENAME + "=" + SUBSERVICE + ")")
+    private ServiceUserMapped serviceUserMapped;
+
+    private String oauthConfigId;
+    private String usersPath;
+    private long refreshWindowMs;
+    private int maxTokens;
+    private int batchSize;
+    private long intervalNanos;
+    private ThreadPool threadPool;
+    private long nextRequestNanos;
+
+    @Activate
+    protected void activate(ScheduledTokenRefresherConfig config) {
+        oauthConfigId = config.oauth_config_id();
+        usersPath = config.users_path();
+        refreshWindowMs = TimeUnit.SECONDS.toMillis(Math.max(0, config.refresh_window_seconds()));
+        maxTokens = Math.max(1, config.max_tokens());
+        batchSize = Math.max(1, config.batch_size());
+        intervalNanos = TimeUnit.SECONDS.toNanos(1) / Math.max(1, config.refresh_per_second());
+        ModifiableThreadPoolConfig poolConfig = new ModifiableThreadPoolConfig();
+        poolConfig.setMinPoolSize(Math.max(1, config.threads()));
+        poolConfig.setMaxPoolSize(Math.max(1, config.threads()));
+        //holds a whole batch, the requests beyond are sent by the thread of the run
+        poolConfig.setQueueSize(batchSize);
+        poolConfig.setBlockPolicy(ThreadPoolConfig.ThreadPoolPolicy.RUN);
+        poolConfig.setShutdownGraceful(false);
+        poolConfig.setDaemon(true);
+        threadPool = threadPoolManager.create(poolConfig, "tgt-social-login-token-refresh");
+        LOGGER.info("Refreshing the tokens of OAuth configuration {} expiring within {} s, {} per second",
+                oauthConfigId,
+                config.refresh_window_seconds(), config.refresh_per_second());
+    }
+
+    @Deactivate
+    protected void deactivate() {
+        threadPoolManager.release(threadPool);
+    }
+
+    @Override
+    public void run() {
+        long start = System.nanoTime();
+        OAuthConfig client = readClient();
+        OidcScribeService service = Objects.isNull(client) ? null : createService(client);
+        if (Objects.isNull(service)) {
+            return;
+        }
+        Counts counts = new Counts();
+        try (ResourceResolver resolver = resourceResolverFactory.getServiceResourceResolver(AUTH_INFO)) {
+            Session session = resolver.adaptTo(Session.class);
+            if (!(session instanceof JackrabbitSession)) {
+                throw new RepositoryException("No Jackrabbit session for the service user");
+            }
+            UserManager userManager = ((JackrabbitSession) session).getUserManager();
+            List<String> paths = findExpiringTokens(session);
+            for (int from = 0; from < paths.size() && !Thread.currentThread().isInterrupted(); from += batchSize) {
+                refreshBatch(service, client.getApiKey(), session, userManager,
+                        paths.subList(from, Math.min(paths.size(), from + batchSize)), counts);
+            }
+            LOGGER.info("Token refresh of {} users done in {} ms : {} refreshed, {} revoked, {} failed",
+                    paths.size(), TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start), counts.refreshed,
+                    counts.revoked, counts.failed);
+        } catch (LoginException | RepositoryException e) {
+            LOGGER.error("Token refresh failed", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * @return client ID and secret of the OAuth configuration, null if there is no such configuration
+     */
+    private OAuthConfig readClient() {
+        try {
+            Configuration[] configurations = configurationAdmin.listConfigurations("(&("
+                    + ConfigurationAdmin.SERVICE_FACTORYPID + "=" + OAUTH_PROVIDER_FACTORY_PID + ")("
+                    + OAUTH_CONFIG_ID + "=" + oauthConfigId + "))");
+            Dictionary<String, Object> properties = Objects.isNull(configurations) || configurations.length == 0
+                    ? null : configurations[0].getProperties();
+            Object clientId = Objects.isNull(properties) ? null : properties.get(OAUTH_CLIENT_ID);
+            Object clientSecret = Objects.isNull(properties) ? null : properties.get(OAUTH_CLIENT_SECRET);
+            if (Objects.isNull(clientId) || Objects.isNull(clientSecret)) {
+                LOGGER.warn("No client ID and secret in the OAuth configuration {}, no token refreshed",
+                        oauthConfigId);
+                return null;
+            }
+            return new OAuthConfig(clientId.toString(), clientSecret.toString());
+        } catch (IOException | InvalidSyntaxException e) {
+            LOGGER.error("OAuth configuration {} can't be read, no token refreshed", oauthConfigId, e);
+            return null;
+        }
+    }
+
+    private OidcScribeService createService(OAuthConfig client) {
+        Api api = provider.getApi();
+        if (!(api instanceof OidcScribeApi)) {
+            LOGGER.warn("Provider {} doesn't use the authorization code flow, its tokens can't be refreshed",
+                    provider.getId());
+            return null;
+        }
+        String clientSecret = client.getApiSecret();
+        try {
+            String secret = cryptoSupport.isProtected(clientSecret) ? cryptoSupport.unprotect(clientSecret)
+                    : clientSecret;
+            return (OidcScribeService) api.createService(new OAuthConfig(client.getApiKey(), secret));
+        } catch (CryptoException e) {
+            LOGGER.error("Client secret of {} can't be decrypted, no token refreshed : {}", client.getApiKey(),
+                    e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * @return paths of the users whose token expires within the refresh window, soonest first
+     */
+    private List<String> findExpiringTokens(Session session) throws RepositoryException {
+        Calendar threshold = Calendar.getInstance();
+        threshold.setTimeInMillis(threshold.getTimeInMillis() + refreshWindowMs);
+        String statement = "SELECT [jcr:path] FROM [rep:User] AS user WHERE ISDESCENDANTNODE(user, ["
+                + usersPath + "]) AND user.[" + SocialLoginConstants.ACCESS_TOKEN_EXPIRY_PROPERTY_PATH
+                + "] < CAST('" + ISO8601.format(threshold) + "' AS DATE) ORDER BY user.["
+                + SocialLoginConstants.ACCESS_TOKEN_EXPIRY_PROPERTY_PATH + "]";
+        QueryManager queryManager = session.getWorkspace().getQueryManager();
+        Query query = queryManager.createQuery(statement, Query.JCR_SQL2);
+        query.setLimit(maxTokens);
+        List<String> paths = new ArrayList<>();
+        for (RowIterator rows = query.execute().getRows(); rows.hasNext(); ) {
+            paths.add(rows.nextRow().getPath());
+        }
+        return paths;
+    }
+
+    private void refreshBatch(OidcScribeService service, String clientId, Session session, UserManager userManager,
+                              List<String> paths, Counts counts) throws RepositoryException, InterruptedException {
+        List<Authorizable> users = new ArrayList<>(paths.size());
+        List<Future<Token>> refreshes = new ArrayList<>(paths.size());
+        for (String path : paths) {
+            Authorizable user = userManager.getAuthorizableByPath(path);
+            String refreshToken = Objects.isNull(user) ? null : readRefreshToken(user);
+            if (Objects.isNull(refreshToken)) {
+                continue;
+            }
+            awaitRate();
+            users.add(user);
+            refreshes.add(threadPool.submit(() -> service.refreshAccessToken(refreshToken)));
+        }
+        ValueFactory valueFactory = session.getValueFactory();
+        List<String> refreshed = new ArrayList<>(users.size());
+        for (int i = 0; i < users.size(); i++) {
+            Authorizable user = users.get(i);
+            try {
+                writeToken(user, clientId, refreshes.get(i).get(), valueFactory);
+                refreshed.add(user.getID());
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof ProviderCallException
+                        && ((ProviderCallException) e.getCause()).getFailure() == ProviderFailure.INVALID_GRANT) {
+                    user.removeProperty(SocialLoginConstants.REFRESH_TOKEN_PROPERTY_PATH);
+                    user.removeProperty(SocialLoginConstants.ACCESS_TOKEN_EXPIRY_PROPERTY_PATH);
+                    counts.revoked++;
+                } else {
+                    LOGGER.debug("Unable to refresh the token of {} : {}", user.getID(), e.getCause().toString());
+                    counts.failed++;
+                }
+            } catch (CryptoException e) {
+                LOGGER.warn("Refreshed token of {} not kept, it can't be encrypted : {}", user.getID(),
+                        e.getMessage());
+                counts.failed++;
+            }
+        }
+        try {
+            session.save();
+            counts.refreshed += refreshed.size();
+            refreshed.forEach(accessTokenCache::invalidate);
+        } catch (RepositoryException e) {
+            //most likely a user written by a login meanwhile, the next run tries again
+            LOGGER.warn("Unable to save a batch of {} refreshed tokens : {}", refreshed.size(), e.getMessage());
+            counts.failed += refreshed.size();
+            session.refresh(false);
+        }
+    }
+
+    private String readRefreshToken(Authorizable user) throws RepositoryException {
+        Value[] values = user.getProperty(SocialLoginConstants.REFRESH_TOKEN_PROPERTY_PATH);
+        if (Objects.isNull(values) || values.length == 0) {
+            return null;
+        }
+        String refreshToken = values[0].getString();
+        try {
+            return cryptoSupport.isProtected(refreshToken) ? cryptoSupport.unprotect(refreshToken) : refreshToken;
+        } catch (CryptoException e) {
+            LOGGER.warn("Refresh token of {} can't be decrypted : {}", user.getID(), e.getMessage());
+            return null;
+        }
+    }
+
+    private void writeToken(Authorizable user, String clientId, Token token, ValueFactory valueFactory)
+            throws RepositoryException, CryptoException {
+        Map<String, String> tokenResponse = LoginAccessTokens.readTokenResponse(token);
+        Calendar expiry = Calendar.getInstance();
+        expiry.add(Calendar.SECOND, NumberUtils.toInt(tokenResponse.get(EXPIRES_IN)));
+        user.setProperty(SocialLoginConstants.ACCESS_TOKEN_PROPERTY_PATH_PREFIX + clientId,
+                valueFactory.createValue(cryptoSupport.protect(token.getToken())));
+        user.setProperty(SocialLoginConstants.ACCESS_TOKEN_EXPIRY_PROPERTY_PATH, valueFactory.createValue(expiry));
+        //Google may rotate the refresh token
+        String refreshToken = tokenResponse.get(SocialLoginConstants.REFRESH_TOKEN);
+        if (Objects.nonNull(refreshToken)) {
+            user.setProperty(SocialLoginConstants.REFRESH_TOKEN_PROPERTY_PATH,
+                    valueFactory.createValue(cryptoSupport.protect(refreshToken)));
+        }
+    }
+
+    /**
+     * Wait for the next slot of the rate limit, the requests are only sent by the thread of the run.
+     */
+    private void awaitRate() throws InterruptedException {
+        long now = System.nanoTime();
+        long wait = nextRequestNanos - now;
+        if (wait > 0) {
+            TimeUnit.NANOSECONDS.sleep(wait);
+        }
+        nextRequestNanos = Math.max(now, nextRequestNanos) + intervalNanos;
+    }
+
+    /**
+     * Outcome of the refreshes of a run.
+     */
+    private static final class Counts {
+
+        private int refreshed;
+        private int revoked;
+        private int failed;
+
+    }
+
+}
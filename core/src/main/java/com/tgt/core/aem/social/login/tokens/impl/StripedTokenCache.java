@@ -0,0 +1,264 @@
+package com.tgt.core.aem.social.login.tokens.impl;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Bounded, expiry-aware map of access tokens split into stripes, each guarded by its own lock.
+ * <p>
+ * All the tokens of a user are in the same stripe, so a lookup only contends with the lookups of the users of its
+ * stripe and a user is invalidated by locking a single stripe. Each stripe evicts its least recently used token once
+ * it holds its share of the max size.
+ * <p>
+ * Tokens are loaded outside of the lock. To not cache a token read before the user got invalidated, a loader takes
+ * the {@link #getGeneration(String) generation} of the stripe before reading the token and the token is cached only if
+ * no invalidation happened in the meantime.
+ */
+final class StripedTokenCache {
+
+    private final Stripe[] stripes;
+    private final int maxSize;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder expired = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder invalidations = new LongAdder();
+
+    /**
+     * @param maxSize     max number of cached tokens
+     * @param stripeCount number of stripes, capped by the max size
+     */
+    StripedTokenCache(int maxSize, int stripeCount) {
+        int count = Math.max(1, Math.min(stripeCount, maxSize));
+        int stripeSize = Math.max(1, maxSize / count);
+        this.stripes = new Stripe[count];
+        for (int i = 0; i < count; i++) {
+            stripes[i] = new Stripe(stripeSize);
+        }
+        this.maxSize = stripeSize * count;
+    }
+
+    /**
+     * @param key      cached token's key
+     * @param nowNanos current {@link System#nanoTime()}
+     * @return cached token, null if none or if it expired
+     */
+    String get(Key key, long nowNanos) {
+        Stripe stripe = stripeOf(key.userId);
+        stripe.lock.lock();
+        try {
+            CachedToken entry = stripe.entries.get(key);
+            if (Objects.isNull(entry)) {
+                misses.increment();
+                return null;
+            }
+            if (nowNanos - entry.expiresAtNanos >= 0) {
+                stripe.entries.remove(key);
+                expired.increment();
+                misses.increment();
+                return null;
+            }
+            hits.increment();
+            return entry.token;
+        } finally {
+            stripe.lock.unlock();
+        }
+    }
+
+    /**
+     * @param userId AEM user ID
+     * @return generation to pass to {@link #put(Key, String, long, long)} after loading a token of this user
+     */
+    long getGeneration(String userId) {
+        Stripe stripe = stripeOf(userId);
+        stripe.lock.lock();
+        try {
+            return stripe.generation;
+        } finally {
+            stripe.lock.unlock();
+        }
+    }
+
+    /**
+     * Cache a loaded token, unless its user got invalidated while it was loaded.
+     *
+     * @param key            token's key
+     * @param token          access token
+     * @param expiresAtNanos {@link System#nanoTime()} at which the token must not be served anymore
+     * @param generation     generation of the stripe taken before the token was loaded
+     */
+    void put(Key key, String token, long expiresAtNanos, long generation) {
+        Stripe stripe = stripeOf(key.userId);
+        stripe.lock.lock();
+        try {
+            if (stripe.generation == generation) {
+                stripe.entries.put(key, new CachedToken(token, expiresAtNanos));
+            }
+        } finally {
+            stripe.lock.unlock();
+        }
+    }
+
+    /**
+     * Drop the tokens of a user.
+     *
+     * @param userId AEM user ID
+     */
+    void invalidate(String userId) {
+        Stripe stripe = stripeOf(userId);
+        stripe.lock.lock();
+        try {
+            stripe.generation++;
+            Iterator<Key> keys = stripe.entries.keySet().iterator();
+            while (keys.hasNext()) {
+                if (keys.next().userId.equals(userId)) {
+                    keys.remove();
+                    invalidations.increment();
+                }
+            }
+        } finally {
+            stripe.lock.unlock();
+        }
+    }
+
+    void clear() {
+        for (Stripe stripe : stripes) {
+            stripe.lock.lock();
+            try {
+                stripe.generation++;
+                stripe.entries.clear();
+            } finally {
+                stripe.lock.unlock();
+            }
+        }
+    }
+
+    int size() {
+        int size = 0;
+        for (Stripe stripe : stripes) {
+            stripe.lock.lock();
+            try {
+                size += stripe.entries.size();
+            } finally {
+                stripe.lock.unlock();
+            }
+        }
+        return size;
+    }
+
+    int getMaxSize() {
+        return maxSize;
+    }
+
+    long getHits() {
+        return hits.sum();
+    }
+
+    long getMisses() {
+        return misses.sum();
+    }
+
+    long getExpired() {
+        return expired.sum();
+    }
+
+    long getEvictions() {
+        return evictions.sum();
+    }
+
+    long getInvalidations() {
+        return invalidations.sum();
+    }
+
+    void resetStatistics() {
+        hits.reset();
+        misses.reset();
+        expired.reset();
+        evictions.reset();
+        invalidations.reset();
+    }
+
+    private Stripe stripeOf(String userId) {
+        int hash = userId.hashCode();
+        return stripes[Math.floorMod(hash ^ (hash >>> 16), stripes.length)];
+    }
+
+    /**
+     * Key of a cached token.
+     * <p>
+     * The ID of the session which read the token is part of the key, so a token is only served to the sessions which
+     * were allowed to read it from the repository.
+     */
+    static final class Key {
+
+        private final String userId;
+        private final String clientId;
+        private final String readerId;
+        private final int hash;
+
+        Key(String userId, String clientId, String readerId) {
+            this.userId = userId;
+            this.clientId = clientId;
+            this.readerId = readerId;
+            this.hash = Objects.hash(userId, clientId, readerId);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) o;
+            return userId.equals(key.userId) && clientId.equals(key.clientId)
+                    && Objects.equals(readerId, key.readerId);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+    }
+
+    private static final class CachedToken {
+
+        private final String token;
+        private final long expiresAtNanos;
+
+        private CachedToken(String token, long expiresAtNanos) {
+            this.token = token;
+            this.expiresAtNanos = expiresAtNanos;
+        }
+
+    }
+
+    private final class Stripe {
+
+        private final ReentrantLock lock = new ReentrantLock();
+        private final Map<Key, CachedToken> entries;
+        //guarded by lock
+        private long generation;
+
+        private Stripe(int maxEntries) {
+            this.entries = new LinkedHashMap<Key, CachedToken>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Key, CachedToken> eldest) {
+                    if (size() > maxEntries) {
+                        evictions.increment();
+                        return true;
+                    }
+                    return false;
+                }
+            };
+        }
+
+    }
+
+}
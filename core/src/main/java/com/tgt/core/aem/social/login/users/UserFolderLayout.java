@@ -0,0 +1,20 @@
+package com.tgt.core.aem.social.login.users;
+
+import org.osgi.annotation.versioning.ConsumerType;
+
+/**
+ * Layout of the folders the social login users are created in.
+ */
+@ConsumerType
+public interface UserFolderLayout {
+
+    /**
+     * Folder of a user, used as the intermediate path of the user so that it gets created at
+     * {@code /home/users/<user.pathPrefix of the sync handler>/<folder path>}.
+     *
+     * @param userId AEM user ID, it could be null or blank when the user isn't known yet
+     * @return folder path relative to the path prefix of the sync handler
+     */
+    String getFolderPath(String userId);
+
+}
@@ -0,0 +1,36 @@
+package com.tgt.core.aem.social.login.users;
+
+import com.adobe.granite.jmx.annotation.Description;
+import com.adobe.granite.jmx.annotation.Name;
+
+/**
+ * Moves the existing social login users to the folders of the configured {@link UserFolderLayout}.
+ */
+@Description("Migration of the social login users to the configured folder layout")
+public interface UserFolderMigrationMBean {
+
+    @Description("Start the migration, or return the ID of the migration job already queued or running")
+    String startMigration();
+
+    @Description("Stop the running migration, users moved so far stay moved and the next migration goes on from there")
+    void stopMigration();
+
+    @Description("State of the last migration run on this instance")
+    String getState();
+
+    @Description("Users checked by the last migration")
+    long getScannedUsers();
+
+    @Description("Users moved to their folder by the last migration")
+    long getMovedUsers();
+
+    @Description("Users which couldn't be moved by the last migration, the next migration tries again")
+    long getFailedUsers();
+
+    @Description("Last error of the last migration")
+    String getLastError();
+
+    @Description("Folder path of a user in the configured layout")
+    String getFolderPath(@Name("userId") @Description("AEM user ID") String userId);
+
+}
@@ -0,0 +1,37 @@
+package com.tgt.core.aem.social.login.users;
+
+import com.adobe.granite.jmx.annotation.Description;
+import com.adobe.granite.jmx.annotation.Name;
+
+/**
+ * Creates the social login users ahead of their first login, from an export of their profiles.
+ */
+@Description("Creation of the social login users ahead of their first login, from an export of their profiles")
+public interface UserPreProvisioningMBean {
+
+    @Description("Start the import of an export, or return the ID of the import job already queued or running")
+    String startImport(@Name("path") @Description("Repository path of the export: a CSV file with a header row, "
+            + "or a file with the JSON user details of a user on each line") String path);
+
+    @Description("Stop the running import, users created so far stay created and the next import skips them")
+    void stopImport();
+
+    @Description("State of the last import run on this instance")
+    String getState();
+
+    @Description("Records read by the last import")
+    long getReadRecords();
+
+    @Description("Users created by the last import")
+    long getCreatedUsers();
+
+    @Description("Records of the last import whose user already existed")
+    long getSkippedUsers();
+
+    @Description("Records which couldn't be imported by the last import, the next import tries again")
+    long getFailedRecords();
+
+    @Description("Last error of the last import")
+    String getLastError();
+
+}
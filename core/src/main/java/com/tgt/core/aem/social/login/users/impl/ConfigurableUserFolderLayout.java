@@ -0,0 +1,72 @@
+package com.tgt.core.aem.social.login.users.impl;
+
+import com.tgt.core.aem.social.login.constants.SocialLoginConstants;
+import com.tgt.core.aem.social.login.users.UserFolderLayout;
+import org.osgi.service.component.annotations.Activate;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Modified;
+import org.osgi.service.metatype.annotations.AttributeDefinition;
+import org.osgi.service.metatype.annotations.Designate;
+import org.osgi.service.metatype.annotations.ObjectClassDefinition;
+import org.osgi.service.metatype.annotations.Option;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * {@link UserFolderLayout} picked by configuration, hashed buckets by default.
+ * <p>
+ * Changing the layout only affects the users created afterwards, existing users are found by their ID wherever they
+ * are. Run {@link UserFolderMigration} to move them to the new layout.
+ */
+@Component(service = UserFolderLayout.class)
+@Designate(ocd = ConfigurableUserFolderLayout.UserFolderLayoutConfig.class)
+public class ConfigurableUserFolderLayout implements UserFolderLayout {
+
+    private final Logger LOGGER = LoggerFactory.getLogger(ConfigurableUserFolderLayout.class);
+
+    static final String HASHED = "hashed";
+    static final String FIRST_CHARACTER = "first-character";
+
+    @ObjectClassDefinition(name = "The Grey Teacher User Folder Layout")
+    public @interface UserFolderLayoutConfig {
+
+        @AttributeDefinition(name = "Layout", description = "How the users are spread in folders",
+                options = {
+                        @Option(label = "Hashed buckets", value = HASHED),
+                        @Option(label = "First character of the user ID", value = FIRST_CHARACTER)
+                })
+        String layout_strategy() default HASHED;
+
+        @AttributeDefinition(name = "Root Folder", description = "Folder all the user folders are created in")
+        String layout_root() default SocialLoginConstants.THE_GREY_TEACHER;
+
+        @AttributeDefinition(name = "Depth", description = "Levels of hashed buckets, from 1 to 4")
+        int layout_depth() default 2;
+
+        @AttributeDefinition(name = "Fanout", description = "Hashed buckets per level, from 2 to 4096")
+        int layout_fanout() default 256;
+
+    }
+
+    private volatile UserFolderLayout layout = new HashedFolderLayout(SocialLoginConstants.THE_GREY_TEACHER, 2, 256);
+
+    @Activate
+    @Modified
+    protected void activate(UserFolderLayoutConfig config) {
+        layout = FIRST_CHARACTER.equals(config.layout_strategy())
+                ? new FirstCharacterFolderLayout(config.layout_root())
+                : new HashedFolderLayout(config.layout_root(), config.layout_depth(), config.layout_fanout());
+        LOGGER.info("Users are created in the {}", layout);
+    }
+
+    @Override
+    public String getFolderPath(String userId) {
+        return layout.getFolderPath(userId);
+    }
+
+    @Override
+    public String toString() {
+        return layout.toString();
+    }
+
+}
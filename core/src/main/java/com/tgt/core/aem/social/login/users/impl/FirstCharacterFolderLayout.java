@@ -0,0 +1,29 @@
+package com.tgt.core.aem.social.login.users.impl;
+
+import com.tgt.core.aem.social.login.users.UserFolderLayout;
+import org.apache.commons.lang.StringUtils;
+
+/**
+ * Original layout, a folder per first character of the user ID, e.g. {@code thegreyteacherj}.
+ * <p>
+ * As user IDs are emails, a few letters hold most of the users.
+ */
+final class FirstCharacterFolderLayout implements UserFolderLayout {
+
+    private final String root;
+
+    FirstCharacterFolderLayout(String root) {
+        this.root = root;
+    }
+
+    @Override
+    public String getFolderPath(String userId) {
+        return StringUtils.isNotBlank(userId) ? root + userId.charAt(0) : root;
+    }
+
+    @Override
+    public String toString() {
+        return "first character layout under " + root;
+    }
+
+}
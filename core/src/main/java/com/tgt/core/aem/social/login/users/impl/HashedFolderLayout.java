@@ -0,0 +1,66 @@
+package com.tgt.core.aem.social.login.users.impl;
+
+import com.tgt.core.aem.social.login.users.UserFolderLayout;
+import org.apache.commons.lang.StringUtils;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Layout spreading the users evenly in nested buckets picked from the hash of the user ID, e.g.
+ * {@code thegreyteacher/3f/a0} for a depth of 2 and a fanout of 256.
+ * <p>
+ * Each level has {@code fanout} buckets named by their hex number, so a layout holds {@code fanout ^ depth} leaf
+ * folders. The bucket of a user only depends on its ID, hence it never changes as long as the depth and fanout don't.
+ */
+final class HashedFolderLayout implements UserFolderLayout {
+
+    static final int MIN_FANOUT = 2;
+    static final int MAX_FANOUT = 4096;
+    static final int MIN_DEPTH = 1;
+    static final int MAX_DEPTH = 4;
+
+    private final String root;
+    private final int depth;
+    private final int fanout;
+    private final String bucketFormat;
+
+    HashedFolderLayout(String root, int depth, int fanout) {
+        this.root = root;
+        this.depth = Math.max(MIN_DEPTH, Math.min(MAX_DEPTH, depth));
+        this.fanout = Math.max(MIN_FANOUT, Math.min(MAX_FANOUT, fanout));
+        this.bucketFormat = "%0" + Integer.toHexString(this.fanout - 1).length() + "x";
+    }
+
+    @Override
+    public String getFolderPath(String userId) {
+        if (StringUtils.isBlank(userId)) {
+            return root;
+        }
+        long hash = hash(userId);
+        StringBuilder path = new StringBuilder(root.length() + depth * 4).append(root);
+        for (int level = 0; level < depth; level++) {
+            path.append('/').append(String.format(bucketFormat, Long.remainderUnsigned(hash, fanout)));
+            hash = Long.divideUnsigned(hash, fanout);
+        }
+        return path.toString();
+    }
+
+    private static long hash(String userId) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(userId.getBytes(StandardCharsets.UTF_8));
+            return ByteBuffer.wrap(digest).getLong();
+        } catch (NoSuchAlgorithmException e) {
+            //every JVM has SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "hashed layout under " + root + ", depth=" + depth + ", fanout=" + fanout;
+    }
+
+}
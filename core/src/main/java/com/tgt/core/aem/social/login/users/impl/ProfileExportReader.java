@@ -0,0 +1,134 @@
+package com.tgt.core.aem.social.login.users.impl;
+
+import com.google.gson.stream.JsonWriter;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Streaming reader of an export of user profiles, one record at a time.
+ * <p>
+ * A file named {@code *.csv} is read as CSV (RFC 4180) whose header row names the profile fields, e.g.
+ * {@code id,email,verified_email,name}. Each row is turned into the JSON object the user details request would
+ * return: {@code true} and {@code false} are booleans, the other values are strings and the empty ones are left out.
+ * Any other file is read as JSON lines, each non-blank line being the user details of a user as returned by Google.
+ */
+final class ProfileExportReader implements Closeable {
+
+    private static final char BOM = '\uFEFF';
+
+    private final BufferedReader reader;
+    private final boolean csv;
+    private final List<String> header;
+
+    /**
+     * @param in       export, encoded in UTF-8
+     * @param fileName name of the export file, which tells its format
+     */
+    ProfileExportReader(InputStream in, String fileName) throws IOException {
+        reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+        csv = fileName.toLowerCase(Locale.ROOT).endsWith(".csv");
+        //spreadsheets often start their exports with a byte order mark
+        reader.mark(1);
+        if (reader.read() != BOM) {
+            reader.reset();
+        }
+        header = csv ? readCsvRecord() : null;
+    }
+
+    /**
+     * @return JSON object of the next record, null at the end of the export
+     * @throws IOException in case the export can't be read
+     */
+    byte[] next() throws IOException {
+        if (csv) {
+            List<String> values = header == null ? null : readCsvRecord();
+            return values == null ? null : toJson(values);
+        }
+        String line;
+        do {
+            line = reader.readLine();
+        } while (line != null && line.trim().isEmpty());
+        return line == null ? null : line.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private byte[] toJson(List<String> values) throws IOException {
+        ByteArrayOutputStream json = new ByteArrayOutputStream();
+        try (JsonWriter writer = new JsonWriter(new OutputStreamWriter(json, StandardCharsets.UTF_8))) {
+            writer.beginObject();
+            for (int i = 0; i < Math.min(header.size(), values.size()); i++) {
+                String value = values.get(i);
+                if (value.isEmpty()) {
+                    continue;
+                }
+                writer.name(header.get(i));
+                if ("true".equals(value) || "false".equals(value)) {
+                    writer.value(Boolean.parseBoolean(value));
+                } else {
+                    writer.value(value);
+                }
+            }
+            writer.endObject();
+        }
+        return json.toByteArray();
+    }
+
+    /**
+     * @return values of the next record, null at the end of the export
+     */
+    private List<String> readCsvRecord() throws IOException {
+        int c = reader.read();
+        //blank lines between records
+        while (c == '\r' || c == '\n') {
+            c = reader.read();
+        }
+        if (c < 0) {
+            return null;
+        }
+        List<String> values = new ArrayList<>();
+        StringBuilder value = new StringBuilder();
+        boolean quoted = false;
+        while (c >= 0) {
+            if (quoted) {
+                if (c == '"') {
+                    reader.mark(1);
+                    if (reader.read() == '"') {
+                        value.append('"');
+                    } else {
+                        reader.reset();
+                        quoted = false;
+                    }
+                } else {
+                    value.append((char) c);
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                values.add(value.toString().trim());
+                value.setLength(0);
+            } else if (c == '\r' || c == '\n') {
+                break;
+            } else {
+                value.append((char) c);
+            }
+            c = reader.read();
+        }
+        values.add(value.toString().trim());
+        return values;
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+
+}
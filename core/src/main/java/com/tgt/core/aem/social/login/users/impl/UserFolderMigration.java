@@ -0,0 +1,319 @@
+package com.tgt.core.aem.social.login.users.impl;
+
+import com.adobe.granite.jmx.annotation.AnnotatedStandardMBean;
+import com.tgt.core.aem.social.login.users.UserFolderLayout;
+import com.tgt.core.aem.social.login.users.UserFolderMigrationMBean;
+import org.apache.jackrabbit.commons.JcrUtils;
+import org.apache.sling.api.resource.LoginException;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.api.resource.ResourceResolverFactory;
+import org.apache.sling.event.jobs.Job;
+import org.apache.sling.event.jobs.JobManager;
+import org.apache.sling.event.jobs.consumer.JobExecutionContext;
+import org.apache.sling.event.jobs.consumer.JobExecutionResult;
+import org.apache.sling.event.jobs.consumer.JobExecutor;
+import org.apache.sling.serviceusermapping.ServiceUserMapped;
+import org.osgi.service.component.annotations.Activate;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Modified;
+import org.osgi.service.component.annotations.Reference;
+import org.osgi.service.metatype.annotations.AttributeDefinition;
+import org.osgi.service.metatype.annotations.Designate;
+import org.osgi.service.metatype.annotations.ObjectClassDefinition;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.jcr.Node;
+import javax.jcr.NodeIterator;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import javax.management.DynamicMBean;
+import javax.management.NotCompliantMBeanException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Sling job moving the existing social login users to the folders of the configured {@link UserFolderLayout}, while
+ * the instance keeps serving logins.
+ * <p>
+ * The users folder is walked folder by folder and the misplaced users are moved in batches, each batch being saved
+ * on its own and followed by a pause, so the migration never holds a large transient space nor floods the
+ * repository with writes. Users are found by their ID wherever they are, hence logging in keeps working for users
+ * not moved yet.
+ * <p>
+ * The migration is resumable: users already in their folder are skipped, so a stopped, failed or interrupted
+ * migration goes on from where it was when started again. Being a Sling job, it is also restarted after a restart
+ * of the instance and runs on a single instance of the cluster. It is started and watched with the
+ * {@link UserFolderMigrationMBean}.
+ */
+@Component(service = {JobExecutor.class, DynamicMBean.class},
+        property = {
+                JobExecutor.PROPERTY_TOPICS + "=" + UserFolderMigration.TOPIC,
+                "jmx.objectname=com.tgt.core.aem.social.login:type=UserFolderMigration"
+        })
+@Designate(ocd = UserFolderMigration.UserFolderMigrationConfig.class)
+public class UserFolderMigration extends AnnotatedStandardMBean implements JobExecutor, UserFolderMigrationMBean {
+
+    private final Logger LOGGER = LoggerFactory.getLogger(UserFolderMigration.class);
+
+    static final String TOPIC = "com/tgt/core/aem/social/login/users/folder-migration";
+
+    private static final String SUBSERVICE = "user-folder-migration";
+    private static final Map<String, Object> AUTH_INFO =
+            Collections.singletonMap(ResourceResolverFactory.SUBSERVICE, SUBSERVICE);
+    private static final String USER_NODE_TYPE = "rep:User";
+    private static final String SYSTEM_USER_NODE_TYPE = "rep:SystemUser";
+    private static final String FOLDER_NODE_TYPE = "rep:AuthorizableFolder";
+    private static final String AUTHORIZABLE_ID = "rep:authorizableId";
+
+    @ObjectClassDefinition(name = "The Grey Teacher User Folder Migration")
+    public @interface UserFolderMigrationConfig {
+
+        //must be /home/users followed by user.pathPrefix of the sync handler config
+        @AttributeDefinition(name = "Users Path", description = "Folder of the social login users")
+        String users_path() default "/home/users/thegreyteacher";
+
+        @AttributeDefinition(name = "Batch Size", description = "Number of users moved and saved at once")
+        int batch_size() default 100;
+
+        @AttributeDefinition(name = "Batch Pause",
+                description = "Pause in milliseconds after each batch, to leave room for the logins")
+        long batch_pause_ms() default 200;
+
+    }
+
+    @Reference
+    private ResourceResolverFactory resourceResolverFactory;
+
+    @Reference
+    private JobManager jobManager;
+
+    @Reference
+    private UserFolderLayout userFolderLayout;
+
+    //makes sure the service user mapping is there before the migration can run
+    @Reference(target = "(" + ServiceUserMapped.SUBSERVICENAME + "=" + SUBSERVICE + ")")
+    private ServiceUserMapped serviceUserMapped;
+
+    private volatile String usersPath;
+    private volatile int batchSize;
+    private volatile long batchPauseMs;
+
+    private final LongAdder scanned = new LongAdder();
+    private final LongAdder moved = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private volatile String state = "IDLE";
+    private volatile String lastError;
+
+    public UserFolderMigration() throws NotCompliantMBeanException {
+        super(UserFolderMigrationMBean.class);
+    }
+
+    @Activate
+    @Modified
+    protected void activate(UserFolderMigrationConfig config) {
+        usersPath = config.users_path();
+        batchSize = Math.max(1, config.batch_size());
+        batchPauseMs = Math.max(0, config.batch_pause_ms());
+    }
+
+    @Override
+    public JobExecutionResult process(Job job, JobExecutionContext context) {
+        scanned.reset();
+        moved.reset();
+        failed.reset();
+        lastError = null;
+        state = "RUNNING";
+        LOGGER.info("Moving the users of {} to the {}", usersPath, userFolderLayout);
+        try (ResourceResolver resolver = resourceResolverFactory.getServiceResourceResolver(AUTH_INFO)) {
+            Session session = resolver.adaptTo(Session.class);
+            if (!session.nodeExists(usersPath)) {
+                state = "SUCCEEDED";
+                return context.result().message("No users folder at " + usersPath).succeeded();
+            }
+            boolean completed = migrate(session, context);
+            String message = String.format("Scanned %d users, moved %d, failed %d", scanned.sum(), moved.sum(),
+                    failed.sum());
+            LOGGER.info("User folder migration {} : {}", completed ? "completed" : "stopped", message);
+            if (!completed) {
+                state = "STOPPED";
+                return context.result().message(message).cancelled();
+            }
+            state = failed.sum() == 0 ? "SUCCEEDED" : "SUCCEEDED_WITH_FAILURES";
+            return context.result().message(message).succeeded();
+        } catch (LoginException | RepositoryException e) {
+            LOGGER.error("User folder migration failed", e);
+            lastError = e.toString();
+            state = "FAILED";
+            //no retry by Sling, starting it again resumes it
+            return context.result().message(e.getMessage()).cancelled();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            state = "STOPPED";
+            return context.result().message("Interrupted").cancelled();
+        }
+    }
+
+    /**
+     * @return true if all the folders were walked, false if the job got stopped
+     */
+    private boolean migrate(Session session, JobExecutionContext context)
+            throws RepositoryException, InterruptedException {
+        String usersRoot = usersPath.endsWith("/") ? usersPath : usersPath + "/";
+        Deque<String> folders = new ArrayDeque<>();
+        folders.push(usersPath);
+        List<Move> batch = new ArrayList<>(batchSize);
+        while (!folders.isEmpty()) {
+            String folderPath = folders.pop();
+            if (!session.nodeExists(folderPath)) {
+                continue;
+            }
+            //names are listed upfront as the children change while they are moved
+            for (String name : childNames(session.getNode(folderPath))) {
+                String childPath = folderPath + "/" + name;
+                if (!session.nodeExists(childPath)) {
+                    continue;
+                }
+                Node child = session.getNode(childPath);
+                if (child.isNodeType(FOLDER_NODE_TYPE)) {
+                    folders.push(childPath);
+                } else if (child.isNodeType(USER_NODE_TYPE) && !child.isNodeType(SYSTEM_USER_NODE_TYPE)) {
+                    scanned.increment();
+                    String targetFolder = usersRoot + userFolderLayout.getFolderPath(getUserId(child));
+                    if (!targetFolder.equals(folderPath)) {
+                        batch.add(new Move(childPath, targetFolder, name));
+                    }
+                }
+                if (batch.size() >= batchSize) {
+                    moveBatch(session, batch, context);
+                    if (context.isStopped()) {
+                        return false;
+                    }
+                }
+            }
+        }
+        moveBatch(session, batch, context);
+        return true;
+    }
+
+    private void moveBatch(Session session, List<Move> batch, JobExecutionContext context)
+            throws RepositoryException, InterruptedException {
+        if (batch.isEmpty()) {
+            return;
+        }
+        int batchMoved = 0;
+        for (Move move : batch) {
+            String targetPath = move.targetFolder + "/" + move.name;
+            if (session.nodeExists(targetPath)) {
+                failed.increment();
+                LOGGER.warn("Can't move user {}, {} already exists", move.sourcePath, targetPath);
+                continue;
+            }
+            JcrUtils.getOrCreateByPath(move.targetFolder, FOLDER_NODE_TYPE, FOLDER_NODE_TYPE, session, false);
+            session.move(move.sourcePath, targetPath);
+            batchMoved++;
+        }
+        try {
+            session.save();
+            moved.add(batchMoved);
+        } catch (RepositoryException e) {
+            //most likely a user written by a login meanwhile, the next migration tries again
+            LOGGER.warn("Unable to save a batch of {} moved users : {}", batchMoved, e.getMessage());
+            lastError = e.toString();
+            failed.add(batchMoved);
+            session.refresh(false);
+        }
+        batch.clear();
+        context.log("Scanned {0} users, moved {1}, failed {2}", scanned.sum(), moved.sum(), failed.sum());
+        Thread.sleep(batchPauseMs);
+    }
+
+    private static List<String> childNames(Node folder) throws RepositoryException {
+        List<String> names = new ArrayList<>();
+        for (NodeIterator children = folder.getNodes(); children.hasNext(); ) {
+            names.add(children.nextNode().getName());
+        }
+        return names;
+    }
+
+    private static String getUserId(Node user) throws RepositoryException {
+        return user.hasProperty(AUTHORIZABLE_ID) ? user.getProperty(AUTHORIZABLE_ID).getString() : user.getName();
+    }
+
+    @Override
+    public String startMigration() {
+        for (JobManager.QueryType type : new JobManager.QueryType[]{JobManager.QueryType.ACTIVE,
+                JobManager.QueryType.QUEUED}) {
+            //no property templates, the typed null spares the generic array creation of the varargs
+            Collection<Job> jobs = jobManager.findJobs(type, TOPIC, 1, (Map<String, Object>[]) null);
+            if (!jobs.isEmpty()) {
+                return jobs.iterator().next().getId();
+            }
+        }
+        Job job = jobManager.addJob(TOPIC, null);
+        if (job == null) {
+            throw new IllegalStateException("Unable to add the user folder migration job");
+        }
+        LOGGER.info("User folder migration job {} added", job.getId());
+        return job.getId();
+    }
+
+    @Override
+    public void stopMigration() {
+        for (Job job : jobManager.findJobs(JobManager.QueryType.ACTIVE, TOPIC, -1,
+                (Map<String, Object>[]) null)) {
+            jobManager.stopJobById(job.getId());
+        }
+    }
+
+    @Override
+    public String getState() {
+        return state;
+    }
+
+    @Override
+    public long getScannedUsers() {
+        return scanned.sum();
+    }
+
+    @Override
+    public long getMovedUsers() {
+        return moved.sum();
+    }
+
+    @Override
+    public long getFailedUsers() {
+        return failed.sum();
+    }
+
+    @Override
+    public String getLastError() {
+        return lastError;
+    }
+
+    @Override
+    public String getFolderPath(String userId) {
+        return userFolderLayout.getFolderPath(userId);
+    }
+
+    private static final class Move {
+
+        private final String sourcePath;
+        private final String targetFolder;
+        private final String name;
+
+        private Move(String sourcePath, String targetFolder, String name) {
+            this.sourcePath = sourcePath;
+            this.targetFolder = targetFolder;
+            this.name = name;
+        }
+
+    }
+
+}
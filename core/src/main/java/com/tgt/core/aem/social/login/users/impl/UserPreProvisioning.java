@@ -0,0 +1,491 @@
+package com.tgt.core.aem.social.login.users.impl;
+
+import com.adobe.granite.auth.oauth.Provider;
+import com.adobe.granite.jmx.annotation.AnnotatedStandardMBean;
+import com.tgt.core.aem.social.login.http.LocalResponses;
+import com.tgt.core.aem.social.login.users.UserPreProvisioningMBean;
+import org.apache.jackrabbit.api.JackrabbitSession;
+import org.apache.jackrabbit.api.security.user.Authorizable;
+import org.apache.jackrabbit.api.security.user.User;
+import org.apache.jackrabbit.api.security.user.UserManager;
+import org.apache.jackrabbit.oak.spi.security.authentication.external.ExternalIdentityProvider;
+import org.apache.jackrabbit.oak.spi.security.authentication.external.ExternalIdentityProviderManager;
+import org.apache.jackrabbit.oak.spi.security.authentication.external.ExternalIdentityRef;
+import org.apache.jackrabbit.oak.spi.security.authentication.external.ExternalUser;
+import org.apache.jackrabbit.oak.spi.security.authentication.external.SyncContext;
+import org.apache.jackrabbit.oak.spi.security.authentication.external.SyncException;
+import org.apache.jackrabbit.oak.spi.security.authentication.external.SyncHandler;
+import org.apache.jackrabbit.oak.spi.security.authentication.external.SyncManager;
+import org.apache.jackrabbit.oak.spi.security.authentication.external.SyncResult;
+import org.apache.sling.api.resource.LoginException;
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.api.resource.ResourceResolverFactory;
+import org.apache.sling.commons.threads.ModifiableThreadPoolConfig;
+import org.apache.sling.commons.threads.ThreadPool;
+import org.apache.sling.commons.threads.ThreadPoolConfig;
+import org.apache.sling.commons.threads.ThreadPoolManager;
+import org.apache.sling.event.jobs.Job;
+import org.apache.sling.event.jobs.JobManager;
+import org.apache.sling.event.jobs.consumer.JobExecutionContext;
+import org.apache.sling.event.jobs.consumer.JobExecutionResult;
+import org.apache.sling.event.jobs.consumer.JobExecutor;
+import org.apache.sling.serviceusermapping.ServiceUserMapped;
+import org.osgi.service.component.annotations.Activate;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.ConfigurationPolicy;
+import org.osgi.service.component.annotations.Deactivate;
+import org.osgi.service.component.annotations.Reference;
+import org.osgi.service.metatype.annotations.AttributeDefinition;
+import org.osgi.service.metatype.annotations.Designate;
+import org.osgi.service.metatype.annotations.ObjectClassDefinition;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import javax.management.DynamicMBean;
+import javax.management.NotCompliantMBeanException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Sling job creating the social login users ahead of their first login, from an export of their Google profiles,
+ * e.g. before a new school term.
+ * <p>
+ * Each record of the export goes through what a first login does: the {@link Provider} parses it as the user
+ * details, maps its properties and its user ID and gives its folder, then the sync handler of the external login
+ * module creates the user with the synced properties and the profile digest, and the provider's
+ * {@link Provider#onUserCreate(User)} assigns its groups and caches its picture. As long as the export has the
+ * fields of the login's profile, the first login of the user finds the same digest and writes nothing but its access
+ * token.
+ * <p>
+ * The export is streamed: the records are read in batches, the batches are created and saved by a small pool of
+ * threads, each with its own service session, and a new batch is read only once a thread is free, so the import
+ * never holds more than a few batches. A batch whose save fails, e.g. because another thread created the same
+ * folder meanwhile, is created again once. Users which already exist are skipped, so a stopped, failed or
+ * interrupted import goes on from where it was when started again. Being a Sling job, it is also restarted after a
+ * restart of the instance and runs on a single instance of the cluster. It is started and watched with the
+ * {@link UserPreProvisioningMBean}.
+ */
+@Component(service = {JobExecutor.class, DynamicMBean.class}, configurationPolicy = ConfigurationPolicy.REQUIRE,
+        property = {
+                JobExecutor.PROPERTY_TOPICS + "=" + UserPreProvisioning.TOPIC,
+                "jmx.objectname=com.tgt.core.aem.social.login:type=UserPreProvisioning"
+        })
+@Designate(ocd = UserPreProvisioning.UserPreProvisioningConfig.class)
+public class UserPreProvisioning extends AnnotatedStandardMBean implements JobExecutor, UserPreProvisioningMBean {
+
+    private final Logger LOGGER = LoggerFactory.getLogger(UserPreProvisioning.class);
+
+    static final String TOPIC = "com/tgt/core/aem/social/login/users/pre-provisioning";
+    static final String PATH = "path";
+
+    private static final String SUBSERVICE = "user-provisioning";
+    private static final Map<String, Object> AUTH_INFO =
+            Collections.singletonMap(ResourceResolverFactory.SUBSERVICE, SUBSERVICE);
+
+    @ObjectClassDefinition(name = "The Grey Teacher User Pre-Provisioning",
+            description = "Creates the social login users ahead of their first login, from an export of their profiles")
+    public @interface UserPreProvisioningConfig {
+
+        @AttributeDefinition(name = "Provider",
+                description = "Provider mapping the profiles like at a login, by its OAuth provider ID")
+        String provider_target() default "(oauth.provider.id=thegreyteacher-google-provider)";
+
+        @AttributeDefinition(name = "Client ID", description = "Client ID of the OAuth configuration")
+        String oauth_client_id();
+
+        //idp.name and sync.handlerName of the External Login Module config
+        @AttributeDefinition(name = "Identity Provider Name",
+                description = "Name of the identity provider of the OAuth configuration")
+        String idp_name() default "tgt-google";
+
+        @AttributeDefinition(name = "Sync Handler Name", description = "Name of the sync handler of the logins")
+        String sync_handlerName() default "tgt-google";
+
+        @AttributeDefinition(name = "Batch Size", description = "Number of users created and saved at once")
+        int batch_size() default 100;
+
+        @AttributeDefinition(name = "Threads", description = "Number of batches created at once")
+        int threads() default 2;
+
+        @AttributeDefinition(name = "Batch Pause",
+                description = "Pause in milliseconds of a thread after each batch, to leave room for the logins")
+        long batch_pause_ms() default 100;
+
+    }
+
+    @Reference
+    private ResourceResolverFactory resourceResolverFactory;
+
+    @Reference
+    private JobManager jobManager;
+
+    @Reference
+    private ThreadPoolManager threadPoolManager;
+
+    @Reference
+    private SyncManager syncManager;
+
+    @Reference
+    private ExternalIdentityProviderManager idpManager;
+
+    //target of this reference can be changed using "provider.target" property of this component's config
+    @Reference(target = "(oauth.provider.id=thegreyteacher-google-provider)")
+    private Provider provider;
+
+    //makes sure the service user mapping is there before the import can run
+    @Reference(target = "(" + ServiceUserMapped.SUBSERVICENAME + "=" + SUBSERVICE + ")")
+    private ServiceUserMapped serviceUserMapped;
+
+    private String clientId;
+    private String idpName;
+    private String syncHandlerName;
+    private int batchSize;
+    private int threads;
+    private long batchPauseMs;
+    private ThreadPool threadPool;
+
+    private final LongAdder read = new LongAdder();
+    private final LongAdder created = new LongAdder();
+    private final LongAdder skipped = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private volatile String state = "IDLE";
+    private volatile String lastError;
+
+    public UserPreProvisioning() throws NotCompliantMBeanException {
+        super(UserPreProvisioningMBean.class);
+    }
+
+    @Activate
+    protected void activate(UserPreProvisioningConfig config) {
+        clientId = config.oauth_client_id();
+        idpName = config.idp_name();
+        syncHandlerName = config.sync_handlerName();
+        batchSize = Math.max(1, config.batch_size());
+        threads = Math.max(1, config.threads());
+        batchPauseMs = Math.max(0, config.batch_pause_ms());
+        ModifiableThreadPoolConfig poolConfig = new ModifiableThreadPoolConfig();
+        poolConfig.setMinPoolSize(threads);
+        poolConfig.setMaxPoolSize(threads);
+        //the job submits a batch only once a thread is free
+        poolConfig.setQueueSize(threads);
+        poolConfig.setBlockPolicy(ThreadPoolConfig.ThreadPoolPolicy.ABORT);
+        poolConfig.setShutdownGraceful(false);
+        poolConfig.setDaemon(true);
+        threadPool = threadPoolManager.create(poolConfig, "tgt-social-login-user-provisioning");
+    }
+
+    @Deactivate
+    protected void deactivate() {
+        threadPoolManager.release(threadPool);
+    }
+
+    @Override
+    public JobExecutionResult process(Job job, JobExecutionContext context) {
+        read.reset();
+        created.reset();
+        skipped.reset();
+        failed.reset();
+        lastError = null;
+        state = "RUNNING";
+        String path = job.getProperty(PATH, String.class);
+        SyncHandler syncHandler = syncManager.getSyncHandler(syncHandlerName);
+        ExternalIdentityProvider idp = idpManager.getProvider(idpName);
+        if (Objects.isNull(syncHandler) || Objects.isNull(idp)) {
+            return failed(context, "No sync handler " + syncHandlerName + " or identity provider " + idpName);
+        }
+        LOGGER.info("Creating the users of {} with the sync handler {}", path, syncHandlerName);
+        try (ResourceResolver resolver = resourceResolverFactory.getServiceResourceResolver(AUTH_INFO)) {
+            Resource export = Objects.isNull(path) ? null : resolver.getResource(path);
+            InputStream in = Objects.isNull(export) ? null : export.adaptTo(InputStream.class);
+            if (Objects.isNull(in)) {
+                return failed(context, "No export file at " + path);
+            }
+            boolean completed;
+            try (ProfileExportReader reader = new ProfileExportReader(in, export.getName())) {
+                completed = provision(reader, syncHandler, idp, context);
+            }
+            String message = String.format("Read %d records, created %d users, skipped %d, failed %d", read.sum(),
+                    created.sum(), skipped.sum(), failed.sum());
+            LOGGER.info("User pre-provisioning of {} {} : {}", path, completed ? "completed" : "stopped", message);
+            if (!completed) {
+                state = "STOPPED";
+                return context.result().message(message).cancelled();
+            }
+            state = failed.sum() == 0 ? "SUCCEEDED" : "SUCCEEDED_WITH_FAILURES";
+            return context.result().message(message).succeeded();
+        } catch (LoginException | IOException e) {
+            LOGGER.error("User pre-provisioning of {} failed", path, e);
+            return failed(context, e.toString());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            state = "STOPPED";
+            return context.result().message("Interrupted").cancelled();
+        }
+    }
+
+    private JobExecutionResult failed(JobExecutionContext context, String error) {
+        lastError = error;
+        state = "FAILED";
+        //no retry by Sling, starting it again resumes it
+        return context.result().message(error).cancelled();
+    }
+
+    /**
+     * @return true if the whole export was read, false if the job got stopped
+     */
+    private boolean provision(ProfileExportReader reader, SyncHandler syncHandler, ExternalIdentityProvider idp,
+                              JobExecutionContext context) throws IOException, InterruptedException {
+        Semaphore freeThreads = new Semaphore(threads);
+        try {
+            List<byte[]> batch = new ArrayList<>(batchSize);
+            byte[] record;
+            while ((record = reader.next()) != null) {
+                read.increment();
+                batch.add(record);
+                if (batch.size() >= batchSize) {
+                    submit(batch, syncHandler, idp, freeThreads);
+                    batch = new ArrayList<>(batchSize);
+                    context.log("Read {0} records, created {1} users, skipped {2}, failed {3}", read.sum(),
+                            created.sum(), skipped.sum(), failed.sum());
+                    if (context.isStopped()) {
+                        return false;
+                    }
+                }
+            }
+            if (!batch.isEmpty()) {
+                submit(batch, syncHandler, idp, freeThreads);
+            }
+            return true;
+        } finally {
+            //the batches being created are saved before the job ends
+            freeThreads.acquire(threads);
+        }
+    }
+
+    private void submit(List<byte[]> records, SyncHandler syncHandler, ExternalIdentityProvider idp,
+                        Semaphore freeThreads) throws InterruptedException {
+        freeThreads.acquire();
+        try {
+            threadPool.execute(() -> {
+                try {
+                    provisionBatch(records, syncHandler, idp);
+                    Thread.sleep(batchPauseMs);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    freeThreads.release();
+                }
+            });
+        } catch (RuntimeException e) {
+            freeThreads.release();
+            throw e;
+        }
+    }
+
+    private void provisionBatch(List<byte[]> records, SyncHandler syncHandler, ExternalIdentityProvider idp) {
+        List<ExternalUser> users = new ArrayList<>(records.size());
+        for (byte[] record : records) {
+            try {
+                users.add(toExternalUser(record, idp));
+            } catch (IOException | RuntimeException e) {
+                failed.increment();
+                lastError = e.toString();
+            }
+        }
+        try (ResourceResolver resolver = resourceResolverFactory.getServiceResourceResolver(AUTH_INFO)) {
+            Session session = resolver.adaptTo(Session.class);
+            if (!(session instanceof JackrabbitSession)) {
+                throw new RepositoryException("No Jackrabbit session for the service user");
+            }
+            UserManager userManager = ((JackrabbitSession) session).getUserManager();
+            List<String> createdIds = new ArrayList<>(users.size());
+            List<String> failedIds = new ArrayList<>();
+            try {
+                createUsers(session, userManager, syncHandler, idp, users, createdIds, failedIds);
+            } catch (RepositoryException e) {
+                //most likely a folder created by another thread meanwhile, which now exists
+                LOGGER.debug("Creating a batch of {} users again : {}", users.size(), e.getMessage());
+                session.refresh(false);
+                createUsers(session, userManager, syncHandler, idp, users, createdIds, failedIds);
+            }
+            created.add(createdIds.size());
+            failed.add(failedIds.size());
+            skipped.add(users.size() - createdIds.size() - failedIds.size());
+            for (String userId : createdIds) {
+                Authorizable user = userManager.getAuthorizable(userId);
+                if (user instanceof User) {
+                    provider.onUserCreate((User) user);
+                }
+            }
+        } catch (LoginException | RepositoryException e) {
+            LOGGER.warn("Unable to create a batch of {} users : {}", users.size(), e.getMessage());
+            lastError = e.toString();
+            failed.add(users.size());
+        }
+    }
+
+    /**
+     * Create the users which don't exist yet and save them at once.
+     *
+     * @param createdIds filled with the IDs of the created users
+     * @param failedIds  filled with the IDs of the users the sync handler rejected
+     * @throws RepositoryException in case the batch can't be saved
+     */
+    private void createUsers(Session session, UserManager userManager, SyncHandler syncHandler,
+                             ExternalIdentityProvider idp, List<ExternalUser> users, List<String> createdIds,
+                             List<String> failedIds) throws RepositoryException {
+        createdIds.clear();
+        failedIds.clear();
+        SyncContext syncContext = syncHandler.createContext(idp, userManager, session.getValueFactory());
+        for (ExternalUser user : users) {
+            if (Objects.nonNull(userManager.getAuthorizable(user.getId()))) {
+                continue;
+            }
+            try {
+                if (syncContext.sync(user).getStatus() == SyncResult.Status.ADD) {
+                    createdIds.add(user.getId());
+                }
+            } catch (SyncException e) {
+                failedIds.add(user.getId());
+                lastError = e.toString();
+            }
+        }
+        session.save();
+        //closed once saved like at a login, a batch failing to save is synced again by another context
+        syncContext.close();
+    }
+
+    /**
+     * @param record JSON user details of a user
+     * @return external user the way AEM's OAuth identity provider builds it at the first login of the user
+     * @throws IOException in case the record isn't a JSON object or has no user ID
+     */
+    private ExternalUser toExternalUser(byte[] record, ExternalIdentityProvider idp) throws IOException {
+        Map<String, String> profile = provider.parseProfileDataResponse(
+                LocalResponses.json(HttpURLConnection.HTTP_OK, record));
+        Map<String, Object> properties = provider.mapProperties(provider.getDetailsURL(), clientId,
+                Collections.emptyMap(), profile);
+        Object id = properties.get(provider.getUserIdProperty());
+        if (Objects.isNull(id)) {
+            throw new IOException("Record without " + provider.getUserIdProperty());
+        }
+        String userId = provider.mapUserId(String.valueOf(id), properties);
+        return new ProvisionedUser(new ExternalIdentityRef(userId, idp.getName()),
+                provider.getUserFolderPath(userId, clientId, properties), properties);
+    }
+
+    @Override
+    public String startImport(String path) {
+        for (JobManager.QueryType type : new JobManager.QueryType[]{JobManager.QueryType.ACTIVE,
+                JobManager.QueryType.QUEUED}) {
+            Collection<Job> jobs = jobManager.findJobs(type, TOPIC, 1, (Map<String, Object>[]) null);
+            if (!jobs.isEmpty()) {
+                return jobs.iterator().next().getId();
+            }
+        }
+        Job job = jobManager.addJob(TOPIC, Collections.singletonMap(PATH, path));
+        if (job == null) {
+            throw new IllegalStateException("Unable to add the user pre-provisioning job");
+        }
+        LOGGER.info("User pre-provisioning job {} of {} added", job.getId(), path);
+        return job.getId();
+    }
+
+    @Override
+    public void stopImport() {
+        for (Job job : jobManager.findJobs(JobManager.QueryType.ACTIVE, TOPIC, -1,
+                (Map<String, Object>[]) null)) {
+            jobManager.stopJobById(job.getId());
+        }
+    }
+
+    @Override
+    public String getState() {
+        return state;
+    }
+
+    @Override
+    public long getReadRecords() {
+        return read.sum();
+    }
+
+    @Override
+    public long getCreatedUsers() {
+        return created.sum();
+    }
+
+    @Override
+    public long getSkippedUsers() {
+        return skipped.sum();
+    }
+
+    @Override
+    public long getFailedRecords() {
+        return failed.sum();
+    }
+
+    @Override
+    public String getLastError() {
+        return lastError;
+    }
+
+    /**
+     * External user of a record, with no declared groups as the OAuth identity provider doesn't sync any.
+     */
+    private static final class ProvisionedUser implements ExternalUser {
+
+        private final ExternalIdentityRef ref;
+        private final String intermediatePath;
+        private final Map<String, ?> properties;
+
+        private ProvisionedUser(ExternalIdentityRef ref, String intermediatePath, Map<String, ?> properties) {
+            this.ref = ref;
+            this.intermediatePath = intermediatePath;
+            this.properties = properties;
+        }
+
+        @Override
+        public ExternalIdentityRef getExternalId() {
+            return ref;
+        }
+
+        @Override
+        public String getId() {
+            return ref.getId();
+        }
+
+        @Override
+        public String getPrincipalName() {
+            return ref.getId();
+        }
+
+        @Override
+        public String getIntermediatePath() {
+            return intermediatePath;
+        }
+
+        @Override
+        public Iterable<ExternalIdentityRef> getDeclaredGroups() {
+            return Collections.emptyList();
+        }
+
+        @Override
+        public Map<String, ?> getProperties() {
+            return properties;
+        }
+
+    }
+
+}
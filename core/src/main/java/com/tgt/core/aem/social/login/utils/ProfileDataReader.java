@@ -0,0 +1,268 @@
+package com.tgt.core.aem.social.login.utils;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import org.apache.commons.lang.StringUtils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Streaming reader for the JSON profile data returned by a social provider.
+ * <p>
+ * The response is read token by token in a single pass, so the body is never buffered into a String. Only the
+ * configured fields are kept, everything else is skipped without being materialized. Nested fields are configured
+ * by their dotted path, array elements by their index (e.g. {@code names.0.givenName}), and kept under that path.
+ * Instances are immutable and can be shared between threads, so create one when the provider gets activated and
+ * reuse it for every login.
+ */
+public final class ProfileDataReader {
+
+    /**
+     * Reader which keeps every top level field of the profile data.
+     */
+    public static final ProfileDataReader ALL_FIELDS = new ProfileDataReader(Collections.emptySet(), true);
+
+    private static final String PATH_SEPARATOR = ".";
+
+    private final Set<String> fields;
+    private final boolean allFields;
+    private final Path root;
+
+    private ProfileDataReader(Set<String> fields, boolean allFields) {
+        this.fields = fields;
+        this.allFields = allFields;
+        this.root = new Path(null);
+        for (String field : fields) {
+            root.add(field);
+        }
+        if (allFields) {
+            //a top level field on the path of a nested field is still kept when it has a value
+            root.fields.values().forEach(path -> path.kept = true);
+        }
+    }
+
+    /**
+     * Create a reader which keeps only the given fields.
+     *
+     * @param fields names of the top level JSON fields or dotted paths of the nested fields to keep, blank names are
+     *               ignored. If there is no field then all top level fields are kept.
+     * @return {@link ProfileDataReader}
+     */
+    public static ProfileDataReader forFields(Collection<String> fields) {
+        Set<String> keptFields = new HashSet<>();
+        fields.stream().filter(StringUtils::isNotBlank).map(String::trim).forEach(keptFields::add);
+        return keptFields.isEmpty() ? ALL_FIELDS
+                : new ProfileDataReader(Collections.unmodifiableSet(keptFields), false);
+    }
+
+    /**
+     * Create a reader which keeps all the top level fields along with the given nested fields.
+     *
+     * @param fields dotted paths of the nested fields to keep too, blank names are ignored
+     * @return {@link ProfileDataReader}
+     */
+    public static ProfileDataReader forAllFieldsAnd(Collection<String> fields) {
+        Set<String> keptFields = new HashSet<>();
+        fields.stream().filter(StringUtils::isNotBlank).map(String::trim).forEach(keptFields::add);
+        return keptFields.isEmpty() ? ALL_FIELDS
+                : new ProfileDataReader(Collections.unmodifiableSet(keptFields), true);
+    }
+
+    /**
+     * @see #forFields(Collection)
+     */
+    public static ProfileDataReader forFields(String... fields) {
+        return forFields(Arrays.asList(fields));
+    }
+
+    /**
+     * @return fields kept by this reader, besides the top level fields in case it {@link #keepsAllFields()}.
+     */
+    public Set<String> getFields() {
+        return fields;
+    }
+
+    /**
+     * @return whether all the top level fields are kept
+     */
+    public boolean keepsAllFields() {
+        return allFields;
+    }
+
+    /**
+     * Read the profile JSON object from the stream. The stream is always closed once read.
+     * <p>
+     * JSON {@code null} values and the objects/arrays which aren't on the path of a kept field are skipped, strings
+     * are kept as {@link String}, booleans as {@link Boolean} and numbers as {@link Long} or {@link Double}.
+     *
+     * @param stream stream of the profile JSON, encoded in UTF-8
+     * @return {@link ProfileProperties}
+     * @throws IOException in case the stream can't be read or doesn't contain a JSON object
+     */
+    public ProfileProperties read(InputStream stream) throws IOException {
+        if (Objects.isNull(stream)) {
+            throw new IOException("Social provider response doesn't have any body");
+        }
+        try (Reader streamReader = new InputStreamReader(stream, StandardCharsets.UTF_8);
+             JsonReader jsonReader = new JsonReader(streamReader)) {
+            return read(jsonReader);
+        } catch (IllegalStateException | NumberFormatException unexpectedToken) {
+            throw new IOException("Social provider response body is not a JSON object", unexpectedToken);
+        }
+    }
+
+    private ProfileProperties read(JsonReader jsonReader) throws IOException {
+        ProfileProperties properties = new ProfileProperties(allFields ? 16 + fields.size() : fields.size());
+        if (fields.isEmpty()) {
+            readAllFields(jsonReader, properties);
+        } else {
+            readObject(jsonReader, root, properties, allFields);
+        }
+        return properties;
+    }
+
+    private static void readAllFields(JsonReader jsonReader, ProfileProperties properties) throws IOException {
+        jsonReader.beginObject();
+        while (jsonReader.hasNext()) {
+            String name = jsonReader.nextName();
+            Object value = readValue(jsonReader);
+            if (Objects.nonNull(value)) {
+                properties.putTyped(name, value);
+            }
+        }
+        jsonReader.endObject();
+    }
+
+    /**
+     * @param allFields whether the fields which aren't on the path of a kept field are read as values
+     */
+    private static void readObject(JsonReader jsonReader, Path parent, ProfileProperties properties,
+                                   boolean allFields) throws IOException {
+        jsonReader.beginObject();
+        while (jsonReader.hasNext()) {
+            String name = jsonReader.nextName();
+            Path path = parent.fields.get(name);
+            if (Objects.isNull(path) && allFields) {
+                Object value = readValue(jsonReader);
+                if (Objects.nonNull(value)) {
+                    properties.putTyped(name, value);
+                }
+            } else if (Objects.isNull(path)) {
+                jsonReader.skipValue();
+            } else {
+                readPath(jsonReader, path, properties);
+            }
+        }
+        jsonReader.endObject();
+    }
+
+    private static void readArray(JsonReader jsonReader, Path parent, ProfileProperties properties)
+            throws IOException {
+        jsonReader.beginArray();
+        for (int index = 0; jsonReader.hasNext(); index++) {
+            Path path = index < parent.elements.length ? parent.elements[index] : null;
+            if (Objects.isNull(path)) {
+                jsonReader.skipValue();
+            } else {
+                readPath(jsonReader, path, properties);
+            }
+        }
+        jsonReader.endArray();
+    }
+
+    private static void readPath(JsonReader jsonReader, Path path, ProfileProperties properties)
+            throws IOException {
+        JsonToken token = jsonReader.peek();
+        if (token == JsonToken.BEGIN_OBJECT && !path.fields.isEmpty()) {
+            readObject(jsonReader, path, properties, false);
+        } else if (token == JsonToken.BEGIN_ARRAY && path.elements.length > 0) {
+            readArray(jsonReader, path, properties);
+        } else if (path.kept) {
+            Object value = readValue(jsonReader);
+            if (Objects.nonNull(value)) {
+                properties.putTyped(path.name, value);
+            }
+        } else {
+            jsonReader.skipValue();
+        }
+    }
+
+    private static Object readValue(JsonReader jsonReader) throws IOException {
+        JsonToken token = jsonReader.peek();
+        switch (token) {
+            case STRING:
+                return jsonReader.nextString();
+            case BOOLEAN:
+                return jsonReader.nextBoolean();
+            case NUMBER:
+                return toNumber(jsonReader.nextString());
+            default:
+                //null, objects and arrays which aren't on the path of a kept field
+                jsonReader.skipValue();
+                return null;
+        }
+    }
+
+    private static Number toNumber(String number) {
+        if (StringUtils.containsAny(number, ".eE")) {
+            return Double.valueOf(number);
+        }
+        try {
+            return Long.valueOf(number);
+        } catch (NumberFormatException tooBig) {
+            return Double.valueOf(number);
+        }
+    }
+
+    /**
+     * Node of the tree of the kept fields, the path of each kept field is built once here instead of at each read.
+     */
+    private static final class Path {
+
+        private static final Path[] NO_ELEMENTS = new Path[0];
+
+        private final String name;
+        private final Map<String, Path> fields = new HashMap<>();
+        private Path[] elements = NO_ELEMENTS;
+        private boolean kept;
+
+        private Path(String name) {
+            this.name = name;
+        }
+
+        private void add(String field) {
+            Path path = this;
+            for (String segment : StringUtils.split(field, PATH_SEPARATOR)) {
+                path = path.child(segment);
+            }
+            path.kept = true;
+        }
+
+        private Path child(String segment) {
+            String childName = Objects.isNull(name) ? segment : name + PATH_SEPARATOR + segment;
+            Path child = fields.computeIfAbsent(segment, key -> new Path(childName));
+            if (StringUtils.isNumeric(segment) && segment.length() < 4) {
+                int index = Integer.parseInt(segment);
+                if (index >= elements.length) {
+                    elements = Arrays.copyOf(elements, index + 1);
+                }
+                elements[index] = child;
+            }
+            return child;
+        }
+
+    }
+
+}
@@ -0,0 +1,100 @@
+package com.tgt.core.aem.social.login.utils;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Profile properties parsed from a social provider response.
+ * <p>
+ * {@link com.adobe.granite.auth.oauth.Provider#parseProfileDataResponse(org.scribe.model.Response)} has to return a
+ * {@code Map<String, String>}, so this map exposes every value as a String while keeping the original JSON type
+ * (String, Boolean, Long or Double) which can be read back using {@link #getTypedValues()}.
+ */
+public final class ProfileProperties extends AbstractMap<String, String> {
+
+    private final Map<String, Object> values;
+
+    ProfileProperties(int expectedSize) {
+        //avoid rehashing for the few fields we usually keep
+        this.values = new LinkedHashMap<>(Math.max(4, (int) (expectedSize / 0.75f) + 1));
+    }
+
+    void putTyped(String name, Object value) {
+        values.put(name, value);
+    }
+
+    /**
+     * @return read only view of the parsed properties with their JSON types preserved.
+     */
+    public Map<String, Object> getTypedValues() {
+        return Collections.unmodifiableMap(values);
+    }
+
+    @Override
+    public String get(Object key) {
+        return asString(values.get(key));
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return values.containsKey(key);
+    }
+
+    @Override
+    public String put(String key, String value) {
+        return asString(values.put(key, value));
+    }
+
+    @Override
+    public String remove(Object key) {
+        return asString(values.remove(key));
+    }
+
+    @Override
+    public int size() {
+        return values.size();
+    }
+
+    @Override
+    public Set<Entry<String, String>> entrySet() {
+        return new AbstractSet<Entry<String, String>>() {
+            @Override
+            public Iterator<Entry<String, String>> iterator() {
+                Iterator<Entry<String, Object>> typedIterator = values.entrySet().iterator();
+                return new Iterator<Entry<String, String>>() {
+                    @Override
+                    public boolean hasNext() {
+                        return typedIterator.hasNext();
+                    }
+
+                    @Override
+                    public Entry<String, String> next() {
+                        Entry<String, Object> entry = typedIterator.next();
+                        return new SimpleImmutableEntry<>(entry.getKey(), asString(entry.getValue()));
+                    }
+
+                    @Override
+                    public void remove() {
+                        typedIterator.remove();
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return values.size();
+            }
+        };
+    }
+
+    private static String asString(Object value) {
+        return Objects.isNull(value) ? null : value.toString();
+    }
+
+}
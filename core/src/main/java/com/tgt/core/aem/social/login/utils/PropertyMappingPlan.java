@@ -0,0 +1,214 @@
+package com.tgt.core.aem.social.login.utils;
+
+import org.apache.commons.lang.StringUtils;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Mapping of the parsed profile fields to the properties handed to the sync handler, compiled once when the
+ * provider gets activated.
+ * <p>
+ * Each kept field is copied under its own name, unless a mapping {@code <property>=<field>[|<transform>]} renames
+ * it and optionally transforms its value, e.g. {@code given_name=names.0.givenName} or
+ * {@code email_domain=email|domain}. Only the fields of the plan are copied, with their JSON type. When no field is
+ * configured, every top level field which isn't mapped is copied under its own name too. The first mapping of a
+ * login creates a map sized for the plan, the mappings of the extended details of the same login add their
+ * properties to it instead of copying it again.
+ */
+public final class PropertyMappingPlan {
+
+    private static final String MAPPING_SEPARATOR = "=";
+    private static final String TRANSFORM_SEPARATOR = "|";
+
+    private final ProfileDataReader reader;
+    private final Mapping[] mappings;
+    private final boolean allFields;
+    //fields copied under another name only, when all the fields are kept
+    private final Set<String> renamedFields;
+
+    private PropertyMappingPlan(ProfileDataReader reader, Mapping[] mappings, Set<String> renamedFields) {
+        this.reader = reader;
+        this.mappings = mappings;
+        this.allFields = reader.keepsAllFields();
+        this.renamedFields = renamedFields;
+    }
+
+    /**
+     * @param fields         fields to keep, see {@link ProfileDataReader#forFields(Collection)}. If there is no field
+     *                       then all top level fields are kept under their own name, along with the mapped fields.
+     * @param mappings       mappings as configured, {@code <property>=<field>[|<transform>]}
+     * @param userIdProperty field of the user ID, always kept under its own name
+     * @return compiled plan
+     * @throws IllegalArgumentException in case a mapping isn't in the expected format
+     */
+    public static PropertyMappingPlan compile(Collection<String> fields, Collection<String> mappings,
+                                              String userIdProperty) {
+        List<Mapping> plan = new ArrayList<>();
+        Set<String> mappedFields = new LinkedHashSet<>();
+        for (String mapping : mappings) {
+            if (StringUtils.isNotBlank(mapping)) {
+                Mapping compiled = Mapping.parse(mapping);
+                plan.add(compiled);
+                mappedFields.add(compiled.field);
+            }
+        }
+        Set<String> keptFields = new LinkedHashSet<>();
+        fields.stream().filter(StringUtils::isNotBlank).map(String::trim).forEach(keptFields::add);
+        if (keptFields.isEmpty()) {
+            Set<String> renamedFields = new HashSet<>(mappedFields);
+            renamedFields.remove(userIdProperty);
+            return new PropertyMappingPlan(ProfileDataReader.forAllFieldsAnd(mappedFields),
+                    plan.toArray(new Mapping[0]), renamedFields);
+        }
+        keptFields.add(userIdProperty);
+        for (String field : keptFields) {
+            if (!mappedFields.contains(field) || field.equals(userIdProperty)) {
+                plan.add(new Mapping(field, field, Transform.NONE));
+            }
+        }
+        keptFields.addAll(mappedFields);
+        return new PropertyMappingPlan(ProfileDataReader.forFields(keptFields), plan.toArray(new Mapping[0]),
+                Collections.emptySet());
+    }
+
+    /**
+     * @return reader keeping the fields of this plan
+     */
+    public ProfileDataReader getReader() {
+        return reader;
+    }
+
+    /**
+     * Map the parsed fields.
+     *
+     * @param existing   properties mapped already, e.g. from the user details when mapping the extended details
+     * @param properties parsed fields, {@link ProfileProperties#getTypedValues()} to keep their JSON types
+     * @return the existing properties along with the mapped fields
+     */
+    public Map<String, Object> map(Map<String, Object> existing, Map<String, ?> properties) {
+        //maps created by a plan are only ever used by the login which created them
+        MappedProperties mapped = existing instanceof MappedProperties ? (MappedProperties) existing
+                : new MappedProperties(existing, mappings.length);
+        if (allFields) {
+            properties.forEach((field, value) -> {
+                if (Objects.nonNull(value) && !renamedFields.contains(field)) {
+                    mapped.put(field, value);
+                }
+            });
+        }
+        for (Mapping mapping : mappings) {
+            Object value = properties.get(mapping.field);
+            if (Objects.nonNull(value)) {
+                mapped.put(mapping.property, mapping.transform.apply(value));
+            }
+        }
+        return mapped;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder plan = new StringBuilder(allFields ? "all fields" : "");
+        for (Mapping mapping : mappings) {
+            plan.append(plan.length() == 0 ? "" : ", ").append(mapping);
+        }
+        return plan.toString();
+    }
+
+    /**
+     * Value transformation of a mapping.
+     */
+    private enum Transform {
+
+        NONE,
+
+        /**
+         * Lower case of the value
+         */
+        LOWERCASE,
+
+        /**
+         * Domain of an email, e.g. {@code example.com} for {@code user@example.com}
+         */
+        DOMAIN,
+
+        /**
+         * Value as a String, e.g. to store a number as a string property
+         */
+        STRING;
+
+        private Object apply(Object value) {
+            switch (this) {
+                case LOWERCASE:
+                    return value.toString().toLowerCase(Locale.ROOT);
+                case DOMAIN:
+                    return StringUtils.substringAfterLast(value.toString(), "@").toLowerCase(Locale.ROOT);
+                case STRING:
+                    return value.toString();
+                default:
+                    return value;
+            }
+        }
+
+    }
+
+    private static final class Mapping {
+
+        private final String property;
+        private final String field;
+        private final Transform transform;
+
+        private Mapping(String property, String field, Transform transform) {
+            this.property = property;
+            this.field = field;
+            this.transform = transform;
+        }
+
+        private static Mapping parse(String mapping) {
+            String property = StringUtils.substringBefore(mapping, MAPPING_SEPARATOR).trim();
+            String source = StringUtils.substringAfter(mapping, MAPPING_SEPARATOR);
+            String field = StringUtils.substringBefore(source, TRANSFORM_SEPARATOR).trim();
+            String transform = StringUtils.substringAfter(source, TRANSFORM_SEPARATOR).trim();
+            if (property.isEmpty() || field.isEmpty()) {
+                throw new IllegalArgumentException("Property mapping must be <property>=<field>[|<transform>] : "
+                        + mapping);
+            }
+            try {
+                return new Mapping(property, field, transform.isEmpty() ? Transform.NONE
+                        : Transform.valueOf(transform.toUpperCase(Locale.ROOT)));
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Unknown transform " + transform + " of property mapping "
+                        + mapping + ", must be lowercase, domain or string", e);
+            }
+        }
+
+        @Override
+        public String toString() {
+            return property + MAPPING_SEPARATOR + field
+                    + (transform == Transform.NONE ? "" : TRANSFORM_SEPARATOR + transform.name().toLowerCase(Locale.ROOT));
+        }
+
+    }
+
+    private static final class MappedProperties extends HashMap<String, Object> {
+
+        private static final long serialVersionUID = 1L;
+
+        private MappedProperties(Map<String, Object> existing, int planSize) {
+            //room for the extended details and the properties added by AEM, e.g. the access token
+            super(Math.max(16, (int) ((existing.size() + planSize * 2 + 4) / 0.75f) + 1));
+            putAll(existing);
+        }
+
+    }
+
+}
@@ -1,15 +1,10 @@
 package com.tgt.core.aem.social.login.utils;
 
-import com.google.gson.Gson;
-import com.google.gson.JsonSyntaxException;
-import com.google.gson.reflect.TypeToken;
 import org.scribe.model.Response;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
-import java.lang.reflect.Type;
-import java.util.Map;
 
 /**
  * Utilities for Social Login
@@ -23,27 +18,36 @@ public final class SocialLoginUtils {
 
 
     /**
-     * Parse the JSON response from social provider's profile data using {@link Response#getBody()}.
+     * Parse the JSON response from social provider's profile data keeping all the top level fields.
      *
      * @param response {@link Response}
      * @return map generated from the JSON.
      * @throws IOException in case of error in parsing JSON response
+     * @see #parseProfileDataResponse(Response, ProfileDataReader)
      */
-    public static Map<String, String> parseProfileDataResponse(Response response) throws IOException {
-        String providerResponseBody = response.getBody();
+    public static ProfileProperties parseProfileDataResponse(Response response) throws IOException {
+        return parseProfileDataResponse(response, ProfileDataReader.ALL_FIELDS);
+    }
 
+    /**
+     * Parse the JSON response from social provider's profile data by streaming {@link Response#getStream()}.
+     * <p>
+     * Response body is read only once and never buffered as a String, only the fields configured in the
+     * {@link ProfileDataReader} are kept.
+     *
+     * @param response {@link Response}
+     * @param reader   shared {@link ProfileDataReader}
+     * @return map generated from the JSON, typed values are available through
+     * {@link ProfileProperties#getTypedValues()}.
+     * @throws IOException in case of error in parsing JSON response
+     */
+    public static ProfileProperties parseProfileDataResponse(Response response, ProfileDataReader reader)
+            throws IOException {
         try {
-            //Type for Gson to parse json to a Map<String, String>
-            Type stringMapType = (new TypeToken<Map<String, String>>() {
-            }).getType();
-            Map<String, String> properties = new Gson().fromJson(providerResponseBody, stringMapType);
-            LOGGER.debug("User details parsed from social provider response : {}", properties);
-            return properties;
-        } catch (JsonSyntaxException jsonSyntaxException) {
-            LOGGER.error("Unable to parse Json from social provider", "parseProfileDataResponse",
-                    providerResponseBody);
-            throw new IOException(
-                    "Error in parsing social provider response body to Map<String, String>");
+            return reader.read(response.getStream());
+        } catch (IOException ioException) {
+            LOGGER.error("Unable to parse Json from social provider, response code : {}", response.getCode());
+            throw new IOException("Error in parsing social provider response body to a Map", ioException);
         }
     }
 
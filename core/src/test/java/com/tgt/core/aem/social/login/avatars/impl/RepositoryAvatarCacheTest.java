@@ -0,0 +1,191 @@
+package com.tgt.core.aem.social.login.avatars.impl;
+
+import com.tgt.core.aem.social.login.testing.GoogleStandInServer;
+import com.tgt.core.aem.social.login.testing.StandInThreadPoolManager;
+import io.wcm.testing.mock.aem.junit5.AemContext;
+import io.wcm.testing.mock.aem.junit5.AemContextExtension;
+import org.apache.jackrabbit.JcrConstants;
+import org.apache.jackrabbit.api.security.user.User;
+import org.apache.jackrabbit.api.security.user.UserManager;
+import org.apache.jackrabbit.commons.JcrUtils;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.commons.threads.ThreadPoolManager;
+import org.apache.sling.serviceusermapping.ServiceUserMapped;
+import org.apache.sling.servlethelpers.MockSlingHttpServletResponse;
+import org.apache.sling.testing.mock.sling.ResourceResolverType;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+
+import javax.imageio.ImageIO;
+import javax.jcr.Node;
+import javax.jcr.Session;
+import javax.jcr.Value;
+import javax.servlet.http.HttpServletResponse;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Pictures of a {@link GoogleStandInServer} cached by a {@link RepositoryAvatarCache} and served by the
+ * {@link AvatarServlet}.
+ */
+@ExtendWith(AemContextExtension.class)
+class RepositoryAvatarCacheTest {
+
+    private static final String USER_PATH = "/home/users/thegreyteacher/ab/user1";
+
+    private final AemContext context = new AemContext(ResourceResolverType.JCR_MOCK);
+
+    private GoogleStandInServer server;
+    private Session session;
+    private User user;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        server = GoogleStandInServer.start();
+        context.registerService(ThreadPoolManager.class, new StandInThreadPoolManager());
+        context.registerService(ServiceUserMapped.class, mock(ServiceUserMapped.class),
+                ServiceUserMapped.SUBSERVICENAME, "avatars");
+        session = context.resourceResolver().adaptTo(Session.class);
+        Node userNode = JcrUtils.getOrCreateByPath(USER_PATH, JcrConstants.NT_UNSTRUCTURED, session);
+        JcrUtils.getOrAddNode(userNode, "google").setProperty("picture",
+                server.getUrl(GoogleStandInServer.Endpoint.PICTURE) + "1.png");
+        session.save();
+        //the user reads its relative properties from the repository, as Oak's users do
+        user = mock(User.class);
+        when(user.getID()).thenReturn("user1@standin.example.com");
+        when(user.getPath()).thenReturn(USER_PATH);
+        when(user.getProperty(anyString())).then(invocation -> {
+            String relPath = USER_PATH + '/' + invocation.getArgument(0);
+            return session.propertyExists(relPath) ? new Value[]{session.getProperty(relPath).getValue()} : null;
+        });
+    }
+
+    @AfterEach
+    void tearDown() {
+        server.close();
+    }
+
+    @Test
+    void picturesAreFetchedOnceAndResizedToTheRenditions() throws Exception {
+        RepositoryAvatarCache cache = registerCache(604800);
+
+        cache.update(user);
+        awaitCheck(0);
+        cache.update(user);
+        cache.update(user);
+        Thread.sleep(200);
+
+        assertEquals(1, server.getRequestCount(GoogleStandInServer.Endpoint.PICTURE));
+        assertEquals(32, readRendition(32).getWidth());
+        assertEquals(64, readRendition(64).getHeight());
+        //never scaled up beyond the square of the 160x120 picture
+        assertEquals(120, readRendition(200).getWidth());
+        assertEquals(120, readRendition(200).getHeight());
+        assertEquals("\"standin-1\"", session.getProperty(USER_PATH + "/avatar/etag").getString());
+    }
+
+    @Test
+    void unchangedPicturesAreRevalidatedWithTheirETag() throws Exception {
+        RepositoryAvatarCache cache = registerCache(0);
+        cache.update(user);
+        long checked = awaitCheck(0);
+        long written = session.getProperty(USER_PATH + "/avatar/64.jpg/jcr:content/jcr:lastModified").getDate()
+                .getTimeInMillis();
+
+        cache.update(user);
+        awaitCheck(checked);
+
+        assertEquals(2, server.getRequestCount(GoogleStandInServer.Endpoint.PICTURE));
+        assertEquals(written, session.getProperty(USER_PATH + "/avatar/64.jpg/jcr:content/jcr:lastModified")
+                .getDate().getTimeInMillis());
+    }
+
+    @Test
+    void renditionsAreServedToTheirUserWithRevalidation() throws Exception {
+        registerCache(604800).update(user);
+        awaitCheck(0);
+        UserManager userManager = mock(UserManager.class);
+        when(userManager.getAuthorizable(anyString())).thenReturn(user);
+        context.registerAdapter(ResourceResolver.class, UserManager.class, userManager);
+        AvatarServlet servlet = context.registerInjectActivateService(new AvatarServlet());
+        context.requestPathInfo().setSelectorString("64");
+        context.requestPathInfo().setExtension("jpg");
+
+        servlet.doGet(context.request(), context.response());
+        String etag = context.response().getHeader("ETag");
+        context.request().addHeader("If-None-Match", etag);
+        MockSlingHttpServletResponse revalidated = new MockSlingHttpServletResponse();
+        servlet.doGet(context.request(), revalidated);
+
+        assertEquals(HttpServletResponse.SC_OK, context.response().getStatus());
+        assertEquals("image/jpeg", context.response().getContentType());
+        assertEquals("private, no-cache", context.response().getHeader("Cache-Control"));
+        assertEquals(64, ImageIO.read(new ByteArrayInputStream(context.response().getOutput())).getWidth());
+        assertNotNull(etag);
+        assertEquals(HttpServletResponse.SC_NOT_MODIFIED, revalidated.getStatus());
+        assertEquals(0, revalidated.getOutput().length);
+    }
+
+    @Test
+    void picturesOfOtherHostsAreNotFetched() throws Exception {
+        RepositoryAvatarCache cache = context.registerInjectActivateService(new RepositoryAvatarCache(),
+                "enabled", true);
+
+        cache.update(user);
+        Thread.sleep(200);
+
+        assertEquals(0, server.getRequestCount(GoogleStandInServer.Endpoint.PICTURE));
+        assertFalse(session.nodeExists(USER_PATH + "/avatar"));
+    }
+
+    private RepositoryAvatarCache registerCache(long revalidateSeconds) {
+        return context.registerInjectActivateService(new RepositoryAvatarCache(),
+                "enabled", true,
+                "allowed.hosts", new String[]{"127.0.0.1"},
+                "renditions", new int[]{32, 64, 200},
+                "revalidate.seconds", revalidateSeconds);
+    }
+
+    /**
+     * Wait for the worker to check the picture again.
+     *
+     * @param previousCheck time of the previous check, 0 if the picture was never checked
+     * @return time of the new check
+     */
+    private long awaitCheck(long previousCheck) throws Exception {
+        String checked = USER_PATH + "/avatar/checked";
+        long start = System.nanoTime();
+        while (System.nanoTime() - start < TimeUnit.SECONDS.toNanos(10)) {
+            if (session.propertyExists(checked)
+                    && session.getProperty(checked).getDate().getTimeInMillis() != previousCheck) {
+                return session.getProperty(checked).getDate().getTimeInMillis();
+            }
+            Thread.sleep(10);
+        }
+        throw new AssertionError("Picture not checked in time");
+    }
+
+    private BufferedImage readRendition(int size) throws Exception {
+        try (InputStream data = session.getProperty(USER_PATH + "/avatar/" + size + ".jpg/jcr:content/jcr:data")
+                .getBinary().getStream()) {
+            BufferedImage image = ImageIO.read(data);
+            if (image == null) {
+                throw new IOException("Rendition " + size + " isn't an image");
+            }
+            return image;
+        }
+    }
+
+}
@@ -0,0 +1,188 @@
+package com.tgt.core.aem.social.login.groups.impl;
+
+import com.tgt.core.aem.social.login.testing.InMemoryOakRepository;
+import io.wcm.testing.mock.aem.junit5.AemContext;
+import io.wcm.testing.mock.aem.junit5.AemContextExtension;
+import org.apache.jackrabbit.api.JackrabbitSession;
+import org.apache.jackrabbit.api.security.user.Group;
+import org.apache.jackrabbit.api.security.user.User;
+import org.apache.jackrabbit.api.security.user.UserManager;
+import org.apache.jackrabbit.oak.spi.security.principal.PrincipalImpl;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.api.resource.ResourceResolverFactory;
+import org.apache.sling.serviceusermapping.ServiceUserMapped;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.osgi.framework.Constants;
+
+import javax.jcr.Session;
+import javax.jcr.ValueFactory;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.TreeSet;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Memberships changed by the {@link RuleBasedGroupAssignment}, in an in-memory Oak repository.
+ */
+@ExtendWith(AemContextExtension.class)
+class RuleBasedGroupAssignmentTest {
+
+    private static final String USER_ID = "ann@staff.example.com";
+    private static final String[] RULES = {"staff=google/email:.*@staff\\.example\\.com",
+            "students=google/email:.*@students\\.example\\.com", "verified=google/verified_email:true"};
+
+    private final AemContext context = new AemContext();
+    private final InMemoryOakRepository repository = new InMemoryOakRepository();
+
+    private JackrabbitSession session;
+    private UserManager userManager;
+    private ResourceResolver serviceResolver;
+    private ResourceResolverFactory resourceResolverFactory;
+    private User user;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        session = repository.loginAdministrator();
+        userManager = session.getUserManager();
+        for (String groupId : new String[]{"staff", "students", "verified", "editors"}) {
+            userManager.createGroup(groupId);
+        }
+        user = userManager.createUser(USER_ID, "secret", new PrincipalImpl(USER_ID), "thegreyteacher");
+        setProfile(USER_ID, true);
+        session.save();
+
+        serviceResolver = mock(ResourceResolver.class);
+        when(serviceResolver.adaptTo(UserManager.class)).thenReturn(userManager);
+        when(serviceResolver.adaptTo(Session.class)).thenReturn(session);
+        resourceResolverFactory = mock(ResourceResolverFactory.class);
+        when(resourceResolverFactory.getServiceResourceResolver(any())).thenReturn(serviceResolver);
+        context.registerService(ResourceResolverFactory.class, resourceResolverFactory,
+                Constants.SERVICE_RANKING, Integer.MAX_VALUE);
+        context.registerService(ServiceUserMapped.class, mock(ServiceUserMapped.class),
+                ServiceUserMapped.SUBSERVICENAME, "group-assignment");
+    }
+
+    @AfterEach
+    void tearDown() {
+        session.logout();
+        repository.close();
+    }
+
+    @Test
+    void usersAreAddedToTheGroupsTheyMatch() throws Exception {
+        RuleBasedGroupAssignment assignment = activate(RULES);
+
+        assignment.assign(user);
+
+        assertEquals(groups("staff", "verified"), memberships());
+    }
+
+    @Test
+    void repeatLoginsWithTheSameGroupsDontTouchTheRepository() throws Exception {
+        RuleBasedGroupAssignment assignment = activate(RULES);
+        assignment.assign(user);
+
+        assignment.assign(user);
+        assignment.assign(user);
+
+        verify(resourceResolverFactory, times(1)).getServiceResourceResolver(any());
+        assertFalse(session.hasPendingChanges());
+    }
+
+    @Test
+    void membershipsAlreadyInPlaceArentWritten() throws Exception {
+        ((Group) userManager.getAuthorizable("staff")).addMember(user);
+        ((Group) userManager.getAuthorizable("verified")).addMember(user);
+        session.save();
+
+        activate(RULES).assign(user);
+
+        verify(resourceResolverFactory, times(0)).getServiceResourceResolver(any());
+    }
+
+    @Test
+    void onlyTheManagedGroupsWhichChangedAreUpdated() throws Exception {
+        ((Group) userManager.getAuthorizable("editors")).addMember(user);
+        session.save();
+        RuleBasedGroupAssignment assignment = activate(RULES);
+        assignment.assign(user);
+
+        setProfile("ann@students.example.com", false);
+        session.save();
+        assignment.assign(user);
+
+        //editors isn't managed by the rules
+        assertEquals(groups("editors", "students"), memberships());
+        verify(resourceResolverFactory, times(2)).getServiceResourceResolver(any());
+    }
+
+    @Test
+    void missingGroupsAreTriedAgainAtTheNextLogin() throws Exception {
+        RuleBasedGroupAssignment assignment = activate("alumni=google/email:.*", RULES[0]);
+
+        assignment.assign(user);
+        assertEquals(groups("staff"), memberships());
+
+        userManager.createGroup("alumni");
+        session.save();
+        assignment.assign(user);
+
+        assertEquals(groups("alumni", "staff"), memberships());
+        verify(resourceResolverFactory, times(2)).getServiceResourceResolver(any());
+    }
+
+    @Test
+    void membershipsWhichCantBeAddedAreTriedAgainAtTheNextLogin() throws Exception {
+        Group staff = mock(Group.class);
+        when(staff.isGroup()).thenReturn(true);
+        when(staff.getPath()).thenReturn("/home/groups/stand-in/staff");
+        when(staff.addMembers(USER_ID)).thenReturn(Collections.singleton(USER_ID));
+        UserManager failingUserManager = mock(UserManager.class);
+        when(failingUserManager.getAuthorizable("staff")).thenReturn(staff);
+        when(serviceResolver.adaptTo(UserManager.class)).thenReturn(failingUserManager, userManager);
+        RuleBasedGroupAssignment assignment = activate(RULES[0]);
+
+        assignment.assign(user);
+        assertEquals(groups(), memberships());
+
+        assignment.assign(user);
+
+        assertEquals(groups("staff"), memberships());
+        verify(resourceResolverFactory, times(2)).getServiceResourceResolver(any());
+    }
+
+    private RuleBasedGroupAssignment activate(String... rules) {
+        return context.registerInjectActivateService(new RuleBasedGroupAssignment(), "rules", rules);
+    }
+
+    private void setProfile(String email, boolean verified) throws Exception {
+        ValueFactory valueFactory = session.getValueFactory();
+        user.setProperty("google/email", valueFactory.createValue(email));
+        user.setProperty("google/verified_email", valueFactory.createValue(verified));
+    }
+
+    private Set<String> memberships() throws Exception {
+        Set<String> groups = new TreeSet<>();
+        for (Iterator<Group> memberOf = user.declaredMemberOf(); memberOf.hasNext(); ) {
+            groups.add(memberOf.next().getID());
+        }
+        return groups;
+    }
+
+    private static Set<String> groups(String... groupIds) {
+        return new TreeSet<>(Arrays.asList(groupIds));
+    }
+
+}
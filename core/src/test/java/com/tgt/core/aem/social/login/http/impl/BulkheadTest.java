@@ -0,0 +1,124 @@
+package com.tgt.core.aem.social.login.http.impl;
+
+import com.tgt.core.aem.social.login.http.BulkheadFullException;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Limits, queueing and adaptation of the {@link Bulkhead} of the outbound requests.
+ */
+class BulkheadTest {
+
+    private static final long FAST_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+    private static final long SLOW_NANOS = TimeUnit.MILLISECONDS.toNanos(20);
+
+    @Test
+    void requestsBeyondTheLimitAreRejectedWhenTheQueueIsFull() {
+        Bulkhead bulkhead = new Bulkhead(new BulkheadSettings(2, 1, 0, 1000, false, 2));
+
+        bulkhead.acquire();
+        bulkhead.acquire();
+
+        assertThrows(BulkheadFullException.class, bulkhead::acquire);
+        assertEquals(2, bulkhead.getInFlight());
+        assertEquals(1, bulkhead.getRejectedQueueFull());
+        assertEquals(0, bulkhead.getRejectedTimeout());
+    }
+
+    @Test
+    void queuedRequestsAreRejectedAfterTheMaxWait() {
+        Bulkhead bulkhead = new Bulkhead(new BulkheadSettings(1, 1, 1, 50, false, 2));
+        bulkhead.acquire();
+
+        long start = System.nanoTime();
+        assertThrows(BulkheadFullException.class, bulkhead::acquire);
+
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(50));
+        assertEquals(1, bulkhead.getRejectedTimeout());
+        assertEquals(0, bulkhead.getQueued());
+        assertEquals(1, bulkhead.getInFlight());
+    }
+
+    @Test
+    void releasedSlotsGoToTheQueuedRequests() throws Exception {
+        Bulkhead bulkhead = new Bulkhead(new BulkheadSettings(1, 1, 1, 10000, false, 2));
+        bulkhead.acquire();
+
+        CompletableFuture<Void> queued = CompletableFuture.runAsync(bulkhead::acquire);
+        while (bulkhead.getQueued() == 0) {
+            Thread.sleep(1);
+        }
+        assertFalse(queued.isDone());
+        bulkhead.release(FAST_NANOS);
+
+        queued.get(5, TimeUnit.SECONDS);
+        assertEquals(1, bulkhead.getInFlight());
+        assertEquals(0, bulkhead.getQueued());
+    }
+
+    @Test
+    void limitShrinksWhileTheProviderIsSlowAndGrowsBackOnceItRecovers() {
+        Bulkhead bulkhead = new Bulkhead(new BulkheadSettings(50, 5, 0, 0, true, 2));
+        send(bulkhead, 100, FAST_NANOS);
+        assertEquals(50, bulkhead.getLimit());
+
+        send(bulkhead, 30, SLOW_NANOS);
+        int slowLimit = bulkhead.getLimit();
+        assertTrue(slowLimit < 50, "Limit " + slowLimit);
+        assertTrue(slowLimit >= 5, "Limit " + slowLimit);
+        assertTrue(bulkhead.getRecentLatencyNanos() > 2 * bulkhead.getBaselineLatencyNanos());
+
+        send(bulkhead, 300, FAST_NANOS);
+        assertEquals(50, bulkhead.getLimit());
+    }
+
+    @Test
+    void limitNeverGoesBelowTheMinConcurrency() {
+        Bulkhead bulkhead = new Bulkhead(new BulkheadSettings(50, 5, 0, 0, true, 2));
+        send(bulkhead, 10, FAST_NANOS);
+
+        for (int i = 0; i < 20; i++) {
+            send(bulkhead, 10, SLOW_NANOS << i);
+        }
+
+        assertEquals(5, bulkhead.getLimit());
+    }
+
+    @Test
+    void limitStaysAtTheMaxConcurrencyWhenNotAdaptive() {
+        Bulkhead bulkhead = new Bulkhead(new BulkheadSettings(50, 5, 0, 0, false, 2));
+
+        send(bulkhead, 10, FAST_NANOS);
+        send(bulkhead, 100, SLOW_NANOS);
+
+        assertEquals(50, bulkhead.getLimit());
+        assertEquals(0, bulkhead.getInFlight());
+    }
+
+    @Test
+    void invalidSettingsFallBackToTheirDefault() {
+        BulkheadSettings settings = new BulkheadSettings(0, -1, -1, -1, true, 0.5);
+        assertEquals(50, settings.getMaxConcurrent());
+        assertEquals(5, settings.getMinConcurrent());
+        assertEquals(0, settings.getMaxQueued());
+        assertEquals(0, settings.getMaxWaitMs());
+        assertEquals(2, settings.getLatencyTolerance());
+
+        assertEquals(3, new BulkheadSettings(3, 10, 0, 0, true, 2).getMinConcurrent());
+    }
+
+    private static void send(Bulkhead bulkhead, int requests, long latencyNanos) {
+        for (int i = 0; i < requests; i++) {
+            bulkhead.acquire();
+            bulkhead.release(latencyNanos);
+        }
+    }
+
+}
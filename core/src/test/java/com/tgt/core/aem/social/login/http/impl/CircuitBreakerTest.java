@@ -0,0 +1,125 @@
+package com.tgt.core.aem.social.login.http.impl;
+
+import com.tgt.core.aem.social.login.http.CircuitOpenException;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Transitions of a {@link CircuitBreaker} between closed, open and half open.
+ */
+class CircuitBreakerTest {
+
+    private static final int OPEN_MS = 20;
+
+    @Test
+    void circuitOpensOnceTheFailureRateIsReachedOverTheMinimumCalls() {
+        CircuitBreaker breaker = new CircuitBreaker("token", new CircuitBreakerSettings(true, 50, 10, 4, OPEN_MS));
+
+        call(breaker, true);
+        call(breaker, false);
+        call(breaker, true);
+        //2 failures of 3 calls, still below the minimum calls
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        call(breaker, true);
+
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        assertFalse(breaker.isCallPermitted());
+        CircuitOpenException e = assertThrows(CircuitOpenException.class, breaker::acquire);
+        assertEquals("Circuit of token is open after too many failures", e.getMessage());
+        assertEquals(1, breaker.getRejected());
+    }
+
+    @Test
+    void onlyTheLastCallsOfTheWindowCount() {
+        CircuitBreaker breaker = new CircuitBreaker("token", new CircuitBreakerSettings(true, 50, 4, 4, OPEN_MS));
+
+        call(breaker, true);
+        call(breaker, false);
+        call(breaker, false);
+        call(breaker, false);
+        assertEquals(25.0, breaker.getFailureRatePercent());
+        //the first failure leaves the window
+        call(breaker, false);
+        assertEquals(0.0, breaker.getFailureRatePercent());
+        call(breaker, true);
+        call(breaker, true);
+
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+    }
+
+    @Test
+    void successfulTrialClosesTheCircuit() throws Exception {
+        CircuitBreaker breaker = open();
+        Thread.sleep(OPEN_MS + 10);
+
+        assertTrue(breaker.isCallPermitted());
+        breaker.acquire();
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+        //a single trial at a time
+        assertFalse(breaker.isCallPermitted());
+        assertThrows(CircuitOpenException.class, breaker::acquire);
+        breaker.onSuccess();
+
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        assertEquals(0.0, breaker.getFailureRatePercent());
+    }
+
+    @Test
+    void failedTrialOpensTheCircuitAgain() throws Exception {
+        CircuitBreaker breaker = open();
+        Thread.sleep(OPEN_MS + 10);
+
+        breaker.acquire();
+        breaker.onFailure();
+
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        assertThrows(CircuitOpenException.class, breaker::acquire);
+    }
+
+    @Test
+    void trialWhichWasNotSentLetsAnotherTrialThrough() throws Exception {
+        CircuitBreaker breaker = open();
+        Thread.sleep(OPEN_MS + 10);
+
+        breaker.acquire();
+        breaker.onNotSent();
+
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+        breaker.acquire();
+        breaker.onSuccess();
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+    }
+
+    @Test
+    void resetClosesTheCircuit() {
+        CircuitBreaker breaker = open();
+
+        breaker.reset();
+
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        assertTrue(breaker.isCallPermitted());
+        breaker.acquire();
+    }
+
+    private static CircuitBreaker open() {
+        CircuitBreaker breaker = new CircuitBreaker("token", new CircuitBreakerSettings(true, 50, 2, 2, OPEN_MS));
+        call(breaker, true);
+        call(breaker, true);
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        return breaker;
+    }
+
+    private static void call(CircuitBreaker breaker, boolean failed) {
+        breaker.acquire();
+        if (failed) {
+            breaker.onFailure();
+        } else {
+            breaker.onSuccess();
+        }
+    }
+
+}
@@ -0,0 +1,85 @@
+package com.tgt.core.aem.social.login.http.impl;
+
+import com.tgt.core.aem.social.login.metrics.impl.LoginMetricsImpl;
+import com.tgt.core.aem.social.login.testing.GoogleStandInServer;
+import io.wcm.testing.mock.aem.junit5.AemContext;
+import io.wcm.testing.mock.aem.junit5.AemContextExtension;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.scribe.exceptions.OAuthException;
+import org.scribe.model.Response;
+import org.scribe.model.Verb;
+
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Requests of the {@link KeepAliveOAuthTransport} to a {@link GoogleStandInServer}.
+ */
+@ExtendWith(AemContextExtension.class)
+class KeepAliveOAuthTransportTest {
+
+    private final AemContext context = new AemContext();
+
+    private GoogleStandInServer server;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        server = GoogleStandInServer.start();
+        context.registerInjectActivateService(new LoginMetricsImpl());
+    }
+
+    @AfterEach
+    void tearDown() {
+        server.close();
+    }
+
+    @Test
+    void requestsReuseTheirConnectionWithoutTouchingTheKeepAliveProperty() throws Exception {
+        String keepAlive = System.getProperty("http.keepAlive");
+        KeepAliveOAuthTransport transport = context.registerInjectActivateService(new KeepAliveOAuthTransport());
+        String url = server.getUrl(GoogleStandInServer.Endpoint.JWKS);
+
+        for (int i = 0; i < 20; i++) {
+            Response response = transport.createRequest(Verb.GET, url).send();
+            assertEquals(200, response.getCode());
+            response.getBody();
+        }
+
+        assertEquals(20, server.getRequestCount(GoogleStandInServer.Endpoint.JWKS));
+        assertEquals(1, server.getConnectionCount());
+        assertEquals(keepAlive, System.getProperty("http.keepAlive"));
+    }
+
+    @Test
+    void retriesStopAtTheRetryDeadline() throws Exception {
+        server.setLatency(GoogleStandInServer.Endpoint.USER_DETAILS, 200, 0);
+        server.setFailureRate(GoogleStandInServer.Endpoint.USER_DETAILS, 1);
+        KeepAliveOAuthTransport transport = context.registerInjectActivateService(new KeepAliveOAuthTransport(),
+                "retry.deadline.ms", 300,
+                "retry.max.retries", 10,
+                "retry.budget.percent", 1000,
+                "circuit.enabled", false);
+
+        long start = System.nanoTime();
+        try {
+            Response response = transport.createRequest(Verb.GET,
+                    server.getUrl(GoogleStandInServer.Endpoint.USER_DETAILS)).send();
+            assertEquals(503, response.getCode());
+        } catch (OAuthException e) {
+            //the last retry timed out
+            assertTrue(Objects.nonNull(e.getCause()));
+        }
+        long elapsedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        //the first attempt takes 200 ms, a retry only has the 100 ms left
+        assertTrue(server.getRequestCount(GoogleStandInServer.Endpoint.USER_DETAILS) <= 2);
+        assertTrue(elapsedMs < 600, "Request took " + elapsedMs + " ms");
+    }
+
+}
@@ -0,0 +1,82 @@
+package com.tgt.core.aem.social.login.http.impl;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Retry budget and backoff of the {@link RetryPolicy} of the outbound requests.
+ */
+class RetryPolicyTest {
+
+    @Test
+    void burstOfRetriesIsAllowedUntilTheBudgetIsExhausted() {
+        RetryPolicy policy = new RetryPolicy(2, 100, 1000, 10);
+
+        for (int i = 0; i < 10; i++) {
+            assertTrue(policy.tryRetry(), "Retry " + i);
+        }
+
+        assertFalse(policy.tryRetry());
+        assertEquals(10, policy.getRetries());
+        assertEquals(1, policy.getDenied());
+    }
+
+    @Test
+    void requestsEarnTheirShareOfARetry() {
+        RetryPolicy policy = exhausted(new RetryPolicy(2, 100, 1000, 10));
+
+        for (int i = 0; i < 9; i++) {
+            policy.onRequest();
+        }
+        assertFalse(policy.tryRetry());
+        policy.onRequest();
+
+        assertTrue(policy.tryRetry());
+        assertFalse(policy.tryRetry());
+    }
+
+    @Test
+    void withoutBudgetOnlyTheInitialBurstIsRetried() {
+        RetryPolicy policy = exhausted(new RetryPolicy(2, 100, 1000, 0));
+
+        for (int i = 0; i < 1000; i++) {
+            policy.onRequest();
+        }
+
+        assertFalse(policy.tryRetry());
+    }
+
+    @Test
+    void backoffIsCappedExponentially() {
+        RetryPolicy policy = new RetryPolicy(5, 100, 300, 10);
+
+        for (int i = 0; i < 100; i++) {
+            assertTrue(policy.backoffNanos(1) <= TimeUnit.MILLISECONDS.toNanos(100));
+            assertTrue(policy.backoffNanos(2) <= TimeUnit.MILLISECONDS.toNanos(200));
+            assertTrue(policy.backoffNanos(3) <= TimeUnit.MILLISECONDS.toNanos(300));
+            assertTrue(policy.backoffNanos(40) <= TimeUnit.MILLISECONDS.toNanos(300));
+            assertTrue(policy.backoffNanos(1) >= 0);
+        }
+    }
+
+    @Test
+    void settingsAreBounded() {
+        RetryPolicy policy = new RetryPolicy(-1, 0, 0, 500);
+
+        assertEquals(0, policy.getMaxRetries());
+        assertEquals("maxRetries=0, backoff=1ms, maxBackoff=1ms, budget=100%", policy.toString());
+    }
+
+    private static RetryPolicy exhausted(RetryPolicy policy) {
+        while (policy.tryRetry()) {
+            //spend the initial burst
+        }
+        return policy;
+    }
+
+}
@@ -0,0 +1,79 @@
+package com.tgt.core.aem.social.login.metrics.impl;
+
+import com.tgt.core.aem.social.login.metrics.PhaseStatistics;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Buckets and percentiles of the {@link LatencyHistogram} of a login phase.
+ */
+class LatencyHistogramTest {
+
+    @Test
+    void valuesAreBucketedWithinAnEighthOfThemselves() {
+        for (long value = 0; value < 8; value++) {
+            assertEquals(value, LatencyHistogram.index(value));
+            assertEquals(value, LatencyHistogram.highestValue((int) value));
+        }
+        assertEquals(16, LatencyHistogram.index(16));
+        assertEquals(16, LatencyHistogram.index(17));
+        assertEquals(17, LatencyHistogram.highestValue(16));
+
+        for (long value = 8; value > 0 && value < Long.MAX_VALUE / 3; value = value * 3 + 1) {
+            long highest = LatencyHistogram.highestValue(LatencyHistogram.index(value));
+            assertTrue(highest >= value && highest - value <= value / 8, "Value " + value);
+        }
+        assertEquals(Long.MAX_VALUE, LatencyHistogram.highestValue(LatencyHistogram.index(Long.MAX_VALUE)));
+    }
+
+    @Test
+    void percentilesAreWithinAnEighthOfTheRecordedLatencies() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int ms = 1; ms <= 1000; ms++) {
+            histogram.record(TimeUnit.MILLISECONDS.toNanos(ms));
+        }
+
+        PhaseStatistics statistics = histogram.getStatistics();
+
+        assertEquals(1000, statistics.getCount());
+        assertEquals(500.5, statistics.getMeanMs(), 0.001);
+        assertWithinAnEighth(500, statistics.getP50Ms());
+        assertWithinAnEighth(990, statistics.getP99Ms());
+        assertWithinAnEighth(999, statistics.getP999Ms());
+        assertEquals(1000, statistics.getMaxMs(), 0.001);
+    }
+
+    @Test
+    void percentilesAreNeverAboveTheMax() {
+        LatencyHistogram histogram = new LatencyHistogram();
+
+        histogram.record(TimeUnit.MICROSECONDS.toNanos(1000));
+
+        PhaseStatistics statistics = histogram.getStatistics();
+        assertEquals(1, statistics.getP50Ms(), 0.001);
+        assertEquals(1, statistics.getP999Ms(), 0.001);
+        assertEquals(1, statistics.getMaxMs(), 0.001);
+    }
+
+    @Test
+    void resetsForgetTheRecordedLatencies() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(TimeUnit.MILLISECONDS.toNanos(20));
+        histogram.record(-1);
+
+        histogram.reset();
+
+        PhaseStatistics statistics = histogram.getStatistics();
+        assertEquals(0, statistics.getCount());
+        assertEquals(0, statistics.getMaxMs(), 0.001);
+    }
+
+    private static void assertWithinAnEighth(double expectedMs, double actualMs) {
+        assertTrue(actualMs >= expectedMs && actualMs <= expectedMs * 9 / 8, expectedMs + " ms read as " + actualMs);
+    }
+
+}
@@ -0,0 +1,103 @@
+package com.tgt.core.aem.social.login.metrics.impl;
+
+import com.tgt.core.aem.social.login.metrics.LoginPhase;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.lang.reflect.Array;
+import java.net.SocketTimeoutException;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Latest login events kept in the ring of the {@link LoginTrace}.
+ */
+class LoginTraceTest {
+
+    @Test
+    void sizesAreRoundedUpToAPowerOfTwo() {
+        assertEquals(2, LoginTrace.capacity(0));
+        assertEquals(2, LoginTrace.capacity(2));
+        assertEquals(8, LoginTrace.capacity(5));
+        assertEquals(1024, LoginTrace.capacity(1024));
+        assertEquals(1 << 20, LoginTrace.capacity(Integer.MAX_VALUE));
+    }
+
+    @Test
+    void eventsAreReadOldestFirst() {
+        LoginTrace trace = new LoginTrace(4);
+        long start = System.currentTimeMillis();
+
+        trace.record(1, LoginPhase.TOKEN_EXCHANGE, LoginTrace.Kind.DURATION, 120);
+        trace.record(1, LoginPhase.TOKEN_EXCHANGE, LoginTrace.Kind.STATUS, 200);
+        trace.record(2, LoginPhase.USER_DETAILS_FETCH, LoginTrace.Kind.PAYLOAD, 2048);
+
+        List<LoginTrace.Event> events = trace.read();
+        assertEquals(3, events.size());
+        LoginTrace.Event first = events.get(0);
+        assertEquals(0, first.sequence);
+        assertEquals(1, first.login);
+        assertEquals(LoginPhase.TOKEN_EXCHANGE, first.phase);
+        assertEquals(LoginTrace.Kind.DURATION, first.kind);
+        assertEquals(120, first.value);
+        assertTrue(first.time >= start);
+        LoginTrace.Event last = events.get(2);
+        assertEquals(2, last.login);
+        assertEquals(LoginPhase.USER_DETAILS_FETCH, last.phase);
+        assertEquals(LoginTrace.Kind.PAYLOAD, last.kind);
+        assertEquals(2048, last.value);
+    }
+
+    @Test
+    void oldestEventsAreOverwrittenOnceFull() {
+        LoginTrace trace = new LoginTrace(4);
+
+        for (int login = 0; login < 6; login++) {
+            trace.record(login, LoginPhase.USER_CREATE, LoginTrace.Kind.DURATION, login);
+        }
+
+        List<LoginTrace.Event> events = trace.read();
+        assertEquals(4, events.size());
+        for (int i = 0; i < events.size(); i++) {
+            assertEquals(i + 2, events.get(i).sequence);
+            assertEquals(i + 2, events.get(i).login);
+        }
+    }
+
+    @Test
+    void failuresAreKeptByTheTypeOfTheirCause() {
+        LoginTrace trace = new LoginTrace(4);
+
+        trace.recordFailure(1, LoginPhase.TOKEN_EXCHANGE, SocketTimeoutException.class);
+        trace.recordFailure(2, LoginPhase.TOKEN_EXCHANGE, IOException.class);
+        trace.recordFailure(3, LoginPhase.TOKEN_EXCHANGE, SocketTimeoutException.class);
+
+        List<LoginTrace.Event> events = trace.read();
+        assertEquals(LoginTrace.Kind.FAILURE, events.get(0).kind);
+        assertEquals(events.get(0).value, events.get(2).value);
+        assertEquals("SocketTimeoutException", trace.getCauseName(events.get(0).value));
+        assertEquals("IOException", trace.getCauseName(events.get(1).value));
+        assertEquals("Other", trace.getCauseName(-1));
+        assertEquals("Other", trace.getCauseName(255));
+    }
+
+    @Test
+    void causesAreOtherOnceTheTableIsFull() {
+        LoginTrace trace = new LoginTrace(2);
+
+        //arrays of each dimension are as many distinct types
+        for (int dimensions = 1; dimensions < 256; dimensions++) {
+            Class<?> cause = Array.newInstance(Object.class, new int[dimensions]).getClass();
+            trace.recordFailure(dimensions, LoginPhase.TOKEN_EXCHANGE, cause);
+        }
+        trace.recordFailure(256, LoginPhase.TOKEN_EXCHANGE, IOException.class);
+
+        List<LoginTrace.Event> events = trace.read();
+        assertEquals("Object[]", trace.getCauseName(1));
+        assertEquals(255, events.get(0).value);
+        assertEquals("Other", trace.getCauseName(events.get(1).value));
+    }
+
+}
@@ -0,0 +1,238 @@
+package com.tgt.core.aem.social.login.oidc;
+
+import com.tgt.core.aem.social.login.http.LocalResponses;
+import com.tgt.core.aem.social.login.http.OAuthTransport;
+import com.tgt.core.aem.social.login.testing.StandInScheduler;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.scribe.model.OAuthRequest;
+import org.scribe.model.Response;
+
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.PrivateKey;
+import java.security.Signature;
+import java.security.interfaces.RSAPublicKey;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * ID tokens checked by an {@link IdTokenVerifier} against the keys of a {@link JwksKeyCache}.
+ */
+class IdTokenVerifierTest {
+
+    private static final String ISSUER = "https://accounts.standin.example.com";
+    private static final String CLIENT_ID = "stand-in-client";
+    private static final String KEY_ID = "key-1";
+
+    private KeyPair keyPair;
+    private KeyPair otherKeyPair;
+    private JwksKeyCache keys;
+    private IdTokenVerifier verifier;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+        generator.initialize(2048);
+        keyPair = generator.generateKeyPair();
+        otherKeyPair = generator.generateKeyPair();
+        String jwks = "{\"keys\":[" + jwk(KEY_ID, (RSAPublicKey) keyPair.getPublic()) + "]}";
+        keys = new JwksKeyCache(localTransport(jwks), "http://localhost/certs", new StandInScheduler());
+        verifier = new IdTokenVerifier(keys, Collections.singleton(ISSUER));
+    }
+
+    @AfterEach
+    void tearDown() {
+        keys.close();
+    }
+
+    @Test
+    void trustedTokensGiveTheirClaims() throws Exception {
+        Map<String, Object> claims = verifier.verify(sign(header("RS256", KEY_ID), claims(ISSUER, CLIENT_ID, 3600),
+                keyPair.getPrivate()), CLIENT_ID);
+
+        assertEquals("10001", claims.get("sub"));
+        assertEquals(Boolean.TRUE, claims.get("email_verified"));
+    }
+
+    @Test
+    void tokensSignedWithAnotherKeyAreRejected() {
+        String token = sign(header("RS256", KEY_ID), claims(ISSUER, CLIENT_ID, 3600), otherKeyPair.getPrivate());
+
+        assertRejected(token, "ID token signature doesn't match");
+    }
+
+    @Test
+    void tamperedClaimsAreRejected() {
+        String token = sign(header("RS256", KEY_ID), claims(ISSUER, CLIENT_ID, 3600), keyPair.getPrivate());
+        String[] parts = token.split("\\.");
+        String tampered = parts[0] + '.' + base64(claims(ISSUER, CLIENT_ID, 3600).replace("10001", "10002")) + '.'
+                + parts[2];
+
+        assertRejected(tampered, "ID token signature doesn't match");
+    }
+
+    @Test
+    void unknownKeysAreRejected() {
+        assertRejected(sign(header("RS256", "key-2"), claims(ISSUER, CLIENT_ID, 3600), keyPair.getPrivate()),
+                "No signing key found for key id key-2");
+        assertRejected(sign("{\"alg\":\"RS256\"}", claims(ISSUER, CLIENT_ID, 3600), keyPair.getPrivate()),
+                "No signing key found for key id null");
+    }
+
+    @Test
+    void tokensOfAnotherClientAreRejected() {
+        String token = sign(header("RS256", KEY_ID), claims(ISSUER, "other-client", 3600), keyPair.getPrivate());
+
+        assertRejected(token, "ID token wasn't issued for this client");
+        assertThrows(IdTokenException.class, () -> verifier.verify(
+                sign(header("RS256", KEY_ID), claims(ISSUER, CLIENT_ID, 3600), keyPair.getPrivate()), null));
+    }
+
+    @Test
+    void tokensOfSeveralAudiencesAreTrustedWhenAuthorizedForThisClient() throws Exception {
+        String audiences = "[\"other-client\",\"" + CLIENT_ID + "\"]";
+        String claims = claimsWithAudience(ISSUER, audiences, 3600);
+        String authorized = authorizedParty(claims, CLIENT_ID);
+
+        Map<String, Object> verified = verifier.verify(sign(header("RS256", KEY_ID), authorized,
+                keyPair.getPrivate()), CLIENT_ID);
+
+        assertEquals("10001", verified.get("sub"));
+        assertFalse(verified.keySet().stream().anyMatch(name -> name.startsWith("aud")));
+        assertRejected(sign(header("RS256", KEY_ID), claims, keyPair.getPrivate()),
+                "ID token wasn't authorized for this client");
+        assertRejected(sign(header("RS256", KEY_ID), authorizedParty(claims, "other-client"), keyPair.getPrivate()),
+                "ID token wasn't authorized for this client");
+    }
+
+    @Test
+    void audienceArraysMustContainThisClient() throws Exception {
+        Map<String, Object> claims = verifier.verify(sign(header("RS256", KEY_ID),
+                claimsWithAudience(ISSUER, "[\"" + CLIENT_ID + "\"]", 3600), keyPair.getPrivate()), CLIENT_ID);
+        assertEquals("10001", claims.get("sub"));
+
+        String otherAudiences = claimsWithAudience(ISSUER, "[\"other-client\",{\"id\":\"" + CLIENT_ID + "\"}]", 3600);
+        assertRejected(sign(header("RS256", KEY_ID), authorizedParty(otherAudiences, CLIENT_ID), keyPair.getPrivate()),
+                "ID token wasn't issued for this client");
+        assertRejected(sign(header("RS256", KEY_ID), claimsWithAudience(ISSUER, "[]", 3600), keyPair.getPrivate()),
+                "ID token wasn't issued for this client");
+    }
+
+    @Test
+    void tokensOfAnotherIssuerAreRejected() {
+        String token = sign(header("RS256", KEY_ID), claims("https://evil.example.com", CLIENT_ID, 3600),
+                keyPair.getPrivate());
+
+        assertRejected(token, "Unexpected ID token issuer https://evil.example.com");
+    }
+
+    @Test
+    void expiredTokensAreRejected() {
+        //beyond the tolerated clock skew
+        String token = sign(header("RS256", KEY_ID), claims(ISSUER, CLIENT_ID, -120), keyPair.getPrivate());
+
+        assertRejected(token, "ID token is expired");
+        String noExpiry = sign(header("RS256", KEY_ID), "{\"iss\":\"" + ISSUER + "\",\"aud\":\"" + CLIENT_ID + "\"}",
+                keyPair.getPrivate());
+        assertRejected(noExpiry, "ID token is expired");
+    }
+
+    @Test
+    void otherAlgorithmsAreRejected() {
+        String claims = base64(claims(ISSUER, CLIENT_ID, 3600));
+
+        assertRejected(base64(header("none", KEY_ID)) + '.' + claims + '.', "ID token is not a signed JWT");
+        assertRejected(base64(header("none", KEY_ID)) + '.' + claims + ".c2ln", "Unsupported ID token algorithm none");
+        assertRejected(base64(header("HS256", KEY_ID)) + '.' + claims + ".c2ln",
+                "Unsupported ID token algorithm HS256");
+        assertRejected(sign(header("RS512", KEY_ID), claims(ISSUER, CLIENT_ID, 3600), keyPair.getPrivate()),
+                "Unsupported ID token algorithm RS512");
+    }
+
+    @Test
+    void malformedTokensAreRejected() {
+        assertRejected("", "ID token is missing");
+        assertRejected("a.b", "ID token is not a signed JWT");
+        assertRejected("!!.??.--", "Unable to verify ID token");
+    }
+
+    private void assertRejected(String token, String message) {
+        IdTokenException e = assertThrows(IdTokenException.class, () -> verifier.verify(token, CLIENT_ID));
+        assertEquals(message, e.getMessage());
+    }
+
+    private static String header(String alg, String keyId) {
+        return "{\"alg\":\"" + alg + "\",\"kid\":\"" + keyId + "\",\"typ\":\"JWT\"}";
+    }
+
+    /**
+     * @param expiresIn seconds from now until the token expires, negative for an expired token
+     */
+    private static String claims(String issuer, String audience, long expiresIn) {
+        return claimsWithAudience(issuer, "\"" + audience + "\"", expiresIn);
+    }
+
+    /**
+     * @param audience JSON value of the audience, a string or an array
+     */
+    private static String claimsWithAudience(String issuer, String audience, long expiresIn) {
+        long now = TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis());
+        return "{\"iss\":\"" + issuer + "\",\"aud\":" + audience + ",\"sub\":\"10001\",\"email_verified\":true,"
+                + "\"iat\":" + (now - 10) + ",\"exp\":" + (now + expiresIn) + '}';
+    }
+
+    /**
+     * @return the claims with an {@code azp} claim for the client
+     */
+    private static String authorizedParty(String claims, String clientId) {
+        return claims.substring(0, claims.length() - 1) + ",\"azp\":\"" + clientId + "\"}";
+    }
+
+    private static String sign(String header, String claims, PrivateKey key) {
+        String signed = base64(header) + '.' + base64(claims);
+        try {
+            Signature signature = Signature.getInstance("SHA256withRSA");
+            signature.initSign(key);
+            signature.update(signed.getBytes(StandardCharsets.US_ASCII));
+            return signed + '.' + Base64.getUrlEncoder().withoutPadding().encodeToString(signature.sign());
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String base64(String json) {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(json.getBytes(StandardCharsets.UTF_8));
+    }
+
+    static String jwk(String keyId, RSAPublicKey key) {
+        return "{\"kty\":\"RSA\",\"alg\":\"RS256\",\"use\":\"sig\",\"kid\":\"" + keyId + "\",\"n\":\""
+                + base64(key.getModulus()) + "\",\"e\":\"" + base64(key.getPublicExponent()) + "\"}";
+    }
+
+    private static String base64(BigInteger value) {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(value.toByteArray());
+    }
+
+    /**
+     * @return transport answering every request with the key set, without going over the network
+     */
+    static OAuthTransport localTransport(String jwks) {
+        return (verb, url) -> new OAuthRequest(verb, url) {
+            @Override
+            public Response send() {
+                return LocalResponses.json(200, jwks.getBytes(StandardCharsets.UTF_8));
+            }
+        };
+    }
+
+}
@@ -0,0 +1,140 @@
+package com.tgt.core.aem.social.login.oidc;
+
+import com.tgt.core.aem.social.login.testing.StandInScheduler;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.KeyPairGenerator;
+import java.security.PublicKey;
+import java.security.interfaces.RSAPublicKey;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Signing keys read by the {@link JwksKeyCache} from a JSON Web Key Set.
+ */
+class JwksKeyCacheTest {
+
+    @Test
+    void onlyValidRsaSigningKeysAreKept() throws Exception {
+        RSAPublicKey key = generateKey();
+        String valid = IdTokenVerifierTest.jwk("valid", key);
+
+        Map<String, PublicKey> keys = JwksKeyCache.parseKeys(stream("{\"keys\":[" + valid + ","
+                + valid.replace("\"valid\"", "\"encryption\"").replace("\"sig\"", "\"enc\"") + ","
+                + valid.replace("\"valid\"", "\"rs512\"").replace("RS256", "RS512") + ","
+                + valid.replace("\"valid\"", "\"no-modulus\"").replaceAll("\"n\":\"[^\"]+\",", "") + ","
+                + valid.replace("\"valid\"", "\"bad-modulus\"").replaceAll("\"n\":\"[^\"]+\"", "\"n\":\"***\"") + ","
+                + valid.replace("\"valid\"", "\"zero-exponent\"").replaceAll("\"e\":\"[^\"]+\"", "\"e\":\"AA\"") + ","
+                + valid.replace("\"kid\":\"valid\",", "") + ","
+                + "{\"kty\":\"EC\",\"kid\":\"ec\",\"crv\":\"P-256\",\"x\":\"AA\",\"y\":\"AA\"}],"
+                + "\"other\":{\"keys\":1}}"));
+
+        assertEquals(1, keys.size());
+        assertEquals(key, keys.get("valid"));
+    }
+
+    @Test
+    void keysWithoutUseOrAlgorithmAreKept() throws Exception {
+        String jwk = IdTokenVerifierTest.jwk("plain", generateKey()).replace("\"alg\":\"RS256\",", "")
+                .replace("\"use\":\"sig\",", "");
+
+        assertNotNull(JwksKeyCache.parseKeys(stream("{\"keys\":[" + jwk + "]}")).get("plain"));
+    }
+
+    @Test
+    void keySetsWhichArentJsonAreRejected() {
+        assertThrows(IOException.class, () -> JwksKeyCache.parseKeys(stream("[]")));
+        assertThrows(IOException.class, () -> JwksKeyCache.parseKeys(stream("{\"keys\":{}}")));
+    }
+
+    @Test
+    void unknownKeysAreFetchedAgainAtMostOncePerInterval() throws Exception {
+        String jwks = "{\"keys\":[" + IdTokenVerifierTest.jwk("known", generateKey()) + "]}";
+        int[] fetches = new int[1];
+        JwksKeyCache cache = new JwksKeyCache((verb, url) -> {
+            fetches[0]++;
+            return IdTokenVerifierTest.localTransport(jwks).createRequest(verb, url);
+        }, "http://localhost/certs", new StandInScheduler());
+        try {
+            assertNull(cache.getKey("rotated"));
+            assertNull(cache.getKey("rotated"));
+            assertNotNull(cache.getKey("known"));
+
+            assertEquals(1, fetches[0]);
+        } finally {
+            cache.close();
+        }
+    }
+
+    @Test
+    void keysAskedForDuringTheFirstFetchWaitForIt() throws Exception {
+        String jwks = "{\"keys\":[" + IdTokenVerifierTest.jwk("known", generateKey()) + "]}";
+        CountDownLatch fetching = new CountDownLatch(1);
+        CountDownLatch answered = new CountDownLatch(1);
+        JwksKeyCache cache = new JwksKeyCache((verb, url) -> {
+            fetching.countDown();
+            try {
+                answered.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return IdTokenVerifierTest.localTransport(jwks).createRequest(verb, url);
+        }, "http://localhost/certs", new StandInScheduler());
+        try {
+            cache.start();
+            assertTrue(fetching.await(5, TimeUnit.SECONDS));
+
+            CompletableFuture<PublicKey> key = CompletableFuture.supplyAsync(() -> cache.getKey("known"));
+            Thread.sleep(100);
+            assertFalse(key.isDone());
+            answered.countDown();
+
+            assertNotNull(key.get(5, TimeUnit.SECONDS));
+        } finally {
+            cache.close();
+        }
+    }
+
+    @Test
+    void keysAreFetchedInTheBackgroundUntilClosed() throws Exception {
+        String jwks = "{\"keys\":[" + IdTokenVerifierTest.jwk("known", generateKey()) + "]}";
+        StandInScheduler scheduler = new StandInScheduler();
+        JwksKeyCache cache = new JwksKeyCache(IdTokenVerifierTest.localTransport(jwks), "http://localhost/certs",
+                scheduler);
+
+        cache.start();
+        for (int i = 0; i < 100 && (cache.size() == 0 || scheduler.getScheduledCount() == 0); i++) {
+            Thread.sleep(20);
+        }
+
+        assertEquals(1, cache.size());
+        //the next refresh is scheduled after the first one
+        assertEquals(1, scheduler.getScheduledCount());
+        cache.close();
+        assertEquals(0, scheduler.getScheduledCount());
+    }
+
+    private static RSAPublicKey generateKey() throws Exception {
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+        generator.initialize(2048);
+        return (RSAPublicKey) generator.generateKeyPair().getPublic();
+    }
+
+    private static InputStream stream(String json) {
+        return new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8));
+    }
+
+}
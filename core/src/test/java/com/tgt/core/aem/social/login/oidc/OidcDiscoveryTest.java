@@ -0,0 +1,172 @@
+package com.tgt.core.aem.social.login.oidc;
+
+import com.tgt.core.aem.social.login.http.LocalResponses;
+import com.tgt.core.aem.social.login.http.OAuthTransport;
+import org.apache.sling.commons.scheduler.ScheduleOptions;
+import org.apache.sling.commons.scheduler.Scheduler;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.scribe.model.OAuthRequest;
+import org.scribe.model.Response;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.RETURNS_SELF;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Endpoints of an OpenID Connect provider read from its discovery document and cached by the {@link OidcDiscovery}.
+ */
+class OidcDiscoveryTest {
+
+    private static final String ISSUER = "https://accounts.standin.example.com";
+    private static final String DISCOVERY_URL = ISSUER + OidcDiscovery.WELL_KNOWN_PATH;
+    private static final long TTL_MS = TimeUnit.HOURS.toMillis(1);
+
+    private final AtomicInteger sent = new AtomicInteger();
+
+    private Scheduler scheduler;
+    private int status;
+    private String document;
+    private String cacheControl;
+
+    @BeforeEach
+    void setUp() {
+        scheduler = mock(Scheduler.class);
+        when(scheduler.NOW()).thenReturn(mock(ScheduleOptions.class, RETURNS_SELF));
+        when(scheduler.AT(any())).thenReturn(mock(ScheduleOptions.class, RETURNS_SELF));
+        when(scheduler.schedule(any(), any())).thenReturn(true);
+        status = 200;
+        document = document(ISSUER);
+    }
+
+    @Test
+    void theDocumentIsFetchedInTheBackgroundThenRefreshedAfterItsTimeToLive() throws Exception {
+        OidcDiscovery discovery = new OidcDiscovery(transport(), ISSUER + "/", "", TTL_MS, scheduler);
+        discovery.start();
+        assertEquals(0, sent.get());
+
+        long start = System.currentTimeMillis();
+        scheduledJob(1).run();
+
+        OidcMetadata metadata = discovery.get();
+        assertEquals(ISSUER, metadata.getIssuer());
+        assertEquals(ISSUER + "/auth", metadata.getAuthorizationEndpoint());
+        assertEquals(ISSUER + "/token", metadata.getTokenEndpoint());
+        assertEquals(ISSUER + "/userinfo", metadata.getUserInfoEndpoint());
+        assertEquals(ISSUER + "/certs", metadata.getJwksUri());
+        assertSame(metadata, discovery.get());
+        assertEquals(1, sent.get());
+        assertEquals(DISCOVERY_URL, discovery.getDiscoveryUrl());
+        assertNextRefreshAfter(start, TTL_MS);
+    }
+
+    @Test
+    void theMaxAgeOfTheProviderIsPreferredToTheTimeToLive() {
+        cacheControl = "public, max-age=1000, must-revalidate";
+        OidcDiscovery discovery = new OidcDiscovery(transport(), ISSUER, DISCOVERY_URL, TTL_MS, scheduler);
+        discovery.start();
+
+        long start = System.currentTimeMillis();
+        scheduledJob(1).run();
+
+        assertNextRefreshAfter(start, TimeUnit.SECONDS.toMillis(800));
+    }
+
+    @Test
+    void loginsBeforeTheFirstFetchFetchTheDocumentAtMostOncePerRetryInterval() throws Exception {
+        OidcDiscovery discovery = new OidcDiscovery(transport(), ISSUER, DISCOVERY_URL, TTL_MS, scheduler);
+        status = 503;
+
+        IOException unavailable = assertThrows(IOException.class, discovery::get);
+        assertThrows(IOException.class, discovery::get);
+
+        assertEquals("Discovery document of " + ISSUER + " isn't available yet", unavailable.getMessage());
+        assertEquals(1, sent.get());
+    }
+
+    @Test
+    void documentsOfAnotherIssuerOrWithoutEndpointsAreRejected() {
+        document = document("https://accounts.other.example.com");
+        assertThrows(IOException.class,
+                new OidcDiscovery(transport(), ISSUER, DISCOVERY_URL, TTL_MS, scheduler)::get);
+
+        document = document(ISSUER).replace("\"token_endpoint\"", "\"other_endpoint\"");
+        assertThrows(IOException.class,
+                new OidcDiscovery(transport(), ISSUER, DISCOVERY_URL, TTL_MS, scheduler)::get);
+
+        document = "[]";
+        assertThrows(IOException.class,
+                new OidcDiscovery(transport(), ISSUER, DISCOVERY_URL, TTL_MS, scheduler)::get);
+    }
+
+    @Test
+    void closedDiscoveriesArentScheduledAgain() {
+        OidcDiscovery discovery = new OidcDiscovery(transport(), ISSUER, DISCOVERY_URL, TTL_MS, scheduler);
+        discovery.start();
+        Runnable job = scheduledJob(1);
+
+        discovery.close();
+        job.run();
+
+        verify(scheduler).unschedule(any());
+        scheduledJob(1);
+    }
+
+    private Runnable scheduledJob(int times) {
+        ArgumentCaptor<Object> job = ArgumentCaptor.forClass(Object.class);
+        verify(scheduler, times(times)).schedule(job.capture(), any());
+        return (Runnable) job.getValue();
+    }
+
+    private void assertNextRefreshAfter(long start, long delayMs) {
+        ArgumentCaptor<Date> at = ArgumentCaptor.forClass(Date.class);
+        verify(scheduler).AT(at.capture());
+        long actualDelayMs = at.getValue().getTime() - start;
+        assertTrue(actualDelayMs >= delayMs && actualDelayMs < delayMs + TimeUnit.SECONDS.toMillis(10),
+                "Next refresh in " + actualDelayMs + " ms");
+        scheduledJob(2);
+    }
+
+    private static String document(String issuer) {
+        return "{\"issuer\":\"" + issuer + "\",\"authorization_endpoint\":\"" + issuer + "/auth\","
+                + "\"token_endpoint\":\"" + issuer + "/token\",\"userinfo_endpoint\":\"" + issuer + "/userinfo\","
+                + "\"jwks_uri\":\"" + issuer + "/certs\",\"scopes_supported\":[\"openid\",\"email\"]}";
+    }
+
+    /**
+     * @return transport answering the discovery URL with the current status, document and Cache-Control header
+     */
+    private OAuthTransport transport() {
+        return (verb, url) -> new OAuthRequest(verb, url) {
+            @Override
+            public Response send() {
+                assertEquals(DISCOVERY_URL, url);
+                sent.incrementAndGet();
+                Response response = spy(LocalResponses.json(status, document.getBytes(StandardCharsets.UTF_8)));
+                if (Objects.nonNull(cacheControl)) {
+                    doReturn(Collections.singletonMap("Cache-Control", cacheControl)).when(response).getHeaders();
+                }
+                return response;
+            }
+        };
+    }
+
+}
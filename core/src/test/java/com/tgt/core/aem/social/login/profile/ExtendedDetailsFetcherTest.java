@@ -0,0 +1,152 @@
+package com.tgt.core.aem.social.login.profile;
+
+import com.tgt.core.aem.social.login.http.LocalResponses;
+import com.tgt.core.aem.social.login.http.OAuthTransport;
+import com.tgt.core.aem.social.login.http.ProviderCallException;
+import com.tgt.core.aem.social.login.metrics.LoginMetrics;
+import com.tgt.core.aem.social.login.testing.StandInThreadPoolManager;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.scribe.exceptions.OAuthException;
+import org.scribe.model.OAuthRequest;
+import org.scribe.model.Response;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Extended details of a login fetched from all its sources at once by the {@link ExtendedDetailsFetcher}.
+ */
+class ExtendedDetailsFetcherTest {
+
+    private static final String CONTACTS = "https://people.standin.example.com/contacts";
+    private static final String PHOTOS = "https://photos.standin.example.com/albums";
+    private static final String DRIVE = "https://drive.standin.example.com/files";
+
+    private final StandInThreadPoolManager threadPoolManager = new StandInThreadPoolManager();
+    private final Map<String, Integer> statuses = new ConcurrentHashMap<>();
+    private final Map<String, Long> delaysMs = new ConcurrentHashMap<>();
+    private final AtomicInteger sent = new AtomicInteger();
+
+    private ExtendedDetailsFetcher fetcher;
+
+    @AfterEach
+    void tearDown() {
+        fetcher.close();
+    }
+
+    @Test
+    void theSourcesOfTheRequestedScopesAreFetchedAtOnce() {
+        fetcher = fetcher(1000, source("contacts", CONTACTS, false), source("photos", PHOTOS, false),
+                source("drive", DRIVE, false));
+        delaysMs.put(CONTACTS, 100L);
+        delaysMs.put(PHOTOS, 100L);
+
+        assertArrayEquals(new String[]{CONTACTS, PHOTOS}, fetcher.getUrls("openid contacts,photos"));
+        long start = System.nanoTime();
+        Response contacts = fetcher.fetch(fetcher.getSource(CONTACTS), "token-1");
+        Response photos = fetcher.fetch(fetcher.getSource(PHOTOS), "token-1");
+
+        assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(190));
+        assertEquals(2, sent.get());
+        assertEquals("{\"url\":\"" + CONTACTS + "\",\"query\":\"access_token=token-1\"}", contacts.getBody());
+        assertEquals("{\"url\":\"" + PHOTOS + "\",\"query\":\"access_token=token-1\"}", photos.getBody());
+    }
+
+    @Test
+    void sourcesTakenTwiceOrOfAnotherScopeAreFetchedAlone() {
+        fetcher = fetcher(1000, source("contacts", CONTACTS, false), source("drive", DRIVE, false));
+        fetcher.getUrls("contacts");
+
+        fetcher.fetch(fetcher.getSource(CONTACTS), "token-1");
+        fetcher.fetch(fetcher.getSource(CONTACTS), "token-1");
+        fetcher.fetch(fetcher.getSource(DRIVE), "token-1");
+
+        assertEquals(3, sent.get());
+    }
+
+    @Test
+    void optionalSourcesWhichFailOrDoNotAnswerInTimeAreSkipped() {
+        fetcher = fetcher(50, source("contacts", CONTACTS, false), source("photos", PHOTOS, false));
+        fetcher.getUrls("contacts photos");
+        delaysMs.put(CONTACTS, 1000L);
+        statuses.put(PHOTOS, 503);
+
+        long start = System.nanoTime();
+        assertEquals("{}", fetcher.fetch(fetcher.getSource(CONTACTS), "token-1").getBody());
+        assertEquals("{}", fetcher.fetch(fetcher.getSource(PHOTOS), "token-1").getBody());
+
+        assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(500));
+    }
+
+    @Test
+    void requiredSourcesWhichFailOrDoNotAnswerInTimeFailTheLogin() {
+        fetcher = fetcher(50, source("contacts", CONTACTS, true), source("photos", PHOTOS, true));
+        fetcher.getUrls("contacts photos");
+        delaysMs.put(CONTACTS, 1000L);
+        statuses.put(PHOTOS, 503);
+
+        ProviderCallException timeout = assertThrows(ProviderCallException.class,
+                () -> fetcher.fetch(fetcher.getSource(CONTACTS), "token-1"));
+        assertEquals("Extended details from " + CONTACTS + " not received in time", timeout.getMessage());
+        assertThrows(ProviderCallException.class, () -> fetcher.fetch(fetcher.getSource(PHOTOS), "token-1"));
+    }
+
+    @Test
+    void requestsWithoutAccessTokenAreNotSent() {
+        fetcher = fetcher(1000, source("contacts", CONTACTS, false), source("photos", PHOTOS, true));
+
+        assertEquals("{}", fetcher.fetch(fetcher.getSource(CONTACTS), null).getBody());
+        assertThrows(OAuthException.class, () -> fetcher.fetch(fetcher.getSource(PHOTOS), null));
+        assertEquals(0, sent.get());
+    }
+
+    @Test
+    void closingReleasesThePool() {
+        fetcher = fetcher(1000, source("contacts", CONTACTS, false));
+        assertEquals(1, threadPoolManager.getPoolCount());
+
+        fetcher.close();
+
+        assertEquals(0, threadPoolManager.getPoolCount());
+    }
+
+    private ExtendedDetailsFetcher fetcher(long deadlineMs, ExtendedDetailsSource... sources) {
+        return new ExtendedDetailsFetcher(transport(), Arrays.asList(sources), 4, deadlineMs, 100,
+                LoginMetrics.DISABLED, threadPoolManager);
+    }
+
+    private static ExtendedDetailsSource source(String scope, String url, boolean required) {
+        return new ExtendedDetailsSource(scope, url, required);
+    }
+
+    /**
+     * @return transport answering every source with its URL and its query, after the delay of the source
+     */
+    private OAuthTransport transport() {
+        return (verb, url) -> new OAuthRequest(verb, url) {
+            @Override
+            public Response send() {
+                sent.incrementAndGet();
+                try {
+                    Thread.sleep(delaysMs.getOrDefault(url, 0L));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                String body = "{\"url\":\"" + url + "\",\"query\":\""
+                        + getQueryStringParams().asFormUrlEncodedString() + "\"}";
+                return LocalResponses.json(statuses.getOrDefault(url, 200), body.getBytes(StandardCharsets.UTF_8));
+            }
+        };
+    }
+
+}
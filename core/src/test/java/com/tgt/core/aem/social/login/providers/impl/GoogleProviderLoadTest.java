@@ -0,0 +1,369 @@
+package com.tgt.core.aem.social.login.providers.impl;
+
+import com.adobe.granite.auth.oauth.Provider;
+import com.adobe.granite.crypto.CryptoSupport;
+import com.tgt.core.aem.social.login.avatars.AvatarCache;
+import com.tgt.core.aem.social.login.groups.GroupAssignment;
+import com.tgt.core.aem.social.login.http.ProviderCallException;
+import com.tgt.core.aem.social.login.http.ProviderFailure;
+import com.tgt.core.aem.social.login.http.impl.KeepAliveOAuthTransport;
+import com.tgt.core.aem.social.login.metrics.LoginMetrics;
+import com.tgt.core.aem.social.login.metrics.LoginPhase;
+import com.tgt.core.aem.social.login.metrics.impl.LoginMetricsImpl;
+import com.tgt.core.aem.social.login.scribe.GoogleEndpoints;
+import com.tgt.core.aem.social.login.scribe.GoogleScribeService;
+import com.tgt.core.aem.social.login.testing.GoogleStandInServer;
+import com.tgt.core.aem.social.login.testing.LoadReport;
+import com.tgt.core.aem.social.login.testing.LoginLoadGenerator;
+import com.tgt.core.aem.social.login.testing.StandInCryptoSupport;
+import com.tgt.core.aem.social.login.testing.StandInScheduler;
+import com.tgt.core.aem.social.login.testing.StandInThreadPoolManager;
+import com.tgt.core.aem.social.login.tokens.AccessTokenCache;
+import com.tgt.core.aem.social.login.tokens.AccessTokenStore;
+import com.tgt.core.aem.social.login.tokens.impl.LoginAccessTokens;
+import com.tgt.core.aem.social.login.users.impl.ConfigurableUserFolderLayout;
+import io.wcm.testing.mock.aem.junit5.AemContext;
+import io.wcm.testing.mock.aem.junit5.AemContextExtension;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.commons.scheduler.Scheduler;
+import org.apache.sling.commons.threads.ThreadPoolManager;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.scribe.model.OAuthConfig;
+import org.scribe.model.SignatureType;
+import org.scribe.model.Token;
+import org.scribe.model.Verifier;
+import org.scribe.oauth.OAuthService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.NotCompliantMBeanException;
+import javax.management.openmbean.CompositeData;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Logins against a {@link GoogleStandInServer}.
+ * <p>
+ * The defaults keep the run short, use system properties to size a login storm, e.g.
+ * {@code mvn test -Dtest=GoogleProviderLoadTest -Dload.concurrency=200 -Dload.logins=100000 -Dload.latency.ms=80
+ * -Dload.jitter.ms=40 -Dload.failure.rate=0.001}.
+ */
+@ExtendWith(AemContextExtension.class)
+class GoogleProviderLoadTest {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(GoogleProviderLoadTest.class);
+
+    private static final int CONCURRENCY = Integer.getInteger("load.concurrency", 8);
+    private static final int LOGINS = Integer.getInteger("load.logins", 200);
+    private static final long LATENCY_MS = Long.getLong("load.latency.ms", 0);
+    private static final long JITTER_MS = Long.getLong("load.jitter.ms", 0);
+    private static final double FAILURE_RATE = Double.parseDouble(System.getProperty("load.failure.rate", "0"));
+
+    private static final OAuthConfig CONFIG = new OAuthConfig("stand-in-client", "stand-in-secret",
+            "http://localhost:4503/callback/j_security_check", SignatureType.QueryString, "openid email profile",
+            null);
+
+    private final AemContext context = new AemContext();
+
+    private GoogleStandInServer server;
+    private LoginMetrics loginMetrics;
+
+    @BeforeEach
+    void setUp() throws IOException, NotCompliantMBeanException {
+        server = GoogleStandInServer.start();
+        for (GoogleStandInServer.Endpoint endpoint : GoogleStandInServer.Endpoint.values()) {
+            server.setLatency(endpoint, LATENCY_MS, JITTER_MS);
+        }
+        server.setFailureRate(GoogleStandInServer.Endpoint.TOKEN, FAILURE_RATE);
+        server.setFailureRate(GoogleStandInServer.Endpoint.USER_DETAILS, FAILURE_RATE);
+        loginMetrics = context.registerInjectActivateService(new LoginMetricsImpl());
+        context.registerInjectActivateService(new KeepAliveOAuthTransport());
+        context.registerService(AccessTokenCache.class, AccessTokenCache.DISABLED);
+        context.registerService(GroupAssignment.class, GroupAssignment.DISABLED);
+        context.registerService(AvatarCache.class, AvatarCache.DISABLED);
+        context.registerService(CryptoSupport.class, StandInCryptoSupport.create());
+        context.registerService(AccessTokenStore.class, new RecordingAccessTokenStore(),
+                AccessTokenStore.STORE_TYPE, AccessTokenStore.REPOSITORY);
+        context.registerInjectActivateService(new ConfigurableUserFolderLayout());
+        context.registerService(Scheduler.class, new StandInScheduler());
+        context.registerService(ThreadPoolManager.class, new StandInThreadPoolManager());
+    }
+
+    @AfterEach
+    void tearDown() {
+        server.close();
+    }
+
+    @Test
+    void userDetailsFromGoogle() throws InterruptedException {
+        run(false);
+
+        assertEquals(LOGINS, loginMetrics.getStatistics(LoginPhase.TOKEN_EXCHANGE).getCount());
+        assertEquals(LOGINS, server.getRequestCount(GoogleStandInServer.Endpoint.TOKEN));
+        assertTrue(server.getRequestCount(GoogleStandInServer.Endpoint.USER_DETAILS) <= LOGINS);
+        if (FAILURE_RATE == 0) {
+            assertEquals(LOGINS, server.getRequestCount(GoogleStandInServer.Endpoint.USER_DETAILS));
+        }
+    }
+
+    @Test
+    void userDetailsFromIdToken() throws InterruptedException {
+        LoadReport report = run(true);
+
+        assertTrue(server.getRequestCount(GoogleStandInServer.Endpoint.JWKS) > 0);
+        if (FAILURE_RATE == 0) {
+            assertEquals(0, server.getRequestCount(GoogleStandInServer.Endpoint.USER_DETAILS),
+                    String.valueOf(report.getFirstFailure()));
+        }
+    }
+
+    @Test
+    void failedLoginsAreReported() throws InterruptedException {
+        server.setFailureRate(GoogleStandInServer.Endpoint.TOKEN, 1);
+
+        LoadReport report = createLoadGenerator(false).run(2, 10);
+
+        assertEquals(10, report.getFailures());
+        assertTrue(Double.isNaN(report.getLatencyMillis(50)));
+        assertEquals(10, loginMetrics.getStatusCounts().get("TOKEN_EXCHANGE 503").longValue());
+        assertEquals(10, loginMetrics.getFailureCounts().get("TOKEN_EXCHANGE ProviderCallException").longValue());
+    }
+
+    @Test
+    void openCircuitFailsFast() throws InterruptedException {
+        server.setFailureRate(GoogleStandInServer.Endpoint.TOKEN, 1);
+
+        LoadReport report = createLoadGenerator(false).run(1, 30);
+
+        assertEquals(30, report.getFailures());
+        //the circuit opens once 10 exchanges failed, the next logins don't call Google
+        assertEquals(10, server.getRequestCount(GoogleStandInServer.Endpoint.TOKEN));
+        assertEquals(20, loginMetrics.getFailureCounts().get("TOKEN_EXCHANGE CircuitOpenException").longValue());
+    }
+
+    @Test
+    void loginsAreTracedWithoutUserData() throws Exception {
+        server.setFailureRate(GoogleStandInServer.Endpoint.GROUPS, 1);
+        LoginLoadGenerator loadGenerator = createLoadGenerator(false, extendedDetailsConfig(3000));
+        loadGenerator.login(1);
+        loadGenerator.login(2);
+
+        Map<Long, List<String>> events = new TreeMap<>();
+        for (Object row : ((LoginMetricsImpl) loginMetrics).dumpLoginTrace().values()) {
+            CompositeData event = (CompositeData) row;
+            String value = (String) event.get("value");
+            assertFalse(value.contains("standin.example.com"), value);
+            events.computeIfAbsent((Long) event.get("login"), login -> new ArrayList<>())
+                    .add(event.get("phase") + " " + event.get("event") + (value.endsWith(" ms") ? "" : " " + value));
+        }
+
+        assertEquals(2, events.size());
+        for (List<String> login : events.values()) {
+            assertTrue(login.contains("TOKEN_EXCHANGE status 200"), login.toString());
+            assertTrue(login.contains("TOKEN_EXCHANGE duration"), login.toString());
+            assertTrue(login.stream().anyMatch(event -> event.matches("USER_DETAILS_FETCH payload \\d+ bytes")),
+                    login.toString());
+            //extended details are fetched by pooled threads, still traced under their login
+            assertTrue(login.contains("EXTENDED_DETAILS_FETCH status 503"), login.toString());
+            assertTrue(login.contains("PROPERTY_MAPPING duration"), login.toString());
+        }
+    }
+
+    @Test
+    void duplicateCallbacksShareOneCodeExchange() throws Exception {
+        server.setLatency(GoogleStandInServer.Endpoint.TOKEN, 200, 0);
+        GoogleProvider provider = context.registerInjectActivateService(new GoogleProvider(),
+                "oauth.provider.id", "stand-in-google-provider",
+                "google.access.token.endpoint", server.getEndpoints().getAccessTokenEndpoint());
+        OAuthService service = provider.getApi().createService(CONFIG);
+        Verifier code = new Verifier(GoogleStandInServer.codeFor(1));
+
+        ExecutorService callbacks = Executors.newFixedThreadPool(4);
+        List<Future<Token>> concurrent = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            concurrent.add(callbacks.submit(() -> service.getAccessToken(null, code)));
+        }
+        Set<String> tokens = new HashSet<>();
+        for (Future<Token> token : concurrent) {
+            tokens.add(token.get().getToken());
+        }
+        callbacks.shutdown();
+        //an immediate retry of the callback is answered from the completed exchange
+        tokens.add(service.getAccessToken(null, code).getToken());
+
+        assertEquals(1, tokens.size());
+        assertEquals(1, server.getRequestCount(GoogleStandInServer.Endpoint.TOKEN));
+    }
+
+    @Test
+    void extendedDetailsAreFetchedConcurrently() throws InterruptedException {
+        //one after another, the sources would take longer than the deadline
+        server.setLatency(GoogleStandInServer.Endpoint.PEOPLE, 300, 0);
+        server.setLatency(GoogleStandInServer.Endpoint.GROUPS, 300, 0);
+
+        LoadReport report = createLoadGenerator(false, extendedDetailsConfig(500)).run(2, 4);
+
+        assertEquals(0, report.getFailures(), String.valueOf(report.getFirstFailure()));
+        assertEquals(4, server.getRequestCount(GoogleStandInServer.Endpoint.PEOPLE));
+        assertEquals(4, server.getRequestCount(GoogleStandInServer.Endpoint.GROUPS));
+        assertEquals(8, loginMetrics.getStatusCounts().get("EXTENDED_DETAILS_FETCH 200").longValue());
+        assertTrue(loginMetrics.getFailureCounts().keySet().stream()
+                .noneMatch(failure -> failure.startsWith(LoginPhase.EXTENDED_DETAILS_FETCH.name())));
+    }
+
+    @Test
+    void slowOptionalExtendedDetailsAreSkipped() throws InterruptedException {
+        server.setLatency(GoogleStandInServer.Endpoint.GROUPS, 2000, 0);
+
+        LoadReport report = createLoadGenerator(false, extendedDetailsConfig(300)).run(2, 4);
+
+        assertEquals(0, report.getFailures(), String.valueOf(report.getFirstFailure()));
+        assertEquals(4, loginMetrics.getFailureCounts()
+                .get("EXTENDED_DETAILS_FETCH ProviderCallException").longValue());
+    }
+
+    @Test
+    void mappingPlanKeepsTypesAndFlattensNestedFields() throws Exception {
+        List<Object> config = new ArrayList<>(Arrays.asList(extendedDetailsConfig(3000)));
+        config.addAll(Arrays.asList(
+                "oauth.profile.fields", new String[]{"email", "verified_email", "names.0.familyName"},
+                "oauth.property.mapping", new String[]{"given_name=names.0.givenName", "email_domain=email|domain",
+                        "organization=organizations.0.name|lowercase"}));
+
+        Map<String, Object> mapped = createLoadGenerator(false, config.toArray()).login(7);
+
+        assertEquals(Boolean.TRUE, mapped.get("verified_email"));
+        assertEquals("Stand-in", mapped.get("given_name"));
+        assertEquals("User 7", mapped.get("names.0.familyName"));
+        assertEquals("stand-in", mapped.get("organization"));
+        assertEquals("standin.example.com", mapped.get("email_domain"));
+        //fields which aren't mapped aren't copied
+        assertEquals(new HashSet<>(Arrays.asList("email", "verified_email", "names.0.familyName",
+                "given_name", "email_domain", "organization")), mapped.keySet());
+    }
+
+    @Test
+    void issuedTokensAreKeptInTheSelectedStore() throws Exception {
+        RecordingAccessTokenStore memory = new RecordingAccessTokenStore();
+        context.registerService(AccessTokenStore.class, memory, AccessTokenStore.STORE_TYPE, AccessTokenStore.MEMORY);
+
+        LoginLoadGenerator loadGenerator = createLoadGenerator(false,
+                "accessTokenStore.target", "(" + AccessTokenStore.STORE_TYPE + "=" + AccessTokenStore.MEMORY + ")");
+        Map<String, Object> mapped = loadGenerator.login(5);
+        loadGenerator.login(6);
+
+        assertEquals(2, memory.tokens.size());
+        assertTrue(memory.tokens.get(mapped.get("email") + " " + CONFIG.getApiKey()).endsWith(" 3599"));
+    }
+
+    @Test
+    void offlineAccessKeepsTheRefreshTokenToRenewTheAccessToken() throws Exception {
+        Map<String, Object> mapped = createLoadGenerator(false, "google.offline.access", true).login(3);
+        GoogleProvider provider = (GoogleProvider) context.getService(Provider.class);
+        GoogleScribeService service = (GoogleScribeService) provider.getApi().createService(CONFIG);
+
+        assertEquals("{refresh-3}", mapped.get("refresh_token"));
+        assertTrue(((Calendar) mapped.get("access_token_expiry")).after(Calendar.getInstance()));
+        Token refreshed = service.refreshAccessToken("refresh-3");
+        assertTrue(refreshed.getToken().startsWith("standin-3-"));
+        assertEquals("3599", LoginAccessTokens.readTokenResponse(refreshed).get("expires_in"));
+        assertEquals(1, loginMetrics.getStatistics(LoginPhase.TOKEN_REFRESH).getCount());
+        ProviderCallException revoked = assertThrows(ProviderCallException.class,
+                () -> service.refreshAccessToken("revoked"));
+        assertEquals(ProviderFailure.INVALID_GRANT, revoked.getFailure());
+    }
+
+    @Test
+    void warmUpConnectsToTheEndpointsInTheBackground() throws Exception {
+        server.setLatency(GoogleStandInServer.Endpoint.TOKEN, 200, 0);
+
+        long start = System.nanoTime();
+        createLoadGenerator(false, "google.warmup", true);
+        long activation = System.nanoTime() - start;
+        while (loginMetrics.getStatistics(LoginPhase.WARM_UP).getCount() == 0
+                && System.nanoTime() - start < TimeUnit.SECONDS.toNanos(10)) {
+            Thread.sleep(10);
+        }
+
+        assertTrue(activation < TimeUnit.MILLISECONDS.toNanos(200), "activation waited for the warm-up");
+        assertEquals(1, loginMetrics.getStatistics(LoginPhase.WARM_UP).getCount());
+        assertEquals(1, server.getRequestCount(GoogleStandInServer.Endpoint.TOKEN));
+        assertEquals(1, server.getRequestCount(GoogleStandInServer.Endpoint.USER_DETAILS));
+    }
+
+    private Object[] extendedDetailsConfig(int deadlineMs) {
+        return new Object[]{
+                "google.extended.details.sources", new String[]{
+                        "profile|" + server.getUrl(GoogleStandInServer.Endpoint.PEOPLE) + "|required",
+                        "email|" + server.getUrl(GoogleStandInServer.Endpoint.GROUPS)},
+                "google.extended.details.deadline.ms", deadlineMs};
+    }
+
+    private LoadReport run(boolean idTokenProfile) throws InterruptedException {
+        LoadReport report = createLoadGenerator(idTokenProfile).run(CONCURRENCY, LOGINS);
+        LOGGER.debug("{} profile : {}", idTokenProfile ? "ID token" : "Google", report);
+        for (LoginPhase phase : LoginPhase.values()) {
+            LOGGER.debug("  {} : {}", phase, loginMetrics.getStatistics(phase));
+        }
+        assertEquals(LOGINS, report.getLogins());
+        assertTrue(report.getThroughput() > 0, report.toString());
+        if (FAILURE_RATE == 0) {
+            assertEquals(0, report.getFailures(), String.valueOf(report.getFirstFailure()));
+            assertTrue(report.getLatencyMillis(50) <= report.getLatencyMillis(99), report.toString());
+            assertEquals(LOGINS, loginMetrics.getStatistics(LoginPhase.PROPERTY_MAPPING).getCount());
+        }
+        return report;
+    }
+
+    private LoginLoadGenerator createLoadGenerator(boolean idTokenProfile, Object... properties) {
+        GoogleEndpoints endpoints = server.getEndpoints();
+        List<Object> config = new ArrayList<>(Arrays.asList(
+                "oauth.provider.id", "stand-in-google-provider",
+                "oauth.idtoken.profile", idTokenProfile,
+                "google.authorization.endpoint", endpoints.getAuthorizationEndpoint(),
+                "google.access.token.endpoint", endpoints.getAccessTokenEndpoint(),
+                "google.user.details.url", endpoints.getUserDetailsUrl(),
+                "google.jwks.url", endpoints.getJwksUrl()));
+        config.addAll(Arrays.asList(properties));
+        GoogleProvider provider = context.registerInjectActivateService(new GoogleProvider(), config.toArray());
+        return new LoginLoadGenerator(provider, CONFIG);
+    }
+
+    private static final class RecordingAccessTokenStore implements AccessTokenStore {
+
+        private final Map<String, String> tokens = new ConcurrentHashMap<>();
+
+        @Override
+        public void store(String userId, String clientId, String accessToken, long expiresInSeconds) {
+            tokens.put(userId + " " + clientId, accessToken + " " + expiresInSeconds);
+        }
+
+        @Override
+        public String get(ResourceResolver resolver, String userId, String clientId) {
+            String token = tokens.get(userId + " " + clientId);
+            return token == null ? null : token.substring(0, token.indexOf(' '));
+        }
+
+    }
+
+}
@@ -0,0 +1,308 @@
+package com.tgt.core.aem.social.login.providers.impl;
+
+import com.adobe.granite.crypto.CryptoSupport;
+import com.tgt.core.aem.social.login.avatars.AvatarCache;
+import com.tgt.core.aem.social.login.groups.GroupAssignment;
+import com.tgt.core.aem.social.login.http.impl.KeepAliveOAuthTransport;
+import com.tgt.core.aem.social.login.metrics.impl.LoginMetricsImpl;
+import com.tgt.core.aem.social.login.scribe.GoogleEndpoints;
+import com.tgt.core.aem.social.login.sync.impl.ProfileDigestSyncHandler;
+import com.tgt.core.aem.social.login.sync.impl.ProfileSyncStats;
+import com.tgt.core.aem.social.login.testing.GoogleStandInServer;
+import com.tgt.core.aem.social.login.testing.LoginLoadGenerator;
+import com.tgt.core.aem.social.login.testing.RepositoryWriteBudget;
+import com.tgt.core.aem.social.login.testing.StandInCryptoSupport;
+import com.tgt.core.aem.social.login.testing.StandInScheduler;
+import com.tgt.core.aem.social.login.testing.StandInThreadPoolManager;
+import com.tgt.core.aem.social.login.testing.InMemoryOakRepository;
+import com.tgt.core.aem.social.login.tokens.AccessTokenCache;
+import com.tgt.core.aem.social.login.tokens.AccessTokenStore;
+import com.tgt.core.aem.social.login.users.impl.ConfigurableUserFolderLayout;
+import io.wcm.testing.mock.aem.junit5.AemContext;
+import io.wcm.testing.mock.aem.junit5.AemContextExtension;
+import org.apache.jackrabbit.api.JackrabbitSession;
+import org.apache.jackrabbit.api.security.user.Authorizable;
+import org.apache.jackrabbit.api.security.user.User;
+import org.apache.jackrabbit.oak.spi.security.authentication.external.ExternalIdentityProvider;
+import org.apache.jackrabbit.oak.spi.security.authentication.external.ExternalIdentityRef;
+import org.apache.jackrabbit.oak.spi.security.authentication.external.ExternalUser;
+import org.apache.jackrabbit.oak.spi.security.authentication.external.SyncContext;
+import org.apache.jackrabbit.oak.spi.security.authentication.external.SyncHandler;
+import org.apache.jackrabbit.oak.spi.security.authentication.external.SyncResult;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.api.resource.ResourceResolverFactory;
+import org.apache.sling.commons.scheduler.Scheduler;
+import org.apache.sling.commons.threads.ThreadPoolManager;
+import org.apache.sling.serviceusermapping.ServiceUserMapped;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.osgi.framework.Constants;
+import org.scribe.model.OAuthConfig;
+import org.scribe.model.SignatureType;
+
+import javax.jcr.Session;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Repository writes of first and repeat logins through {@link GoogleProvider}, synced by the
+ * {@link ProfileDigestSyncHandler} the way the external login module does, into an
+ * {@link InMemoryOakRepository}.
+ * <p>
+ * The writes of every login of a flow must stay within the flow's {@link RepositoryWriteBudget}.
+ */
+@ExtendWith(AemContextExtension.class)
+class GoogleProviderRepositoryWriteTest {
+
+    private static final int USERS = 10;
+
+    private static final OAuthConfig CONFIG = new OAuthConfig("stand-in-client", "stand-in-secret",
+            "http://localhost:4503/callback/j_security_check", SignatureType.QueryString, "openid email profile",
+            null);
+
+    private final AemContext context = new AemContext();
+    private final InMemoryOakRepository repository = new InMemoryOakRepository();
+
+    private GoogleStandInServer server;
+    private RepositoryWriteBudget budget;
+    private GoogleProvider provider;
+    private ProfileSyncStats stats;
+    private ExternalIdentityProvider idp;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        server = GoogleStandInServer.start();
+        budget = new RepositoryWriteBudget();
+        context.registerInjectActivateService(new LoginMetricsImpl());
+        context.registerInjectActivateService(new KeepAliveOAuthTransport());
+        context.registerService(AccessTokenCache.class, AccessTokenCache.DISABLED);
+        context.registerService(GroupAssignment.class, GroupAssignment.DISABLED);
+        context.registerService(AvatarCache.class, AvatarCache.DISABLED);
+        context.registerService(CryptoSupport.class, StandInCryptoSupport.create());
+        context.registerService(AccessTokenStore.class, mock(AccessTokenStore.class),
+                AccessTokenStore.STORE_TYPE, AccessTokenStore.REPOSITORY);
+        context.registerInjectActivateService(new ConfigurableUserFolderLayout());
+        context.registerService(Scheduler.class, new StandInScheduler());
+        context.registerService(ThreadPoolManager.class, new StandInThreadPoolManager());
+        stats = context.registerInjectActivateService(new ProfileSyncStats());
+        context.registerService(ServiceUserMapped.class, mock(ServiceUserMapped.class),
+                ServiceUserMapped.SUBSERVICENAME, "profile-sync");
+        //the write-behind queue saves into the same repository, with a service session for each batch
+        ResourceResolverFactory resourceResolverFactory = mock(ResourceResolverFactory.class);
+        when(resourceResolverFactory.getServiceResourceResolver(any())).thenAnswer(invocation -> {
+            Session serviceSession = repository.loginAdministrator();
+            ResourceResolver serviceResolver = mock(ResourceResolver.class);
+            when(serviceResolver.adaptTo(Session.class)).thenReturn(serviceSession);
+            doAnswer(close -> {
+                serviceSession.logout();
+                return null;
+            }).when(serviceResolver).close();
+            return serviceResolver;
+        });
+        context.registerService(ResourceResolverFactory.class, resourceResolverFactory,
+                Constants.SERVICE_RANKING, Integer.MAX_VALUE);
+
+        GoogleEndpoints endpoints = server.getEndpoints();
+        provider = context.registerInjectActivateService(new GoogleProvider(),
+                "oauth.provider.id", "stand-in-google-provider",
+                "google.authorization.endpoint", endpoints.getAuthorizationEndpoint(),
+                "google.access.token.endpoint", endpoints.getAccessTokenEndpoint(),
+                "google.user.details.url", endpoints.getUserDetailsUrl(),
+                "google.jwks.url", endpoints.getJwksUrl());
+        idp = mock(ExternalIdentityProvider.class);
+        when(idp.getName()).thenReturn(provider.getId());
+    }
+
+    @AfterEach
+    void tearDown() {
+        server.close();
+        repository.close();
+    }
+
+    @Test
+    void firstAndRepeatLoginsStayWithinTheirBudget() throws Exception {
+        SyncHandler syncHandler = registerSyncHandler(false);
+
+        List<ExternalUser> users = fetchUsers(false, true);
+        for (ExternalUser user : users) {
+            assertLoginWithin("first-login", syncHandler, user, SyncResult.Status.ADD);
+        }
+        for (ExternalUser user : fetchUsers(false, false)) {
+            assertLoginWithin("repeat-login", syncHandler, user, SyncResult.Status.NOP);
+        }
+        for (ExternalUser user : fetchUsers(false, true)) {
+            assertLoginWithin("repeat-login-persisted-token", syncHandler, user, SyncResult.Status.NOP);
+        }
+        for (ExternalUser user : fetchUsers(true, true)) {
+            assertLoginWithin("changed-login", syncHandler, user, SyncResult.Status.UPDATE);
+        }
+
+        assertEquals(USERS, stats.getCreatedUsers());
+        assertEquals(USERS * 2, stats.getSkippedProfiles());
+        assertEquals(USERS, stats.getUpdatedProfiles());
+    }
+
+    @Test
+    void repeatLoginsKeepThePersistedAccessTokenCurrent() throws Exception {
+        SyncHandler syncHandler = registerSyncHandler(false);
+        for (ExternalUser user : fetchUsers(false, true)) {
+            assertLoginWithin("first-login", syncHandler, user, SyncResult.Status.ADD);
+        }
+
+        List<ExternalUser> repeated = fetchUsers(false, true);
+        for (ExternalUser user : repeated) {
+            assertLoginWithin("repeat-login-persisted-token", syncHandler, user, SyncResult.Status.NOP);
+        }
+
+        for (ExternalUser user : repeated) {
+            assertEquals(user.getProperties().get("access_token"),
+                    repository.getProperty(user.getId(), "oauth/token-clientid"));
+        }
+    }
+
+    @Test
+    void writeBehindLoginsOnlyWriteTheirTokenAndTheirProfilesAreSavedTogether() throws Exception {
+        SyncHandler syncHandler = registerSyncHandler(true);
+        for (ExternalUser user : fetchUsers(false, true)) {
+            assertLoginWithin("first-login", syncHandler, user, SyncResult.Status.ADD);
+        }
+
+        List<ExternalUser> changed = fetchUsers(true, true);
+        for (ExternalUser user : changed) {
+            assertLoginWithin("write-behind-login", syncHandler, user, SyncResult.Status.NOP);
+        }
+        long start = System.nanoTime();
+        while (stats.getCommittedBatches() + stats.getFailedBatches() == 0
+                && System.nanoTime() - start < TimeUnit.SECONDS.toNanos(10)) {
+            Thread.sleep(10);
+        }
+
+        assertEquals(1, stats.getCommittedBatches());
+        assertEquals(0, stats.getQueueDepth());
+        budget.assertWithin("write-behind-commit", repository.takeWrites());
+        assertEquals("Renamed " + changed.get(0).getProperties().get("email"),
+                repository.getProperty(changed.get(0).getId(), "google/name"));
+    }
+
+    private void assertLoginWithin(String flow, SyncHandler syncHandler, ExternalUser external,
+                                   SyncResult.Status expected) throws Exception {
+        //the external login module creates a context for each login
+        JackrabbitSession session = repository.loginAdministrator();
+        SyncContext syncContext = syncHandler.createContext(idp, session.getUserManager(), session.getValueFactory());
+        SyncResult result;
+        try {
+            result = syncContext.sync(external);
+            assertEquals(expected, result.getStatus(), flow + " of " + external.getId());
+            //callbacks of the OAuth authentication handler, then the commit of the external login module
+            Authorizable user = session.getUserManager().getAuthorizable(external.getId());
+            if (result.getStatus() == SyncResult.Status.ADD) {
+                provider.onUserCreate((User) user);
+            } else if (result.getStatus() == SyncResult.Status.UPDATE) {
+                provider.onUserUpdate((User) user);
+            }
+            session.save();
+            syncContext.close();
+        } finally {
+            session.logout();
+        }
+        budget.assertWithin(flow, repository.takeWrites());
+    }
+
+    /**
+     * @param changed        whether the users changed their name at Google since their last login
+     * @param persistedToken whether AEM persists the access token on the user, i.e. the repository store is used
+     */
+    private List<ExternalUser> fetchUsers(boolean changed, boolean persistedToken) throws Exception {
+        LoginLoadGenerator loadGenerator = new LoginLoadGenerator(provider, CONFIG);
+        List<ExternalUser> users = new ArrayList<>();
+        for (int i = 0; i < USERS; i++) {
+            Map<String, Object> properties = new HashMap<>(loadGenerator.login(i));
+            String userId = String.valueOf(properties.get(provider.getUserIdProperty()));
+            if (persistedToken) {
+                properties.put("access_token", "token-" + i + "-" + System.nanoTime());
+            }
+            if (changed) {
+                properties.put("name", "Renamed " + userId);
+            }
+            users.add(new OAuthUser(userId, provider.getUserFolderPath(userId, CONFIG.getApiKey(), properties),
+                    properties));
+        }
+        return users;
+    }
+
+    private SyncHandler registerSyncHandler(boolean writeBehind) {
+        return context.registerInjectActivateService(new ProfileDigestSyncHandler(),
+                "handler.name", "tgt-google",
+                //each login syncs the user, as logins after the expiration time do
+                "user.expirationTime", "0",
+                "user.propertyMapping", new String[]{"oauth/oauthid-clientid=id", "oauth/token-clientid=access_token",
+                        "google/email=email", "google/verified_email=verified_email", "google/name=name",
+                        "google/firstName=given_name", "google/lastName=family_name", "google/picture=picture",
+                        "google/hd=hd"},
+                "user.pathPrefix", "thegreyteacher",
+                "user.membershipExpTime", "1h",
+                "profile.digest.property", "google/digest",
+                "profile.digest.excluded", new String[]{"access_token"},
+                "profile.writebehind.enabled", writeBehind);
+    }
+
+    /**
+     * External user the way AEM's OAuth identity provider builds it from the mapped properties.
+     */
+    private final class OAuthUser implements ExternalUser {
+
+        private final String id;
+        private final String intermediatePath;
+        private final Map<String, ?> properties;
+
+        private OAuthUser(String id, String intermediatePath, Map<String, ?> properties) {
+            this.id = id;
+            this.intermediatePath = intermediatePath;
+            this.properties = properties;
+        }
+
+        @Override
+        public ExternalIdentityRef getExternalId() {
+            return new ExternalIdentityRef(id, provider.getId());
+        }
+
+        @Override
+        public String getId() {
+            return id;
+        }
+
+        @Override
+        public String getPrincipalName() {
+            return id;
+        }
+
+        @Override
+        public String getIntermediatePath() {
+            return intermediatePath;
+        }
+
+        @Override
+        public Iterable<ExternalIdentityRef> getDeclaredGroups() {
+            return Collections.emptyList();
+        }
+
+        @Override
+        public Map<String, ?> getProperties() {
+            return properties;
+        }
+
+    }
+
+}
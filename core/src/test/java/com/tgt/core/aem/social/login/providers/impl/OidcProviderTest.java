@@ -0,0 +1,139 @@
+package com.tgt.core.aem.social.login.providers.impl;
+
+import com.tgt.core.aem.social.login.avatars.AvatarCache;
+import com.tgt.core.aem.social.login.constants.SocialLoginConstants;
+import com.tgt.core.aem.social.login.groups.GroupAssignment;
+import com.tgt.core.aem.social.login.http.impl.KeepAliveOAuthTransport;
+import com.tgt.core.aem.social.login.metrics.impl.LoginMetricsImpl;
+import com.tgt.core.aem.social.login.scribe.OidcScribeApi;
+import com.tgt.core.aem.social.login.testing.GoogleStandInServer;
+import com.tgt.core.aem.social.login.testing.LoadReport;
+import com.tgt.core.aem.social.login.testing.LoginLoadGenerator;
+import com.tgt.core.aem.social.login.testing.StandInScheduler;
+import com.tgt.core.aem.social.login.tokens.AccessTokenCache;
+import com.tgt.core.aem.social.login.tokens.AccessTokenStore;
+import com.tgt.core.aem.social.login.users.impl.ConfigurableUserFolderLayout;
+import io.wcm.testing.mock.aem.junit5.AemContext;
+import io.wcm.testing.mock.aem.junit5.AemContextExtension;
+import org.apache.sling.commons.scheduler.Scheduler;
+import org.apache.sling.testing.mock.osgi.MockOsgi;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.scribe.model.OAuthConfig;
+import org.scribe.model.SignatureType;
+
+import javax.management.NotCompliantMBeanException;
+import java.io.IOException;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+
+/**
+ * Logins through an {@link OidcProvider} whose endpoints are discovered from a {@link GoogleStandInServer}.
+ */
+@ExtendWith(AemContextExtension.class)
+class OidcProviderTest {
+
+    private static final OAuthConfig CONFIG = new OAuthConfig("stand-in-client", "stand-in-secret",
+            "http://localhost:4503/callback/j_security_check", SignatureType.QueryString, "openid email profile",
+            null);
+
+    private final AemContext context = new AemContext();
+
+    private final StandInScheduler scheduler = new StandInScheduler();
+
+    private GoogleStandInServer server;
+
+    @BeforeEach
+    void setUp() throws IOException, NotCompliantMBeanException {
+        server = GoogleStandInServer.start();
+        context.registerInjectActivateService(new LoginMetricsImpl());
+        context.registerInjectActivateService(new KeepAliveOAuthTransport());
+        context.registerService(AccessTokenCache.class, AccessTokenCache.DISABLED);
+        context.registerService(GroupAssignment.class, GroupAssignment.DISABLED);
+        context.registerService(AvatarCache.class, AvatarCache.DISABLED);
+        context.registerService(AccessTokenStore.class, mock(AccessTokenStore.class),
+                AccessTokenStore.STORE_TYPE, AccessTokenStore.REPOSITORY);
+        context.registerInjectActivateService(new ConfigurableUserFolderLayout());
+        context.registerService(Scheduler.class, scheduler);
+    }
+
+    @AfterEach
+    void tearDown() {
+        server.close();
+    }
+
+    @Test
+    void loginsUseTheDiscoveredEndpointsWithoutFetchingThemAgain() throws Exception {
+        OidcProvider provider = registerProvider(true);
+
+        LoadReport report = new LoginLoadGenerator(provider, CONFIG).run(4, 50);
+        String authorizationUrl = ((OidcScribeApi) provider.getApi()).getAuthorizationUrl(CONFIG);
+
+        assertEquals(0, report.getFailures(), String.valueOf(report.getFirstFailure()));
+        assertEquals(1, server.getRequestCount(GoogleStandInServer.Endpoint.DISCOVERY));
+        assertEquals(50, server.getRequestCount(GoogleStandInServer.Endpoint.TOKEN));
+        //the profiles come from the ID tokens
+        assertEquals(0, server.getRequestCount(GoogleStandInServer.Endpoint.USER_DETAILS));
+        assertTrue(authorizationUrl.startsWith(server.getUrl(GoogleStandInServer.Endpoint.AUTHORIZE)
+                + "?response_type=code&client_id=stand-in-client&"), authorizationUrl);
+        //built once per OAuth configuration
+        assertSame(authorizationUrl, ((OidcScribeApi) provider.getApi()).getAuthorizationUrl(CONFIG));
+    }
+
+    @Test
+    void userInfoIsFetchedWithABearerToken() throws Exception {
+        OidcProvider provider = registerProvider(false);
+
+        Map<String, Object> mapped = new LoginLoadGenerator(provider, CONFIG).login(2);
+
+        assertEquals("user2@standin.example.com", mapped.get("email"));
+        assertEquals("Stand-in User 2", mapped.get("name"));
+        assertEquals(1, server.getRequestCount(GoogleStandInServer.Endpoint.USER_DETAILS));
+    }
+
+    @Test
+    void unavailableDiscoveryFailsLoginsWithoutFetchingAtEachLogin() {
+        server.setFailureRate(GoogleStandInServer.Endpoint.DISCOVERY, 1);
+        OidcProvider provider = registerProvider(true);
+
+        assertThrows(IllegalStateException.class, provider::getApi);
+        long fetches = server.getRequestCount(GoogleStandInServer.Endpoint.DISCOVERY);
+        for (int i = 0; i < 10; i++) {
+            assertThrows(IllegalStateException.class, provider::getApi);
+        }
+
+        //the failed fetch isn't attempted again before the retry delay
+        assertEquals(fetches, server.getRequestCount(GoogleStandInServer.Endpoint.DISCOVERY));
+    }
+
+    @Test
+    void discoveryIsRefreshedOnTheSchedulerUntilDeactivated() throws Exception {
+        OidcProvider provider = registerProvider(false);
+        for (int i = 0; i < 100 && (server.getRequestCount(GoogleStandInServer.Endpoint.DISCOVERY) == 0
+                || scheduler.getScheduledCount() == 0); i++) {
+            Thread.sleep(20);
+        }
+
+        //the next refresh is scheduled after the first one
+        assertEquals(1, server.getRequestCount(GoogleStandInServer.Endpoint.DISCOVERY));
+        assertEquals(1, scheduler.getScheduledCount());
+        MockOsgi.deactivate(provider, context.bundleContext());
+        assertEquals(0, scheduler.getScheduledCount());
+    }
+
+    private OidcProvider registerProvider(boolean idTokenProfile) {
+        return context.registerInjectActivateService(new OidcProvider(),
+                "oauth.provider.id", "stand-in-oidc-provider",
+                "oidc.issuer", SocialLoginConstants.GOOGLE_ISSUER,
+                "oidc.discovery.url", server.getUrl(GoogleStandInServer.Endpoint.DISCOVERY),
+                "oauth.idtoken.profile", idTokenProfile);
+    }
+
+}
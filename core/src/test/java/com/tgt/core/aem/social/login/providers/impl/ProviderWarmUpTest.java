@@ -0,0 +1,128 @@
+package com.tgt.core.aem.social.login.providers.impl;
+
+import com.tgt.core.aem.social.login.http.LocalResponses;
+import com.tgt.core.aem.social.login.http.OAuthTransport;
+import com.tgt.core.aem.social.login.metrics.LoginMetrics;
+import com.tgt.core.aem.social.login.metrics.LoginPhase;
+import com.tgt.core.aem.social.login.utils.PropertyMappingPlan;
+import org.apache.sling.commons.scheduler.ScheduleOptions;
+import org.apache.sling.commons.scheduler.Scheduler;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.scribe.exceptions.OAuthConnectionException;
+import org.scribe.model.OAuthRequest;
+import org.scribe.model.Response;
+
+import java.net.ConnectException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.RETURNS_SELF;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Warm-up of the endpoints of a provider, run in the background by a {@link ProviderWarmUp}.
+ */
+class ProviderWarmUpTest {
+
+    private static final String TOKEN_URL = "http://localhost/token";
+    private static final String USER_DETAILS_URL = "http://localhost/userinfo";
+
+    private final List<String> sent = new CopyOnWriteArrayList<>();
+    private final List<String> failing = new CopyOnWriteArrayList<>();
+
+    private Scheduler scheduler;
+    private LoginMetrics loginMetrics;
+    private ProviderWarmUp warmUp;
+
+    @BeforeEach
+    void setUp() {
+        scheduler = mock(Scheduler.class);
+        when(scheduler.NOW()).thenReturn(mock(ScheduleOptions.class, RETURNS_SELF));
+        when(scheduler.schedule(any(), any())).thenReturn(true);
+        loginMetrics = mock(LoginMetrics.class);
+        PropertyMappingPlan plan = PropertyMappingPlan.compile(Collections.emptyList(),
+                Collections.singletonList("given_name=names.0.givenName"), "id");
+        warmUp = new ProviderWarmUp(transport(), Arrays.asList(TOKEN_URL, USER_DETAILS_URL), plan, loginMetrics,
+                scheduler);
+    }
+
+    @Test
+    void eachEndpointIsConnectedOnceInTheBackground() {
+        warmUp.start();
+        assertTrue(sent.isEmpty());
+
+        scheduledJob().run();
+
+        assertEquals(Arrays.asList(TOKEN_URL, USER_DETAILS_URL), sent);
+        verify(loginMetrics).record(eq(LoginPhase.WARM_UP), anyLong());
+    }
+
+    @Test
+    void endpointsWhichCantBeReachedAreSkipped() {
+        failing.add(TOKEN_URL);
+        warmUp.start();
+
+        scheduledJob().run();
+
+        assertEquals(Arrays.asList(TOKEN_URL, USER_DETAILS_URL), sent);
+        verify(loginMetrics).record(eq(LoginPhase.WARM_UP), anyLong());
+    }
+
+    @Test
+    void closedWarmUpsDoNothing() {
+        warmUp.start();
+        Runnable job = scheduledJob();
+
+        warmUp.close();
+        job.run();
+
+        assertTrue(sent.isEmpty());
+        verify(scheduler).unschedule(any());
+        verify(loginMetrics, never()).record(any(), anyLong());
+    }
+
+    @Test
+    void warmUpsWhichCantBeScheduledDontFailTheActivation() {
+        when(scheduler.schedule(any(), any())).thenReturn(false);
+
+        warmUp.start();
+
+        assertTrue(sent.isEmpty());
+    }
+
+    private Runnable scheduledJob() {
+        ArgumentCaptor<Object> job = ArgumentCaptor.forClass(Object.class);
+        verify(scheduler).schedule(job.capture(), any());
+        return (Runnable) job.getValue();
+    }
+
+    /**
+     * @return transport answering every request with an error, like Google does without any credential
+     */
+    private OAuthTransport transport() {
+        return (verb, url) -> new OAuthRequest(verb, url) {
+            @Override
+            public Response send() {
+                sent.add(url);
+                if (failing.contains(url)) {
+                    throw new OAuthConnectionException(new ConnectException("Connection refused"));
+                }
+                return LocalResponses.json(400, "{\"error\":\"invalid_request\"}".getBytes(StandardCharsets.UTF_8));
+            }
+        };
+    }
+
+}
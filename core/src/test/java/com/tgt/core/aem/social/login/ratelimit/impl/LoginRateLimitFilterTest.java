@@ -0,0 +1,119 @@
+package com.tgt.core.aem.social.login.ratelimit.impl;
+
+import io.wcm.testing.mock.aem.junit5.AemContext;
+import io.wcm.testing.mock.aem.junit5.AemContextExtension;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+
+import javax.servlet.FilterChain;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Logins limited by the {@link LoginRateLimitFilter}, and the client IPs it limits them by.
+ */
+@ExtendWith(AemContextExtension.class)
+class LoginRateLimitFilterTest {
+
+    private final AemContext context = new AemContext();
+
+    @Test
+    void loginStormIsRejectedBeforeGoogle() throws Exception {
+        LoginRateLimitFilter filter = context.registerInjectActivateService(new LoginRateLimitFilter(),
+                "client.per.minute", 1, "client.burst", 5);
+        AtomicInteger passed = new AtomicInteger();
+
+        int rejected = 0;
+        for (int i = 0; i < 20; i++) {
+            if (loginFrom(filter, "203.0.113.7", passed) == 429) {
+                rejected++;
+            }
+        }
+
+        assertEquals(15, rejected);
+        //other clients still log in
+        assertEquals(0, loginFrom(filter, "203.0.113.8", passed));
+        assertEquals(6, passed.get());
+        assertEquals(15, filter.getRejectedClient());
+        //two clients and one configuration
+        assertEquals(3, filter.getTrackedKeys());
+    }
+
+    @Test
+    void clientsCantDodgeTheirLimitByForgingTheHeader() throws Exception {
+        LoginRateLimitFilter filter = activate(1);
+
+        assertEquals(0, login(filter, "10.0.0.1, 203.0.113.7"));
+        //the forged left-most address is ignored, the client keeps the bucket of its real address
+        assertEquals(429, login(filter, "10.0.0.2, 203.0.113.7"));
+        assertEquals(0, login(filter, "10.0.0.1, 203.0.113.8"));
+    }
+
+    @Test
+    void addressesOfTheTrustedProxiesAreSkipped() throws Exception {
+        LoginRateLimitFilter filter = activate(2);
+
+        assertEquals(0, login(filter, "10.0.0.1, 203.0.113.7, 198.51.100.1"));
+        assertEquals(429, login(filter, "203.0.113.7, 198.51.100.2"));
+        //fewer addresses than proxies, e.g. a client reaching the inner proxy directly
+        assertEquals(0, login(filter, "203.0.113.8"));
+        assertEquals(429, login(filter, "203.0.113.8"));
+    }
+
+    @Test
+    void theRemoteAddressIsUsedWithoutTheHeader() throws Exception {
+        LoginRateLimitFilter filter = activate(1);
+
+        assertEquals(0, login(filter, null));
+        assertEquals(429, login(filter, " "));
+        assertEquals(0, login(filter, "203.0.113.7"));
+    }
+
+    private LoginRateLimitFilter activate(int trustedProxies) throws Exception {
+        return context.registerInjectActivateService(new LoginRateLimitFilter(),
+                "client.burst", 1,
+                "client.ip.header", "X-Forwarded-For",
+                "client.ip.trusted.proxies", trustedProxies);
+    }
+
+    /**
+     * @param forwardedFor X-Forwarded-For header reaching AEM, null if none
+     * @return status the login was rejected with, 0 if it was let through
+     */
+    private static int login(LoginRateLimitFilter filter, String forwardedFor) throws Exception {
+        return login(filter, "192.0.2.1", forwardedFor, mock(FilterChain.class));
+    }
+
+    /**
+     * @param remoteAddr address of the client reaching AEM directly
+     * @param passed     number of logins let through
+     * @return status the login was rejected with, 0 if it was let through
+     */
+    private static int loginFrom(LoginRateLimitFilter filter, String remoteAddr, AtomicInteger passed)
+            throws Exception {
+        return login(filter, remoteAddr, null, (request, response) -> passed.incrementAndGet());
+    }
+
+    private static int login(LoginRateLimitFilter filter, String remoteAddr, String forwardedFor, FilterChain chain)
+            throws Exception {
+        HttpServletRequest request = mock(HttpServletRequest.class);
+        when(request.getQueryString()).thenReturn("configid=google");
+        when(request.getRemoteAddr()).thenReturn(remoteAddr);
+        when(request.getHeader("X-Forwarded-For")).thenReturn(forwardedFor);
+        HttpServletResponse response = mock(HttpServletResponse.class);
+        int[] status = new int[1];
+        doAnswer(invocation -> status[0] = invocation.getArgument(0)).when(response).sendError(anyInt());
+
+        filter.doFilter(request, response, chain);
+
+        return status[0];
+    }
+
+}
@@ -0,0 +1,84 @@
+package com.tgt.core.aem.social.login.ratelimit.impl;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Burst, refill and eviction of the {@link TokenBuckets} of the login rate limit.
+ */
+class TokenBucketsTest {
+
+    private static final long NOW = TimeUnit.HOURS.toNanos(1);
+    private static final long INTERVAL = TimeUnit.SECONDS.toNanos(1);
+
+    @Test
+    void aBurstIsAllowedThenOneTokenPerInterval() {
+        TokenBuckets buckets = new TokenBuckets(INTERVAL, 3, 10, 1);
+
+        for (int i = 0; i < 3; i++) {
+            assertEquals(0, buckets.tryAcquire("203.0.113.7", NOW), "Token " + i);
+        }
+
+        assertEquals(INTERVAL, buckets.tryAcquire("203.0.113.7", NOW));
+        assertEquals(INTERVAL / 2, buckets.tryAcquire("203.0.113.7", NOW + INTERVAL / 2));
+        assertEquals(0, buckets.tryAcquire("203.0.113.7", NOW + INTERVAL));
+        assertEquals(INTERVAL, buckets.tryAcquire("203.0.113.7", NOW + INTERVAL));
+    }
+
+    @Test
+    void eachKeyHasItsOwnBucket() {
+        TokenBuckets buckets = new TokenBuckets(INTERVAL, 1, 10, 2);
+
+        assertEquals(0, buckets.tryAcquire("203.0.113.7", NOW));
+        assertEquals(0, buckets.tryAcquire("203.0.113.8", NOW));
+
+        assertEquals(INTERVAL, buckets.tryAcquire("203.0.113.7", NOW));
+        assertEquals(2, buckets.size());
+    }
+
+    @Test
+    void bucketsWhichAreFullAgainAreDroppedFirstOnceFull() {
+        TokenBuckets buckets = new TokenBuckets(INTERVAL, 1, 2, 1);
+        buckets.tryAcquire("203.0.113.7", NOW);
+        buckets.tryAcquire("203.0.113.8", NOW + INTERVAL);
+
+        //the first bucket is full again, forgetting it changes nothing
+        buckets.tryAcquire("203.0.113.9", NOW + INTERVAL + 1);
+
+        assertEquals(2, buckets.size());
+        assertEquals(1, buckets.getEvictions());
+        assertEquals(INTERVAL - 1, buckets.tryAcquire("203.0.113.8", NOW + INTERVAL + 1));
+    }
+
+    @Test
+    void leastRecentlyUsedBucketIsDroppedWhenNoneIsFull() {
+        TokenBuckets buckets = new TokenBuckets(INTERVAL, 1, 2, 1);
+        buckets.tryAcquire("203.0.113.7", NOW);
+        buckets.tryAcquire("203.0.113.8", NOW + 1);
+
+        buckets.tryAcquire("203.0.113.9", NOW + 2);
+
+        assertEquals(2, buckets.size());
+        assertEquals(1, buckets.getEvictions());
+        //the dropped client starts again with a full bucket
+        assertEquals(0, buckets.tryAcquire("203.0.113.7", NOW + 3));
+        assertEquals(2, buckets.getEvictions());
+        buckets.resetStatistics();
+        assertEquals(0, buckets.getEvictions());
+    }
+
+    @Test
+    void maxKeysAreSplitBetweenTheStripes() {
+        assertEquals(12, new TokenBuckets(INTERVAL, 1, 13, 4).getMaxKeys());
+        assertEquals(2, new TokenBuckets(INTERVAL, 1, 2, 16).getMaxKeys());
+
+        TokenBuckets buckets = new TokenBuckets(INTERVAL, 1, 10, 4);
+        buckets.tryAcquire("203.0.113.7", NOW);
+        buckets.clear();
+        assertEquals(0, buckets.size());
+    }
+
+}
@@ -0,0 +1,111 @@
+package com.tgt.core.aem.social.login.scribe;
+
+import com.tgt.core.aem.social.login.tokens.impl.LoginAccessTokens;
+import org.junit.jupiter.api.Test;
+import org.scribe.model.Token;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Authorization code exchanges shared by the duplicate callbacks of {@link CodeExchanges}.
+ */
+class CodeExchangesTest {
+
+    @Test
+    void duplicatesOfAnExchangeInFlightShareItsToken() throws Exception {
+        CodeExchanges exchanges = new CodeExchanges(0, 10);
+        AtomicInteger sent = new AtomicInteger();
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch answered = new CountDownLatch(1);
+
+        CompletableFuture<LoginAccessTokens.IssuedToken> first = CompletableFuture.supplyAsync(
+                () -> exchanges.exchange("code-1", () -> {
+                    sent.incrementAndGet();
+                    started.countDown();
+                    await(answered);
+                    return issued("token-1");
+                }));
+        started.await(5, TimeUnit.SECONDS);
+        CompletableFuture<LoginAccessTokens.IssuedToken> duplicate = CompletableFuture.supplyAsync(
+                () -> exchanges.exchange("code-1", () -> issued("token-2")));
+        Thread.sleep(20);
+        answered.countDown();
+
+        assertSame(first.get(5, TimeUnit.SECONDS), duplicate.get(5, TimeUnit.SECONDS));
+        assertEquals(1, sent.get());
+    }
+
+    @Test
+    void completedExchangesAreRememberedForTheirMemoTime() throws Exception {
+        CodeExchanges exchanges = new CodeExchanges(50, 10);
+        LoginAccessTokens.IssuedToken token = exchanges.exchange("code-1", () -> issued("token-1"));
+
+        assertSame(token, exchanges.exchange("code-1", () -> issued("token-2")));
+        Thread.sleep(70);
+
+        assertEquals("token-2", exchanges.exchange("code-1", () -> issued("token-2")).getAccessToken());
+    }
+
+    @Test
+    void withoutMemoOnlyExchangesInFlightAreShared() {
+        CodeExchanges exchanges = new CodeExchanges(0, 10);
+        exchanges.exchange("code-1", () -> issued("token-1"));
+
+        assertEquals("token-2", exchanges.exchange("code-1", () -> issued("token-2")).getAccessToken());
+    }
+
+    @Test
+    void failedExchangesAreSharedButNotRemembered() throws Exception {
+        CodeExchanges exchanges = new CodeExchanges(10000, 10);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch answered = new CountDownLatch(1);
+
+        CompletableFuture<LoginAccessTokens.IssuedToken> first = CompletableFuture.supplyAsync(
+                () -> exchanges.exchange("code-1", () -> {
+                    started.countDown();
+                    await(answered);
+                    throw new IllegalStateException("invalid_grant");
+                }));
+        started.await(5, TimeUnit.SECONDS);
+        CompletableFuture<LoginAccessTokens.IssuedToken> duplicate = CompletableFuture.supplyAsync(
+                () -> exchanges.exchange("code-1", () -> issued("token-2")));
+        Thread.sleep(20);
+        answered.countDown();
+
+        assertThrows(Exception.class, () -> first.get(5, TimeUnit.SECONDS));
+        Exception e = assertThrows(Exception.class, () -> duplicate.get(5, TimeUnit.SECONDS));
+        assertEquals("invalid_grant", e.getCause().getMessage());
+        //a retry after the failure exchanges the code again
+        assertEquals("token-3", exchanges.exchange("code-1", () -> issued("token-3")).getAccessToken());
+    }
+
+    @Test
+    void exchangesCompletingWhileTheStoreIsFullAreNotRemembered() {
+        CodeExchanges exchanges = new CodeExchanges(10000, 1);
+        exchanges.exchange("code-1", () -> issued("token-1"));
+        exchanges.exchange("code-2", () -> issued("token-2"));
+
+        assertEquals("token-1", exchanges.exchange("code-1", () -> issued("token-3")).getAccessToken());
+        assertEquals("token-4", exchanges.exchange("code-2", () -> issued("token-4")).getAccessToken());
+    }
+
+    private static LoginAccessTokens.IssuedToken issued(String accessToken) {
+        return new LoginAccessTokens.IssuedToken("stand-in-client", new Token(accessToken, ""), 3599, null);
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+}
@@ -0,0 +1,236 @@
+package com.tgt.core.aem.social.login.sync.impl;
+
+import com.tgt.core.aem.social.login.testing.InMemoryOakRepository;
+import org.apache.jackrabbit.api.JackrabbitSession;
+import org.apache.jackrabbit.oak.spi.security.authentication.external.ExternalIdentityProvider;
+import org.apache.jackrabbit.oak.spi.security.authentication.external.ExternalIdentityRef;
+import org.apache.jackrabbit.oak.spi.security.authentication.external.ExternalUser;
+import org.apache.jackrabbit.oak.spi.security.authentication.external.SyncResult;
+import org.apache.jackrabbit.oak.spi.security.authentication.external.basic.DefaultSyncConfig;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * NOP and UPDATE decisions of the {@link ProfileDigestSyncContext} and the writes they lead to.
+ */
+class ProfileDigestSyncContextTest {
+
+    private static final String IDP = "stand-in-google-provider";
+    private static final String USER_ID = "user1@standin.example.com";
+    private static final String DIGEST_PROPERTY = "google/digest";
+    private static final Set<String> EXCLUDED = new HashSet<>(Arrays.asList("access_token", "refresh_token",
+            "access_token_expiry"));
+
+    private final InMemoryOakRepository repository = new InMemoryOakRepository();
+
+    private DefaultSyncConfig config;
+    private ExternalIdentityProvider idp;
+    private ProfileSyncStats stats;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        Map<String, String> propertyMapping = new HashMap<>();
+        propertyMapping.put("google/email", "email");
+        propertyMapping.put("google/name", "name");
+        propertyMapping.put("oauth/token-clientid", "access_token");
+        propertyMapping.put("google/refreshToken", "refresh_token");
+        propertyMapping.put("google/tokenExpiry", "access_token_expiry");
+        config = new DefaultSyncConfig();
+        //each sync is past the expiration time, even within the same millisecond
+        config.user().setExpirationTime(-1).setPathPrefix("thegreyteacher").setPropertyMapping(propertyMapping);
+        idp = mock(ExternalIdentityProvider.class);
+        when(idp.getName()).thenReturn(IDP);
+        stats = new ProfileSyncStats();
+    }
+
+    @AfterEach
+    void tearDown() {
+        repository.close();
+    }
+
+    @Test
+    void newUsersAreAddedWithTheirDigest() throws Exception {
+        assertEquals(SyncResult.Status.ADD, sync(profile("Stand-in User", "token-1"), false));
+
+        assertNotNull(repository.getProperty(USER_ID, DIGEST_PROPERTY));
+        assertEquals("token-1", repository.getProperty(USER_ID, "oauth/token-clientid"));
+        assertEquals(1, stats.getCreatedUsers());
+    }
+
+    @Test
+    void unchangedProfilesArentWritten() throws Exception {
+        sync(profile("Stand-in User", "token-1"), false);
+        repository.takeWrites();
+
+        assertEquals(SyncResult.Status.NOP, sync(profile("Stand-in User", "token-1"), false));
+
+        InMemoryOakRepository.Writes writes = repository.takeWrites();
+        assertEquals(0, writes.getProperties());
+        assertEquals(0, writes.getSaves());
+        assertEquals(1, stats.getSkippedProfiles());
+    }
+
+    @Test
+    void changedProfilesAreUpdated() throws Exception {
+        sync(profile("Stand-in User", "token-1"), false);
+        String digest = repository.getProperty(USER_ID, DIGEST_PROPERTY);
+
+        assertEquals(SyncResult.Status.UPDATE, sync(profile("Renamed User", "token-2"), false));
+
+        assertEquals("Renamed User", repository.getProperty(USER_ID, "google/name"));
+        assertEquals("token-2", repository.getProperty(USER_ID, "oauth/token-clientid"));
+        assertNotEquals(digest, repository.getProperty(USER_ID, DIGEST_PROPERTY));
+        assertEquals(1, stats.getUpdatedProfiles());
+    }
+
+    @Test
+    void forcedSyncsAreUpdates() throws Exception {
+        sync(profile("Stand-in User", "token-1"), false);
+
+        assertEquals(SyncResult.Status.UPDATE, sync(profile("Stand-in User", "token-1"), true));
+        assertEquals(0, stats.getSkippedProfiles());
+    }
+
+    @Test
+    void changedMembershipSettingsAreAppliedToUnchangedProfiles() throws Exception {
+        sync(profile("Stand-in User", "token-1"), false);
+        config.user().setAutoMembership("contributors");
+
+        assertEquals(SyncResult.Status.UPDATE, sync(profile("Stand-in User", "token-1"), false));
+        assertEquals(SyncResult.Status.NOP, sync(profile("Stand-in User", "token-1"), false));
+    }
+
+    @Test
+    void changedTokensAloneOnlyWriteTheTokens() throws Exception {
+        sync(profile("Stand-in User", "token-1"), false);
+        String digest = repository.getProperty(USER_ID, DIGEST_PROPERTY);
+        repository.takeWrites();
+        Map<String, Object> profile = profile("Stand-in User", "token-2");
+        Calendar expiry = Calendar.getInstance();
+        expiry.add(Calendar.HOUR, 1);
+        profile.put("access_token_expiry", expiry);
+
+        assertEquals(SyncResult.Status.NOP, sync(profile, false));
+
+        InMemoryOakRepository.Writes writes = repository.takeWrites();
+        assertEquals(0, writes.getNodes());
+        assertEquals(2, writes.getProperties());
+        assertEquals(1, writes.getSaves());
+        assertEquals("token-2", repository.getProperty(USER_ID, "oauth/token-clientid"));
+        assertNotNull(repository.getProperty(USER_ID, "google/tokenExpiry"));
+        assertEquals(digest, repository.getProperty(USER_ID, DIGEST_PROPERTY));
+        assertEquals(1, stats.getSkippedProfiles());
+    }
+
+    @Test
+    void missingTokensKeepTheirStoredValue() throws Exception {
+        Map<String, Object> consent = profile("Stand-in User", "token-1");
+        consent.put("refresh_token", "{refresh-1}");
+        sync(consent, false);
+        repository.takeWrites();
+
+        //the refresh token is only issued at the first consent
+        assertEquals(SyncResult.Status.NOP, sync(profile("Stand-in User", "token-1"), false));
+
+        assertEquals(0, repository.takeWrites().getProperties());
+        assertEquals("{refresh-1}", repository.getProperty(USER_ID, "google/refreshToken"));
+    }
+
+    @Test
+    void refreshTokensIssuedToReturningUsersAreWritten() throws Exception {
+        sync(profile("Stand-in User", "token-1"), false);
+        String digest = repository.getProperty(USER_ID, DIGEST_PROPERTY);
+        repository.takeWrites();
+        //e.g. the user consented again to the offline access
+        Map<String, Object> consent = profile("Stand-in User", "token-2");
+        consent.put("refresh_token", "{refresh-2}");
+
+        assertEquals(SyncResult.Status.NOP, sync(consent, false));
+
+        InMemoryOakRepository.Writes writes = repository.takeWrites();
+        assertEquals(2, writes.getProperties());
+        assertEquals(1, writes.getSaves());
+        assertEquals("{refresh-2}", repository.getProperty(USER_ID, "google/refreshToken"));
+        assertEquals(digest, repository.getProperty(USER_ID, DIGEST_PROPERTY));
+    }
+
+    private Map<String, Object> profile(String name, String accessToken) {
+        Map<String, Object> profile = new HashMap<>();
+        profile.put("email", USER_ID);
+        profile.put("name", name);
+        profile.put("access_token", accessToken);
+        return profile;
+    }
+
+    private SyncResult.Status sync(Map<String, Object> profile, boolean force) throws Exception {
+        //the external login module creates a context for each login, then commits the sync
+        JackrabbitSession session = repository.loginAdministrator();
+        ProfileDigestSyncContext context = new ProfileDigestSyncContext(config, idp, session.getUserManager(),
+                session.getValueFactory(), DIGEST_PROPERTY, EXCLUDED, stats, null);
+        try {
+            context.setForceUserSync(force);
+            SyncResult.Status status = context.sync(new StandInUser(profile)).getStatus();
+            session.save();
+            context.close();
+            return status;
+        } finally {
+            session.logout();
+        }
+    }
+
+    private static final class StandInUser implements ExternalUser {
+
+        private final Map<String, ?> properties;
+
+        private StandInUser(Map<String, ?> properties) {
+            this.properties = properties;
+        }
+
+        @Override
+        public ExternalIdentityRef getExternalId() {
+            return new ExternalIdentityRef(USER_ID, IDP);
+        }
+
+        @Override
+        public String getId() {
+            return USER_ID;
+        }
+
+        @Override
+        public String getPrincipalName() {
+            return USER_ID;
+        }
+
+        @Override
+        public String getIntermediatePath() {
+            return null;
+        }
+
+        @Override
+        public Iterable<ExternalIdentityRef> getDeclaredGroups() {
+            return Collections.emptyList();
+        }
+
+        @Override
+        public Map<String, ?> getProperties() {
+            return properties;
+        }
+
+    }
+
+}
@@ -0,0 +1,98 @@
+package com.tgt.core.aem.social.login.sync.impl;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Digests of external user properties computed by {@link ProfileDigest}.
+ */
+class ProfileDigestTest {
+
+    private static final Set<String> EXCLUDED = Collections.singleton("access_token");
+    private static final Map<String, String> MAPPING = Collections.singletonMap("google/name", "name");
+    private static final List<String> MEMBERSHIP = Arrays.asList("nesting=0", "auto=everyone");
+
+    @Test
+    void digestsDontDependOnThePropertyOrder() {
+        Map<String, Object> properties = new LinkedHashMap<>();
+        properties.put("email", "user1@standin.example.com");
+        properties.put("name", "Stand-in User");
+        Map<String, Object> reversed = new LinkedHashMap<>();
+        reversed.put("name", "Stand-in User");
+        reversed.put("email", "user1@standin.example.com");
+
+        String digest = ProfileDigest.of(properties, EXCLUDED, MAPPING, MEMBERSHIP);
+
+        assertEquals(digest, ProfileDigest.of(reversed, EXCLUDED, MAPPING, MEMBERSHIP));
+        assertTrue(digest.matches("[0-9a-f]{64}"));
+    }
+
+    @Test
+    void excludedAndNullPropertiesArentPartOfTheDigest() {
+        Map<String, Object> properties = new HashMap<>();
+        properties.put("name", "Stand-in User");
+        String digest = ProfileDigest.of(properties, EXCLUDED, MAPPING, MEMBERSHIP);
+
+        properties.put("access_token", "token-1");
+        properties.put("hd", null);
+
+        assertEquals(digest, ProfileDigest.of(properties, EXCLUDED, MAPPING, MEMBERSHIP));
+        properties.put("access_token", "token-2");
+        assertEquals(digest, ProfileDigest.of(properties, EXCLUDED, MAPPING, MEMBERSHIP));
+    }
+
+    @Test
+    void changedValuesAndTypesChangeTheDigest() {
+        String digest = ProfileDigest.of(Collections.singletonMap("verified_email", Boolean.TRUE), EXCLUDED, MAPPING,
+                MEMBERSHIP);
+
+        assertNotEquals(digest, ProfileDigest.of(Collections.singletonMap("verified_email", Boolean.FALSE), EXCLUDED,
+                MAPPING, MEMBERSHIP));
+        assertNotEquals(digest, ProfileDigest.of(Collections.singletonMap("verified_email", "true"), EXCLUDED,
+                MAPPING, MEMBERSHIP));
+        assertNotEquals(ProfileDigest.of(Collections.singletonMap("groups", Arrays.asList("a", "b")), EXCLUDED,
+                MAPPING, MEMBERSHIP), ProfileDigest.of(Collections.singletonMap("groups", Arrays.asList("b", "a")),
+                EXCLUDED, MAPPING, MEMBERSHIP));
+    }
+
+    @Test
+    void namesAndValuesDontRunIntoEachOther() {
+        assertNotEquals(ProfileDigest.of(Collections.singletonMap("a", "bc"), EXCLUDED, MAPPING, MEMBERSHIP),
+                ProfileDigest.of(Collections.singletonMap("ab", "c"), EXCLUDED, MAPPING, MEMBERSHIP));
+    }
+
+    @Test
+    void changedMappingsChangeTheDigest() {
+        Map<String, Object> properties = Collections.singletonMap("name", "Stand-in User");
+
+        assertNotEquals(ProfileDigest.of(properties, EXCLUDED, MAPPING, MEMBERSHIP),
+                ProfileDigest.of(properties, EXCLUDED, Collections.singletonMap("google/fullName", "name"),
+                        MEMBERSHIP));
+        assertNotEquals(ProfileDigest.of(properties, EXCLUDED, MAPPING, MEMBERSHIP),
+                ProfileDigest.of(properties, EXCLUDED, Collections.emptyMap(), MEMBERSHIP));
+    }
+
+    @Test
+    void changedMembershipSettingsChangeTheDigest() {
+        Map<String, Object> properties = Collections.singletonMap("name", "Stand-in User");
+        String digest = ProfileDigest.of(properties, EXCLUDED, MAPPING, MEMBERSHIP);
+
+        assertEquals(digest, ProfileDigest.of(properties, EXCLUDED, MAPPING,
+                Arrays.asList("auto=everyone", "nesting=0")));
+        assertNotEquals(digest, ProfileDigest.of(properties, EXCLUDED, MAPPING,
+                Arrays.asList("nesting=0", "auto=everyone", "auto=contributors")));
+        assertNotEquals(digest, ProfileDigest.of(properties, EXCLUDED, MAPPING, Collections.emptyList()));
+    }
+
+}
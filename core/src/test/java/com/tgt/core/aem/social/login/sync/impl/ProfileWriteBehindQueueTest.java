@@ -0,0 +1,331 @@
+package com.tgt.core.aem.social.login.sync.impl;
+
+import com.tgt.core.aem.social.login.avatars.AvatarCache;
+import com.tgt.core.aem.social.login.groups.GroupAssignment;
+import com.tgt.core.aem.social.login.testing.InMemoryOakRepository;
+import com.tgt.core.aem.social.login.testing.StandInThreadPoolManager;
+import com.tgt.core.aem.social.login.tokens.AccessTokenCache;
+import io.wcm.testing.mock.aem.junit5.AemContext;
+import io.wcm.testing.mock.aem.junit5.AemContextExtension;
+import org.apache.jackrabbit.api.JackrabbitSession;
+import org.apache.jackrabbit.api.security.user.User;
+import org.apache.jackrabbit.api.security.user.UserManager;
+import org.apache.jackrabbit.oak.spi.security.authentication.external.ExternalIdentityProvider;
+import org.apache.jackrabbit.oak.spi.security.authentication.external.ExternalIdentityRef;
+import org.apache.jackrabbit.oak.spi.security.authentication.external.ExternalUser;
+import org.apache.jackrabbit.oak.spi.security.authentication.external.SyncResult;
+import org.apache.jackrabbit.oak.spi.security.principal.PrincipalImpl;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.api.resource.ResourceResolverFactory;
+import org.apache.sling.commons.threads.ThreadPoolManager;
+import org.apache.sling.serviceusermapping.ServiceUserMapped;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.osgi.framework.Constants;
+
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import javax.jcr.Value;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Profile updates queued, coalesced and written behind their login by the {@link ProfileWriteBehindQueue}, in an
+ * in-memory Oak repository.
+ */
+@ExtendWith(AemContextExtension.class)
+class ProfileWriteBehindQueueTest {
+
+    private static final String IDP = "stand-in-google-provider";
+    private static final String[] USER_IDS = {"ann@standin.example.com", "bob@standin.example.com",
+            "cid@standin.example.com"};
+    //long enough for the batches to only be taken once the queue is closed
+    private static final long DELAY_MS = 60000;
+
+    private final AemContext context = new AemContext();
+    private final InMemoryOakRepository repository = new InMemoryOakRepository();
+    private final StandInThreadPoolManager threadPoolManager = new StandInThreadPoolManager();
+    private final AtomicInteger conflictingWrites = new AtomicInteger();
+    private final List<String> assignedUserIds = new CopyOnWriteArrayList<>();
+    private final List<String> invalidatedUserIds = new CopyOnWriteArrayList<>();
+
+    private JackrabbitSession session;
+    private ExternalIdentityProvider idp;
+    private ProfileSyncStats stats;
+    private ProfileDigestSyncHandler handler;
+    private AccessTokenCache accessTokenCache;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        session = repository.loginAdministrator();
+        for (String userId : USER_IDS) {
+            User user = session.getUserManager().createUser(userId, "secret", new PrincipalImpl(userId),
+                    "thegreyteacher");
+            user.setProperty("rep:externalId", session.getValueFactory().createValue(userId + ";" + IDP));
+        }
+        session.save();
+        idp = mock(ExternalIdentityProvider.class);
+        when(idp.getName()).thenReturn(IDP);
+
+        //each batch gets its own service session, like the service resolvers do
+        ResourceResolverFactory resourceResolverFactory = mock(ResourceResolverFactory.class);
+        when(resourceResolverFactory.getServiceResourceResolver(any())).thenAnswer(invocation -> {
+            Session serviceSession = repository.loginAdministrator();
+            ResourceResolver serviceResolver = mock(ResourceResolver.class);
+            when(serviceResolver.adaptTo(Session.class)).thenReturn(serviceSession);
+            doAnswer(close -> {
+                serviceSession.logout();
+                return null;
+            }).when(serviceResolver).close();
+            return serviceResolver;
+        });
+        context.registerService(ResourceResolverFactory.class, resourceResolverFactory,
+                Constants.SERVICE_RANKING, Integer.MAX_VALUE);
+        context.registerService(ServiceUserMapped.class, mock(ServiceUserMapped.class),
+                ServiceUserMapped.SUBSERVICENAME, ProfileWriteBehindQueue.SUBSERVICE);
+        //the users are only readable while the session of their batch is open
+        GroupAssignment groupAssignment = user -> {
+            try {
+                assignedUserIds.add(user.getID());
+            } catch (RepositoryException e) {
+                throw new IllegalStateException(e);
+            }
+        };
+        context.registerService(GroupAssignment.class, groupAssignment);
+        context.registerService(AvatarCache.class, AvatarCache.DISABLED);
+        context.registerService(ThreadPoolManager.class, threadPoolManager);
+        accessTokenCache = mock(AccessTokenCache.class);
+        doAnswer(invocation -> invalidatedUserIds.add(invocation.getArgument(0))).when(accessTokenCache)
+                .invalidate(anyString());
+        context.registerService(AccessTokenCache.class, accessTokenCache);
+        stats = context.registerInjectActivateService(new ProfileSyncStats());
+        handler = context.registerInjectActivateService(new ProfileDigestSyncHandler(),
+                "handler.name", "tgt-google",
+                "user.expirationTime", "0",
+                "user.propertyMapping", new String[]{"google/email=email", "google/name=name",
+                        "oauth/token-clientid=access_token"},
+                "user.pathPrefix", "thegreyteacher",
+                "profile.writebehind.enabled", false);
+    }
+
+    @AfterEach
+    void tearDown() {
+        session.logout();
+        repository.close();
+    }
+
+    @Test
+    void onlyTheLatestUpdateOfAUserIsWritten() throws Exception {
+        ProfileWriteBehindQueue queue = queue(10, 10);
+
+        assertTrue(queue.offer(USER_IDS[0], idp, new StandInUser(USER_IDS[0], "Ann 1")));
+        assertTrue(queue.offer(USER_IDS[1], idp, new StandInUser(USER_IDS[1], "Bob 1")));
+        assertTrue(queue.offer(USER_IDS[0], idp, new StandInUser(USER_IDS[0], "Ann 2")));
+        assertEquals(2, queue.size());
+        queue.close();
+
+        assertEquals("Ann 2", getName(USER_IDS[0]));
+        assertEquals("Bob 1", getName(USER_IDS[1]));
+        assertEquals(2, stats.getQueuedProfiles());
+        assertEquals(1, stats.getCoalescedProfiles());
+        assertEquals(1, stats.getCommittedBatches());
+        //in the order of their latest update
+        assertEquals(Arrays.asList(USER_IDS[1], USER_IDS[0]), assignedUserIds);
+    }
+
+    @Test
+    void fullQueuesLeaveTheUpdatesOfOtherUsersToTheirLogin() throws Exception {
+        ProfileWriteBehindQueue queue = queue(1, 10);
+        assertTrue(queue.offer(USER_IDS[0], idp, new StandInUser(USER_IDS[0], "Ann 1")));
+
+        //a user already queued still gets its update coalesced
+        assertTrue(queue.offer(USER_IDS[0], idp, new StandInUser(USER_IDS[0], "Ann 2")));
+        assertFalse(queue.offer(USER_IDS[1], idp, new StandInUser(USER_IDS[1], "Bob 1")));
+        assertEquals(1, stats.getQueueFullFallbacks());
+
+        //which the login of the other user then writes itself
+        UserManager userManager = session.getUserManager();
+        ProfileDigestSyncContext syncContext = handler.createContext(idp, userManager, session.getValueFactory(),
+                queue);
+        assertEquals(SyncResult.Status.UPDATE, syncContext.sync(new StandInUser(USER_IDS[1], "Bob 2")).getStatus());
+        session.save();
+        assertEquals("Bob 2", getName(USER_IDS[1]));
+        assertEquals(1, queue.size());
+        queue.close();
+    }
+
+    @Test
+    void closedQueuesWriteTheUpdatesAlreadyQueued() throws Exception {
+        ProfileWriteBehindQueue queue = queue(10, 2);
+        for (String userId : USER_IDS) {
+            assertTrue(queue.offer(userId, idp, new StandInUser(userId, "Renamed " + userId)));
+        }
+
+        queue.close();
+
+        for (String userId : USER_IDS) {
+            assertEquals("Renamed " + userId, getName(userId));
+        }
+        assertEquals(2, stats.getCommittedBatches());
+        assertEquals(0, stats.getQueueDepth());
+        assertFalse(queue.offer(USER_IDS[0], idp, new StandInUser(USER_IDS[0], "Too late")));
+        assertEquals(0, threadPoolManager.getPoolCount());
+    }
+
+    @Test
+    void aConflictingUserDoesntCostTheOthersTheirUpdate() throws Exception {
+        ProfileWriteBehindQueue queue = queue(10, 10);
+        queue.offer(USER_IDS[0], idp, new StandInUser(USER_IDS[0], "Renamed ann"));
+        queue.offer(USER_IDS[1], idp, new ConflictingUser(USER_IDS[1], "Renamed bob"));
+        queue.offer(USER_IDS[2], idp, new StandInUser(USER_IDS[2], "Renamed cid"));
+
+        queue.close();
+
+        assertEquals("Renamed ann", getName(USER_IDS[0]));
+        assertEquals("Renamed cid", getName(USER_IDS[2]));
+        //bob got renamed elsewhere during each of its writes, the queue gave up on it
+        assertTrue(getName(USER_IDS[1]).startsWith("Renamed elsewhere"));
+        assertEquals(1, stats.getFailedBatches());
+        assertEquals(1, stats.getCommittedBatches());
+        //counted once, though written again one by one after the failed batch
+        assertEquals(2, stats.getUpdatedProfiles());
+        assertEquals(Arrays.asList(USER_IDS[0], USER_IDS[2]), assignedUserIds);
+    }
+
+    @Test
+    void theTokensOfAQueuedLoginAreWrittenByTheLogin() throws Exception {
+        ProfileWriteBehindQueue queue = queue(10, 10);
+        StandInUser external = new StandInUser(USER_IDS[0], "Renamed ann");
+        external.properties.put("access_token", "token-2");
+
+        ProfileDigestSyncContext syncContext = handler.createContext(idp, session.getUserManager(),
+                session.getValueFactory(), queue);
+        assertEquals(SyncResult.Status.NOP, syncContext.sync(external).getStatus());
+        session.save();
+        syncContext.close();
+
+        //before the queue writes the profile
+        assertEquals(1, queue.size());
+        assertEquals("token-2", getProperty(USER_IDS[0], "oauth/token-clientid"));
+        assertNull(session.getUserManager().getAuthorizable(USER_IDS[0]).getProperty("google/name"));
+        queue.close();
+        assertEquals("Renamed ann", getName(USER_IDS[0]));
+        //the token cached before the queue wrote the user is read again
+        assertEquals(Collections.singletonList(USER_IDS[0]), invalidatedUserIds);
+    }
+
+    private ProfileWriteBehindQueue queue(int capacity, int batchSize) {
+        return new ProfileWriteBehindQueue(handler, context.getService(ResourceResolverFactory.class),
+                context.getService(GroupAssignment.class), AvatarCache.DISABLED, accessTokenCache, stats, capacity,
+                batchSize, DELAY_MS, threadPoolManager);
+    }
+
+    private String getName(String userId) throws Exception {
+        return getProperty(userId, "google/name");
+    }
+
+    private String getProperty(String userId, String path) throws Exception {
+        session.refresh(false);
+        Value[] values = session.getUserManager().getAuthorizable(userId).getProperty(path);
+        return values[0].getString();
+    }
+
+    private static class StandInUser implements ExternalUser {
+
+        private final String id;
+        private final Map<String, Object> properties = new HashMap<>();
+
+        private StandInUser(String id, String name) {
+            this.id = id;
+            properties.put("email", id);
+            properties.put("name", name);
+        }
+
+        @Override
+        public ExternalIdentityRef getExternalId() {
+            return new ExternalIdentityRef(id, IDP);
+        }
+
+        @Override
+        public String getId() {
+            return id;
+        }
+
+        @Override
+        public String getPrincipalName() {
+            return id;
+        }
+
+        @Override
+        public String getIntermediatePath() {
+            return null;
+        }
+
+        @Override
+        public Iterable<ExternalIdentityRef> getDeclaredGroups() {
+            return Collections.emptyList();
+        }
+
+        @Override
+        public Map<String, ?> getProperties() {
+            return properties;
+        }
+
+    }
+
+    /**
+     * External user renamed by another session while its profile is written.
+     */
+    private final class ConflictingUser extends StandInUser {
+
+        private ConflictingUser(String id, String name) {
+            super(id, name);
+        }
+
+        @Override
+        public Map<String, ?> getProperties() {
+            //from another thread, a session of the same thread would get the queue's session refreshed
+            Thread writer = new Thread(() -> {
+                try {
+                    JackrabbitSession otherSession = repository.loginAdministrator();
+                    try {
+                        otherSession.getUserManager().getAuthorizable(getId()).setProperty("google/name",
+                                otherSession.getValueFactory().createValue("Renamed elsewhere "
+                                        + conflictingWrites.incrementAndGet()));
+                        otherSession.save();
+                    } finally {
+                        otherSession.logout();
+                    }
+                } catch (Exception e) {
+                    throw new IllegalStateException(e);
+                }
+            });
+            writer.start();
+            try {
+                writer.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return super.getProperties();
+        }
+
+    }
+
+}
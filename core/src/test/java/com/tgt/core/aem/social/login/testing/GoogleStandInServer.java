@@ -0,0 +1,466 @@
+package com.tgt.core.aem.social.login.testing;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import com.tgt.core.aem.social.login.constants.SocialLoginConstants;
+import com.tgt.core.aem.social.login.scribe.GoogleEndpoints;
+
+import javax.imageio.ImageIO;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.math.BigInteger;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.Signature;
+import java.security.interfaces.RSAPublicKey;
+import java.util.Base64;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Local stand-in for Google's OAuth endpoints, to exercise the whole login without calling Google.
+ * <p>
+ * The authorization code {@code code-<n>} (see {@link #codeFor(int)}) logs in the user {@code <n>}: the token
+ * endpoint returns an access token for that user along with an ID token signed with this server's key, and the user
+ * details endpoint returns the user's profile for that access token, as do the people and groups endpoints standing
+ * in for extended details sources. The token endpoint also issues a refresh token {@code refresh-<n>}, which it
+ * exchanges for a new access token of the user {@code <n>}; any other refresh token is answered with
+ * {@code invalid_grant}. The discovery endpoint publishes these endpoints for Google's issuer, and the pictures
+ * endpoint serves a picture per user. Latency and failures can be injected per endpoint, a failing request is
+ * answered with {@code 503}.
+ */
+public final class GoogleStandInServer implements Closeable {
+
+    public enum Endpoint {
+        AUTHORIZE("/o/oauth2/auth"),
+        TOKEN("/token"),
+        USER_DETAILS("/oauth2/v1/userinfo"),
+        JWKS("/oauth2/v3/certs"),
+        PEOPLE("/v1/people/me"),
+        GROUPS("/admin/directory/v1/groups"),
+        DISCOVERY("/.well-known/openid-configuration"),
+        PICTURE("/photos/");
+
+        private final String path;
+
+        Endpoint(String path) {
+            this.path = path;
+        }
+
+        public String getPath() {
+            return path;
+        }
+    }
+
+    private static final String CODE_PREFIX = "code-";
+    private static final String REFRESH_TOKEN_PREFIX = "refresh-";
+    private static final String ACCESS_TOKEN_PREFIX = "standin-";
+    private static final String KEY_ID = "standin-key";
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final KeyPair keyPair;
+    private final Map<Endpoint, Behaviour> behaviours = new EnumMap<>(Endpoint.class);
+    private final AtomicInteger issuedCodes = new AtomicInteger();
+    private final AtomicLong issuedTokens = new AtomicLong();
+    private final Set<InetSocketAddress> clientConnections = ConcurrentHashMap.newKeySet();
+
+    private GoogleStandInServer(HttpServer server, KeyPair keyPair) {
+        this.server = server;
+        this.keyPair = keyPair;
+        this.executor = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "google-stand-in");
+            thread.setDaemon(true);
+            return thread;
+        });
+        for (Endpoint endpoint : Endpoint.values()) {
+            behaviours.put(endpoint, new Behaviour());
+        }
+        for (Endpoint endpoint : Endpoint.values()) {
+            server.createContext(endpoint.getPath(), exchange -> handle(endpoint, exchange));
+        }
+        server.setExecutor(executor);
+    }
+
+    /**
+     * Start a server on a free port of the loopback interface.
+     *
+     * @return started server
+     * @throws IOException in case the server can't be started
+     */
+    public static GoogleStandInServer start() throws IOException {
+        KeyPair keyPair;
+        try {
+            KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+            generator.initialize(2048);
+            keyPair = generator.generateKeyPair();
+        } catch (GeneralSecurityException e) {
+            throw new IOException("Unable to generate the signing key", e);
+        }
+        //without it responses wait for delayed ACKs and the server adds ~40 ms to every request
+        if (System.getProperty("sun.net.httpserver.nodelay") == null) {
+            System.setProperty("sun.net.httpserver.nodelay", "true");
+        }
+        HttpServer httpServer = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 1024);
+        GoogleStandInServer standInServer = new GoogleStandInServer(httpServer, keyPair);
+        httpServer.start();
+        return standInServer;
+    }
+
+    /**
+     * @param user number of the user
+     * @return authorization code logging in the user
+     */
+    public static String codeFor(int user) {
+        return CODE_PREFIX + user;
+    }
+
+    /**
+     * @param user number of the user
+     * @return user details of the user, as a single line of JSON
+     */
+    public static String profileOf(int user) {
+        return profile(String.valueOf(user));
+    }
+
+    public String getUrl(Endpoint endpoint) {
+        return "http://" + server.getAddress().getHostString() + ':' + server.getAddress().getPort()
+                + endpoint.getPath();
+    }
+
+    /**
+     * @return endpoints of this server, e.g. for the provider's config
+     */
+    public GoogleEndpoints getEndpoints() {
+        return new GoogleEndpoints(getUrl(Endpoint.AUTHORIZE), getUrl(Endpoint.TOKEN),
+                getUrl(Endpoint.USER_DETAILS) + "?alt=json", getUrl(Endpoint.JWKS));
+    }
+
+    /**
+     * Delay every response of the endpoint by {@code latencyMs} plus a random jitter of up to {@code jitterMs}.
+     */
+    public void setLatency(Endpoint endpoint, long latencyMs, long jitterMs) {
+        Behaviour behaviour = behaviours.get(endpoint);
+        behaviour.latencyMs = latencyMs;
+        behaviour.jitterMs = jitterMs;
+    }
+
+    /**
+     * @param failureRate share of the requests of the endpoint answered with {@code 503}, from 0 to 1
+     */
+    public void setFailureRate(Endpoint endpoint, double failureRate) {
+        behaviours.get(endpoint).failureRate = failureRate;
+    }
+
+    /**
+     * @return number of requests received by the endpoint, failed ones included
+     */
+    public long getRequestCount(Endpoint endpoint) {
+        return behaviours.get(endpoint).requests.get();
+    }
+
+    /**
+     * @return number of distinct client connections the requests of all the endpoints came through
+     */
+    public int getConnectionCount() {
+        return clientConnections.size();
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    private void handle(Endpoint endpoint, HttpExchange exchange) throws IOException {
+        try {
+            clientConnections.add(exchange.getRemoteAddress());
+            Behaviour behaviour = behaviours.get(endpoint);
+            behaviour.requests.incrementAndGet();
+            behaviour.delay();
+            if (behaviour.fails()) {
+                send(exchange, 503, "{\"error\":\"backend_error\"}");
+                return;
+            }
+            Map<String, String> params = params(exchange);
+            switch (endpoint) {
+                case AUTHORIZE:
+                    authorize(exchange, params);
+                    break;
+                case TOKEN:
+                    token(exchange, params);
+                    break;
+                case USER_DETAILS:
+                    userDetails(exchange, params);
+                    break;
+                case PEOPLE:
+                case GROUPS:
+                    extendedDetails(endpoint, exchange, params);
+                    break;
+                case DISCOVERY:
+                    exchange.getResponseHeaders().add("Cache-Control", "public, max-age=3600");
+                    send(exchange, 200, discovery());
+                    break;
+                case PICTURE:
+                    picture(exchange);
+                    break;
+                default:
+                    exchange.getResponseHeaders().add("Cache-Control", "public, max-age=3600");
+                    send(exchange, 200, jwks());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            send(exchange, 503, "{\"error\":\"interrupted\"}");
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void authorize(HttpExchange exchange, Map<String, String> params) throws IOException {
+        String redirectUri = params.get("redirect_uri");
+        if (redirectUri == null) {
+            send(exchange, 400, "{\"error\":\"invalid_request\"}");
+            return;
+        }
+        StringBuilder location = new StringBuilder(redirectUri)
+                .append(redirectUri.indexOf('?') < 0 ? '?' : '&')
+                .append("code=").append(codeFor(issuedCodes.incrementAndGet()));
+        if (params.containsKey("state")) {
+            location.append("&state=").append(URLEncoder.encode(params.get("state"), "UTF-8"));
+        }
+        exchange.getResponseHeaders().add("Location", location.toString());
+        exchange.sendResponseHeaders(302, -1);
+    }
+
+    private void token(HttpExchange exchange, Map<String, String> params) throws IOException {
+        if ("refresh_token".equals(params.get("grant_type"))) {
+            refresh(exchange, params);
+            return;
+        }
+        String code = params.get("code");
+        if (code == null || !code.startsWith(CODE_PREFIX) || !"authorization_code".equals(params.get("grant_type"))) {
+            send(exchange, 400, "{\"error\":\"invalid_grant\"}");
+            return;
+        }
+        String user = code.substring(CODE_PREFIX.length());
+        String accessToken = ACCESS_TOKEN_PREFIX + user + '-' + issuedTokens.incrementAndGet();
+        String idToken;
+        try {
+            idToken = idToken(user, params.get("client_id"));
+        } catch (GeneralSecurityException e) {
+            throw new IOException("Unable to sign the ID token", e);
+        }
+        send(exchange, 200, "{\"access_token\":\"" + accessToken + "\",\"expires_in\":3599,"
+                + "\"refresh_token\":\"" + REFRESH_TOKEN_PREFIX + user + "\",\"scope\":\"openid email profile\","
+                + "\"token_type\":\"Bearer\",\"id_token\":\"" + idToken + "\"}");
+    }
+
+    private void refresh(HttpExchange exchange, Map<String, String> params) throws IOException {
+        String refreshToken = params.get("refresh_token");
+        if (refreshToken == null || !refreshToken.startsWith(REFRESH_TOKEN_PREFIX)) {
+            send(exchange, 400, "{\"error\":\"invalid_grant\",\"error_description\":\"Token has been expired or "
+                    + "revoked.\"}");
+            return;
+        }
+        String user = refreshToken.substring(REFRESH_TOKEN_PREFIX.length());
+        send(exchange, 200, "{\"access_token\":\"" + ACCESS_TOKEN_PREFIX + user + '-' + issuedTokens.incrementAndGet()
+                + "\",\"expires_in\":3599,\"scope\":\"openid email profile\",\"token_type\":\"Bearer\"}");
+    }
+
+    private void userDetails(HttpExchange exchange, Map<String, String> params) throws IOException {
+        String accessToken = params.get("access_token");
+        String authorization = exchange.getRequestHeaders().getFirst("Authorization");
+        if (accessToken == null && authorization != null && authorization.startsWith("Bearer ")) {
+            accessToken = authorization.substring("Bearer ".length());
+        }
+        if (accessToken == null || !accessToken.startsWith(ACCESS_TOKEN_PREFIX)) {
+            send(exchange, 401, "{\"error\":{\"code\":401,\"message\":\"Invalid Credentials\"}}");
+            return;
+        }
+        String user = accessToken.substring(ACCESS_TOKEN_PREFIX.length(), accessToken.lastIndexOf('-'));
+        send(exchange, 200, profile(user));
+    }
+
+    private static String profile(String user) {
+        return "{\"id\":\"" + subject(user) + "\",\"email\":\"" + email(user) + "\","
+                + "\"verified_email\":true,\"name\":\"Stand-in User " + user + "\",\"given_name\":\"Stand-in\","
+                + "\"family_name\":\"User " + user + "\",\"picture\":\"" + picture(user) + "\",\"locale\":\"en\"}";
+    }
+
+    private void extendedDetails(Endpoint endpoint, HttpExchange exchange, Map<String, String> params)
+            throws IOException {
+        String accessToken = params.get("access_token");
+        if (accessToken == null || !accessToken.startsWith(ACCESS_TOKEN_PREFIX)) {
+            send(exchange, 401, "{\"error\":{\"code\":401,\"message\":\"Invalid Credentials\"}}");
+            return;
+        }
+        String user = accessToken.substring(ACCESS_TOKEN_PREFIX.length(), accessToken.lastIndexOf('-'));
+        if (endpoint == Endpoint.PEOPLE) {
+            send(exchange, 200, "{\"resourceName\":\"people/" + subject(user) + "\",\"etag\":\"standin\","
+                    + "\"names\":[{\"givenName\":\"Stand-in\",\"familyName\":\"User " + user + "\"}],"
+                    + "\"organizations\":[{\"name\":\"Stand-in\",\"current\":true}]}");
+        } else {
+            send(exchange, 200, "{\"kind\":\"admin#directory#groups\",\"etag\":\"standin\"}");
+        }
+    }
+
+    private String idToken(String user, String clientId) throws GeneralSecurityException {
+        long now = TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis());
+        String header = base64("{\"alg\":\"RS256\",\"kid\":\"" + KEY_ID + "\",\"typ\":\"JWT\"}");
+        String claims = base64("{\"iss\":\"" + SocialLoginConstants.GOOGLE_ISSUER + "\",\"aud\":\"" + clientId
+                + "\",\"sub\":\"" + subject(user) + "\",\"email\":\"" + email(user) + "\",\"email_verified\":true,"
+                + "\"name\":\"Stand-in User " + user + "\",\"given_name\":\"Stand-in\",\"family_name\":\"User "
+                + user + "\",\"picture\":\"" + picture(user) + "\",\"iat\":" + now + ",\"exp\":" + (now + 3600)
+                + '}');
+        Signature signature = Signature.getInstance("SHA256withRSA");
+        signature.initSign(keyPair.getPrivate());
+        signature.update((header + '.' + claims).getBytes(StandardCharsets.US_ASCII));
+        return header + '.' + claims + '.' + Base64.getUrlEncoder().withoutPadding().encodeToString(signature.sign());
+    }
+
+    /**
+     * {@code /photos/<n>.png} is a 160x120 PNG picture of the user {@code <n>}, with an {@code ETag}.
+     */
+    private void picture(HttpExchange exchange) throws IOException {
+        String path = exchange.getRequestURI().getPath();
+        String user = path.substring(Endpoint.PICTURE.getPath().length(), path.length() - ".png".length());
+        String etag = "\"standin-" + user + '"';
+        exchange.getResponseHeaders().add("ETag", etag);
+        if (etag.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+            exchange.sendResponseHeaders(304, -1);
+            return;
+        }
+        BufferedImage image = new BufferedImage(160, 120, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D graphics = image.createGraphics();
+        graphics.setColor(new Color(user.hashCode() | 0xFF000000));
+        graphics.fillOval(0, 0, 160, 120);
+        graphics.dispose();
+        ByteArrayOutputStream png = new ByteArrayOutputStream();
+        ImageIO.write(image, "png", png);
+        exchange.getResponseHeaders().add("Content-Type", "image/png");
+        exchange.sendResponseHeaders(200, png.size());
+        try (OutputStream out = exchange.getResponseBody()) {
+            png.writeTo(out);
+        }
+    }
+
+    private String discovery() {
+        return "{\"issuer\":\"" + SocialLoginConstants.GOOGLE_ISSUER + "\",\"authorization_endpoint\":\"" + getUrl(Endpoint.AUTHORIZE)
+                + "\",\"token_endpoint\":\"" + getUrl(Endpoint.TOKEN) + "\",\"userinfo_endpoint\":\""
+                + getUrl(Endpoint.USER_DETAILS) + "\",\"jwks_uri\":\"" + getUrl(Endpoint.JWKS) + "\","
+                + "\"response_types_supported\":[\"code\"],\"id_token_signing_alg_values_supported\":[\"RS256\"]}";
+    }
+
+    private String jwks() {
+        RSAPublicKey key = (RSAPublicKey) keyPair.getPublic();
+        return "{\"keys\":[{\"kty\":\"RSA\",\"alg\":\"RS256\",\"use\":\"sig\",\"kid\":\"" + KEY_ID + "\",\"n\":\""
+                + base64(key.getModulus()) + "\",\"e\":\"" + base64(key.getPublicExponent()) + "\"}]}";
+    }
+
+    private static String subject(String user) {
+        return "1000" + user;
+    }
+
+    private static String email(String user) {
+        return "user" + user + "@standin.example.com";
+    }
+
+    private static String picture(String user) {
+        return "https://standin.example.com/photos/" + user + ".jpg";
+    }
+
+    private static String base64(String json) {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(json.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String base64(BigInteger value) {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(value.toByteArray());
+    }
+
+    /**
+     * @return query parameters, along with the form parameters of a POST request
+     */
+    private static Map<String, String> params(HttpExchange exchange) throws IOException {
+        Map<String, String> params = new HashMap<>();
+        addParams(params, exchange.getRequestURI().getRawQuery());
+        if ("POST".equals(exchange.getRequestMethod())) {
+            addParams(params, new String(readAll(exchange.getRequestBody()), StandardCharsets.UTF_8));
+        }
+        return params;
+    }
+
+    private static void addParams(Map<String, String> params, String encoded) throws UnsupportedEncodingException {
+        if (encoded == null || encoded.isEmpty()) {
+            return;
+        }
+        for (String pair : encoded.split("&")) {
+            int separator = pair.indexOf('=');
+            if (separator > 0) {
+                params.put(URLDecoder.decode(pair.substring(0, separator), "UTF-8"),
+                        URLDecoder.decode(pair.substring(separator + 1), "UTF-8"));
+            }
+        }
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            out.write(buffer, 0, read);
+        }
+        return out.toByteArray();
+    }
+
+    private static void send(HttpExchange exchange, int code, String json) throws IOException {
+        byte[] body = json.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().add("Content-Type", "application/json; charset=UTF-8");
+        exchange.sendResponseHeaders(code, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    private static final class Behaviour {
+
+        private final AtomicLong requests = new AtomicLong();
+        private volatile long latencyMs;
+        private volatile long jitterMs;
+        private volatile double failureRate;
+
+        private void delay() throws InterruptedException {
+            long delayMs = latencyMs + (jitterMs > 0 ? ThreadLocalRandom.current().nextLong(jitterMs + 1) : 0);
+            if (delayMs > 0) {
+                Thread.sleep(delayMs);
+            }
+        }
+
+        private boolean fails() {
+            return failureRate > 0 && ThreadLocalRandom.current().nextDouble() < failureRate;
+        }
+
+    }
+
+}
@@ -0,0 +1,211 @@
+package com.tgt.core.aem.social.login.testing;
+
+import org.apache.jackrabbit.api.JackrabbitRepository;
+import org.apache.jackrabbit.api.JackrabbitSession;
+import org.apache.jackrabbit.api.security.user.Authorizable;
+import org.apache.jackrabbit.oak.Oak;
+import org.apache.jackrabbit.oak.api.PropertyState;
+import org.apache.jackrabbit.oak.jcr.Jcr;
+import org.apache.jackrabbit.oak.security.SecurityProviderImpl;
+import org.apache.jackrabbit.oak.spi.commit.CommitInfo;
+import org.apache.jackrabbit.oak.spi.commit.Observer;
+import org.apache.jackrabbit.oak.spi.security.ConfigurationParameters;
+import org.apache.jackrabbit.oak.spi.security.user.UserConfiguration;
+import org.apache.jackrabbit.oak.spi.security.user.UserConstants;
+import org.apache.jackrabbit.oak.spi.state.DefaultNodeStateDiff;
+import org.apache.jackrabbit.oak.spi.state.NodeState;
+import org.apache.jackrabbit.oak.spi.state.NodeStateDiff;
+
+import javax.jcr.RepositoryException;
+import javax.jcr.SimpleCredentials;
+import javax.jcr.Value;
+import java.util.Objects;
+
+import static org.apache.jackrabbit.oak.plugins.memory.EmptyNodeState.EMPTY_NODE;
+
+/**
+ * In-memory Oak repository with the users and groups where AEM has them, for the tests which need the real
+ * behavior of the repository, e.g. moves, memberships, queries or the writes of a login.
+ * <p>
+ * The writes are counted from the diff of each commit of the node store: the nodes added or removed, the properties
+ * added, changed or removed, and the commits themselves. The index content and the hidden nodes Oak maintains along
+ * with the content aren't counted.
+ */
+public final class InMemoryOakRepository implements AutoCloseable {
+
+    private static final String INDEX = "oak:index";
+
+    private final JackrabbitRepository repository;
+    private final WriteCounter writeCounter = new WriteCounter();
+
+    public InMemoryOakRepository() {
+        ConfigurationParameters userConfig = ConfigurationParameters.of(UserConstants.PARAM_USER_PATH, "/home/users",
+                UserConstants.PARAM_GROUP_PATH, "/home/groups");
+        repository = (JackrabbitRepository) new Jcr(new Oak().with(writeCounter)).with(new SecurityProviderImpl(
+                ConfigurationParameters.of(UserConfiguration.NAME, userConfig))).createRepository();
+        takeWrites();
+    }
+
+    /**
+     * @return new session of the administrator
+     */
+    public JackrabbitSession loginAdministrator() throws RepositoryException {
+        return (JackrabbitSession) repository.login(new SimpleCredentials("admin", "admin".toCharArray()));
+    }
+
+    /**
+     * @return writes committed since the last call, which resets the counts
+     */
+    public Writes takeWrites() {
+        return writeCounter.take();
+    }
+
+    /**
+     * @param userId ID of a user
+     * @return the value of a property of the user, null if the user or the property doesn't exist
+     */
+    public String getProperty(String userId, String relPath) throws RepositoryException {
+        JackrabbitSession session = loginAdministrator();
+        try {
+            Authorizable user = session.getUserManager().getAuthorizable(userId);
+            Value[] values = Objects.isNull(user) ? null : user.getProperty(relPath);
+            return Objects.isNull(values) || values.length == 0 ? null : values[0].getString();
+        } finally {
+            session.logout();
+        }
+    }
+
+    @Override
+    public void close() {
+        repository.shutdown();
+    }
+
+    /**
+     * Nodes, properties and commits written to the node store.
+     */
+    public static final class Writes {
+
+        private final long nodes;
+        private final long properties;
+        private final long saves;
+
+        Writes(long nodes, long properties, long saves) {
+            this.nodes = nodes;
+            this.properties = properties;
+            this.saves = saves;
+        }
+
+        public long getNodes() {
+            return nodes;
+        }
+
+        public long getProperties() {
+            return properties;
+        }
+
+        public long getSaves() {
+            return saves;
+        }
+
+        @Override
+        public String toString() {
+            return nodes + " nodes, " + properties + " properties, " + saves + " saves";
+        }
+
+    }
+
+    /**
+     * Observer of the node store, called with the root of each commit by the thread of the commit.
+     */
+    private static final class WriteCounter implements Observer {
+
+        private NodeState before;
+        private long nodes;
+        private long properties;
+        private long saves;
+
+        @Override
+        public synchronized void contentChanged(NodeState root, CommitInfo info) {
+            if (Objects.nonNull(before)) {
+                long nodesBefore = nodes;
+                long propertiesBefore = properties;
+                root.compareAgainstBaseState(before, new CountingDiff(true));
+                if (nodes > nodesBefore || properties > propertiesBefore) {
+                    saves++;
+                }
+            }
+            before = root;
+        }
+
+        private synchronized Writes take() {
+            Writes writes = new Writes(nodes, properties, saves);
+            nodes = 0;
+            properties = 0;
+            saves = 0;
+            return writes;
+        }
+
+        private final class CountingDiff extends DefaultNodeStateDiff {
+
+            private final boolean root;
+
+            private CountingDiff(boolean root) {
+                this.root = root;
+            }
+
+            @Override
+            public boolean propertyAdded(PropertyState after) {
+                properties++;
+                return true;
+            }
+
+            @Override
+            public boolean propertyChanged(PropertyState before, PropertyState after) {
+                properties++;
+                return true;
+            }
+
+            @Override
+            public boolean propertyDeleted(PropertyState before) {
+                properties++;
+                return true;
+            }
+
+            @Override
+            public boolean childNodeAdded(String name, NodeState after) {
+                if (isCounted(name)) {
+                    nodes++;
+                    after.compareAgainstBaseState(EMPTY_NODE, child());
+                }
+                return true;
+            }
+
+            @Override
+            public boolean childNodeChanged(String name, NodeState before, NodeState after) {
+                if (isCounted(name)) {
+                    after.compareAgainstBaseState(before, child());
+                }
+                return true;
+            }
+
+            @Override
+            public boolean childNodeDeleted(String name, NodeState before) {
+                if (isCounted(name)) {
+                    nodes++;
+                }
+                return true;
+            }
+
+            private boolean isCounted(String name) {
+                return !name.startsWith(":") && !(root && name.equals(INDEX));
+            }
+
+            private NodeStateDiff child() {
+                return new CountingDiff(false);
+            }
+
+        }
+
+    }
+
+}
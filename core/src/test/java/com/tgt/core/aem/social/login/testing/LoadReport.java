@@ -0,0 +1,71 @@
+package com.tgt.core.aem.social.login.testing;
+
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput and latency percentiles of a {@link LoginLoadGenerator} run. Failed logins count in the throughput
+ * but not in the latencies.
+ */
+public final class LoadReport {
+
+    private final int concurrency;
+    private final int logins;
+    private final int failures;
+    private final long elapsedNanos;
+    private final long[] sortedLatencies;
+    private final Exception firstFailure;
+
+    LoadReport(int concurrency, long[] latencies, int failures, long elapsedNanos, Exception firstFailure) {
+        this.concurrency = concurrency;
+        this.logins = latencies.length;
+        this.failures = failures;
+        this.elapsedNanos = elapsedNanos;
+        this.firstFailure = firstFailure;
+        this.sortedLatencies = Arrays.stream(latencies).filter(latency -> latency >= 0).sorted().toArray();
+    }
+
+    public int getLogins() {
+        return logins;
+    }
+
+    public int getFailures() {
+        return failures;
+    }
+
+    /**
+     * @return first failure of the run, null if every login succeeded
+     */
+    public Exception getFirstFailure() {
+        return firstFailure;
+    }
+
+    /**
+     * @return logins per second
+     */
+    public double getThroughput() {
+        return logins * (double) TimeUnit.SECONDS.toNanos(1) / elapsedNanos;
+    }
+
+    /**
+     * @param percentile from 0 to 100, e.g. 99.9
+     * @return latency of successful logins at this percentile in milliseconds, NaN if none succeeded
+     */
+    public double getLatencyMillis(double percentile) {
+        if (sortedLatencies.length == 0) {
+            return Double.NaN;
+        }
+        int index = (int) Math.ceil(percentile / 100 * sortedLatencies.length) - 1;
+        return sortedLatencies[Math.max(0, Math.min(index, sortedLatencies.length - 1))] / 1_000_000d;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.ROOT, "%d logins (%d failed) at concurrency %d in %.2f s : %.1f logins/s, "
+                        + "p50 %.2f ms, p99 %.2f ms, p999 %.2f ms", logins, failures, concurrency,
+                elapsedNanos / 1e9, getThroughput(), getLatencyMillis(50), getLatencyMillis(99),
+                getLatencyMillis(99.9));
+    }
+
+}
@@ -0,0 +1,108 @@
+package com.tgt.core.aem.social.login.testing;
+
+import com.adobe.granite.auth.oauth.Provider;
+import org.scribe.model.OAuthConfig;
+import org.scribe.model.OAuthRequest;
+import org.scribe.model.Response;
+import org.scribe.model.Token;
+import org.scribe.model.Verifier;
+import org.scribe.oauth.OAuthService;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Runs logins the way AEM's OAuth authentication handler does - code exchange, user details request, parsing and
+ * property mapping, then the same for each extended details URL, then user ID mapping - at a given concurrency, and reports their throughput and latency.
+ * <p>
+ * Authorization codes are {@link GoogleStandInServer#codeFor(int)} so the provider must point to a
+ * {@link GoogleStandInServer}.
+ */
+public final class LoginLoadGenerator {
+
+    private final Provider provider;
+    private final OAuthConfig config;
+    private final OAuthService service;
+
+    public LoginLoadGenerator(Provider provider, OAuthConfig config) {
+        this.provider = provider;
+        this.config = config;
+        this.service = provider.getApi().createService(config);
+    }
+
+    /**
+     * Run logins and wait for all of them.
+     *
+     * @param concurrency number of logins running at the same time
+     * @param logins      number of logins to run
+     * @return report of the logins
+     * @throws InterruptedException in case the run is interrupted
+     */
+    public LoadReport run(int concurrency, int logins) throws InterruptedException {
+        long[] latencies = new long[logins];
+        AtomicInteger next = new AtomicInteger();
+        AtomicInteger failures = new AtomicInteger();
+        AtomicReference<Exception> firstFailure = new AtomicReference<>();
+
+        ExecutorService executor = Executors.newFixedThreadPool(concurrency);
+        long start = System.nanoTime();
+        for (int i = 0; i < concurrency; i++) {
+            executor.execute(() -> {
+                int login;
+                while ((login = next.getAndIncrement()) < logins) {
+                    long loginStart = System.nanoTime();
+                    try {
+                        login(login);
+                        latencies[login] = System.nanoTime() - loginStart;
+                    } catch (Exception e) {
+                        latencies[login] = -1;
+                        failures.incrementAndGet();
+                        firstFailure.compareAndSet(null, e);
+                    }
+                }
+            });
+        }
+        executor.shutdown();
+        executor.awaitTermination(1, TimeUnit.DAYS);
+        return new LoadReport(concurrency, latencies, failures.get(), System.nanoTime() - start,
+                firstFailure.get());
+    }
+
+    /**
+     * Run a single login.
+     *
+     * @param login number of the login, the user is {@link GoogleStandInServer#codeFor(int)}'s
+     * @return properties mapped by the provider from the user details and the extended details
+     * @throws Exception in case the login failed
+     */
+    public Map<String, Object> login(int login) throws Exception {
+        Token accessToken = service.getAccessToken(null, new Verifier(GoogleStandInServer.codeFor(login)));
+        OAuthRequest request = provider.getProtectedDataRequest(provider.getDetailsURL());
+        service.signRequest(accessToken, request);
+        Response response = request.send();
+        if (!response.isSuccessful()) {
+            throw new IllegalStateException("User details request failed with " + response.getCode());
+        }
+        Map<String, String> properties = provider.parseProfileDataResponse(response);
+        Map<String, Object> mapped = provider.mapProperties(provider.getDetailsURL(), config.getApiKey(),
+                Collections.emptyMap(), properties);
+        if (!mapped.containsKey(provider.getUserIdProperty())) {
+            throw new IllegalStateException("User id is missing from " + mapped);
+        }
+        String userId = String.valueOf(mapped.get(provider.getUserIdProperty()));
+        for (String url : provider.getExtendedDetailsURLs(config.getScope(), userId, mapped)) {
+            OAuthRequest extendedRequest = provider.getProtectedDataRequest(url);
+            service.signRequest(accessToken, extendedRequest);
+            mapped = provider.mapProperties(url, config.getApiKey(), mapped,
+                    provider.parseProfileDataResponse(extendedRequest.send()));
+        }
+        provider.mapUserId(userId, mapped);
+        return mapped;
+    }
+
+}
@@ -0,0 +1,52 @@
+package com.tgt.core.aem.social.login.testing;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Objects;
+import java.util.Properties;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Repository writes allowed per login flow, checked in as {@code repository-write-budget.properties} next to the
+ * tests.
+ * <p>
+ * Each flow has a budget of {@code <flow>.nodes}, {@code <flow>.properties} and {@code <flow>.saves}. A flow writing
+ * more than its budget fails the build: lower the budget when a change writes less, raise it only on purpose.
+ */
+public final class RepositoryWriteBudget {
+
+    private static final String BUDGET = "/repository-write-budget.properties";
+
+    private final Properties budget = new Properties();
+
+    public RepositoryWriteBudget() throws IOException {
+        try (InputStream stream = RepositoryWriteBudget.class.getResourceAsStream(BUDGET)) {
+            if (Objects.isNull(stream)) {
+                throw new IOException(BUDGET + " is missing from the test resources");
+            }
+            budget.load(stream);
+        }
+    }
+
+    /**
+     * Fail if writes of a flow exceed its budget.
+     *
+     * @param flow   name of the flow in the budget
+     * @param writes {@link InMemoryOakRepository.Writes} of the flow
+     */
+    public void assertWithin(String flow, InMemoryOakRepository.Writes writes) {
+        assertWithin(flow, "nodes", writes.getNodes(), writes);
+        assertWithin(flow, "properties", writes.getProperties(), writes);
+        assertWithin(flow, "saves", writes.getSaves(), writes);
+    }
+
+    private void assertWithin(String flow, String kind, long actual, InMemoryOakRepository.Writes writes) {
+        String key = flow + "." + kind;
+        String allowed = budget.getProperty(key);
+        assertTrue(Objects.nonNull(allowed), "No budget for " + key);
+        assertTrue(actual <= Long.parseLong(allowed.trim()),
+                flow + " wrote " + writes + ", over its budget of " + allowed.trim() + " " + kind);
+    }
+
+}
@@ -0,0 +1,58 @@
+package com.tgt.core.aem.social.login.testing;
+
+import com.adobe.granite.crypto.CryptoException;
+import com.adobe.granite.crypto.CryptoSupport;
+
+import java.util.Arrays;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Stand-in for the Crypto Support, "protecting" a value by wrapping it in braces the way protected values look, and
+ * "encrypting" bytes by prefixing them with a brace. Bytes without the prefix can't be decrypted, like the bytes
+ * encrypted with another key.
+ */
+public final class StandInCryptoSupport {
+
+    private StandInCryptoSupport() {
+    }
+
+    /**
+     * @return {@link CryptoSupport} protecting {@code value} as {@code {value}}
+     */
+    public static CryptoSupport create() {
+        CryptoSupport cryptoSupport = mock(CryptoSupport.class);
+        try {
+            when(cryptoSupport.protect(anyString())).then(invocation -> "{" + invocation.getArgument(0) + "}");
+            when(cryptoSupport.isProtected(anyString())).then(invocation -> {
+                String value = invocation.getArgument(0);
+                return value.startsWith("{") && value.endsWith("}");
+            });
+            when(cryptoSupport.unprotect(anyString())).then(invocation -> {
+                String value = invocation.getArgument(0);
+                return value.substring(1, value.length() - 1);
+            });
+            when(cryptoSupport.encrypt(any(byte[].class))).then(invocation -> {
+                byte[] plain = invocation.getArgument(0);
+                byte[] encrypted = new byte[plain.length + 1];
+                encrypted[0] = '{';
+                System.arraycopy(plain, 0, encrypted, 1, plain.length);
+                return encrypted;
+            });
+            when(cryptoSupport.decrypt(any(byte[].class))).then(invocation -> {
+                byte[] encrypted = invocation.getArgument(0);
+                if (encrypted.length == 0 || encrypted[0] != '{') {
+                    throw new CryptoException("Not encrypted with this key");
+                }
+                return Arrays.copyOfRange(encrypted, 1, encrypted.length);
+            });
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+        return cryptoSupport;
+    }
+
+}
@@ -0,0 +1,175 @@
+package com.tgt.core.aem.social.login.testing;
+
+import org.apache.sling.commons.scheduler.ScheduleOptions;
+import org.apache.sling.commons.scheduler.Scheduler;
+
+import java.io.Serializable;
+import java.util.Date;
+import java.util.Map;
+import java.util.Objects;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Stand-in for the Sling {@link Scheduler}, running the {@link Runnable} jobs scheduled {@link #NOW()} or
+ * {@link #AT(Date)} once on a single daemon thread. Periodic, cron and job-based scheduling isn't supported.
+ */
+public final class StandInScheduler implements Scheduler {
+
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "stand-in-scheduler");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final Map<String, ScheduledFuture<?>> jobs = new ConcurrentHashMap<>();
+
+    @Override
+    public boolean schedule(Object job, ScheduleOptions options) {
+        Options standInOptions = (Options) options;
+        String name = Objects.isNull(standInOptions.name) ? UUID.randomUUID().toString() : standInOptions.name;
+        long delayMs = Objects.isNull(standInOptions.at) ? 0
+                : Math.max(0, standInOptions.at.getTime() - System.currentTimeMillis());
+        ScheduledFuture<?> previous = jobs.put(name, executor.schedule(() -> {
+            jobs.remove(name);
+            ((Runnable) job).run();
+        }, delayMs, TimeUnit.MILLISECONDS));
+        if (Objects.nonNull(previous)) {
+            previous.cancel(false);
+        }
+        return true;
+    }
+
+    @Override
+    public boolean unschedule(String jobName) {
+        ScheduledFuture<?> job = jobs.remove(jobName);
+        return Objects.nonNull(job) && job.cancel(false);
+    }
+
+    /**
+     * @return number of jobs waiting to run
+     */
+    public int getScheduledCount() {
+        return jobs.size();
+    }
+
+    @Override
+    public ScheduleOptions NOW() {
+        return new Options(null);
+    }
+
+    @Override
+    public ScheduleOptions AT(Date date) {
+        return new Options(date);
+    }
+
+    @Override
+    public ScheduleOptions NOW(int times, long period) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public ScheduleOptions AT(Date date, int times, long period) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public ScheduleOptions EXPR(String expression) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void addJob(String name, Object job, Map<String, Serializable> config, String schedulingExpression,
+                       boolean canRunConcurrently) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void addPeriodicJob(String name, Object job, Map<String, Serializable> config, long period,
+                               boolean canRunConcurrently) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void addPeriodicJob(String name, Object job, Map<String, Serializable> config, long period,
+                               boolean canRunConcurrently, boolean startImmediate) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void fireJob(Object job, Map<String, Serializable> config) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public boolean fireJob(Object job, Map<String, Serializable> config, int times, long period) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void fireJobAt(String name, Object job, Map<String, Serializable> config, Date date) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public boolean fireJobAt(String name, Object job, Map<String, Serializable> config, Date date, int times,
+                             long period) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void removeJob(String name) {
+        throw new UnsupportedOperationException();
+    }
+
+    private static final class Options implements ScheduleOptions {
+
+        private final Date at;
+        private String name;
+
+        private Options(Date at) {
+            this.at = at;
+        }
+
+        @Override
+        public ScheduleOptions name(String name) {
+            this.name = name;
+            return this;
+        }
+
+        @Override
+        public ScheduleOptions config(Map<String, Serializable> config) {
+            return this;
+        }
+
+        @Override
+        public ScheduleOptions canRunConcurrently(boolean flag) {
+            return this;
+        }
+
+        @Override
+        public ScheduleOptions onLeaderOnly(boolean flag) {
+            return this;
+        }
+
+        @Override
+        public ScheduleOptions onSingleInstanceOnly(boolean flag) {
+            return this;
+        }
+
+        @Override
+        public ScheduleOptions onInstancesOnly(String[] slingIds) {
+            return this;
+        }
+
+        @Override
+        public ScheduleOptions threadPoolName(String name) {
+            return this;
+        }
+
+    }
+
+}
@@ -0,0 +1,138 @@
+package com.tgt.core.aem.social.login.testing;
+
+import org.apache.sling.commons.threads.ModifiableThreadPoolConfig;
+import org.apache.sling.commons.threads.ThreadPool;
+import org.apache.sling.commons.threads.ThreadPoolConfig;
+import org.apache.sling.commons.threads.ThreadPoolManager;
+
+import java.util.Map;
+import java.util.Objects;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Stand-in for the Sling {@link ThreadPoolManager}, creating pools of daemon threads sized, queued and blocking as
+ * configured, like the Sling thread pools. Released pools are shut down, gracefully if configured so.
+ */
+public final class StandInThreadPoolManager implements ThreadPoolManager {
+
+    private final Map<String, Pool> pools = new ConcurrentHashMap<>();
+
+    @Override
+    public ThreadPool get(String name) {
+        return pools.computeIfAbsent(Objects.toString(name, DEFAULT_THREADPOOL_NAME),
+                poolName -> new Pool(poolName, new ModifiableThreadPoolConfig()));
+    }
+
+    @Override
+    public ThreadPool create(ThreadPoolConfig config) {
+        return create(config, null);
+    }
+
+    @Override
+    public ThreadPool create(ThreadPoolConfig config, String label) {
+        String name = Objects.toString(label, "stand-in-pool") + "-" + UUID.randomUUID();
+        Pool pool = new Pool(name, config);
+        pools.put(name, pool);
+        return pool;
+    }
+
+    @Override
+    public void release(ThreadPool pool) {
+        if (Objects.nonNull(pools.remove(pool.getName()))) {
+            ((Pool) pool).shutdown();
+        }
+    }
+
+    /**
+     * @return number of pools created and not released yet
+     */
+    public int getPoolCount() {
+        return pools.size();
+    }
+
+    private static final class Pool implements ThreadPool {
+
+        private final String name;
+        private final ThreadPoolConfig config;
+        private final ThreadPoolExecutor executor;
+
+        private Pool(String name, ThreadPoolConfig config) {
+            this.name = name;
+            this.config = config;
+            int maxPoolSize = Math.max(1, config.getMaxPoolSize());
+            BlockingQueue<Runnable> queue = config.getQueueSize() < 0 ? new LinkedBlockingQueue<>()
+                    : new ArrayBlockingQueue<>(Math.max(1, config.getQueueSize()));
+            AtomicInteger threadCount = new AtomicInteger();
+            this.executor = new ThreadPoolExecutor(Math.min(maxPoolSize, Math.max(0, config.getMinPoolSize())),
+                    maxPoolSize, config.getKeepAliveTime(), TimeUnit.MILLISECONDS, queue, runnable -> {
+                Thread thread = new Thread(runnable, name + "-" + threadCount.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }, rejectionOf(config.getBlockPolicy()));
+        }
+
+        private static RejectedExecutionHandler rejectionOf(ThreadPoolConfig.ThreadPoolPolicy policy) {
+            switch (policy) {
+                case ABORT:
+                    return new ThreadPoolExecutor.AbortPolicy();
+                case DISCARD:
+                    return new ThreadPoolExecutor.DiscardPolicy();
+                case DISCARDOLDEST:
+                    return new ThreadPoolExecutor.DiscardOldestPolicy();
+                default:
+                    return new ThreadPoolExecutor.CallerRunsPolicy();
+            }
+        }
+
+        @Override
+        public <T> Future<T> submit(Callable<T> task) {
+            return executor.submit(task);
+        }
+
+        @Override
+        public Future<?> submit(Runnable task) {
+            return executor.submit(task);
+        }
+
+        @Override
+        public void execute(Runnable command) {
+            executor.execute(command);
+        }
+
+        @Override
+        public String getName() {
+            return name;
+        }
+
+        @Override
+        public ThreadPoolConfig getConfiguration() {
+            return config;
+        }
+
+        private void shutdown() {
+            if (!config.isShutdownGraceful()) {
+                executor.shutdownNow();
+                return;
+            }
+            executor.shutdown();
+            try {
+                executor.awaitTermination(config.getShutdownWaitTimeMs(), TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            executor.shutdownNow();
+        }
+
+    }
+
+}
@@ -0,0 +1,123 @@
+package com.tgt.core.aem.social.login.tokens.impl;
+
+import com.adobe.granite.auth.oauth.AccessTokenProviderConstants;
+import com.tgt.core.aem.social.login.tokens.AccessTokenStore;
+import io.wcm.testing.mock.aem.junit5.AemContext;
+import io.wcm.testing.mock.aem.junit5.AemContextExtension;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+
+import java.util.Collections;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Access tokens read from the {@link AccessTokenStore} and cached by the {@link CachingAccessTokenProvider}.
+ */
+@ExtendWith(AemContextExtension.class)
+class CachingAccessTokenProviderTest {
+
+    private static final String USER_ID = "user1@standin.example.com";
+    private static final String CLIENT_ID = "stand-in-client";
+    private static final Map<String, String> PARAMS =
+            Collections.singletonMap(AccessTokenProviderConstants.CLIENT_ID, CLIENT_ID);
+
+    private final AemContext context = new AemContext();
+
+    private AccessTokenStore store;
+    private ResourceResolver resolver;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        store = mock(AccessTokenStore.class);
+        when(store.get(any(), eq(USER_ID), eq(CLIENT_ID))).thenReturn("token-1");
+        context.registerService(AccessTokenStore.class, store,
+                AccessTokenStore.STORE_TYPE, AccessTokenStore.REPOSITORY);
+        resolver = reader("reader1");
+    }
+
+    @Test
+    void tokensAreReadFromTheStoreOnceForEachReader() throws Exception {
+        CachingAccessTokenProvider provider = context.registerInjectActivateService(new CachingAccessTokenProvider());
+
+        assertEquals("token-1", provider.getAccessToken(resolver, USER_ID, PARAMS));
+        assertEquals("token-1", provider.getAccessToken(resolver, USER_ID, PARAMS));
+        verify(store, times(1)).get(resolver, USER_ID, CLIENT_ID);
+        ResourceResolver otherReader = reader("reader2");
+        assertEquals("token-1", provider.getAccessToken(otherReader, USER_ID, PARAMS));
+
+        verify(store, times(1)).get(otherReader, USER_ID, CLIENT_ID);
+        assertEquals(2, provider.getSize());
+        assertEquals(1, provider.getHits());
+        assertEquals(2, provider.getMisses());
+        assertEquals(1.0 / 3, provider.getHitRatio());
+    }
+
+    @Test
+    void tokensOfAUserAreReadAgainOnceInvalidated() throws Exception {
+        CachingAccessTokenProvider provider = context.registerInjectActivateService(new CachingAccessTokenProvider());
+        provider.getAccessToken(resolver, USER_ID, PARAMS);
+        when(store.get(any(), eq(USER_ID), eq(CLIENT_ID))).thenReturn("token-2");
+
+        provider.invalidate(USER_ID);
+
+        assertEquals("token-2", provider.getAccessToken(resolver, USER_ID, PARAMS));
+        assertEquals(1, provider.getInvalidations());
+    }
+
+    @Test
+    void tokensAreCachedNoLongerThanTheMaxAge() throws Exception {
+        CachingAccessTokenProvider provider = context.registerInjectActivateService(new CachingAccessTokenProvider(),
+                "cache.max.age.seconds", 0);
+
+        provider.getAccessToken(resolver, USER_ID, PARAMS);
+        provider.getAccessToken(resolver, USER_ID, PARAMS);
+
+        verify(store, times(2)).get(resolver, USER_ID, CLIENT_ID);
+        assertEquals(0, provider.getSize());
+    }
+
+    @Test
+    void issuedTokensAreNotServedWithinTheExpiryMargin() throws Exception {
+        CachingAccessTokenProvider provider = context.registerInjectActivateService(new CachingAccessTokenProvider(),
+                "cache.expiry.margin.seconds", 60);
+        provider.tokenIssued("token-1", 60);
+
+        provider.getAccessToken(resolver, USER_ID, PARAMS);
+        provider.getAccessToken(resolver, USER_ID, PARAMS);
+
+        verify(store, times(2)).get(resolver, USER_ID, CLIENT_ID);
+        provider.clear();
+        provider.getAccessToken(resolver, USER_ID, PARAMS);
+        assertEquals(1, provider.getSize());
+    }
+
+    @Test
+    void usersWithoutTokenAreNotCached() throws Exception {
+        CachingAccessTokenProvider provider = context.registerInjectActivateService(new CachingAccessTokenProvider());
+
+        assertNull(provider.getAccessToken(resolver, "user2@standin.example.com", PARAMS));
+
+        assertEquals(0, provider.getSize());
+        assertThrows(NullPointerException.class,
+                () -> provider.getAccessToken(resolver, USER_ID, Collections.emptyMap()));
+    }
+
+    private static ResourceResolver reader(String userId) {
+        ResourceResolver reader = mock(ResourceResolver.class);
+        when(reader.getUserID()).thenReturn(userId);
+        return reader;
+    }
+
+}
@@ -0,0 +1,148 @@
+package com.tgt.core.aem.social.login.tokens.impl;
+
+import com.adobe.granite.crypto.CryptoSupport;
+import com.tgt.core.aem.social.login.testing.StandInCryptoSupport;
+import io.wcm.testing.mock.aem.junit5.AemContext;
+import io.wcm.testing.mock.aem.junit5.AemContextExtension;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+
+import javax.servlet.http.Cookie;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Objects;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Access tokens kept in cookies by the {@link CookieAccessTokenStore}, and the attributes of these cookies.
+ */
+@ExtendWith(AemContextExtension.class)
+class CookieAccessTokenStoreTest {
+
+    private static final String USER_ID = "user1@standin.example.com";
+    private static final String CLIENT_ID = "stand-in-client";
+
+    private final AemContext context = new AemContext();
+
+    private CryptoSupport cryptoSupport;
+
+    @BeforeEach
+    void setUp() {
+        cryptoSupport = StandInCryptoSupport.create();
+        context.registerService(CryptoSupport.class, cryptoSupport);
+    }
+
+    @Test
+    void tokensAreReadBackFromTheirCookieForTheirUserOnly() throws Exception {
+        CookieAccessTokenStore store = context.registerInjectActivateService(new CookieAccessTokenStore());
+        String cookie = storeToken(store, false);
+
+        assertEquals("token-1", getToken(store, cookie, USER_ID));
+        assertNull(getToken(store, cookie, "user2@standin.example.com"));
+        assertNull(getToken(store, null, USER_ID));
+    }
+
+    @Test
+    void cookiesAreSecureAndLaxByDefault() throws Exception {
+        CookieAccessTokenStore store = context.registerInjectActivateService(new CookieAccessTokenStore());
+
+        String cookie = storeToken(store, false);
+
+        assertTrue(cookie.startsWith("tgt-at-" + Integer.toHexString(CLIENT_ID.hashCode()) + "="), cookie);
+        assertTrue(cookie.endsWith("; Path=/; Max-Age=3600; HttpOnly; Secure; SameSite=Lax"), cookie);
+    }
+
+    @Test
+    void cookiesCanBeSentOverPlainHttp() throws Exception {
+        CookieAccessTokenStore store = context.registerInjectActivateService(new CookieAccessTokenStore(),
+                "cookie.secure", false,
+                "cookie.same.site", "strict");
+
+        assertTrue(storeToken(store, false).endsWith("; HttpOnly; SameSite=Strict"));
+        //still secure when stored over HTTPS
+        assertTrue(storeToken(store, true).endsWith("; HttpOnly; Secure; SameSite=Strict"));
+    }
+
+    @Test
+    void crossSiteCookiesAreAlwaysSecure() throws Exception {
+        CookieAccessTokenStore store = context.registerInjectActivateService(new CookieAccessTokenStore(),
+                "cookie.secure", false,
+                "cookie.same.site", "None");
+
+        assertTrue(storeToken(store, false).endsWith("; Secure; SameSite=None"));
+    }
+
+    @Test
+    void expiredOrUnreadableCookiesAreIgnored() throws Exception {
+        CookieAccessTokenStore store = context.registerInjectActivateService(new CookieAccessTokenStore());
+        String name = "tgt-at-" + Integer.toHexString(CLIENT_ID.hashCode());
+        byte[] plain = (USER_ID + "\ntoken-1").getBytes(StandardCharsets.UTF_8);
+        byte[] expired = cryptoSupport.encrypt(ByteBuffer.allocate(Long.BYTES + plain.length)
+                .putLong(System.currentTimeMillis() - 1).put(plain).array());
+
+        assertNull(getToken(store, name + "=" + Base64.getUrlEncoder().encodeToString(expired), USER_ID));
+        //e.g. encrypted with the key of another instance
+        assertNull(getToken(store, name + "=" + Base64.getUrlEncoder().encodeToString(plain), USER_ID));
+        assertNull(getToken(store, name + "=***", USER_ID));
+    }
+
+    @Test
+    void tokensOutsideOfARequestArentStored() {
+        CookieAccessTokenStore store = context.registerInjectActivateService(new CookieAccessTokenStore());
+
+        store.store(USER_ID, CLIENT_ID, "token-1", 3600);
+
+        assertNull(store.get(null, USER_ID, CLIENT_ID));
+    }
+
+    /**
+     * @return Set-Cookie header of the response of a login storing a token
+     */
+    private static String storeToken(CookieAccessTokenStore store, boolean https) throws Exception {
+        HttpServletRequest request = mock(HttpServletRequest.class);
+        when(request.isSecure()).thenReturn(https);
+        HttpServletResponse response = mock(HttpServletResponse.class);
+
+        store.doFilter(request, response, (filteredRequest, filteredResponse) ->
+                store.store(USER_ID, CLIENT_ID, "token-1", 3600));
+
+        ArgumentCaptor<String> header = ArgumentCaptor.forClass(String.class);
+        verify(response).addHeader(eq("Set-Cookie"), header.capture());
+        assertFalse(header.getValue().isEmpty());
+        return header.getValue();
+    }
+
+    /**
+     * @param setCookie Set-Cookie header whose cookie the browser sends, null if none
+     * @return token read by a request of the user
+     */
+    private static String getToken(CookieAccessTokenStore store, String setCookie, String userId) throws Exception {
+        HttpServletRequest request = mock(HttpServletRequest.class);
+        if (Objects.nonNull(setCookie)) {
+            String nameValue = setCookie.split(";")[0];
+            int equals = nameValue.indexOf('=');
+            Cookie cookie = new Cookie(nameValue.substring(0, equals), nameValue.substring(equals + 1));
+            when(request.getCookies()).thenReturn(new Cookie[]{cookie});
+        }
+        String[] token = new String[1];
+
+        store.doFilter(request, mock(HttpServletResponse.class), (filteredRequest, filteredResponse) ->
+                token[0] = store.get(null, userId, CLIENT_ID));
+
+        return token[0];
+    }
+
+}
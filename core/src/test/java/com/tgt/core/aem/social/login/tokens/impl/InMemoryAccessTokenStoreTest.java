@@ -0,0 +1,101 @@
+package com.tgt.core.aem.social.login.tokens.impl;
+
+import io.wcm.testing.mock.aem.junit5.AemContext;
+import io.wcm.testing.mock.aem.junit5.AemContextExtension;
+import org.apache.jackrabbit.api.security.user.Authorizable;
+import org.apache.jackrabbit.api.security.user.UserManager;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+
+import javax.jcr.RepositoryException;
+import java.io.IOException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Access tokens kept in memory by the {@link InMemoryAccessTokenStore}, for the readers of their user only.
+ */
+@ExtendWith(AemContextExtension.class)
+class InMemoryAccessTokenStoreTest {
+
+    private static final String USER_ID = "user1@standin.example.com";
+    private static final String CLIENT_ID = "stand-in-client";
+
+    private final AemContext context = new AemContext();
+
+    private UserManager userManager;
+    private ResourceResolver resolver;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        userManager = mock(UserManager.class);
+        when(userManager.getAuthorizable(USER_ID)).thenReturn(mock(Authorizable.class));
+        resolver = mock(ResourceResolver.class);
+        when(resolver.adaptTo(UserManager.class)).thenReturn(userManager);
+    }
+
+    @Test
+    void tokensAreServedToTheReadersOfTheirUser() throws Exception {
+        InMemoryAccessTokenStore store = context.registerInjectActivateService(new InMemoryAccessTokenStore());
+
+        store.store(USER_ID, CLIENT_ID, "token-1", 3599);
+
+        assertEquals("token-1", store.get(resolver, USER_ID, CLIENT_ID));
+        assertNull(store.get(resolver, USER_ID, "other-client"));
+        assertNull(store.get(mock(ResourceResolver.class), USER_ID, CLIENT_ID));
+        ResourceResolver otherReader = mock(ResourceResolver.class);
+        when(otherReader.adaptTo(UserManager.class)).thenReturn(mock(UserManager.class));
+        assertNull(store.get(otherReader, USER_ID, CLIENT_ID));
+    }
+
+    @Test
+    void newTokensReplaceTheOldOnes() throws Exception {
+        InMemoryAccessTokenStore store = context.registerInjectActivateService(new InMemoryAccessTokenStore());
+
+        store.store(USER_ID, CLIENT_ID, "token-1", 3599);
+        store.store(USER_ID, CLIENT_ID, "token-2", 3599);
+
+        assertEquals("token-2", store.get(resolver, USER_ID, CLIENT_ID));
+    }
+
+    @Test
+    void tokensWithoutExpiryAreKeptForTheDefaultLifetime() throws Exception {
+        InMemoryAccessTokenStore store = context.registerInjectActivateService(new InMemoryAccessTokenStore(),
+                "store.default.lifetime.seconds", 0);
+
+        store.store(USER_ID, CLIENT_ID, "token-1", 0);
+
+        assertNull(store.get(resolver, USER_ID, CLIENT_ID));
+        store.store(USER_ID, CLIENT_ID, "token-2", 3599);
+        assertEquals("token-2", store.get(resolver, USER_ID, CLIENT_ID));
+    }
+
+    @Test
+    void leastRecentlyUsedTokensAreDroppedOnceFull() throws Exception {
+        InMemoryAccessTokenStore store = context.registerInjectActivateService(new InMemoryAccessTokenStore(),
+                "store.max.size", 1);
+        when(userManager.getAuthorizable("user2@standin.example.com")).thenReturn(mock(Authorizable.class));
+
+        store.store(USER_ID, CLIENT_ID, "token-1", 3599);
+        store.store("user2@standin.example.com", CLIENT_ID, "token-2", 3599);
+
+        assertNull(store.get(resolver, USER_ID, CLIENT_ID));
+        assertEquals("token-2", store.get(resolver, "user2@standin.example.com", CLIENT_ID));
+    }
+
+    @Test
+    void usersWhichCannotBeReadFailTheRead() throws Exception {
+        InMemoryAccessTokenStore store = context.registerInjectActivateService(new InMemoryAccessTokenStore());
+        store.store(USER_ID, CLIENT_ID, "token-1", 3599);
+        when(userManager.getAuthorizable(USER_ID)).thenThrow(new RepositoryException("stand-in failure"));
+
+        assertThrows(IOException.class, () -> store.get(resolver, USER_ID, CLIENT_ID));
+    }
+
+}
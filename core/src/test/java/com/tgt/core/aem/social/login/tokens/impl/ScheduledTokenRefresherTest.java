@@ -0,0 +1,240 @@
+package com.tgt.core.aem.social.login.tokens.impl;
+
+import com.adobe.granite.auth.oauth.Provider;
+import com.adobe.granite.crypto.CryptoSupport;
+import com.tgt.core.aem.social.login.http.ProviderCallException;
+import com.tgt.core.aem.social.login.http.ProviderFailure;
+import com.tgt.core.aem.social.login.scribe.OidcScribeApi;
+import com.tgt.core.aem.social.login.scribe.OidcScribeService;
+import com.tgt.core.aem.social.login.testing.InMemoryOakRepository;
+import com.tgt.core.aem.social.login.testing.StandInCryptoSupport;
+import com.tgt.core.aem.social.login.testing.StandInThreadPoolManager;
+import com.tgt.core.aem.social.login.tokens.AccessTokenCache;
+import io.wcm.testing.mock.aem.junit5.AemContext;
+import io.wcm.testing.mock.aem.junit5.AemContextExtension;
+import org.apache.jackrabbit.api.JackrabbitSession;
+import org.apache.jackrabbit.api.security.user.User;
+import org.apache.jackrabbit.oak.spi.security.principal.PrincipalImpl;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.api.resource.ResourceResolverFactory;
+import org.apache.sling.commons.threads.ThreadPoolManager;
+import org.apache.sling.serviceusermapping.ServiceUserMapped;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.osgi.framework.Constants;
+import org.osgi.service.cm.Configuration;
+import org.osgi.service.cm.ConfigurationAdmin;
+import org.scribe.model.Token;
+
+import javax.jcr.Session;
+import javax.jcr.Value;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.AdditionalAnswers.delegatesTo;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tokens found, refreshed and written in batches by the {@link ScheduledTokenRefresher}, in an in-memory Oak
+ * repository.
+ */
+@ExtendWith(AemContextExtension.class)
+class ScheduledTokenRefresherTest {
+
+    private static final String CLIENT_ID = "stand-in-client";
+    private static final String ACCESS_TOKEN = "oauth/oauthid-" + CLIENT_ID;
+    private static final String REFRESH_TOKEN = "google/refreshToken";
+    private static final String TOKEN_EXPIRY = "google/tokenExpiry";
+
+    private final AemContext context = new AemContext();
+    private final InMemoryOakRepository repository = new InMemoryOakRepository();
+    //refresh tokens sent to Google, in their order
+    private final List<String> refreshes = Collections.synchronizedList(new ArrayList<>());
+    //number of refreshes sent when each refreshed user got its token saved
+    private final List<Integer> refreshesAtSave = Collections.synchronizedList(new ArrayList<>());
+
+    private JackrabbitSession session;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        session = repository.loginAdministrator();
+        ResourceResolver serviceResolver = mock(ResourceResolver.class);
+        when(serviceResolver.adaptTo(Session.class)).thenReturn(session);
+        ResourceResolverFactory resourceResolverFactory = mock(ResourceResolverFactory.class);
+        when(resourceResolverFactory.getServiceResourceResolver(any())).thenReturn(serviceResolver);
+        context.registerService(ResourceResolverFactory.class, resourceResolverFactory,
+                Constants.SERVICE_RANKING, Integer.MAX_VALUE);
+        context.registerService(ServiceUserMapped.class, mock(ServiceUserMapped.class),
+                ServiceUserMapped.SUBSERVICENAME, "token-refresh");
+        context.registerService(CryptoSupport.class, StandInCryptoSupport.create());
+        context.registerService(ThreadPoolManager.class, new StandInThreadPoolManager());
+        //the OAuth configuration of the logins
+        Hashtable<String, Object> oauthConfig = new Hashtable<>();
+        oauthConfig.put("oauth.config.id", "stand-in-google");
+        oauthConfig.put("oauth.client.id", CLIENT_ID);
+        oauthConfig.put("oauth.client.secret", "{stand-in-secret}");
+        Configuration configuration = mock(Configuration.class);
+        when(configuration.getProperties()).thenReturn(oauthConfig);
+        //the configurations of the components are still those of the OSGi mocks
+        ConfigurationAdmin configurationAdmin = mock(ConfigurationAdmin.class,
+                delegatesTo(context.getService(ConfigurationAdmin.class)));
+        doReturn(null).when(configurationAdmin).listConfigurations(anyString());
+        doReturn(new Configuration[]{configuration}).when(configurationAdmin).listConfigurations(
+                "(&(service.factoryPid=com.adobe.granite.auth.oauth.provider)(oauth.config.id=stand-in-google))");
+        context.registerService(ConfigurationAdmin.class, configurationAdmin,
+                Constants.SERVICE_RANKING, Integer.MAX_VALUE);
+        AccessTokenCache accessTokenCache = mock(AccessTokenCache.class);
+        doAnswer(invocation -> refreshesAtSave.add(refreshes.size())).when(accessTokenCache).invalidate(anyString());
+        context.registerService(AccessTokenCache.class, accessTokenCache);
+
+        OidcScribeService service = mock(OidcScribeService.class);
+        when(service.refreshAccessToken(anyString())).thenAnswer(invocation -> {
+            String refreshToken = invocation.getArgument(0);
+            refreshes.add(refreshToken);
+            if (refreshToken.equals("revoked")) {
+                throw new ProviderCallException(ProviderFailure.INVALID_GRANT, "Token has been expired or revoked");
+            }
+            if (refreshToken.equals("unavailable")) {
+                throw new ProviderCallException(ProviderFailure.SERVER_ERROR, "Backend Error");
+            }
+            //Google rotates the refresh token of bob
+            String rotated = refreshToken.startsWith("bob") ? ",\"refresh_token\":\"bob-2\"" : "";
+            return new Token("access-" + refreshToken, "",
+                    "{\"access_token\":\"access-" + refreshToken + "\",\"expires_in\":3599" + rotated + "}");
+        });
+        OidcScribeApi api = mock(OidcScribeApi.class);
+        when(api.createService(any())).thenReturn(service);
+        Provider provider = mock(Provider.class);
+        when(provider.getApi()).thenReturn(api);
+        context.registerService(Provider.class, provider, "oauth.provider.id", "thegreyteacher-google-provider");
+    }
+
+    @AfterEach
+    void tearDown() {
+        session.logout();
+        repository.close();
+    }
+
+    @Test
+    void tokensExpiringWithinTheWindowAreRefreshedSoonestFirst() throws Exception {
+        addUser("ann", "thegreyteacher", "ann-1", 10);
+        addUser("bob", "thegreyteacher", "bob-1", 5);
+        addUser("cid", "thegreyteacher", "cid-1", 60);
+        //elsewhere than the social login users
+        addUser("dan", "other", "dan-1", 5);
+        session.save();
+
+        refresher(10, 100).run();
+
+        assertEquals(Arrays.asList("bob-1", "ann-1"), refreshes);
+        assertEquals("{access-ann-1}", getProperty("ann", ACCESS_TOKEN));
+        assertEquals("{access-bob-1}", getProperty("bob", ACCESS_TOKEN));
+        assertEquals("{bob-2}", getProperty("bob", REFRESH_TOKEN));
+        assertEquals("{ann-1}", getProperty("ann", REFRESH_TOKEN));
+        assertExpiresInMinutes(59, "ann");
+        assertExpiresInMinutes(60, "cid");
+        assertNull(getProperty("cid", ACCESS_TOKEN));
+        assertNull(getProperty("dan", ACCESS_TOKEN));
+    }
+
+    @Test
+    void eachBatchIsSavedBeforeTheNextOneIsRefreshed() throws Exception {
+        for (int i = 0; i < 5; i++) {
+            addUser("user" + i, "thegreyteacher", "user" + i, i + 1);
+        }
+        session.save();
+
+        refresher(2, 4).run();
+
+        //the 5th token is left to the next run
+        assertEquals(Arrays.asList("user0", "user1", "user2", "user3"), refreshes);
+        assertEquals(Arrays.asList(2, 2, 4, 4), refreshesAtSave);
+        assertNull(getProperty("user4", ACCESS_TOKEN));
+    }
+
+    @Test
+    void revokedRefreshTokensAreRemoved() throws Exception {
+        addUser("ann", "thegreyteacher", "revoked", 5);
+        addUser("bob", "thegreyteacher", "unavailable", 6);
+        addUser("cid", "thegreyteacher", "cid-1", 7);
+        session.save();
+
+        refresher(10, 100).run();
+
+        assertNull(getProperty("ann", REFRESH_TOKEN));
+        assertNull(getProperty("ann", TOKEN_EXPIRY));
+        //tried again at the next run
+        assertEquals("{unavailable}", getProperty("bob", REFRESH_TOKEN));
+        assertExpiresInMinutes(6, "bob");
+        assertEquals("{access-cid-1}", getProperty("cid", ACCESS_TOKEN));
+
+        refreshes.clear();
+        refresher(10, 100).run();
+        assertEquals(Collections.singletonList("unavailable"), refreshes);
+    }
+
+    @Test
+    void nothingIsRefreshedWithoutTheOAuthConfiguration() throws Exception {
+        addUser("ann", "thegreyteacher", "ann-1", 5);
+        session.save();
+
+        context.registerInjectActivateService(new ScheduledTokenRefresher(),
+                "oauth.config.id", "unknown",
+                "threads", 1).run();
+
+        assertTrue(refreshes.isEmpty());
+        assertNull(getProperty("ann", ACCESS_TOKEN));
+    }
+
+    private ScheduledTokenRefresher refresher(int batchSize, int maxTokens) {
+        return context.registerInjectActivateService(new ScheduledTokenRefresher(),
+                "oauth.config.id", "stand-in-google",
+                "users.path", "/home/users/thegreyteacher",
+                "refresh.window.seconds", 900,
+                "max.tokens", maxTokens,
+                "batch.size", batchSize,
+                //a single thread sends the refreshes in the order of the query
+                "threads", 1,
+                "refresh.per.second", 1000);
+    }
+
+    private void addUser(String name, String folder, String refreshToken, int expiresInMinutes) throws Exception {
+        String userId = name + "@standin.example.com";
+        User user = session.getUserManager().createUser(userId, "secret", new PrincipalImpl(userId), folder);
+        Calendar expiry = Calendar.getInstance();
+        expiry.add(Calendar.MINUTE, expiresInMinutes);
+        user.setProperty(REFRESH_TOKEN, session.getValueFactory().createValue("{" + refreshToken + "}"));
+        user.setProperty(TOKEN_EXPIRY, session.getValueFactory().createValue(expiry));
+    }
+
+    private String getProperty(String name, String path) throws Exception {
+        session.refresh(true);
+        Value[] values = session.getUserManager().getAuthorizable(name + "@standin.example.com").getProperty(path);
+        return Objects.isNull(values) ? null : values[0].getString();
+    }
+
+    private void assertExpiresInMinutes(int minutes, String name) throws Exception {
+        Value[] expiry = session.getUserManager().getAuthorizable(name + "@standin.example.com")
+                .getProperty(TOKEN_EXPIRY);
+        long expiresInMs = expiry[0].getDate().getTimeInMillis() - System.currentTimeMillis();
+        assertTrue(Math.abs(expiresInMs - TimeUnit.MINUTES.toMillis(minutes)) < TimeUnit.MINUTES.toMillis(1),
+                name + " expires in " + expiresInMs + " ms");
+    }
+
+}
@@ -0,0 +1,102 @@
+package com.tgt.core.aem.social.login.tokens.impl;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+/**
+ * Expiry, eviction and invalidation of the tokens held by the {@link StripedTokenCache}.
+ */
+class StripedTokenCacheTest {
+
+    private static final long NOW = 0;
+    private static final long TTL = TimeUnit.MINUTES.toNanos(5);
+    private static final String CLIENT_ID = "stand-in-client";
+
+    @Test
+    void tokensAreServedUntilTheyExpire() {
+        StripedTokenCache cache = new StripedTokenCache(10, 4);
+        StripedTokenCache.Key key = key("user1", "reader1");
+        cache.put(key, "token-1", NOW + TTL, cache.getGeneration("user1"));
+
+        assertEquals("token-1", cache.get(key, NOW));
+        assertNull(cache.get(key("user1", "reader2"), NOW));
+        assertNull(cache.get(key, NOW + TTL));
+
+        assertEquals(0, cache.size());
+        assertEquals(1, cache.getHits());
+        assertEquals(2, cache.getMisses());
+        assertEquals(1, cache.getExpired());
+    }
+
+    @Test
+    void leastRecentlyUsedTokensAreEvicted() {
+        StripedTokenCache cache = new StripedTokenCache(2, 1);
+        cache.put(key("user1", null), "token-1", NOW + TTL, cache.getGeneration("user1"));
+        cache.put(key("user2", null), "token-2", NOW + TTL, cache.getGeneration("user2"));
+        cache.get(key("user1", null), NOW);
+
+        cache.put(key("user3", null), "token-3", NOW + TTL, cache.getGeneration("user3"));
+
+        assertEquals(2, cache.size());
+        assertEquals(1, cache.getEvictions());
+        assertEquals("token-1", cache.get(key("user1", null), NOW));
+        assertNull(cache.get(key("user2", null), NOW));
+        assertEquals("token-3", cache.get(key("user3", null), NOW));
+    }
+
+    @Test
+    void maxSizeIsSharedBetweenTheStripes() {
+        assertEquals(8, new StripedTokenCache(10, 4).getMaxSize());
+        assertEquals(3, new StripedTokenCache(3, 16).getMaxSize());
+        assertEquals(1, new StripedTokenCache(0, 0).getMaxSize());
+    }
+
+    @Test
+    void invalidationDropsAllTheTokensOfTheUser() {
+        StripedTokenCache cache = new StripedTokenCache(10, 1);
+        cache.put(key("user1", "reader1"), "token-1", NOW + TTL, cache.getGeneration("user1"));
+        cache.put(key("user1", "reader2"), "token-1", NOW + TTL, cache.getGeneration("user1"));
+        cache.put(key("user2", "reader1"), "token-2", NOW + TTL, cache.getGeneration("user2"));
+
+        cache.invalidate("user1");
+
+        assertNull(cache.get(key("user1", "reader1"), NOW));
+        assertNull(cache.get(key("user1", "reader2"), NOW));
+        assertEquals("token-2", cache.get(key("user2", "reader1"), NOW));
+        assertEquals(2, cache.getInvalidations());
+    }
+
+    @Test
+    void tokensLoadedBeforeAnInvalidationArentCached() {
+        StripedTokenCache cache = new StripedTokenCache(10, 1);
+        long generation = cache.getGeneration("user1");
+
+        //the token gets replaced while the previous one is read from the repository
+        cache.invalidate("user1");
+        cache.put(key("user1", null), "stale-token", NOW + TTL, generation);
+
+        assertNull(cache.get(key("user1", null), NOW));
+        cache.put(key("user1", null), "token-2", NOW + TTL, cache.getGeneration("user1"));
+        assertEquals("token-2", cache.get(key("user1", null), NOW));
+    }
+
+    @Test
+    void tokensLoadedBeforeAClearArentCached() {
+        StripedTokenCache cache = new StripedTokenCache(10, 4);
+        long generation = cache.getGeneration("user1");
+
+        cache.clear();
+        cache.put(key("user1", null), "stale-token", NOW + TTL, generation);
+
+        assertEquals(0, cache.size());
+    }
+
+    private static StripedTokenCache.Key key(String userId, String readerId) {
+        return new StripedTokenCache.Key(userId, CLIENT_ID, readerId);
+    }
+
+}
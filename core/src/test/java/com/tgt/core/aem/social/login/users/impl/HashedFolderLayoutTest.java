@@ -0,0 +1,62 @@
+package com.tgt.core.aem.social.login.users.impl;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Folder paths of the {@link HashedFolderLayout}.
+ */
+class HashedFolderLayoutTest {
+
+    private static final String ROOT = "thegreyteacher";
+
+    @Test
+    void usersGetANestedBucketPerLevel() {
+        HashedFolderLayout layout = new HashedFolderLayout(ROOT, 2, 256);
+
+        String path = layout.getFolderPath("user1@standin.example.com");
+
+        assertTrue(path.matches(ROOT + "/[0-9a-f]{2}/[0-9a-f]{2}"), path);
+        assertEquals(path, new HashedFolderLayout(ROOT, 2, 256).getFolderPath("user1@standin.example.com"));
+    }
+
+    @Test
+    void bucketNamesHaveTheWidthOfTheLastBucket() {
+        assertTrue(new HashedFolderLayout(ROOT, 1, 16).getFolderPath("user1").matches(ROOT + "/[0-9a-f]"));
+        assertTrue(new HashedFolderLayout(ROOT, 1, 4096).getFolderPath("user1").matches(ROOT + "/[0-9a-f]{3}"));
+        assertTrue(new HashedFolderLayout(ROOT, 3, 10).getFolderPath("user1").matches(ROOT + "(/[0-9]){3}"));
+    }
+
+    @Test
+    void depthAndFanoutAreKeptInRange() {
+        assertTrue(new HashedFolderLayout(ROOT, 0, 1).getFolderPath("user1").matches(ROOT + "/[01]"));
+        assertTrue(new HashedFolderLayout(ROOT, 9, 100000).getFolderPath("user1")
+                .matches(ROOT + "(/[0-9a-f]{3}){4}"));
+    }
+
+    @Test
+    void usersAreSpreadOverAllTheBuckets() {
+        HashedFolderLayout layout = new HashedFolderLayout(ROOT, 1, 16);
+        Set<String> folders = new HashSet<>();
+
+        for (int i = 0; i < 1000; i++) {
+            folders.add(layout.getFolderPath("user" + i + "@standin.example.com"));
+        }
+
+        assertEquals(16, folders.size());
+    }
+
+    @Test
+    void unknownUsersGetTheRootFolder() {
+        HashedFolderLayout layout = new HashedFolderLayout(ROOT, 2, 256);
+
+        assertEquals(ROOT, layout.getFolderPath(null));
+        assertEquals(ROOT, layout.getFolderPath(" "));
+    }
+
+}
@@ -0,0 +1,143 @@
+package com.tgt.core.aem.social.login.users.impl;
+
+import com.tgt.core.aem.social.login.testing.InMemoryOakRepository;
+import com.tgt.core.aem.social.login.users.UserFolderLayout;
+import io.wcm.testing.mock.aem.junit5.AemContext;
+import io.wcm.testing.mock.aem.junit5.AemContextExtension;
+import org.apache.jackrabbit.api.JackrabbitSession;
+import org.apache.jackrabbit.api.security.user.UserManager;
+import org.apache.jackrabbit.commons.JcrUtils;
+import org.apache.jackrabbit.oak.spi.security.principal.PrincipalImpl;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.api.resource.ResourceResolverFactory;
+import org.apache.sling.event.jobs.Job;
+import org.apache.sling.event.jobs.JobManager;
+import org.apache.sling.event.jobs.consumer.JobExecutionContext;
+import org.apache.sling.serviceusermapping.ServiceUserMapped;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.osgi.framework.Constants;
+
+import javax.jcr.Session;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.RETURNS_DEEP_STUBS;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Moves of the users laid out by first character to the hashed folders by the {@link UserFolderMigration}, in an
+ * in-memory Oak repository.
+ */
+@ExtendWith(AemContextExtension.class)
+class UserFolderMigrationTest {
+
+    private static final String USERS_PATH = "/home/users/thegreyteacher";
+    private static final String ROOT = "thegreyteacher";
+    private static final String[] USER_IDS = {"ann@standin.example.com", "bob@standin.example.com",
+            "amy@standin.example.com", "carl@standin.example.com", "bea@standin.example.com"};
+
+    private final AemContext context = new AemContext();
+    private final InMemoryOakRepository repository = new InMemoryOakRepository();
+
+    private JackrabbitSession session;
+    private UserFolderLayout layout;
+    private UserFolderMigration migration;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        session = repository.loginAdministrator();
+        UserFolderLayout firstCharacter = new FirstCharacterFolderLayout(ROOT);
+        for (String userId : USER_IDS) {
+            session.getUserManager().createUser(userId, "secret", new PrincipalImpl(userId),
+                    ROOT + "/" + firstCharacter.getFolderPath(userId));
+        }
+        session.save();
+
+        ResourceResolver serviceResolver = mock(ResourceResolver.class);
+        when(serviceResolver.adaptTo(Session.class)).thenReturn(session);
+        ResourceResolverFactory resourceResolverFactory = mock(ResourceResolverFactory.class);
+        when(resourceResolverFactory.getServiceResourceResolver(any())).thenReturn(serviceResolver);
+        context.registerService(ResourceResolverFactory.class, resourceResolverFactory,
+                Constants.SERVICE_RANKING, Integer.MAX_VALUE);
+        context.registerService(ServiceUserMapped.class, mock(ServiceUserMapped.class),
+                ServiceUserMapped.SUBSERVICENAME, "user-folder-migration");
+        context.registerService(JobManager.class, mock(JobManager.class));
+        layout = context.registerInjectActivateService(new ConfigurableUserFolderLayout());
+        migration = context.registerInjectActivateService(new UserFolderMigration(),
+                "users.path", USERS_PATH,
+                "batch.size", 2,
+                "batch.pause.ms", 0L);
+    }
+
+    @AfterEach
+    void tearDown() {
+        session.logout();
+        repository.close();
+    }
+
+    @Test
+    void misplacedUsersAreMovedToTheirFolder() throws Exception {
+        migrate(false);
+
+        assertEquals("SUCCEEDED", migration.getState());
+        assertEquals(USER_IDS.length, migration.getScannedUsers());
+        assertEquals(USER_IDS.length, migration.getMovedUsers());
+        UserManager userManager = session.getUserManager();
+        for (String userId : USER_IDS) {
+            //users are still found by their ID
+            String path = userManager.getAuthorizable(userId).getPath();
+            assertTrue(path.startsWith(USERS_PATH + "/" + layout.getFolderPath(userId) + "/"), path);
+        }
+    }
+
+    @Test
+    void usersAlreadyInTheirFolderAreSkipped() throws Exception {
+        migrate(false);
+
+        migrate(false);
+
+        assertEquals("SUCCEEDED", migration.getState());
+        assertEquals(USER_IDS.length, migration.getScannedUsers());
+        assertEquals(0, migration.getMovedUsers());
+    }
+
+    @Test
+    void usersWhoseTargetIsTakenStayInPlace() throws Exception {
+        String userId = USER_IDS[0];
+        String userPath = session.getUserManager().getAuthorizable(userId).getPath();
+        String takenPath = USERS_PATH + "/" + layout.getFolderPath(userId)
+                + userPath.substring(userPath.lastIndexOf('/'));
+        JcrUtils.getOrCreateByPath(takenPath, "rep:AuthorizableFolder", session);
+        session.save();
+
+        migrate(false);
+
+        assertEquals("SUCCEEDED_WITH_FAILURES", migration.getState());
+        assertEquals(1, migration.getFailedUsers());
+        assertEquals(USER_IDS.length - 1, migration.getMovedUsers());
+        assertEquals(userPath, session.getUserManager().getAuthorizable(userId).getPath());
+    }
+
+    @Test
+    void stoppedMigrationsKeepTheUsersMovedSoFar() throws Exception {
+        migrate(true);
+
+        assertEquals("STOPPED", migration.getState());
+        assertEquals(2, migration.getMovedUsers());
+
+        migrate(false);
+        assertEquals(USER_IDS.length - 2, migration.getMovedUsers());
+    }
+
+    private void migrate(boolean stopped) {
+        JobExecutionContext jobContext = mock(JobExecutionContext.class, RETURNS_DEEP_STUBS);
+        when(jobContext.isStopped()).thenReturn(stopped);
+        migration.process(mock(Job.class), jobContext);
+    }
+
+}
@@ -0,0 +1,256 @@
+package com.tgt.core.aem.social.login.users.impl;
+
+import com.adobe.granite.crypto.CryptoSupport;
+import com.tgt.core.aem.social.login.avatars.AvatarCache;
+import com.tgt.core.aem.social.login.groups.GroupAssignment;
+import com.tgt.core.aem.social.login.http.impl.KeepAliveOAuthTransport;
+import com.tgt.core.aem.social.login.metrics.impl.LoginMetricsImpl;
+import com.tgt.core.aem.social.login.providers.impl.GoogleProvider;
+import com.tgt.core.aem.social.login.scribe.GoogleEndpoints;
+import com.tgt.core.aem.social.login.sync.impl.ProfileDigestSyncHandler;
+import com.tgt.core.aem.social.login.sync.impl.ProfileSyncStats;
+import com.tgt.core.aem.social.login.testing.GoogleStandInServer;
+import com.tgt.core.aem.social.login.testing.InMemoryOakRepository;
+import com.tgt.core.aem.social.login.testing.LoginLoadGenerator;
+import com.tgt.core.aem.social.login.testing.RepositoryWriteBudget;
+import com.tgt.core.aem.social.login.testing.StandInCryptoSupport;
+import com.tgt.core.aem.social.login.testing.StandInScheduler;
+import com.tgt.core.aem.social.login.testing.StandInThreadPoolManager;
+import com.tgt.core.aem.social.login.tokens.AccessTokenCache;
+import com.tgt.core.aem.social.login.tokens.AccessTokenStore;
+import io.wcm.testing.mock.aem.junit5.AemContext;
+import io.wcm.testing.mock.aem.junit5.AemContextExtension;
+import org.apache.jackrabbit.api.JackrabbitSession;
+import org.apache.jackrabbit.oak.spi.security.authentication.external.ExternalIdentityProvider;
+import org.apache.jackrabbit.oak.spi.security.authentication.external.ExternalIdentityProviderManager;
+import org.apache.jackrabbit.oak.spi.security.authentication.external.ExternalIdentityRef;
+import org.apache.jackrabbit.oak.spi.security.authentication.external.ExternalUser;
+import org.apache.jackrabbit.oak.spi.security.authentication.external.SyncContext;
+import org.apache.jackrabbit.oak.spi.security.authentication.external.SyncHandler;
+import org.apache.jackrabbit.oak.spi.security.authentication.external.SyncManager;
+import org.apache.jackrabbit.oak.spi.security.authentication.external.SyncResult;
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.api.resource.ResourceResolverFactory;
+import org.apache.sling.commons.scheduler.Scheduler;
+import org.apache.sling.commons.threads.ThreadPoolManager;
+import org.apache.sling.event.jobs.Job;
+import org.apache.sling.event.jobs.JobManager;
+import org.apache.sling.event.jobs.consumer.JobExecutionContext;
+import org.apache.sling.serviceusermapping.ServiceUserMapped;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.osgi.framework.Constants;
+import org.scribe.model.OAuthConfig;
+import org.scribe.model.SignatureType;
+
+import javax.jcr.Session;
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.RETURNS_DEEP_STUBS;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Imports of profile exports by {@link UserPreProvisioning}, with the {@link GoogleProvider} and the
+ * {@link ProfileDigestSyncHandler} of the logins, into an
+ * {@link InMemoryOakRepository}.
+ */
+@ExtendWith(AemContextExtension.class)
+class UserPreProvisioningTest {
+
+    private static final int USERS = 10;
+    private static final String EXPORTS = "/var/tgt/user-imports/";
+
+    private static final OAuthConfig CONFIG = new OAuthConfig("stand-in-client", "stand-in-secret",
+            "http://localhost:4503/callback/j_security_check", SignatureType.QueryString, "openid email profile",
+            null);
+
+    private final AemContext context = new AemContext();
+    private final InMemoryOakRepository repository = new InMemoryOakRepository();
+    private final Map<String, String> exports = new HashMap<>();
+
+    private GoogleStandInServer server;
+    private GoogleProvider provider;
+    private SyncHandler syncHandler;
+    private ExternalIdentityProvider idp;
+    private UserPreProvisioning preProvisioning;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        server = GoogleStandInServer.start();
+        context.registerInjectActivateService(new LoginMetricsImpl());
+        context.registerInjectActivateService(new KeepAliveOAuthTransport());
+        context.registerService(AccessTokenCache.class, AccessTokenCache.DISABLED);
+        context.registerService(GroupAssignment.class, GroupAssignment.DISABLED);
+        context.registerService(AvatarCache.class, AvatarCache.DISABLED);
+        context.registerService(CryptoSupport.class, StandInCryptoSupport.create());
+        context.registerService(AccessTokenStore.class, mock(AccessTokenStore.class),
+                AccessTokenStore.STORE_TYPE, AccessTokenStore.REPOSITORY);
+        context.registerInjectActivateService(new ConfigurableUserFolderLayout());
+        context.registerService(Scheduler.class, new StandInScheduler());
+        context.registerService(ThreadPoolManager.class, new StandInThreadPoolManager());
+        context.registerInjectActivateService(new ProfileSyncStats());
+        context.registerService(ServiceUserMapped.class, mock(ServiceUserMapped.class),
+                ServiceUserMapped.SUBSERVICENAME, "profile-sync");
+        context.registerService(ServiceUserMapped.class, mock(ServiceUserMapped.class),
+                ServiceUserMapped.SUBSERVICENAME, "user-provisioning");
+        //the exports are read from and the users saved into the same repository, with a service session for
+        //each resolver
+        ResourceResolverFactory resourceResolverFactory = mock(ResourceResolverFactory.class);
+        when(resourceResolverFactory.getServiceResourceResolver(any())).thenAnswer(invocation -> {
+            Session serviceSession = repository.loginAdministrator();
+            ResourceResolver serviceResolver = mock(ResourceResolver.class);
+            when(serviceResolver.adaptTo(Session.class)).thenReturn(serviceSession);
+            when(serviceResolver.getResource(any())).then(getResource -> export(getResource.getArgument(0)));
+            doAnswer(close -> {
+                serviceSession.logout();
+                return null;
+            }).when(serviceResolver).close();
+            return serviceResolver;
+        });
+        context.registerService(ResourceResolverFactory.class, resourceResolverFactory,
+                Constants.SERVICE_RANKING, Integer.MAX_VALUE);
+
+        GoogleEndpoints endpoints = server.getEndpoints();
+        provider = context.registerInjectActivateService(new GoogleProvider(),
+                "oauth.provider.id", "thegreyteacher-google-provider",
+                "google.authorization.endpoint", endpoints.getAuthorizationEndpoint(),
+                "google.access.token.endpoint", endpoints.getAccessTokenEndpoint(),
+                "google.user.details.url", endpoints.getUserDetailsUrl(),
+                "google.jwks.url", endpoints.getJwksUrl());
+        idp = mock(ExternalIdentityProvider.class);
+        when(idp.getName()).thenReturn("tgt-google");
+        ExternalIdentityProviderManager idpManager = mock(ExternalIdentityProviderManager.class);
+        when(idpManager.getProvider("tgt-google")).thenReturn(idp);
+        context.registerService(ExternalIdentityProviderManager.class, idpManager);
+        syncHandler = context.registerInjectActivateService(new ProfileDigestSyncHandler(),
+                "handler.name", "tgt-google",
+                "user.expirationTime", "0",
+                "user.propertyMapping", new String[]{"oauth/oauthid-clientid=id", "oauth/token-clientid=access_token",
+                        "google/email=email", "google/verified_email=verified_email", "google/name=name",
+                        "google/firstName=given_name", "google/lastName=family_name", "google/picture=picture",
+                        "google/hd=hd"},
+                "user.pathPrefix", "thegreyteacher",
+                "user.membershipExpTime", "1h",
+                "profile.digest.property", "google/digest",
+                "profile.digest.excluded", new String[]{"access_token"});
+        SyncManager syncManager = mock(SyncManager.class);
+        when(syncManager.getSyncHandler("tgt-google")).thenReturn(syncHandler);
+        context.registerService(SyncManager.class, syncManager);
+        context.registerService(JobManager.class, mock(JobManager.class));
+
+        preProvisioning = context.registerInjectActivateService(new UserPreProvisioning(),
+                "oauth.client.id", CONFIG.getApiKey(),
+                "batch.size", 4,
+                "threads", 2,
+                "batch.pause.ms", 0L);
+    }
+
+    @AfterEach
+    void tearDown() {
+        server.close();
+        repository.close();
+    }
+
+    @Test
+    void exportedUsersLogInWithoutWritingTheirProfile() throws Exception {
+        StringBuilder export = new StringBuilder();
+        for (int i = 0; i < USERS; i++) {
+            export.append(GoogleStandInServer.profileOf(i)).append("\n\n");
+        }
+        exports.put("users.jsonl", export.toString());
+
+        runImport("users.jsonl");
+
+        assertEquals("SUCCEEDED", preProvisioning.getState());
+        assertEquals(USERS, preProvisioning.getReadRecords());
+        assertEquals(USERS, preProvisioning.getCreatedUsers());
+        //one save per batch
+        assertEquals(3, repository.takeWrites().getSaves());
+
+        RepositoryWriteBudget budget = new RepositoryWriteBudget();
+        LoginLoadGenerator loadGenerator = new LoginLoadGenerator(provider, CONFIG);
+        for (int i = 0; i < USERS; i++) {
+            Map<String, Object> properties = new HashMap<>(loadGenerator.login(i));
+            properties.put("access_token", "token-" + i);
+            String userId = String.valueOf(properties.get(provider.getUserIdProperty()));
+            ExternalIdentityRef ref = new ExternalIdentityRef(userId, idp.getName());
+            ExternalUser user = mock(ExternalUser.class);
+            when(user.getId()).thenReturn(userId);
+            when(user.getExternalId()).thenReturn(ref);
+            when(user.getIntermediatePath()).thenReturn(
+                    provider.getUserFolderPath(userId, CONFIG.getApiKey(), properties));
+            doReturn(properties).when(user).getProperties();
+
+            JackrabbitSession session = repository.loginAdministrator();
+            SyncContext syncContext = syncHandler.createContext(idp, session.getUserManager(),
+                    session.getValueFactory());
+            try {
+                assertEquals(SyncResult.Status.NOP, syncContext.sync(user).getStatus(), userId);
+                session.save();
+                syncContext.close();
+            } finally {
+                session.logout();
+            }
+            budget.assertWithin("repeat-login-persisted-token", repository.takeWrites());
+        }
+    }
+
+    @Test
+    void importSkipsExistingUsersAndCountsBrokenRecords() throws Exception {
+        exports.put("term-1.csv", "\uFEFFid,email,verified_email,name\r\n"
+                + "20001,teacher1@standin.example.com,true,\"Teacher, One\"\r\n"
+                + "20002,teacher2@standin.example.com,false,Teacher Two\r\n");
+        exports.put("term-2.csv", "id,email,verified_email,name\n"
+                + "20001,teacher1@standin.example.com,true,\"Teacher, One\"\n"
+                + "20002,teacher2@standin.example.com,false,Teacher Two\n"
+                + "20003,,true,No Email\n"
+                + "\n"
+                + "20004,teacher4@standin.example.com,true,Teacher Four\n");
+
+        runImport("term-1.csv");
+        assertEquals(2, preProvisioning.getCreatedUsers());
+        assertEquals("Teacher, One", repository.getProperty("teacher1@standin.example.com", "google/name"));
+        assertEquals("false", repository.getProperty("teacher2@standin.example.com", "google/verified_email"));
+
+        runImport("term-2.csv");
+        assertEquals("SUCCEEDED_WITH_FAILURES", preProvisioning.getState());
+        assertEquals(4, preProvisioning.getReadRecords());
+        assertEquals(1, preProvisioning.getCreatedUsers());
+        assertEquals(2, preProvisioning.getSkippedUsers());
+        assertEquals(1, preProvisioning.getFailedRecords());
+        assertNotNull(repository.getProperty("teacher4@standin.example.com", "google/digest"));
+    }
+
+    private void runImport(String name) {
+        Job job = mock(Job.class);
+        when(job.getProperty(UserPreProvisioning.PATH, String.class)).thenReturn(EXPORTS + name);
+        preProvisioning.process(job, mock(JobExecutionContext.class, RETURNS_DEEP_STUBS));
+    }
+
+    private Resource export(String path) {
+        String name = path.substring(path.lastIndexOf('/') + 1);
+        String content = exports.get(name);
+        if (content == null) {
+            return null;
+        }
+        Resource resource = mock(Resource.class);
+        when(resource.getName()).thenReturn(name);
+        when(resource.adaptTo(InputStream.class))
+                .thenReturn(new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8)));
+        return resource;
+    }
+
+}
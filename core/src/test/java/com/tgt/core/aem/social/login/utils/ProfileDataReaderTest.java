@@ -0,0 +1,135 @@
+package com.tgt.core.aem.social.login.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Typing and filtering of profile responses by the {@link ProfileDataReader} and their {@link ProfileProperties}.
+ */
+class ProfileDataReaderTest {
+
+    private static final String PROFILE = "{\"id\":\"10001\",\"email\":\"user1@standin.example.com\","
+            + "\"verified_email\":true,\"age\":42,\"score\":4.5,\"big\":123456789012345678901234567890,"
+            + "\"hd\":null,\"locale\":\"en\",\"photos\":[{\"url\":\"a\"},{\"url\":\"b\"}],"
+            + "\"names\":[{\"givenName\":\"Stand-in\",\"metadata\":{\"primary\":true}},{\"givenName\":\"Other\"}],"
+            + "\"metadata\":{\"sources\":[{\"type\":\"PROFILE\",\"id\":\"1\"}],\"deleted\":false}}";
+
+    @Test
+    void valuesKeepTheirJsonTypes() throws Exception {
+        ProfileProperties properties = ProfileDataReader.ALL_FIELDS.read(stream(PROFILE));
+
+        Map<String, Object> typed = properties.getTypedValues();
+        assertEquals("10001", typed.get("id"));
+        assertEquals(Boolean.TRUE, typed.get("verified_email"));
+        assertEquals(42L, typed.get("age"));
+        assertEquals(4.5, typed.get("score"));
+        //too big for a long
+        assertEquals(Double.class, typed.get("big").getClass());
+        //the string view is what the OAuth authentication handler gets
+        assertEquals("true", properties.get("verified_email"));
+        assertEquals("42", properties.get("age"));
+    }
+
+    @Test
+    void allFieldsKeepsOnlyTheTopLevelValues() throws Exception {
+        ProfileProperties properties = ProfileDataReader.ALL_FIELDS.read(stream(PROFILE));
+
+        assertFalse(properties.containsKey("hd"));
+        assertFalse(properties.containsKey("photos"));
+        assertFalse(properties.containsKey("metadata"));
+        assertEquals(7, properties.size());
+    }
+
+    @Test
+    void onlyTheConfiguredFieldsAreKept() throws Exception {
+        ProfileDataReader reader = ProfileDataReader.forFields("id", " email ", "", "hd", "unknown");
+
+        ProfileProperties properties = reader.read(stream(PROFILE));
+
+        Map<String, String> expected = new HashMap<>();
+        expected.put("id", "10001");
+        expected.put("email", "user1@standin.example.com");
+        assertEquals(expected, properties);
+    }
+
+    @Test
+    void nestedFieldsAreKeptUnderTheirPath() throws Exception {
+        ProfileDataReader reader = ProfileDataReader.forFields("names.0.givenName", "names.0.metadata.primary",
+                "photos.1.url", "metadata.sources.0.type", "metadata.deleted", "names.5.givenName");
+
+        ProfileProperties properties = reader.read(stream(PROFILE));
+
+        assertEquals("Stand-in", properties.get("names.0.givenName"));
+        assertEquals(Boolean.TRUE, properties.getTypedValues().get("names.0.metadata.primary"));
+        assertEquals("b", properties.get("photos.1.url"));
+        assertEquals("PROFILE", properties.get("metadata.sources.0.type"));
+        assertEquals(Boolean.FALSE, properties.getTypedValues().get("metadata.deleted"));
+        assertFalse(properties.containsKey("names.5.givenName"));
+        assertEquals(5, properties.size());
+    }
+
+    @Test
+    void nestedFieldsCanBeKeptAlongWithAllTheTopLevelFields() throws Exception {
+        ProfileDataReader reader = ProfileDataReader.forAllFieldsAnd(Arrays.asList("names.1.givenName", "locale"));
+
+        ProfileProperties properties = reader.read(stream(PROFILE));
+
+        assertEquals("Other", properties.get("names.1.givenName"));
+        assertEquals("en", properties.get("locale"));
+        assertEquals("10001", properties.get("id"));
+        assertFalse(properties.containsKey("names"));
+        assertEquals(8, properties.size());
+    }
+
+    @Test
+    void objectsAreNotKeptAsValues() throws Exception {
+        ProfileProperties properties = ProfileDataReader.forFields("metadata", "photos", "id").read(stream(PROFILE));
+
+        assertEquals(1, properties.size());
+        assertNull(properties.get("metadata"));
+    }
+
+    @Test
+    void noFieldsMeansAllFields() {
+        assertSame(ProfileDataReader.ALL_FIELDS, ProfileDataReader.forFields(Arrays.asList(" ", "")));
+        assertSame(ProfileDataReader.ALL_FIELDS, ProfileDataReader.forFields());
+        assertSame(ProfileDataReader.ALL_FIELDS, ProfileDataReader.forAllFieldsAnd(Arrays.asList(" ", "")));
+    }
+
+    @Test
+    void propertiesCanBeChangedThroughTheStringView() throws Exception {
+        ProfileProperties properties = ProfileDataReader.forFields("id", "age").read(stream(PROFILE));
+
+        assertEquals("42", properties.put("age", "43"));
+        properties.entrySet().removeIf(entry -> "id".equals(entry.getKey()));
+
+        assertEquals("43", properties.getTypedValues().get("age"));
+        assertFalse(properties.containsKey("id"));
+    }
+
+    @Test
+    void responsesWhichArentJsonObjectsAreRejected() {
+        assertThrows(IOException.class, () -> ProfileDataReader.ALL_FIELDS.read(null));
+        assertThrows(IOException.class, () -> ProfileDataReader.ALL_FIELDS.read(stream("[\"id\"]")));
+        assertThrows(IOException.class, () -> ProfileDataReader.forFields("id").read(stream("\"id\"")));
+        assertThrows(IOException.class, () -> ProfileDataReader.ALL_FIELDS.read(stream("{\"id\":")));
+    }
+
+    private static InputStream stream(String json) {
+        return new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8));
+    }
+
+}
@@ -0,0 +1,134 @@
+package com.tgt.core.aem.social.login.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Profile fields kept, renamed and transformed by a compiled {@link PropertyMappingPlan}.
+ */
+class PropertyMappingPlanTest {
+
+    private static final String PROFILE = "{\"id\":\"10001\",\"email\":\"User1@Standin.Example.com\","
+            + "\"verified_email\":true,\"age\":42,\"locale\":\"en\","
+            + "\"names\":[{\"givenName\":\"Stand-in\"},{\"givenName\":\"Other\"}]}";
+
+    @Test
+    void withoutFieldsAllTheTopLevelFieldsAreKeptAlongWithTheMappedOnes() throws Exception {
+        PropertyMappingPlan plan = PropertyMappingPlan.compile(Collections.emptyList(),
+                Arrays.asList("given_name=names.0.givenName", "mail=email|lowercase", "user_id=id"), "id");
+
+        Map<String, Object> mapped = map(plan);
+
+        Map<String, Object> expected = new HashMap<>();
+        expected.put("given_name", "Stand-in");
+        expected.put("mail", "user1@standin.example.com");
+        expected.put("user_id", "10001");
+        //the user ID is always kept under its own name, the other mapped fields only under their property
+        expected.put("id", "10001");
+        expected.put("verified_email", Boolean.TRUE);
+        expected.put("age", 42L);
+        expected.put("locale", "en");
+        assertEquals(expected, mapped);
+    }
+
+    @Test
+    void withoutFieldsNorMappingsAllTheTopLevelFieldsAreKept() throws Exception {
+        PropertyMappingPlan plan = PropertyMappingPlan.compile(Collections.emptyList(), Collections.emptyList(),
+                "id");
+
+        Map<String, Object> mapped = map(plan);
+
+        assertSame(ProfileDataReader.ALL_FIELDS, plan.getReader());
+        assertEquals(5, mapped.size());
+        assertFalse(mapped.containsKey("names"));
+        assertEquals("all fields", plan.toString());
+    }
+
+    @Test
+    void explicitFieldsAreTheOnlyOnesKept() throws Exception {
+        PropertyMappingPlan plan = PropertyMappingPlan.compile(Arrays.asList("email", " locale ", ""),
+                Collections.singletonList("language=locale"), "id");
+
+        Map<String, Object> mapped = map(plan);
+
+        Map<String, Object> expected = new HashMap<>();
+        expected.put("email", "User1@Standin.Example.com");
+        expected.put("language", "en");
+        expected.put("id", "10001");
+        assertEquals(expected, mapped);
+    }
+
+    @Test
+    void nestedFieldsAreMappedFromTheirPath() throws Exception {
+        PropertyMappingPlan plan = PropertyMappingPlan.compile(Collections.singletonList("email"),
+                Arrays.asList("given_name=names.0.givenName", "other_name=names.1.givenName",
+                        "missing_name=names.2.givenName"), "id");
+
+        Map<String, Object> mapped = map(plan);
+
+        assertEquals("Stand-in", mapped.get("given_name"));
+        assertEquals("Other", mapped.get("other_name"));
+        assertFalse(mapped.containsKey("missing_name"));
+        assertFalse(mapped.containsKey("names.0.givenName"));
+        assertEquals(4, mapped.size());
+    }
+
+    @Test
+    void valuesKeepTheirJsonTypeUnlessTransformed() throws Exception {
+        PropertyMappingPlan plan = PropertyMappingPlan.compile(Collections.singletonList("verified_email"),
+                Arrays.asList("years=age", "age_text=age|string", "email_domain=email|domain"), "id");
+
+        Map<String, Object> mapped = map(plan);
+
+        assertEquals(Boolean.TRUE, mapped.get("verified_email"));
+        assertEquals(42L, mapped.get("years"));
+        assertEquals("42", mapped.get("age_text"));
+        assertEquals("standin.example.com", mapped.get("email_domain"));
+    }
+
+    @Test
+    void theExtendedDetailsAreAddedToTheMappedUserDetails() throws Exception {
+        PropertyMappingPlan plan = PropertyMappingPlan.compile(Collections.singletonList("email"),
+                Collections.singletonList("given_name=names.0.givenName"), "id");
+        Map<String, Object> userDetails = map(plan);
+
+        Map<String, Object> mapped = plan.map(userDetails, plan.getReader()
+                .read(new ByteArrayInputStream("{\"names\":[{\"givenName\":\"Extended\"}]}"
+                        .getBytes(StandardCharsets.UTF_8))).getTypedValues());
+
+        assertSame(userDetails, mapped);
+        assertEquals("Extended", mapped.get("given_name"));
+        assertEquals("10001", mapped.get("id"));
+    }
+
+    @Test
+    void malformedMappingsAreRejected() {
+        List<String> fields = Collections.emptyList();
+
+        assertThrows(IllegalArgumentException.class,
+                () -> PropertyMappingPlan.compile(fields, Collections.singletonList("email"), "id"));
+        assertThrows(IllegalArgumentException.class,
+                () -> PropertyMappingPlan.compile(fields, Collections.singletonList("=email"), "id"));
+        assertThrows(IllegalArgumentException.class,
+                () -> PropertyMappingPlan.compile(fields, Collections.singletonList("mail=email|upper"), "id"));
+    }
+
+    private static Map<String, Object> map(PropertyMappingPlan plan) throws Exception {
+        ProfileProperties properties = plan.getReader()
+                .read(new ByteArrayInputStream(PROFILE.getBytes(StandardCharsets.UTF_8)));
+        return plan.map(Collections.emptyMap(), properties.getTypedValues());
+    }
+
+}